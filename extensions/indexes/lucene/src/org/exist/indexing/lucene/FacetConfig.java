@@ -0,0 +1,72 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.exist.dom.QName;
+import org.exist.storage.ElementValue;
+import org.exist.util.DatabaseConfigurationException;
+import org.w3c.dom.Element;
+
+/**
+ * Configures a facet dimension of an index: the value of the given
+ * attribute of each indexed element is stored with the indexed
+ * element, so matches can be counted by value without reading the
+ * element, see {@link FacetCounts}.
+ *
+ * <pre>
+ * &lt;text qname="book"&gt;
+ *     &lt;facet dimension="genre" qname="@genre"/&gt;
+ * &lt;/text&gt;
+ * </pre>
+ */
+public class FacetConfig {
+
+    public final static String FACET_ELEMENT = "facet";
+
+    private final static String DIMENSION_ATTR = "dimension";
+
+    private final String dimension;
+
+    private final QName qname;
+
+    public FacetConfig(Element config, Map<String, String> namespaces) throws DatabaseConfigurationException {
+        dimension = config.getAttribute(DIMENSION_ATTR);
+        if (StringUtils.isEmpty(dimension))
+            throw new DatabaseConfigurationException("Lucene configuration element 'facet' needs an attribute 'dimension'");
+        qname = LuceneIndexConfig.parseQName(config, namespaces);
+        if (qname.getNameType() != ElementValue.ATTRIBUTE)
+            throw new DatabaseConfigurationException("Lucene configuration element 'facet' needs an attribute name " +
+                    "starting with @ in 'qname', got: " + config.getAttribute(LuceneIndexConfig.QNAME_ATTR));
+    }
+
+    public String getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the name of the attribute whose value is stored for this dimension
+     */
+    public QName getQName() {
+        return qname;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Counts the facet values of all matches of a query while the matches are
+ * collected. The values are read from the doc values stored at index time
+ * (see {@link FacetConfig}), so the matching nodes are never loaded.
+ *
+ * Counting is done by ordinal per index segment. The ordinals are only
+ * resolved to their values once a segment has been collected.
+ */
+public class FacetCounts {
+
+    private final Map<String, Map<String, Integer>> counts = new HashMap<>();
+
+    // state of the segment being collected
+    private String[] dimensions = null;
+    private SortedSetDocValues[] values = null;
+    private int[][] ordCounts = null;
+
+    /**
+     * Starts counting the matches in the given segment.
+     */
+    void setNextReader(AtomicReader reader) throws IOException {
+        finish();
+        List<String> segmentDimensions = null;
+        for (FieldInfo info : reader.getFieldInfos()) {
+            if (info.getDocValuesType() == FieldInfo.DocValuesType.SORTED_SET &&
+                    info.name.startsWith(LuceneUtil.FIELD_FACET_PREFIX)) {
+                if (segmentDimensions == null)
+                    segmentDimensions = new ArrayList<>();
+                segmentDimensions.add(info.name);
+            }
+        }
+        if (segmentDimensions == null)
+            return;
+        dimensions = new String[segmentDimensions.size()];
+        values = new SortedSetDocValues[dimensions.length];
+        ordCounts = new int[dimensions.length][];
+        for (int i = 0; i < dimensions.length; i++) {
+            String field = segmentDimensions.get(i);
+            dimensions[i] = field.substring(LuceneUtil.FIELD_FACET_PREFIX.length());
+            values[i] = reader.getSortedSetDocValues(field);
+            ordCounts[i] = new int[(int) values[i].getValueCount()];
+        }
+    }
+
+    /**
+     * @return true if the segment being collected has facets
+     */
+    boolean isCounting() {
+        return dimensions != null;
+    }
+
+    /**
+     * Counts the facet values of the given match in the segment being collected.
+     */
+    void collect(int doc) {
+        if (dimensions == null)
+            return;
+        for (int i = 0; i < dimensions.length; i++) {
+            values[i].setDocument(doc);
+            for (long ord; (ord = values[i].nextOrd()) != SortedSetDocValues.NO_MORE_ORDS; ) {
+                ordCounts[i][(int) ord]++;
+            }
+        }
+    }
+
+    /**
+     * Resolves the counts of the segment being collected to their values.
+     */
+    void finish() {
+        if (dimensions == null)
+            return;
+        for (int i = 0; i < dimensions.length; i++) {
+            Map<String, Integer> dimensionCounts = counts.get(dimensions[i]);
+            int[] segmentCounts = ordCounts[i];
+            for (int ord = 0; ord < segmentCounts.length; ord++) {
+                if (segmentCounts[ord] > 0) {
+                    if (dimensionCounts == null) {
+                        dimensionCounts = new HashMap<>();
+                        counts.put(dimensions[i], dimensionCounts);
+                    }
+                    BytesRef value = values[i].lookupOrd(ord);
+                    dimensionCounts.merge(value.utf8ToString(), segmentCounts[ord], Integer::sum);
+                }
+            }
+        }
+        dimensions = null;
+        values = null;
+        ordCounts = null;
+    }
+
+    /**
+     * Returns the number of matches for each value of the given dimension.
+     *
+     * @param dimension the facet dimension
+     * @return the counts by value, empty if no match has a value for the dimension
+     */
+    public Map<String, Integer> getCounts(String dimension) {
+        Map<String, Integer> dimensionCounts = counts.get(dimension);
+        return dimensionCounts == null ? Collections.emptyMap() : Collections.unmodifiableMap(dimensionCounts);
+    }
+}
@@ -19,11 +19,17 @@
  */
 package org.exist.indexing.lucene;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Field;
 import org.exist.util.DatabaseConfigurationException;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * Configures a field type: analyzers etc. used for indexing
@@ -49,8 +55,10 @@ public class FieldType {
 	private float boost = -1;
     
 	private Field.Store store = null;
+
+	private List<FacetConfig> facets = Collections.emptyList();
 	
-    public FieldType(Element config, AnalyzerConfig analyzers) throws DatabaseConfigurationException {
+    public FieldType(Element config, AnalyzerConfig analyzers, Map<String, String> namespaces) throws DatabaseConfigurationException {
         
     	if (LuceneConfig.FIELD_TYPE_ELEMENT.equals(config.getLocalName())) {
     		id = config.getAttribute(ID_ATTR);
@@ -84,6 +92,14 @@ public class FieldType {
         if (storeAttr != null && storeAttr.length() > 0) {
         	store = storeAttr.equalsIgnoreCase("yes") ? Field.Store.YES : Field.Store.NO;
         }
+
+        for (Node child = config.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && FacetConfig.FACET_ELEMENT.equals(child.getLocalName())) {
+                if (facets.isEmpty())
+                    facets = new ArrayList<>();
+                facets.add(new FacetConfig((Element) child, namespaces));
+            }
+        }
     }
     
     public String getId() {
@@ -105,4 +121,11 @@ public class FieldType {
 	public Field.Store getStore() {
 		return store;
 	}
+
+	/**
+	 * @return the facet dimensions stored for each indexed node
+	 */
+	public List<FacetConfig> getFacets() {
+		return facets;
+	}
 }
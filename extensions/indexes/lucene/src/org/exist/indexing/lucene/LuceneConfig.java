@@ -263,7 +263,7 @@ public class LuceneConfig {
                                 queryParser = ((Element) node).getAttribute("class");
                                 break;
                             case FIELD_TYPE_ELEMENT:
-                                FieldType type = new FieldType((Element) node, analyzers);
+                                FieldType type = new FieldType((Element) node, analyzers, namespaces);
                                 fieldTypes.put(type.getId(), type);
                                 break;
                             case INDEX_ELEMENT: {
@@ -24,12 +24,15 @@ import org.apache.logging.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.*;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.util.Version;
 import org.exist.backup.RawDataBackup;
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.DocumentSet;
 import org.exist.indexing.AbstractIndex;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
@@ -40,13 +43,30 @@ import org.exist.util.DatabaseConfigurationException;
 import com.evolvedbinary.j8fu.function.Function2E;
 import com.evolvedbinary.j8fu.function.FunctionE;
 import org.exist.util.FileUtils;
+import org.exist.util.NamedThreadFactory;
+import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.XPathException;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import java.io.*;
+import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.exist.util.ThreadUtils.newInstanceThread;
 
 public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     
@@ -58,15 +78,56 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
 	private static final String DIR_NAME = "lucene";
 
-    protected Directory directory;
+    private static final String SHARDS_DIR_NAME = "shards";
+
     protected Analyzer defaultAnalyzer;
 
     protected double bufferSize = IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB;
 
-    protected IndexWriter cachedWriter = null;
+    /**
+     * If true, the index files are always memory mapped. Otherwise the directory
+     * implementation is chosen by {@link FSDirectory#open(File)}, which falls back to
+     * NIO if memory mapped files cannot be unmapped on the running JVM.
+     */
+    private boolean mmap = false;
+
+    /**
+     * Top-level collections whose documents are indexed in a shard of their own.
+     * All other documents are indexed in the default shard.
+     */
+    private final List<XmldbURI> shardCollections = new ArrayList<>();
+
+    // the shard for all documents not covered by another shard
+    private Shard defaultShard = null;
+
+    // all shards, the default shard first
+    private List<Shard> shards = Collections.emptyList();
+
+    /**
+     * Interval in milliseconds in which readers are refreshed in the background.
+     * If 0, the readers are refreshed before every search.
+     */
+    private long refreshInterval = 0;
+
+    /**
+     * Number of documents added to the index after which the readers are refreshed
+     * in the background before the refresh interval has elapsed. Only used if
+     * refreshInterval > 0.
+     */
+    private int refreshAfter = 0;
 
-    protected SearcherManager searcherManager = null;
-    protected ReaderManager readerManager = null;
+    private ScheduledExecutorService refresher = null;
+
+    /**
+     * Number of threads searching the segments of the index concurrently.
+     * If 0, the segments are searched by the thread running the query.
+     */
+    private int searchThreads = 0;
+
+    private ExecutorService searchExecutor = null;
+
+    // incremented whenever a writer is released, i.e. after every change to the index
+    private final AtomicLong writeGeneration = new AtomicLong();
 
     public String getDirName() {
         return DIR_NAME;
@@ -88,6 +149,48 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
         if (LOG.isDebugEnabled())
             LOG.debug("Using buffer size: " + bufferSize);
+
+        String refreshIntervalParam = config.getAttribute("refresh-interval");
+        if (refreshIntervalParam != null && refreshIntervalParam.length() > 0)
+            try {
+                refreshInterval = Long.parseLong(refreshIntervalParam);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid refresh interval setting for lucene index: " + refreshIntervalParam, e);
+            }
+
+        String refreshAfterParam = config.getAttribute("refresh-after");
+        if (refreshAfterParam != null && refreshAfterParam.length() > 0)
+            try {
+                refreshAfter = Integer.parseInt(refreshAfterParam);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid refresh-after setting for lucene index: " + refreshAfterParam, e);
+            }
+
+        String searchThreadsParam = config.getAttribute("search-threads");
+        if (searchThreadsParam != null && searchThreadsParam.length() > 0)
+            try {
+                searchThreads = Integer.parseInt(searchThreadsParam);
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid search-threads setting for lucene index: " + searchThreadsParam, e);
+            }
+
+        mmap = "yes".equalsIgnoreCase(config.getAttribute("mmap"));
+
+        String shardsParam = config.getAttribute("shards");
+        if (shardsParam != null)
+            for (String path : shardsParam.trim().split("\\s+")) {
+                if (path.isEmpty())
+                    continue;
+                try {
+                    XmldbURI collection = XmldbURI.xmldbUriFor(path);
+                    if (!XmldbURI.ROOT_COLLECTION_URI.equals(collection.removeLastSegment()))
+                        LOG.warn("Ignoring shard for lucene index: " + path + " is not a top-level collection");
+                    else
+                        shardCollections.add(collection);
+                } catch (URISyntaxException e) {
+                    LOG.warn("Invalid shard setting for lucene index: " + path, e);
+                }
+            }
         
         NodeList nl = config.getElementsByTagName("analyzer");
         if (nl.getLength() > 0) {
@@ -103,54 +206,58 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
     @Override
     public void open() throws DatabaseConfigurationException {
-        Path dir = getDataDir().resolve(getDirName());
-        if (LOG.isDebugEnabled())
-            LOG.debug("Opening Lucene index directory: " + dir.toAbsolutePath().toString());
-
-        IndexWriter writer = null;
         try {
-            if (Files.exists(dir)) {
-                if (!Files.isDirectory(dir))
-                    throw new DatabaseConfigurationException("Lucene index location is not a directory: " +
-                        dir.toAbsolutePath().toString());
-            } else {
-                Files.createDirectories(dir);
+            if (searchThreads > 0) {
+                searchExecutor = Executors.newFixedThreadPool(searchThreads,
+                        new NamedThreadFactory(getBrokerPool(), getDirName() + "-index-search"));
             }
 
-            directory = FSDirectory.open(dir.toFile());
-
-            final IndexWriterConfig idxWriterConfig = new IndexWriterConfig(LUCENE_VERSION_IN_USE, defaultAnalyzer);
-            idxWriterConfig.setRAMBufferSizeMB(bufferSize);
-            cachedWriter = new IndexWriter(directory, idxWriterConfig);
+            final List<Shard> opened = new ArrayList<>(shardCollections.size() + 1);
+            defaultShard = new Shard(null, getDirName());
+            opened.add(defaultShard);
+            for (XmldbURI collection : shardCollections) {
+                opened.add(new Shard(collection, getDirName() + "/" + SHARDS_DIR_NAME + "/" + collection.lastSegment()));
+            }
+            shards = opened;
+            for (Shard shard : shards) {
+                shard.open();
+            }
 
-            searcherManager = new SearcherManager(cachedWriter, true, null);
-            readerManager = new ReaderManager(cachedWriter, true);
+            if (refreshInterval > 0) {
+                refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    final Thread thread = newInstanceThread(getBrokerPool(), getDirName() + "-index-refresh", runnable);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Refreshing " + getDirName() + " index readers every " + refreshInterval + "ms");
+            }
         } catch (IOException e) {
             throw new DatabaseConfigurationException("Exception while reading lucene index directory: " +
                 e.getMessage(), e);
-        } finally {
-            releaseWriter(writer);
         }
     }
 
     @Override
     public synchronized void close() throws DBException {
         try {
-            if (searcherManager != null) {
-                searcherManager.close();
-                searcherManager = null;
+            if (refresher != null) {
+                refresher.shutdown();
+                try {
+                    refresher.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                refresher = null;
             }
-            if (readerManager != null) {
-                readerManager.close();
-                readerManager = null;
+            for (Shard shard : shards) {
+                shard.close();
             }
-            if (cachedWriter != null) {
-            	commit();
-                cachedWriter.close();
-                cachedWriter = null;
+            if (searchExecutor != null) {
+                searchExecutor.shutdown();
+                searchExecutor = null;
             }
-
-            directory.close();
         } catch (IOException e) {
             throw new DBException("Caught exception while closing lucene indexes: " + e.getMessage());
         }
@@ -189,76 +296,535 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     protected Analyzer getDefaultAnalyzer() {
         return defaultAnalyzer;
     }
-    
-    protected boolean needsCommit = false;
 
+    /**
+     * @return the writer of the default shard
+     */
     public IndexWriter getWriter() throws IOException {
         return getWriter(false);
     }
 
     public IndexWriter getWriter(boolean exclusive) throws IOException {
-        return cachedWriter;
+        return defaultShard.writer;
+    }
+
+    /**
+     * Returns the writer of the shard indexing the document or collection with the given URI.
+     *
+     * @param uri the URI of a document or collection
+     * @return the writer of the shard covering the URI
+     */
+    public IndexWriter getWriter(XmldbURI uri) throws IOException {
+        return getShard(uri).writer;
+    }
+
+    /**
+     * Returns the writers of all shards, e.g. to remove a document which may still be
+     * indexed in another shard if the shards have been configured differently since.
+     *
+     * @return the writers of all shards, the default shard first
+     */
+    public List<IndexWriter> getWriters() throws IOException {
+        final List<IndexWriter> writers = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            writers.add(shard.writer);
+        }
+        return writers;
     }
 
     public synchronized void releaseWriter(IndexWriter writer) {
         if (writer == null)
             return;
-        needsCommit = true;
+        writeGeneration.incrementAndGet();
+        for (Shard shard : shards) {
+            if (shard.writer == writer) {
+                shard.released();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the current write generation of the index. Readers acquired with
+     * {@link #withReader(long, FunctionE)} or {@link #withSearcher(long, Function2E)}
+     * and this generation see all changes made before.
+     *
+     * @return the number of changes to the index so far
+     */
+    public long getWriteGeneration() {
+        return writeGeneration.get();
+    }
+
+    /**
+     * Refresh the readers, so they see all changes made to the index so far.
+     * Refreshing does not commit the index, which is only done at a checkpoint,
+     * see {@link #sync()}.
+     */
+    protected void refresh() throws IOException {
+        for (Shard shard : shards) {
+            shard.refresh();
+        }
+    }
+
+    private void refreshQuietly() {
+        for (Shard shard : shards) {
+            shard.refreshQuietly();
+        }
     }
 
     protected void commit() {
-    	if (!needsCommit) {
-            return;
+        for (Shard shard : shards) {
+            shard.commit();
         }
-        try {
-            if(LOG.isDebugEnabled()) {
-                LOG.debug("Committing lucene index");
-            }
-            
-        	if (cachedWriter != null) {
-                cachedWriter.commit();
+    }
+
+    /**
+     * Returns true if the documents or collections with the given URIs are indexed in
+     * the same shard, e.g. to decide if the documents of a moved collection have to
+     * be indexed again.
+     *
+     * @param uri1 the URI of a document or collection
+     * @param uri2 the URI of another document or collection
+     * @return true if both URIs are covered by the same shard
+     */
+    public boolean isSameShard(XmldbURI uri1, XmldbURI uri2) {
+        return getShard(uri1) == getShard(uri2);
+    }
+
+    private Shard getShard(XmldbURI uri) {
+        for (int i = 1; i < shards.size(); i++) {
+            final Shard shard = shards.get(i);
+            if (uri.startsWith(shard.collection))
+                return shard;
+        }
+        return defaultShard;
+    }
+
+    /**
+     * Returns the shards indexing the documents in the given set.
+     */
+    private List<Shard> getShards(DocumentSet docs) {
+        if (docs == null || shards.size() == 1)
+            return shards;
+        final boolean[] selected = new boolean[shards.size()];
+        int count = 0;
+        for (Iterator<Collection> i = docs.getCollectionIterator(); i.hasNext() && count < selected.length; ) {
+            final int shard = shards.indexOf(getShard(i.next().getURI()));
+            if (!selected[shard]) {
+                selected[shard] = true;
+                count++;
             }
-            needsCommit = false;
-        } catch(CorruptIndexException cie) {
-            LOG.error("Detected corrupt Lucence index on writer release and commit: " + cie.getMessage(), cie);
-        } catch(IOException ioe) {
-            LOG.error("Detected Lucence index issue on writer release and commit: " + ioe.getMessage(), ioe);
         }
+        if (count == 0)
+            return Collections.singletonList(defaultShard);
+        final List<Shard> covering = new ArrayList<>(count);
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i])
+                covering.add(shards.get(i));
+        }
+        return covering;
     }
 
     public <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
-        readerManager.maybeRefreshBlocking();
-        final DirectoryReader reader = readerManager.acquire();
+        return withReader(0, fn);
+    }
+
+    /**
+     * Apply the function to a reader of all shards which sees at least the changes up
+     * to the given write generation, see {@link #getWriteGeneration()}.
+     */
+    public <R> R withReader(long generation, FunctionE<IndexReader, R, IOException> fn) throws IOException {
+        return withReader(shards, generation, fn);
+    }
+
+    /**
+     * Apply the function to a reader of the shards indexing the given documents, which
+     * sees at least the changes up to the given write generation.
+     */
+    public <R> R withReader(DocumentSet docs, long generation, FunctionE<IndexReader, R, IOException> fn) throws IOException {
+        return withReader(getShards(docs), generation, fn);
+    }
+
+    private <R> R withReader(List<Shard> selected, long generation, FunctionE<IndexReader, R, IOException> fn) throws IOException {
+        final DirectoryReader[] readers = new DirectoryReader[selected.size()];
         try {
-            return fn.apply(reader);
+            for (int i = 0; i < readers.length; i++) {
+                selected.get(i).ensureRefreshed(generation);
+                readers[i] = selected.get(i).readerManager.acquire();
+            }
+            if (readers.length == 1)
+                return fn.apply(readers[0]);
+            try (final MultiReader reader = new MultiReader(readers, false)) {
+                return fn.apply(reader);
+            }
         } finally {
-            readerManager.release(reader);
+            for (int i = 0; i < readers.length; i++) {
+                if (readers[i] != null)
+                    selected.get(i).readerManager.release(readers[i]);
+            }
         }
     }
 
     public <R> R withSearcher(Function2E<IndexSearcher, R, IOException, XPathException> consumer) throws IOException, XPathException {
-        searcherManager.maybeRefreshBlocking();
-        final IndexSearcher searcher = searcherManager.acquire();
+        return withSearcher(0, consumer);
+    }
+
+    /**
+     * Apply the function to a searcher of all shards which sees at least the changes up
+     * to the given write generation, see {@link #getWriteGeneration()}.
+     */
+    public <R> R withSearcher(long generation, Function2E<IndexSearcher, R, IOException, XPathException> consumer) throws IOException, XPathException {
+        return withSearcher(shards, generation, consumer);
+    }
+
+    /**
+     * Apply the function to a searcher of the shards indexing the given documents, which
+     * sees at least the changes up to the given write generation.
+     */
+    public <R> R withSearcher(DocumentSet docs, long generation, Function2E<IndexSearcher, R, IOException, XPathException> consumer) throws IOException, XPathException {
+        return withSearcher(getShards(docs), generation, consumer);
+    }
+
+    private <R> R withSearcher(List<Shard> selected, long generation, Function2E<IndexSearcher, R, IOException, XPathException> consumer) throws IOException, XPathException {
+        final IndexSearcher[] searchers = new IndexSearcher[selected.size()];
         try {
-            return consumer.apply(searcher);
+            for (int i = 0; i < searchers.length; i++) {
+                selected.get(i).ensureRefreshed(generation);
+                searchers[i] = selected.get(i).searcherManager.acquire();
+            }
+            if (searchers.length == 1)
+                return consumer.apply(searchers[0]);
+            final IndexReader[] readers = new IndexReader[searchers.length];
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = searchers[i].getIndexReader();
+            }
+            try (final MultiReader reader = new MultiReader(readers, false)) {
+                return consumer.apply(new IndexSearcher(reader, searchExecutor));
+            }
         } finally {
-            searcherManager.release(searcher);
+            for (int i = 0; i < searchers.length; i++) {
+                if (searchers[i] != null)
+                    selected.get(i).searcherManager.release(searchers[i]);
+            }
         }
     }
 
-	@Override
-	public void backupToArchive(final RawDataBackup backup) throws IOException {
-		for (final String name : directory.listAll()) {
-			final String path = getDirName() + "/" + name;
+    /**
+     * Search the index and pass the matches to the collector. If search threads are
+     * configured, the segments of the index are searched concurrently. The matches of
+     * each segment are then passed to the collector by the calling thread, one segment
+     * after the other and in document order within a segment, like a sequential search
+     * would. The collector thus does not need to be thread-safe.
+     *
+     * @param searcher the searcher to use
+     * @param query the query
+     * @param filter optional filter, may be null
+     * @param collector the collector receiving the matches
+     */
+    public void search(IndexSearcher searcher, Query query, Filter filter, Collector collector) throws IOException {
+        final ExecutorService executor = searchExecutor;
+        final List<AtomicReaderContext> leaves = searcher.getIndexReader().leaves();
+        if (executor == null || leaves.size() < 2) {
+            searcher.search(query, filter, collector);
+            return;
+        }
 
-            // do not use try-with-resources here, closing the OutputStream will close the entire backup
-//            try(final OutputStream os = backup.newEntry(path)) {
+        final Weight weight = searcher.createNormalizedWeight(filter == null ? query : new FilteredQuery(query, filter));
+        final List<Future<SegmentMatches>> segments = new ArrayList<>(leaves.size());
+        for (final AtomicReaderContext leaf : leaves) {
+            segments.add(executor.submit(() -> SegmentMatches.search(weight, leaf)));
+        }
+        try {
+            for (int i = 0; i < leaves.size(); i++) {
+                segments.get(i).get().replay(leaves.get(i), collector);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while searching the " + getDirName() + " index");
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            for (final Future<SegmentMatches> segment : segments) {
+                segment.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * The matches found in one segment of the index, with their scores.
+     */
+    private static class SegmentMatches extends Collector {
+
+        private int[] docs = new int[16];
+        private float[] scores = new float[16];
+        private int size = 0;
+        private Scorer scorer;
+
+        private static SegmentMatches search(Weight weight, AtomicReaderContext leaf) throws IOException {
+            final SegmentMatches matches = new SegmentMatches();
+            final BulkScorer scorer = weight.bulkScorer(leaf, true, leaf.reader().getLiveDocs());
+            if (scorer != null)
+                scorer.score(matches);
+            return matches;
+        }
+
+        @Override
+        public void setScorer(Scorer scorer) {
+            this.scorer = scorer;
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            docs[size] = doc;
+            scores[size++] = scorer.score();
+        }
+
+        @Override
+        public void setNextReader(AtomicReaderContext context) {
+        }
+
+        @Override
+        public boolean acceptsDocsOutOfOrder() {
+            return false;
+        }
+
+        private void replay(AtomicReaderContext leaf, Collector collector) throws IOException {
+            try {
+                collector.setNextReader(leaf);
+            } catch (CollectionTerminatedException e) {
+                return;
+            }
+            final ReplayScorer replayScorer = new ReplayScorer();
+            collector.setScorer(replayScorer);
             try {
-                final OutputStream os = backup.newEntry(path);
-                Files.copy(getDataDir().resolve(path), os);
-            } finally {
-                backup.closeEntry();
+                for (int i = 0; i < size; i++) {
+                    replayScorer.doc = docs[i];
+                    replayScorer.score = scores[i];
+                    collector.collect(docs[i]);
+                }
+            } catch (CollectionTerminatedException e) {
+                // the collector is done with this segment
             }
-		}
+        }
+    }
+
+    /**
+     * Returns the score of the match being replayed.
+     */
+    private static class ReplayScorer extends Scorer {
+
+        private int doc = -1;
+        private float score;
+
+        private ReplayScorer() {
+            super(null);
+        }
+
+        @Override
+        public float score() {
+            return score;
+        }
+
+        @Override
+        public int freq() {
+            return 1;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int advance(int target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long cost() {
+            return 1;
+        }
+    }
+
+    /**
+     * A part of the index stored in a directory of its own, with its own writer
+     * and readers.
+     */
+    private class Shard {
+
+        // the top-level collection covered by this shard, null for the default shard
+        private final XmldbURI collection;
+
+        // the directory of the shard, relative to the data directory
+        private final String path;
+        private final Path dir;
+
+        private Directory directory;
+        private IndexWriter writer = null;
+        private SearcherManager searcherManager = null;
+        private ReaderManager readerManager = null;
+        private boolean needsCommit = false;
+
+        // the last write generation visible to the readers and its number of documents
+        private volatile long refreshedGeneration = 0;
+        private int refreshedMaxDoc = 0;
+        private boolean refreshScheduled = false;
+        private final Object refreshLock = new Object();
+
+        private Shard(XmldbURI collection, String path) {
+            this.collection = collection;
+            this.path = path;
+            this.dir = getDataDir().resolve(path);
+        }
+
+        private void open() throws IOException, DatabaseConfigurationException {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Opening Lucene index directory: " + dir.toAbsolutePath().toString());
+            if (Files.exists(dir)) {
+                if (!Files.isDirectory(dir))
+                    throw new DatabaseConfigurationException("Lucene index location is not a directory: " +
+                        dir.toAbsolutePath().toString());
+            } else {
+                Files.createDirectories(dir);
+            }
+
+            directory = mmap ? new MMapDirectory(dir.toFile()) : FSDirectory.open(dir.toFile());
+
+            final IndexWriterConfig idxWriterConfig = new IndexWriterConfig(LUCENE_VERSION_IN_USE, defaultAnalyzer);
+            idxWriterConfig.setRAMBufferSizeMB(bufferSize);
+            writer = new IndexWriter(directory, idxWriterConfig);
+
+            searcherManager = new SearcherManager(writer, true, new SearcherFactory() {
+                @Override
+                public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+                    return new IndexSearcher(reader, searchExecutor);
+                }
+            });
+            readerManager = new ReaderManager(writer, true);
+        }
+
+        private void close() throws IOException {
+            if (searcherManager != null) {
+                searcherManager.close();
+                searcherManager = null;
+            }
+            if (readerManager != null) {
+                readerManager.close();
+                readerManager = null;
+            }
+            if (writer != null) {
+                commit();
+                writer.close();
+                writer = null;
+            }
+            if (directory != null) {
+                directory.close();
+            }
+        }
+
+        private void released() {
+            needsCommit = true;
+            if (refresher != null && refreshAfter > 0) {
+                synchronized (refreshLock) {
+                    if (!refreshScheduled && writer.maxDoc() - refreshedMaxDoc >= refreshAfter) {
+                        refreshScheduled = true;
+                        refresher.execute(this::refreshQuietly);
+                    }
+                }
+            }
+        }
+
+        private void refresh() throws IOException {
+            final long generation;
+            final int maxDoc;
+            synchronized (refreshLock) {
+                generation = writeGeneration.get();
+                maxDoc = writer.maxDoc();
+                refreshScheduled = false;
+            }
+            searcherManager.maybeRefreshBlocking();
+            readerManager.maybeRefreshBlocking();
+            synchronized (refreshLock) {
+                if (generation > refreshedGeneration) {
+                    refreshedGeneration = generation;
+                    refreshedMaxDoc = maxDoc;
+                }
+            }
+        }
+
+        private void refreshQuietly() {
+            if (refreshedGeneration == writeGeneration.get())
+                return;
+            try {
+                refresh();
+            } catch (IOException | AlreadyClosedException e) {
+                LOG.warn("Failed to refresh " + getDirName() + " index readers: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Make sure the readers see the changes up to the given write generation. If readers
+         * are not refreshed in the background, they are always refreshed.
+         */
+        private void ensureRefreshed(long generation) throws IOException {
+            if (refresher == null) {
+                searcherManager.maybeRefreshBlocking();
+                readerManager.maybeRefreshBlocking();
+            } else if (generation > refreshedGeneration) {
+                refresh();
+            }
+        }
+
+        private void commit() {
+            if (!needsCommit) {
+                return;
+            }
+            try {
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("Committing lucene index " + dir);
+                }
+
+                if (writer != null) {
+                    writer.commit();
+                }
+                needsCommit = false;
+            } catch(CorruptIndexException cie) {
+                LOG.error("Detected corrupt Lucence index on writer release and commit: " + cie.getMessage(), cie);
+            } catch(IOException ioe) {
+                LOG.error("Detected Lucence index issue on writer release and commit: " + ioe.getMessage(), ioe);
+            }
+        }
+    }
+
+
+	@Override
+	public void backupToArchive(final RawDataBackup backup) throws IOException {
+        for (final Shard shard : shards) {
+            for (final String name : shard.directory.listAll()) {
+                final String path = shard.path + "/" + name;
+
+                // do not use try-with-resources here, closing the OutputStream will close the entire backup
+//                try(final OutputStream os = backup.newEntry(path)) {
+                try {
+                    final OutputStream os = backup.newEntry(path);
+                    Files.copy(getDataDir().resolve(path), os);
+                } finally {
+                    backup.closeEntry();
+                }
+            }
+        }
 	}
 }
@@ -21,6 +21,7 @@
 package org.exist.indexing.lucene;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import org.apache.commons.collections.MultiMap;
@@ -101,7 +102,9 @@ public class LuceneIndexConfig {
         if (fieldType != null && fieldType.length() > 0)
         	type = fieldTypes.get(fieldType);        
         if (type == null)
-        	type = new FieldType(config, analyzers);
+        	type = new FieldType(config, analyzers, namespaces);
+        if (hasFacets() && isAttributeNode())
+            throw new DatabaseConfigurationException("Lucene module: facets can not be used on attribute " + path);
 
         parse(config, namespaces);
     }
@@ -208,6 +211,26 @@ public class LuceneIndexConfig {
         return type.getBoost();
     }
 
+    public List<FacetConfig> getFacets() {
+        return type.getFacets();
+    }
+
+    public boolean hasFacets() {
+        return !type.getFacets().isEmpty();
+    }
+
+    /**
+     * @return true if the value of the given attribute of the indexed element
+     *  is stored as a facet
+     */
+    boolean isFacetAttribute(QName attrName) {
+        for (FacetConfig facet : type.getFacets()) {
+            if (facet.getQName().equals(attrName))
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Get boost by matching the config with given attributes
      * (e.g. sibling or child atributes)
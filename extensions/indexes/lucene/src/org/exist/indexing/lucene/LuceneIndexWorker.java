@@ -57,6 +57,7 @@ import org.exist.util.Occurrences;
 import org.exist.util.pool.NodePool;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
+import org.exist.xquery.modules.lucene.LuceneQueryRewriter;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.NodeValue;
 import org.w3c.dom.Attr;
@@ -84,6 +85,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public static final String OPTION_FILTER_REWRITE = "filter-rewrite";
     public static final String DEFAULT_OPERATOR_OR = "or";
     public static final String OPTION_LOWERCASE_EXPANDED_TERMS = "lowercase-expanded-terms";
+    public static final String OPTION_TOP = "top";
+    public static final String OPTION_REFRESH = "refresh";
+    public static final String OPTION_FACETS = "facets";
 
     public static final org.apache.lucene.document.FieldType TYPE_NODE_ID = new org.apache.lucene.document.FieldType();
     static {
@@ -124,6 +128,9 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
     private boolean isReindexing;
 
+    // the write generation after the last change made by this worker, so its queries see its own changes
+    private long writeGeneration = 0;
+
     private final StreamListener listener = new LuceneStreamListener();
 
     public LuceneIndexWorker(LuceneIndex parent, DBBroker broker) {
@@ -141,7 +148,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     public QueryRewriter getQueryRewriter(XQueryContext context) {
-        return null;
+        return new LuceneQueryRewriter(context);
     }
 
     public Object configure(IndexController controller, NodeList configNodes, Map<String, String> namespaces) throws DatabaseConfigurationException {
@@ -232,6 +239,10 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                     // reindex from attribute parent
                     return parentStoredNode;
                 }
+                if (idxConfig.isFacetAttribute(node.getQName()) && idxConfig.match(parentStoredNode.getPath())) {
+                    // the attribute is stored as facet of its parent
+                    return parentStoredNode;
+                }
             }
             NamedNodeMap attributes = parentStoredNode.getAttributes();
             for (int i = 0; i < attributes.getLength(); ++i) {
@@ -307,17 +318,21 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     protected void removeDocument(int docId) {
-    	IndexWriter writer = null;
         try {
-            writer = index.getWriter();
             final BytesRefBuilder bytes = new BytesRefBuilder();
             NumericUtils.intToPrefixCoded(docId, 0, bytes);
             Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
-            writer.deleteDocuments(dt);
+            // the document may still be indexed in another shard if the shards have been configured differently
+            for (IndexWriter writer : index.getWriters()) {
+                try {
+                    writer.deleteDocuments(dt);
+                } finally {
+                    releaseWriter(writer);
+                }
+            }
         } catch (IOException e) {
             LOG.warn("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
             mode = ReindexMode.STORE;
         }
     }
@@ -325,36 +340,47 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     protected void removePlainTextIndexes() {
     	IndexWriter writer = null;
         try {
-            writer = index.getWriter();
+            writer = index.getWriter(currentDoc.getURI());
             String uri = currentDoc.getURI().toString();
             Term dt = new Term(FIELD_DOC_URI, uri);
             writer.deleteDocuments(dt);
         } catch (IOException e) {
             LOG.warn("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             mode = ReindexMode.STORE;
         }
     }
 
+    @Override
+    public boolean reindexOnMove(XmldbURI source, XmldbURI destination) {
+        // the entries of the moved documents have to be written to the shard of their new collection
+        return !index.isSameShard(source, destination);
+    }
+
     @Override
     public void removeCollection(Collection collection, DBBroker broker, boolean reindex) {
         if (LOG.isDebugEnabled())
             LOG.debug("Removing collection " + collection.getURI());
-        IndexWriter writer = null;
+        final List<IndexWriter> writers = new ArrayList<>();
         try {
-            writer = index.getWriter();
+            // the documents may still be indexed in another shard if the shards have been configured differently
+            writers.addAll(index.getWriters());
             for (Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
                 DocumentImpl doc = i.next();
                 final BytesRefBuilder bytes = new BytesRefBuilder();
                 NumericUtils.intToPrefixCoded(doc.getDocId(), 0, bytes);
                 Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
-                writer.deleteDocuments(dt);
+                for (IndexWriter writer : writers) {
+                    writer.deleteDocuments(dt);
+                }
             }
         } catch (IOException | PermissionDeniedException | LockException e) {
             LOG.error("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            for (IndexWriter writer : writers) {
+                releaseWriter(writer);
+            }
             if (reindex) {
                 try {
                     index.sync();
@@ -378,7 +404,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             return;
         IndexWriter writer = null;
         try {
-            writer = index.getWriter();
+            writer = index.getWriter(currentDoc.getURI());
 
             final BytesRefBuilder bytes = new BytesRefBuilder();
             NumericUtils.intToPrefixCoded(currentDoc.getDocId(), 0, bytes);
@@ -402,7 +428,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         } catch (IOException e) {
             LOG.warn("Error while deleting lucene index entries: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             nodesToRemove = null;
         }
     }
@@ -434,10 +460,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet query(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
         List<QName> qnames, String queryStr, int axis, Properties options)
             throws IOException, ParseException, XPathException {
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(docs, getWriteGeneration(options), searcher -> {
             final List<QName> definedIndexes = getDefinedIndexes(qnames);
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            final TopHits topHits = createTopHits(options);
+            final FacetCounts facets = createFacetCounts(options);
             for (QName qname : definedIndexes) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 Analyzer analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
@@ -446,11 +474,14 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                     setOptions(options, parser.getConfiguration());
                     Query query = parser.parse(queryStr);
                     searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, context.getWatchDog());
+                            returnAncestor, searcher, query, context.getWatchDog(), topHits, facets);
                 } catch(ParseException e) {
                     throw new XPathException("Lucene query syntax error: " + e.getMessage());
                 }
             }
+            if (topHits != null) {
+                topHits.addTo(resultSet);
+            }
             return resultSet;
         });
     }
@@ -490,6 +521,50 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }        
     }
 
+    /**
+     * Returns the write generation the searcher of a query has to see: all changes made so far
+     * if requested by {@link #OPTION_REFRESH}, else those made by this worker.
+     */
+    private long getWriteGeneration(Properties options) {
+        if (options != null && "yes".equalsIgnoreCase(options.getProperty(OPTION_REFRESH)))
+            return index.getWriteGeneration();
+        return writeGeneration;
+    }
+
+    /**
+     * Creates the facet counts of a query if the values of the facets
+     * of its matches should be counted, see {@link #OPTION_FACETS}.
+     *
+     * @return the counts, or null if facets should not be counted
+     */
+    private FacetCounts createFacetCounts(Properties options) {
+        if (options != null && "yes".equalsIgnoreCase(options.getProperty(OPTION_FACETS)))
+            return new FacetCounts();
+        return null;
+    }
+
+    /**
+     * Creates the queue collecting the best matches if only the matches with the
+     * highest scores should be returned, see {@link #OPTION_TOP}.
+     *
+     * @return the queue, or null if all matches should be returned
+     */
+    private TopHits createTopHits(Properties options) throws XPathException {
+        if (options == null)
+            return null;
+        String option = options.getProperty(OPTION_TOP);
+        if (option == null)
+            return null;
+        try {
+            int top = Integer.parseInt(option.trim());
+            if (top < 1)
+                throw new XPathException("value for option " + OPTION_TOP + " needs to be a positive number");
+            return new TopHits(top);
+        } catch (NumberFormatException e) {
+            throw new XPathException("value for option " + OPTION_TOP + " needs to be a number");
+        }
+    }
+
     /**
      * Query the index. Returns a node set containing all matching nodes. Each node
      * in the node set has a {@link org.exist.indexing.lucene.LuceneIndexWorker.LuceneMatch}
@@ -511,19 +586,24 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet query(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
                          List<QName> qnames, Element queryRoot, int axis, Properties options)
             throws IOException, ParseException, XPathException {
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(docs, getWriteGeneration(options), searcher -> {
             final List<QName> definedIndexes = getDefinedIndexes(qnames);
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            final TopHits topHits = createTopHits(options);
+            final FacetCounts facets = createFacetCounts(options);
             for (QName qname : definedIndexes) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
                 Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
                 if (query != null) {
                     searchAndProcess(contextId, qname, docs, contextSet, resultSet,
-                            returnAncestor, searcher, query, context.getWatchDog());
+                            returnAncestor, searcher, query, context.getWatchDog(), topHits, facets);
                 }
             }
+            if (topHits != null) {
+                topHits.addTo(resultSet);
+            }
             return resultSet;
         });
     }
@@ -531,14 +611,18 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
             String field, Element queryRoot, int axis, Properties options)
             throws IOException, XPathException {
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(docs, getWriteGeneration(options), searcher -> {
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
             analyzer = getAnalyzer(field, null, context.getBroker(), docs);
             Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
             if (query != null) {
+                final TopHits topHits = createTopHits(options);
                 searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, context.getWatchDog());
+                        returnAncestor, searcher, query, context.getWatchDog(), topHits, createFacetCounts(options));
+                if (topHits != null) {
+                    topHits.addTo(resultSet);
+                }
             }
             return resultSet;
         });
@@ -546,15 +630,17 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
     private void searchAndProcess(int contextId, QName qname, DocumentSet docs,
             NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-            IndexSearcher searcher, Query query, XQueryWatchDog watchDog) throws IOException, TerminatedException {
-        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, watchDog);
-        searcher.search(query, collector);
+            IndexSearcher searcher, Query query, XQueryWatchDog watchDog, TopHits topHits, FacetCounts facets) throws IOException, TerminatedException {
+        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, watchDog, topHits, facets);
+        index.search(searcher, query, null, collector);
+        if (facets != null)
+            facets.finish();
     }
 
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
             String field, String queryString, int axis, Properties options)
             throws IOException, ParseException, XPathException {
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(docs, getWriteGeneration(options), searcher -> {
             NodeSet resultSet = new NewArrayNodeSet();
             boolean returnAncestor = axis == NodeSet.ANCESTOR;
             Analyzer analyzer = getAnalyzer(field, null, context.getBroker(), docs);
@@ -563,8 +649,12 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             try {
                 setOptions(options, parser.getConfiguration());
                 Query query = parser.parse(queryString);
+                final TopHits topHits = createTopHits(options);
                 searchAndProcess(contextId, null, docs, contextSet, resultSet,
-                        returnAncestor, searcher, query, context.getWatchDog());
+                        returnAncestor, searcher, query, context.getWatchDog(), topHits, createFacetCounts(options));
+                if (topHits != null) {
+                    topHits.addTo(resultSet);
+                }
             } catch(ParseException e) {
                 throw new XPathException("Lucene query syntax error: " + e.getMessage());
             }
@@ -649,14 +739,14 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public void writeNonXML() {
     	IndexWriter writer = null;
         try {
-            writer = index.getWriter();
+            writer = index.getWriter(currentDoc.getURI());
             
             writer.addDocument(pendingDoc);
         } catch (IOException e) {
             LOG.warn("An exception was caught while indexing document: " + e.getMessage(), e);
 
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             pendingDoc = null;
             cachedNodesSize = 0;
         }
@@ -671,7 +761,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      */
     public NodeImpl search(final XQueryContext context, final List<String> toBeMatchedURIs, String queryText, String[] fieldsToGet) throws XPathException, IOException {
 
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(writeGeneration, searcher -> {
             // Get analyzer : to be retrieved from configuration
             final Analyzer searchAnalyzer = new StandardAnalyzer(LuceneIndex.LUCENE_VERSION_IN_USE);
 
@@ -785,7 +875,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         NumericUtils.intToPrefixCoded(docId, 0, bytes);
         Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
 
-        return index.withReader(reader -> {
+        return index.withReader(writeGeneration, reader -> {
             List<AtomicReaderContext> leaves = reader.leaves();
             for (AtomicReaderContext context : leaves) {
                 AtomicReader atomicReader = context.reader();
@@ -807,7 +897,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         NumericUtils.intToPrefixCoded(docId, 0, bytes);
         Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
 
-        return index.withReader(reader -> {
+        return index.withReader(writeGeneration, reader -> {
             boolean found = false;
             List<AtomicReaderContext> leaves = reader.leaves();
             for (AtomicReaderContext context : leaves) {
@@ -865,9 +955,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final int contextId;
         private final Query query;
         private final XQueryWatchDog watchdog;
+        private final TopHits topHits;
+        private final FacetCounts facets;
 
         private LuceneHitCollector(QName qname, Query query, DocumentSet docs, NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-                                   int contextId, XQueryWatchDog watchDog) {
+                                   int contextId, XQueryWatchDog watchDog, TopHits topHits, FacetCounts facets) {
             this.qname = qname;
             this.docs = docs;
             this.contextSet = contextSet;
@@ -876,6 +968,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.contextId = contextId;
             this.query = query;
             this.watchdog = watchDog;
+            this.topHits = topHits;
+            this.facets = facets;
         }
 
         @Override
@@ -888,6 +982,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.reader = atomicReaderContext.reader();
             this.docIdValues = this.reader.getNumericDocValues(FIELD_DOC_ID);
             this.nodeIdValues = this.reader.getBinaryDocValues(LuceneUtil.FIELD_NODE_ID);
+            if (this.facets != null)
+                this.facets.setNextReader(this.reader);
         }
 
         @Override
@@ -900,6 +996,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             try {
                 float score = scorer.score();
                 int docId = (int) this.docIdValues.get(doc);
+                // skip matches which can not be among the best matches before decoding the node id,
+                // unless they have to be counted for the facets
+                boolean competitive = topHits == null || topHits.isCompetitive(score, docId);
+                if (!competitive && (facets == null || !facets.isCounting()))
+                    return;
                 DocumentImpl storedDocument = docs.getDoc(docId);
                 if (storedDocument == null)
                     return;
@@ -920,31 +1021,114 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                         NodeProxy parentNode = contextSet.get(storedNode);
                         // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
                         if (parentNode != null) {
-                            LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                            match.setScore(score);
-                            parentNode.addMatch(match);
-                            resultSet.add(parentNode, sizeHint);
-                            if (Expression.NO_CONTEXT_ID != contextId) {
-                                parentNode.deepCopyContext(storedNode, contextId);
-                            } else
-                                parentNode.copyContext(storedNode);
+                            addHit(doc, competitive, new Hit(parentNode, storedNode, contextId, query, score, sizeHint, facets));
                         }
                     } else {
-                        LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                        match.setScore(score);
-                        storedNode.addMatch(match);
-                        resultSet.add(storedNode, sizeHint);
+                        addHit(doc, competitive, new Hit(storedNode, null, contextId, query, score, sizeHint, facets));
                     }
                 } else {
-                    LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                    match.setScore(score);
-                    storedNode.addMatch(match);
-                    resultSet.add(storedNode);
+                    addHit(doc, competitive, new Hit(storedNode, null, contextId, query, score, org.exist.xquery.Constants.NO_SIZE_HINT, facets));
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+
+        private void addHit(int doc, boolean competitive, Hit hit) {
+            if (facets != null)
+                facets.collect(doc);
+            if (!competitive)
+                return;
+            if (topHits != null)
+                topHits.insertWithOverflow(hit);
+            else
+                hit.addTo(resultSet);
+        }
+    }
+
+    /**
+     * A match found by a query, which is added to the result
+     * if it is among the best matches.
+     */
+    private class Hit {
+
+        private final NodeProxy node;
+        private final NodeProxy storedNode;
+        private final int contextId;
+        private final Query query;
+        private final float score;
+        private final int sizeHint;
+        private final FacetCounts facets;
+
+        /**
+         * @param node the node to return
+         * @param storedNode the node in which the match was found, if it is
+         *  not the node to return, or null
+         */
+        private Hit(NodeProxy node, NodeProxy storedNode, int contextId, Query query, float score, int sizeHint, FacetCounts facets) {
+            this.node = node;
+            this.storedNode = storedNode;
+            this.contextId = contextId;
+            this.query = query;
+            this.score = score;
+            this.sizeHint = sizeHint;
+            this.facets = facets;
+        }
+
+        private void addTo(NodeSet resultSet) {
+            NodeId nodeId = storedNode == null ? node.getNodeId() : storedNode.getNodeId();
+            LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
+            match.setScore(score);
+            match.setFacets(facets);
+            node.addMatch(match);
+            resultSet.add(node, sizeHint);
+            if (storedNode != null) {
+                if (Expression.NO_CONTEXT_ID != contextId) {
+                    node.deepCopyContext(storedNode, contextId);
+                } else
+                    node.copyContext(storedNode);
+            }
+        }
+    }
+
+    /**
+     * Keeps the matches with the highest scores in a bounded priority queue,
+     * so that only those have to be added to the result. Matches with equal
+     * scores are ranked in document order, like a stable sort by score would.
+     */
+    private class TopHits extends org.apache.lucene.util.PriorityQueue<Hit> {
+
+        private final int top;
+
+        private TopHits(int top) {
+            super(top);
+            this.top = top;
+        }
+
+        @Override
+        protected boolean lessThan(Hit a, Hit b) {
+            if (a.score != b.score)
+                return a.score < b.score;
+            // the later node in document order is dropped first
+            return a.node.compareTo(b.node) > 0;
+        }
+
+        /**
+         * Check if a match with the given score in the given document may be
+         * among the best matches.
+         */
+        private boolean isCompetitive(float score, int docId) {
+            if (size() < top)
+                return true;
+            Hit last = top();
+            return score > last.score || (score == last.score && docId <= last.node.getOwnerDocument().getDocId());
+        }
+
+        private void addTo(NodeSet resultSet) {
+            for (Hit hit; (hit = pop()) != null; ) {
+                hit.addTo(resultSet);
+            }
+        }
     }
 
     /**
@@ -969,7 +1153,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     private List<QName> getDefinedIndexesFor(QName qname, final List<QName> indexes) throws IOException {
-        return index.withReader(reader -> {
+        return index.withReader(writeGeneration, reader -> {
             for (FieldInfo info: MultiFields.getMergedFieldInfos(reader)) {
                 if (!FIELD_DOC_ID.equals(info.name)) {
                     QName name = LuceneUtil.decodeQName(info.name, index.getBrokerPool().getSymbols());
@@ -1065,7 +1249,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
     private Occurrences[] scanIndexByQName(List<QName> qnames, DocumentSet docs, NodeSet nodes, String start, String end, long max) throws IOException {
         final TreeMap<String, Occurrences> map = new TreeMap<>();
-        index.withReader(reader -> {
+        index.withReader(docs, writeGeneration, reader -> {
             for (QName qname : qnames) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 List<AtomicReaderContext> leaves = reader.leaves();
@@ -1148,13 +1332,14 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      * @param content
      */
     protected void indexText(NodeId nodeId, QName qname, NodePath path, LuceneIndexConfig config, CharSequence content) {
-        PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config.getBoost(), config);
+        PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config.getBoost(), config, null);
         addPending(pending);
     }
 
     /**
      * Adds the passed character sequence to the lucene index.
-     * This version uses the AttrImpl for node specific attribute match boosting.
+     * This version uses the AttrImpl for node specific attribute match boosting
+     * and to get the values of the facets.
      *
      * @param attribs
      * @param nodeId
@@ -1164,9 +1349,31 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      * @param content
      */
     protected void indexText(java.util.Collection<AttrImpl> attribs, NodeId nodeId, QName qname, NodePath path, LuceneIndexConfig config, CharSequence content) {
-        PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config.getAttrBoost(attribs), config);
+        // the attributes may only be passed for the facets
+        float boost = config.shouldReindexOnAttributeChange() ? config.getAttrBoost(attribs) : config.getBoost();
+        PendingDoc pending = new PendingDoc(nodeId, qname, path, content, boost, config,
+                getFacets(attribs, config));
         addPending(pending);
     }
+
+    /**
+     * Get the values of the facets configured for an element from its attributes.
+     *
+     * @return the values by dimension, or null if there are none
+     */
+    private Map<String, List<String>> getFacets(java.util.Collection<AttrImpl> attribs, LuceneIndexConfig config) {
+        Map<String, List<String>> facets = null;
+        for (FacetConfig facet : config.getFacets()) {
+            for (AttrImpl attr : attribs) {
+                if (facet.getQName().equals(attr.getQName())) {
+                    if (facets == null)
+                        facets = new HashMap<>();
+                    facets.computeIfAbsent(facet.getDimension(), dimension -> new ArrayList<>(1)).add(attr.getValue());
+                }
+            }
+        }
+        return facets;
+    }
     
     private void addPending(PendingDoc pending) {
         nodesToWrite.add(pending);
@@ -1183,15 +1390,17 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final CharSequence text;
         private final float boost;
         private final LuceneIndexConfig idxConf;
+        private final Map<String, List<String>> facets;
 
         private PendingDoc(final NodeId nodeId, final QName qname, final NodePath path, final CharSequence text,
-                final float boost, final LuceneIndexConfig idxConf) {
+                final float boost, final LuceneIndexConfig idxConf, final Map<String, List<String>> facets) {
             this.nodeId = nodeId;
             this.qname = qname;
             this.path = path;
             this.text = text;
             this.idxConf = idxConf;
             this.boost = boost;
+            this.facets = facets;
         }
     }
 
@@ -1207,6 +1416,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
     
+    private void releaseWriter(IndexWriter writer) {
+        index.releaseWriter(writer);
+        writeGeneration = index.getWriteGeneration();
+    }
+
     private void write() {
         if (nodesToWrite == null || nodesToWrite.isEmpty()) {
             return;
@@ -1223,7 +1437,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
         IndexWriter writer = null;
         try {
-            writer = index.getWriter();
+            writer = index.getWriter(currentDoc.getURI());
             // docId and nodeId are stored as doc value
             NumericDocValuesField fDocId = new NumericDocValuesField(FIELD_DOC_ID, 0);
             BinaryDocValuesField fNodeId = new BinaryDocValuesField(LuceneUtil.FIELD_NODE_ID, new BytesRef(8));
@@ -1282,6 +1496,16 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
                 fDocIdIdx.setIntValue(currentDoc.getDocId());
                 doc.add(fDocIdIdx);
+
+                // facet values are stored as doc values, so they can be counted without loading the node
+                if (pending.facets != null) {
+                    for (final Map.Entry<String, List<String>> facet : pending.facets.entrySet()) {
+                        final String facetField = LuceneUtil.FIELD_FACET_PREFIX + facet.getKey();
+                        for (final String value : facet.getValue()) {
+                            doc.add(new SortedSetDocValuesField(facetField, new BytesRef(value)));
+                        }
+                    }
+                }
                 
                 for (final Field meta : metas) {
                     doc.add(meta);
@@ -1300,7 +1524,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         } catch (final IOException e) {
             LOG.warn("An exception was caught while indexing document: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             nodesToWrite = new ArrayList<>();
             cachedNodesSize = 0;
         }
@@ -1311,15 +1535,17 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      * may take a while and write operations will be blocked during the optimize.
      */
     public void optimize() {
-        IndexWriter writer = null;
         try {
-            writer = index.getWriter(true);
-            writer.forceMerge(1, true);
-            writer.commit();
+            for (IndexWriter writer : index.getWriters()) {
+                try {
+                    writer.forceMerge(1, true);
+                    writer.commit();
+                } finally {
+                    releaseWriter(writer);
+                }
+            }
         } catch (IOException e) {
             LOG.warn("An exception was caught while optimizing the lucene index: " + e.getMessage(), e);
-        } finally {
-            index.releaseWriter(writer);
         }
     }
 
@@ -1378,7 +1604,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                             if (configuration.match(path)) {
                                 TextExtractor extractor = contentStack.pop();
 
-                                if (configuration.shouldReindexOnAttributeChange()) {
+                                if (configuration.shouldReindexOnAttributeChange() || configuration.hasFacets()) {
                                     // if we still have the attributes cached
 				    // i e this element had no child elements,
 				    // use them to save some time
@@ -1512,6 +1738,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
         private float score = 0.0f;
         private final Query query;
+        private FacetCounts facets = null;
 
         public LuceneMatch(int contextId, NodeId nodeId, Query query) {
             super(contextId, nodeId, null);
@@ -1522,6 +1749,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             super(copy);
             this.score = copy.score;
             this.query = copy.query;
+            this.facets = copy.facets;
         }
 
         @Override
@@ -1555,6 +1783,17 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.score = score;
         }
 
+        /**
+         * @return the facet counts of all matches found by the query, or null
+         */
+        public FacetCounts getFacets() {
+            return facets;
+        }
+
+        protected void setFacets(FacetCounts facets) {
+            this.facets = facets;
+        }
+
         // DW: missing hashCode() ?
         @Override
         public boolean equals(Object other) {
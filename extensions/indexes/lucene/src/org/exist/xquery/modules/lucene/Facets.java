@@ -0,0 +1,139 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.lucene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.exist.dom.QName;
+import org.exist.dom.persistent.Match;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.indexing.lucene.FacetCounts;
+import org.exist.indexing.lucene.LuceneIndex;
+import org.exist.indexing.lucene.LuceneIndexWorker;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+/**
+ * Returns the facet counts computed by ft:query while collecting its matches.
+ */
+public class Facets extends BasicFunction {
+
+    private final static String DESCRIPTION =
+            "Returns the number of matches for each value of the given facet dimension, as a map from value " +
+            "to count. The counts are computed by ft:query from the facets stored in the index, see the " +
+            "'facet' element of the index configuration, if it was called with the option " +
+            "<facets>yes</facets>. They cover all matches of the queries which returned $nodes, even if " +
+            "some of the matches have been filtered out afterwards.";
+
+    public final static FunctionSignature[] signatures = {
+        new FunctionSignature(
+            new QName("facets", LuceneModule.NAMESPACE_URI, LuceneModule.PREFIX),
+            DESCRIPTION,
+            new SequenceType[] {
+                new FunctionParameterSequenceType("nodes", Type.NODE, Cardinality.ZERO_OR_MORE,
+                    "the result of a call to ft:query"),
+                new FunctionParameterSequenceType("dimension", Type.STRING, Cardinality.EXACTLY_ONE,
+                    "the facet dimension")
+            },
+            new FunctionReturnSequenceType(Type.MAP, Cardinality.EXACTLY_ONE,
+                "a map with the number of matches for each value of the dimension")
+        ),
+        new FunctionSignature(
+            new QName("facets", LuceneModule.NAMESPACE_URI, LuceneModule.PREFIX),
+            DESCRIPTION + " Only the $count values with the most matches are returned.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("nodes", Type.NODE, Cardinality.ZERO_OR_MORE,
+                    "the result of a call to ft:query"),
+                new FunctionParameterSequenceType("dimension", Type.STRING, Cardinality.EXACTLY_ONE,
+                    "the facet dimension"),
+                new FunctionParameterSequenceType("count", Type.INTEGER, Cardinality.ZERO_OR_ONE,
+                    "the maximum number of values to return")
+            },
+            new FunctionReturnSequenceType(Type.MAP, Cardinality.EXACTLY_ONE,
+                "a map with the number of matches for each value of the dimension")
+        )
+    };
+
+    public Facets(XQueryContext context, FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(Sequence[] args, Sequence contextSequence) throws XPathException {
+        final String dimension = args[1].getStringValue();
+        int count = Integer.MAX_VALUE;
+        if (args.length > 2 && !args[2].isEmpty()) {
+            count = ((IntegerValue) args[2].itemAt(0)).getInt();
+        }
+
+        // all matches of a query share the counts
+        final Set<FacetCounts> facets = Collections.newSetFromMap(new IdentityHashMap<>());
+        boolean matched = false;
+        for (final SequenceIterator i = args[0].iterate(); i.hasNext(); ) {
+            final NodeValue node = (NodeValue) i.nextItem();
+            if (node.getImplementationType() != NodeValue.PERSISTENT_NODE) {
+                continue;
+            }
+            for (Match match = ((NodeProxy) node).getMatches(); match != null; match = match.getNextMatch()) {
+                if (match.getIndexId().equals(LuceneIndex.ID)) {
+                    matched = true;
+                    final FacetCounts matchFacets = ((LuceneIndexWorker.LuceneMatch) match).getFacets();
+                    if (matchFacets != null) {
+                        facets.add(matchFacets);
+                    }
+                }
+            }
+        }
+
+        if (matched && facets.isEmpty()) {
+            throw new XPathException(this, "ft:facets requires ft:query to be called with the option <facets>yes</facets>");
+        }
+
+        final Map<String, Integer> counts = new TreeMap<>();
+        for (final FacetCounts queryFacets : facets) {
+            for (final Map.Entry<String, Integer> entry : queryFacets.getCounts(dimension).entrySet()) {
+                counts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+        }
+
+        // values with the most matches first, equal counts by value
+        final List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        if (entries.size() > count) {
+            entries.sort((e1, e2) -> Integer.compare(e2.getValue(), e1.getValue()));
+        }
+        final MapType result = new MapType(context);
+        for (int i = 0; i < entries.size() && i < count; i++) {
+            final Map.Entry<String, Integer> entry = entries.get(i);
+            result.add(new StringValue(entry.getKey()), new IntegerValue(entry.getValue()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.lucene;
+
+import org.exist.dom.QName;
+import org.exist.xquery.*;
+
+/**
+ * Query rewriter for the Lucene index. Detects "for" clauses which iterate
+ * over the result of ft:query and order the matches by their score:
+ *
+ * <pre>
+ * for $hit in ft:query($nodes, $query)
+ * order by ft:score($hit) descending
+ * return $hit
+ * </pre>
+ *
+ * If only the first items of such an expression are used, e.g. by
+ * subsequence($result, 1, 10), ft:query only returns that number of
+ * matches with the highest scores. This requires the expression to return
+ * the matches themselves: the limit is not applied if a subsequent "where"
+ * clause or the return expression may skip some of the matches.
+ */
+public class LuceneQueryRewriter extends QueryRewriter {
+
+    public LuceneQueryRewriter(XQueryContext context) {
+        super(context);
+    }
+
+    @Override
+    public void rewriteForExpression(ForExpr forExpr) throws XPathException {
+        final Query query = getFunction(forExpr.getInputSequence(), Query.class);
+        if (query == null || !(forExpr.getReturnExpression() instanceof OrderByClause)) {
+            return;
+        }
+        final OrderByClause orderBy = (OrderByClause) forExpr.getReturnExpression();
+        final OrderSpec[] orderSpecs = orderBy.getOrderSpecs();
+        if (orderSpecs.length != 1 || (orderSpecs[0].getModifiers() & OrderSpec.DESCENDING_ORDER) == 0) {
+            return;
+        }
+        final Score score = getFunction(orderSpecs[0].getSortExpression(), Score.class);
+        if (score == null) {
+            return;
+        }
+        // each match has to yield exactly one item, e.g. no "where" clause or path
+        // may filter matches, for the first n items to come from the best n matches
+        if (isVariable(score.getArgument(0), forExpr) && isVariable(orderBy.getReturnExpression(), forExpr)) {
+            query.setOrderedBy(forExpr);
+        }
+    }
+
+    private boolean isVariable(final Expression expr, final ForExpr forExpr) {
+        final Expression unwrapped = unwrap(expr);
+        try {
+            return unwrapped instanceof VariableReference &&
+                    ((VariableReference) unwrapped).getName().equals(QName.parse(getContext(), forExpr.getVariable(), null));
+        } catch (final QName.IllegalQNameException e) {
+            // not a variable we can match
+            return false;
+        }
+    }
+
+    private static <T extends Function> T getFunction(final Expression expr, final Class<T> clazz) {
+        final Expression unwrapped = unwrap(expr);
+        if (unwrapped instanceof InternalFunctionCall) {
+            final Function function = ((InternalFunctionCall) unwrapped).getFunction();
+            if (clazz.isInstance(function)) {
+                return clazz.cast(function);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes single step paths and the type checks around an expression.
+     */
+    private static Expression unwrap(Expression expr) {
+        while (true) {
+            expr = expr.simplify();
+            if (expr instanceof DynamicCardinalityCheck || expr instanceof DynamicTypeCheck || expr instanceof Atomize) {
+                expr = expr.getSubExpression(0);
+            } else {
+                return expr;
+            }
+        }
+    }
+}
@@ -97,7 +97,14 @@ public class Query extends Function implements Optimizable {
                         "   <phrase-slop>number</phrase-slop>\n" +
                         "   <leading-wildcard>yes|no</leading-wildcard>\n" +
                         "   <filter-rewrite>yes|no</filter-rewrite>\n" +
-                        "</options>")
+                        "   <top>number</top>\n" +
+                        "   <refresh>yes|no</refresh>\n" +
+                        "   <facets>yes|no</facets>\n" +
+                        "</options>\n" +
+                        "If top is given, only the given number of matches with the highest scores are returned. " +
+                        "If refresh is yes, the query sees all changes to the index, even if the index readers " +
+                        "are only refreshed periodically. If facets is yes, the facet values of all matches are " +
+                        "counted for ft:facets.")
             },
             new FunctionReturnSequenceType(Type.NODE, Cardinality.ZERO_OR_MORE,
                 "all nodes from the input node set matching the query. match highlighting information " +
@@ -112,6 +119,7 @@ public class Query extends Function implements Optimizable {
     private NodeSet preselectResult = null;
     protected boolean optimizeSelf = false;
     protected boolean optimizeChild = false;
+    private ForExpr orderedBy = null;
 
     public Query(XQueryContext context, FunctionSignature signature) {
         super(context, signature);
@@ -265,7 +273,7 @@ public class Query extends Function implements Optimizable {
                     qnames = new ArrayList<>(1);
                     qnames.add(contextQName);
                 }
-                Properties options = parseOptions(contextSequence, contextItem);
+                Properties options = limitToOrderedResult(parseOptions(contextSequence, contextItem));
                 try {
                     if (Type.subTypeOf(key.getType(), Type.ELEMENT))
                         result = index.query(context, getExpressionId(), docs, inNodes, qnames,
@@ -341,6 +349,41 @@ public class Query extends Function implements Optimizable {
         }
     }
 
+    /**
+     * Called by the {@link LuceneQueryRewriter} if the result of this function is
+     * iterated by a "for" clause, which orders the items by their score in
+     * descending order.
+     *
+     * @param forExpr the "for" clause
+     */
+    public void setOrderedBy(ForExpr forExpr) {
+        this.orderedBy = forExpr;
+    }
+
+    /**
+     * If only the first items of the result ordered by score are used, only
+     * that number of best matches need to be returned, see
+     * {@link LuceneIndexWorker#OPTION_TOP}.
+     */
+    protected Properties limitToOrderedResult(Properties options) {
+        if (orderedBy == null)
+            return options;
+        final int limit = orderedBy.getOrderByResultLimit();
+        if (limit == AbstractFLWORClause.NO_RESULT_LIMIT)
+            return options;
+        final Properties limited = new Properties();
+        if (options != null)
+            limited.putAll(options);
+        final String top = limited.getProperty(LuceneIndexWorker.OPTION_TOP);
+        try {
+            if (top == null || Integer.parseInt(top.trim()) > limit)
+                limited.setProperty(LuceneIndexWorker.OPTION_TOP, Integer.toString(limit));
+        } catch (NumberFormatException e) {
+            // reported by the index worker
+        }
+        return limited;
+    }
+
     @Override
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
@@ -71,7 +71,12 @@ public class QueryField extends Query implements Optimizable {
                         "   <phrase-slop>number</phrase-slop>\n" +
                         "   <leading-wildcard>yes|no</leading-wildcard>\n" +
                         "   <filter-rewrite>yes|no</filter-rewrite>\n" +
-                        "</options>")
+                        "   <top>number</top>\n" +
+                        "   <refresh>yes|no</refresh>\n" +
+                        "</options>\n" +
+                        "If top is given, only the given number of matches with the highest scores are returned. " +
+                        "If refresh is yes, the query sees all changes to the index, even if the index readers " +
+                        "are only refreshed periodically.")
             },
             new FunctionReturnSequenceType(Type.NODE, Cardinality.ZERO_OR_MORE,
                 "all nodes from the input node set matching the query. match highlighting information " +
@@ -156,7 +161,7 @@ public class QueryField extends Query implements Optimizable {
         	
         	LuceneIndexWorker index = (LuceneIndexWorker)
         		context.getBroker().getIndexController().getWorkerByIndexId(LuceneIndex.ID);
-        	Properties options = parseOptions(contextSequence, contextItem);
+        	Properties options = limitToOrderedResult(parseOptions(contextSequence, contextItem));
         	try {
         		if (Type.subTypeOf(query.getType(), Type.ELEMENT))
         			result = index.queryField(context, getExpressionId(), docs, contextSet, field,
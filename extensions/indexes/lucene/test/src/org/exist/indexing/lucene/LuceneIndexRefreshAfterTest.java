@@ -0,0 +1,73 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.exist.indexing.lucene.LuceneTestUtils.COLLECTION_CONFIG;
+import static org.exist.indexing.lucene.LuceneTestUtils.execute;
+import static org.exist.indexing.lucene.LuceneTestUtils.luceneIndexServer;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests refreshing the index readers in the background after a number of documents
+ * have been added, before the refresh interval has elapsed.
+ */
+public class LuceneIndexRefreshAfterTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = luceneIndexServer("refresh-interval", "3600000", "refresh-after", "1");
+
+    @BeforeClass
+    public static void refreshAfterDocuments() throws Exception {
+        execute(existEmbeddedServer, "xmldb:create-collection('/db/system/config/db', 'refresh-test'), " +
+                "xmldb:store('/db/system/config/db/refresh-test', 'collection.xconf', " + COLLECTION_CONFIG + "), " +
+                "xmldb:create-collection('/db', 'refresh-test')");
+    }
+
+    @Test
+    public void readersRefreshedAfterDocuments() throws Exception {
+        final String count = "count(ft:query(collection('/db/refresh-test')//p, 'beta'))";
+
+        // keep the broker of this thread, so the other session uses another one
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final ExecutorService otherSession = Executors.newSingleThreadExecutor();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            execute(existEmbeddedServer, "xmldb:store('/db/refresh-test', 'd.xml', <p>beta</p>)");
+            String result = "0";
+            for (int i = 0; i < 100 && "0".equals(result); i++) {
+                Thread.sleep(100);
+                result = otherSession.submit(() -> execute(existEmbeddedServer, count)).get();
+            }
+            assertEquals("1", result);
+        } finally {
+            otherSession.shutdown();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import static org.exist.indexing.lucene.LuceneTestUtils.COLLECTION_CONFIG;
+import static org.exist.indexing.lucene.LuceneTestUtils.execute;
+import static org.exist.indexing.lucene.LuceneTestUtils.luceneIndexServer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests searching the segments of the index concurrently.
+ */
+public class LuceneIndexSearchThreadsTest {
+
+    private static final int DOCUMENTS = 10;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = luceneIndexServer("search-threads", "4");
+
+    @BeforeClass
+    public static void searchConcurrently() throws Exception {
+        execute(existEmbeddedServer, "xmldb:create-collection('/db/system/config/db', 'search-test'), " +
+                "xmldb:store('/db/system/config/db/search-test', 'collection.xconf', " + COLLECTION_CONFIG + "), " +
+                "xmldb:create-collection('/db', 'search-test')");
+        // querying after each document flushes it to a new segment
+        for (int i = 0; i < DOCUMENTS; i++) {
+            execute(existEmbeddedServer, "xmldb:store('/db/search-test', 'd" + i + ".xml', " +
+                    "<doc><p n='" + i + "'>alpha beta</p><p n='" + i + "'>gamma</p><p n='" + i + "'>alpha alpha</p></doc>), " +
+                    "count(ft:query(collection('/db/search-test')//p, 'alpha'))");
+        }
+    }
+
+    @Test
+    public void allMatchesInDocumentOrder() throws Exception {
+        assertEquals(String.valueOf(DOCUMENTS * 2), execute(existEmbeddedServer, "count(ft:query(collection('/db/search-test')//p, 'alpha'))"));
+        assertEquals(String.valueOf(DOCUMENTS), execute(existEmbeddedServer, "count(ft:query(collection('/db/search-test')//p, 'gamma'))"));
+
+        final String expected = execute(existEmbeddedServer, "string-join(for $p in collection('/db/search-test')//p[contains(., 'alpha')] " +
+                "return util:document-name($p) || '/' || util:node-id($p), ',')");
+        assertEquals(expected, execute(existEmbeddedServer, "string-join(for $p in ft:query(collection('/db/search-test')//p, 'alpha') " +
+                "return util:document-name($p) || '/' || util:node-id($p), ',')"));
+    }
+
+    @Test
+    public void scores() throws Exception {
+        assertEquals("true", execute(existEmbeddedServer, "every $p in ft:query(collection('/db/search-test')//p, 'alpha') satisfies ft:score($p) > 0"));
+        // "alpha alpha" scores higher than "alpha beta"
+        assertEquals(String.valueOf(DOCUMENTS), execute(existEmbeddedServer, "count(" +
+                "for $p in ft:query(collection('/db/search-test')//p, 'alpha') " +
+                "where $p = 'alpha alpha' and ft:score($p) > ft:score($p/preceding-sibling::p[2]) return $p)"));
+    }
+
+    @Test
+    public void limitedToContext() throws Exception {
+        assertEquals("2", execute(existEmbeddedServer, "count(ft:query(collection('/db/search-test')//p[@n = '3'], 'alpha'))"));
+        final String best = execute(existEmbeddedServer, "string-join(" +
+                "subsequence(for $p in ft:query(collection('/db/search-test')//p, 'alpha') " +
+                "order by ft:score($p) descending return $p, 1, " + DOCUMENTS + "), ',')");
+        for (final String text : best.split(",")) {
+            assertTrue(best, text.equals("alpha alpha"));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.exist.storage.BrokerPool;
+import org.exist.test.ExistEmbeddedServer;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.exist.indexing.lucene.LuceneTestUtils.COLLECTION_CONFIG;
+import static org.exist.indexing.lucene.LuceneTestUtils.execute;
+import static org.exist.indexing.lucene.LuceneTestUtils.luceneIndexServer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests indexing top-level collections in shards of their own.
+ */
+public class LuceneIndexShardTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = luceneIndexServer("mmap", "yes", "shards", "/db/shard-a");
+
+    private static LuceneIndex index;
+
+    @BeforeClass
+    public static void shardCollections() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        index = (LuceneIndex) pool.getIndexManager().getIndexByName("lucene-index");
+
+        execute(existEmbeddedServer, "xmldb:create-collection('/db/system/config/db', 'shard-a'), " +
+                "xmldb:store('/db/system/config/db/shard-a', 'collection.xconf', " + COLLECTION_CONFIG + "), " +
+                "xmldb:create-collection('/db/system/config/db', 'shard-b'), " +
+                "xmldb:store('/db/system/config/db/shard-b', 'collection.xconf', " + COLLECTION_CONFIG + "), " +
+                "xmldb:create-collection('/db', 'shard-a'), " +
+                "xmldb:create-collection('/db/shard-a', 'sub'), " +
+                "xmldb:create-collection('/db', 'shard-b')");
+        execute(existEmbeddedServer, "xmldb:store('/db/shard-a', 'a1.xml', <doc><p>alpha</p><p>beta</p></doc>), " +
+                "xmldb:store('/db/shard-a/sub', 'a2.xml', <doc><p>alpha gamma</p></doc>), " +
+                "xmldb:store('/db/shard-b', 'b1.xml', <doc><p>alpha</p><p>gamma</p></doc>)");
+    }
+
+    @Test
+    public void shardDirectory() throws Exception {
+        index.sync();
+        final Path shardDir = index.getDataDir().resolve(index.getDirName()).resolve("shards").resolve("shard-a");
+        assertTrue(Files.isDirectory(shardDir));
+        assertTrue(Files.list(shardDir).findAny().isPresent());
+    }
+
+    @Test
+    public void queriesRoutedToShards() throws Exception {
+        assertEquals("2", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-a')//p, 'alpha'))"));
+        assertEquals("1", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-a/sub')//p, 'gamma'))"));
+        assertEquals("1", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-b')//p, 'alpha'))"));
+        assertEquals("1", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-b')//p, 'gamma'))"));
+    }
+
+    @Test
+    public void queriesAcrossShards() throws Exception {
+        assertEquals("3", execute(existEmbeddedServer, "count(ft:query((collection('/db/shard-a'), collection('/db/shard-b'))//p, 'alpha'))"));
+        assertEquals("2", execute(existEmbeddedServer, "count(ft:query(collection('/db')//p, 'gamma'))"));
+        assertEquals("a1.xml,a2.xml,b1.xml", execute(existEmbeddedServer, "string-join(" +
+                "for $p in ft:query((collection('/db/shard-a'), collection('/db/shard-b'))//p, 'alpha') " +
+                "return util:document-name($p), ',')"));
+    }
+
+    @Test
+    public void removeFromShard() throws Exception {
+        execute(existEmbeddedServer, "xmldb:store('/db/shard-a', 'a3.xml', <doc><p>delta</p></doc>)");
+        assertEquals("1", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-a')//p, 'delta'))"));
+        execute(existEmbeddedServer, "xmldb:remove('/db/shard-a', 'a3.xml')");
+        assertEquals("0", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-a')//p, 'delta'))"));
+    }
+
+    @Test
+    public void moveBetweenShards() throws Exception {
+        execute(existEmbeddedServer, "xmldb:create-collection('/db/shard-b', 'moved'), " +
+                "xmldb:store('/db/shard-b/moved', 'm1.xml', <doc><p>epsilon</p></doc>)");
+        assertEquals("1", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-b')//p, 'epsilon'))"));
+
+        execute(existEmbeddedServer, "xmldb:move('/db/shard-b/moved', '/db/shard-a')");
+        assertEquals("1", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-a/moved')//p, 'epsilon'))"));
+        assertEquals("0", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-b')//p, 'epsilon'))"));
+        assertEquals("1", execute(existEmbeddedServer, "count(ft:query(collection('/db')//p, 'epsilon'))"));
+
+        execute(existEmbeddedServer, "xmldb:move('/db/shard-a/moved', '/db/shard-b')");
+        assertEquals("1", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-b/moved')//p, 'epsilon'))"));
+        assertEquals("0", execute(existEmbeddedServer, "count(ft:query(collection('/db/shard-a')//p, 'epsilon'))"));
+        assertEquals("1", execute(existEmbeddedServer, "count(ft:query(collection('/db')//p, 'epsilon'))"));
+
+        execute(existEmbeddedServer, "xmldb:remove('/db/shard-b/moved')");
+        assertEquals("0", execute(existEmbeddedServer, "count(ft:query(collection('/db')//p, 'epsilon'))"));
+    }
+}
@@ -22,6 +22,7 @@ package org.exist.indexing.lucene;
 import static org.exist.util.PropertiesBuilder.propertiesBuilder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.io.StringReader;
@@ -249,6 +250,19 @@ public class LuceneIndexTest {
             "   </index>" +
             "</collection>";
 
+    private static final String COLLECTION_CONFIG9 =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <lucene>" +
+            "           <analyzer class=\"org.apache.lucene.analysis.core.SimpleAnalyzer\"/>" +
+            "           <text qname=\"book\">" +
+            "               <facet dimension=\"genre\" qname=\"@genre\"/>" +
+            "               <facet dimension=\"lang\" qname=\"@lang\"/>" +
+            "           </text>" +
+            "       </lucene>" +
+            "   </index>" +
+            "</collection>";
+
     private static Collection root;
     private Boolean savedConfig;
 
@@ -483,6 +497,108 @@ public class LuceneIndexTest {
         }
     }
 
+    @Test
+    public void topHits() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException {
+        // paragraphs of equal length, with 1 to 7 occurrences of the term, so that many scores are equal
+        final StringBuilder data = new StringBuilder("<section>");
+        for (int i = 1; i <= 40; i++) {
+            final int matches = (i * 3) % 7 + 1;
+            data.append("<p n='").append(i).append(i % 3 == 0 ? "' k='" + i : "").append("'>");
+            for (int j = 0; j < 8; j++) {
+                data.append(j < matches ? "x " : "y ");
+            }
+            data.append("</p>");
+        }
+        data.append("</section>");
+        configureAndStore(COLLECTION_CONFIG1, data.toString(), "test.xml");
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final String ordered = "for $p in ft:query(//p, 'x') order by ft:score($p) descending return $p";
+            final List<String> all = toList(xquery.execute(broker, "(" + ordered + ") ! @n/string()", null));
+            assertEquals(40, all.size());
+
+            // only the best matches are kept if the result is limited
+            for (final int top : new int[] { 1, 5, 7, 12 }) {
+                assertEquals(all.subList(0, top),
+                        toList(xquery.execute(broker, "subsequence(" + ordered + ", 1, " + top + ") ! @n/string()", null)));
+                assertEquals(all.subList(0, top),
+                        toList(xquery.execute(broker, "subsequence(let $q := 'x' " + ordered.replace("'x'", "$q") + ", 1, " + top + ") ! @n/string()", null)));
+            }
+
+            // a return expression which skips some matches needs more matches than the limit
+            final String filtered = "for $p in ft:query(//p, 'x') order by ft:score($p) descending return $p/@k/string()";
+            final List<String> allFiltered = toList(xquery.execute(broker, filtered, null));
+            assertEquals(13, allFiltered.size());
+            for (final int top : new int[] { 1, 5, 7, 12 }) {
+                assertEquals(allFiltered.subList(0, top),
+                        toList(xquery.execute(broker, "subsequence(" + filtered + ", 1, " + top + ")", null)));
+            }
+            assertEquals(allFiltered.subList(0, 1), toList(xquery.execute(broker, "head(" + filtered + ")", null)));
+
+            // explicit option
+            final Sequence best = xquery.execute(broker, "ft:query(//p, 'x', <options><top>5</top></options>)/@n/string()", null);
+            final List<String> expected = new ArrayList<>(all.subList(0, 5));
+            expected.sort(Comparator.comparingInt(Integer::parseInt));
+            assertEquals(expected, toList(best));
+        }
+    }
+
+    private static List<String> toList(final Sequence seq) throws XPathException {
+        final List<String> values = new ArrayList<>(seq.getItemCount());
+        for (int i = 0; i < seq.getItemCount(); i++) {
+            values.add(seq.itemAt(i).getStringValue());
+        }
+        return values;
+    }
+
+    @Test
+    public void facets() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException {
+        final String data = "<books>" +
+                "<book genre='novel' lang='en'>x y</book>" +
+                "<book genre='novel' lang='de'>x x</book>" +
+                "<book genre='poetry' lang='en'>x</book>" +
+                "<book genre='drama' lang='en'>y</book>" +
+                "<book lang='fr'>x y y</book>" +
+                "<book genre='novel' lang='en'><title>x</title></book>" +
+                "</books>";
+        configureAndStore(COLLECTION_CONFIG9, data, "test.xml");
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final String counts = "declare function local:counts($facets) { " +
+                    "for $value in map:keys($facets) order by $value return $value || '=' || $facets($value) }; ";
+
+            assertEquals(Arrays.asList("novel=3", "poetry=1"), toList(xquery.execute(broker,
+                    counts + "local:counts(ft:facets(ft:query(//book, 'x', <options><facets>yes</facets></options>), 'genre'))", null)));
+            assertEquals(Arrays.asList("de=1", "en=3", "fr=1"), toList(xquery.execute(broker,
+                    counts + "local:counts(ft:facets(ft:query(//book, 'x', <options><facets>yes</facets></options>), 'lang'))", null)));
+            assertEquals(Arrays.asList("en=3"), toList(xquery.execute(broker,
+                    counts + "local:counts(ft:facets(ft:query(//book, 'x', <options><facets>yes</facets></options>), 'lang', 1))", null)));
+            assertEquals(0, xquery.execute(broker, "map:size(ft:facets(ft:query(//book, 'x', <options><facets>yes</facets></options>), 'unknown'))", null)
+                    .itemAt(0).toJavaObject(Integer.class).intValue());
+
+            // facets are only counted if requested
+            try {
+                xquery.execute(broker, "ft:facets(ft:query(//book, 'x'), 'genre')", null);
+                fail("ft:facets should fail without the facets option");
+            } catch (final XPathException e) {
+                // expected
+            }
+
+            // the counts cover all matches, not only the best ones
+            assertEquals(Arrays.asList("novel=3", "poetry=1"), toList(xquery.execute(broker,
+                    counts + "local:counts(ft:facets(ft:query(//book, 'x', <options><top>1</top><facets>yes</facets></options>), 'genre'))", null)));
+
+            // changing the attribute updates the facet
+            xquery.execute(broker, "update value (//book)[3]/@genre with 'novel'", null);
+            assertEquals(Arrays.asList("novel=4"), toList(xquery.execute(broker,
+                    counts + "local:counts(ft:facets(ft:query(//book, 'x', <options><facets>yes</facets></options>), 'genre'))", null)));
+        }
+    }
+
     @Test
     public void queryTranslation() throws EXistException, CollectionConfigurationException, PermissionDeniedException, SAXException, TriggerException, LockException, IOException, XPathException {
         configureAndStore(COLLECTION_CONFIG1, XML7, "test.xml");
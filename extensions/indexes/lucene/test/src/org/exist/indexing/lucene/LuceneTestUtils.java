@@ -0,0 +1,111 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.exist.indexing.IndexManager;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.Configuration;
+import org.exist.util.Configuration.IndexModuleConfig;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.util.Optional;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+
+/**
+ * Utility functions for testing the settings of the Lucene index module.
+ */
+public class LuceneTestUtils {
+
+    /**
+     * Collection configuration indexing the text of all p elements
+     */
+    public static final String COLLECTION_CONFIG =
+            "<collection xmlns=\"http://exist-db.org/collection-config/1.0\">" +
+            "   <index>" +
+            "       <lucene>" +
+            "           <text qname=\"p\"/>" +
+            "       </lucene>" +
+            "   </index>" +
+            "</collection>";
+
+    /**
+     * Creates an embedded server with temporary storage, whose Lucene index module
+     * is configured as in conf.xml plus the given attributes.
+     *
+     * @param attributes pairs of attribute names and values, e.g. "search-threads", "4"
+     * @return the embedded server, to be used as a rule
+     */
+    public static ExistEmbeddedServer luceneIndexServer(final String... attributes) {
+        if (attributes.length % 2 != 0) {
+            throw new IllegalArgumentException("Expected pairs of attribute names and values");
+        }
+
+        final IndexModuleConfig[] modules;
+        final Document document;
+        try {
+            modules = ((IndexModuleConfig[]) new Configuration().getProperty(IndexManager.PROPERTY_INDEXER_MODULES)).clone();
+            document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        } catch (final DatabaseConfigurationException | ParserConfigurationException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        for (int i = 0; i < modules.length; i++) {
+            if (LuceneIndex.ID.equals(modules[i].getClassName())) {
+                // the configuration is read-only, so the module is configured with a copy
+                final Element config = (Element) document.importNode(modules[i].getConfig(), true);
+                for (int j = 0; j < attributes.length; j += 2) {
+                    config.setAttribute(attributes[j], attributes[j + 1]);
+                }
+                modules[i] = new IndexModuleConfig(modules[i].getId(), modules[i].getClassName(), config);
+            }
+        }
+
+        return new ExistEmbeddedServer(
+                propertiesBuilder()
+                        .put(IndexManager.PROPERTY_INDEXER_MODULES, modules)
+                        .build(),
+                true,
+                true);
+    }
+
+    /**
+     * Executes a query as the system subject.
+     *
+     * @param existEmbeddedServer the server to query
+     * @param query the query
+     * @return the string value of the last item of the result, or null if the result is empty
+     */
+    public static String execute(final ExistEmbeddedServer existEmbeddedServer, final String query) throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = xquery.execute(broker, query, null);
+            return result.isEmpty() ? null : result.itemAt(result.getItemCount() - 1).getStringValue();
+        }
+    }
+}
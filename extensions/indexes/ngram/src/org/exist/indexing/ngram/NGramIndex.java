@@ -71,6 +71,7 @@ public class NGramIndex extends AbstractIndex implements RawBackupSupport {
     public void open() throws DatabaseConfigurationException {
         try {
             db = new BFile(pool, (byte) 0, FILE_FORMAT_VERSION_ID, false, dataFile, pool.getCacheManager(), 1.4, 0.07);
+            pool.getPageWriter().register(db);
         } catch (DBException e) {
             throw new DatabaseConfigurationException("Failed to create index file: " + dataFile.toAbsolutePath().toString() + ": " +
                 e.getMessage());
@@ -62,6 +62,7 @@ import org.exist.util.ByteConversion;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.LockException;
 import org.exist.util.Occurrences;
+import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
 import org.exist.xquery.modules.range.RangeQueryRewriter;
 import org.exist.xquery.value.*;
@@ -106,6 +107,9 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
     private int maxCachedNodesSize = 4096 * 1024;
 
+    // the write generation after the last change made by this worker, so its queries see its own changes
+    private long writeGeneration = 0;
+
     public RangeIndexWorker(RangeIndex index, DBBroker broker) {
         this.index = index;
         this.broker = broker;
@@ -350,24 +354,35 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    @Override
+    public boolean reindexOnMove(XmldbURI source, XmldbURI destination) {
+        // the entries of the moved documents have to be written to the shard of their new collection
+        return !index.isSameShard(source, destination);
+    }
+
     @Override
     public void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException {
         if (LOG.isDebugEnabled())
             LOG.debug("Removing collection " + collection.getURI());
-        IndexWriter writer = null;
+        final List<IndexWriter> writers = new ArrayList<>();
         try {
-            writer = index.getWriter();
+            // the documents may still be indexed in another shard if the shards have been configured differently
+            writers.addAll(index.getWriters());
             for (Iterator<DocumentImpl> i = collection.iterator(broker); i.hasNext(); ) {
                 DocumentImpl doc = i.next();
                 final BytesRefBuilder bytes = new BytesRefBuilder();
                 NumericUtils.intToPrefixCoded(doc.getDocId(), 0, bytes);
                 Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
-                writer.deleteDocuments(dt);
+                for (IndexWriter writer : writers) {
+                    writer.deleteDocuments(dt);
+                }
             }
         } catch (IOException | PermissionDeniedException | LockException e) {
             LOG.error("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            for (IndexWriter writer : writers) {
+                releaseWriter(writer);
+            }
             if (reindex) {
                 try {
                     index.sync();
@@ -382,17 +397,21 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     protected void removeDocument(int docId) {
-        IndexWriter writer = null;
         try {
-            writer = index.getWriter();
             final BytesRefBuilder bytes = new BytesRefBuilder();
             NumericUtils.intToPrefixCoded(docId, 0, bytes);
             Term dt = new Term(FIELD_DOC_ID, bytes.toBytesRef());
-            writer.deleteDocuments(dt);
+            // the document may still be indexed in another shard if the shards have been configured differently
+            for (IndexWriter writer : index.getWriters()) {
+                try {
+                    writer.deleteDocuments(dt);
+                } finally {
+                    releaseWriter(writer);
+                }
+            }
         } catch (IOException e) {
             LOG.warn("Error while removing lucene index: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
             mode = ReindexMode.STORE;
         }
     }
@@ -407,7 +426,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             return;
         IndexWriter writer = null;
         try {
-            writer = index.getWriter();
+            writer = index.getWriter(currentDoc.getURI());
 
             for (NodeId nodeId : nodesToRemove) {
                 // build id from nodeId and docId
@@ -424,7 +443,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             LOG.warn("Error while deleting lucene index entries: " + e.getMessage(), e);
         } finally {
             nodesToRemove = null;
-            index.releaseWriter(writer);
+            releaseWriter(writer);
         }
     }
 
@@ -442,12 +461,17 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             write();
     }
 
+    private void releaseWriter(IndexWriter writer) {
+        index.releaseWriter(writer);
+        writeGeneration = index.getWriteGeneration();
+    }
+
     private void write() {
         if (nodesToWrite == null || nodesToWrite.size() == 0)
             return;
         IndexWriter writer = null;
         try {
-            writer = index.getWriter();
+            writer = index.getWriter(currentDoc.getURI());
 
             // docId and nodeId are stored as doc value
             IntDocValuesField fDocId = new IntDocValuesField(FIELD_DOC_ID, 0);
@@ -505,14 +529,14 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         } catch (IOException e) {
             LOG.warn("An exception was caught while indexing document: " + e.getMessage(), e);
         } finally {
-            index.releaseWriter(writer);
+            releaseWriter(writer);
             nodesToWrite = new ArrayList<RangeIndexDoc>();
             cachedNodesSize = 0;
         }
     }
 
     public NodeSet query(int contextId, DocumentSet docs, NodeSet contextSet, List<QName> qnames, AtomicValue[] keys, RangeIndex.Operator operator, int axis) throws IOException, XPathException {
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(docs, writeGeneration, searcher -> {
             List<QName> definedIndexes = getDefinedIndexes(qnames);
             NodeSet resultSet = new NewArrayNodeSet();
             for (QName qname : definedIndexes) {
@@ -537,7 +561,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     public NodeSet queryField(int contextId, DocumentSet docs, NodeSet contextSet, Sequence fields, Sequence[] keys, RangeIndex.Operator[] operators, int axis) throws IOException, XPathException {
-        return index.withSearcher(searcher -> {
+        return index.withSearcher(docs, writeGeneration, searcher -> {
             BooleanQuery query = new BooleanQuery();
             int j = 0;
             for (SequenceIterator i = fields.iterate(); i.hasNext(); j++) {
@@ -585,7 +609,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                             IndexSearcher searcher, final short nodeType, Query query, Filter filter) throws
             IOException {
         SearchCollector collector = new SearchCollector(docs, contextSet, nodeType, axis, contextId);
-        searcher.search(query, filter, collector);
+        index.search(searcher, query, filter, collector);
         return collector.getResultSet();
     }
 
@@ -705,7 +729,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     private List<QName> getDefinedIndexesFor(QName qname, final List<QName> indexes) throws IOException {
-        return index.withReader(reader -> {
+        return index.withReader(writeGeneration, reader -> {
             for (FieldInfo info: MultiFields.getMergedFieldInfos(reader)) {
                 if (!FIELD_DOC_ID.equals(info.name)) {
                     QName name = LuceneUtil.decodeQName(info.name, index.getBrokerPool().getSymbols());
@@ -901,15 +925,17 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      * @see org.apache.lucene.index.IndexWriter#forceMerge(int)
      */
     public void optimize() {
-        IndexWriter writer = null;
         try {
-            writer = index.getWriter(true);
-            writer.forceMerge(1, true);
-            writer.commit();
+            for (IndexWriter writer : index.getWriters()) {
+                try {
+                    writer.forceMerge(1, true);
+                    writer.commit();
+                } finally {
+                    releaseWriter(writer);
+                }
+            }
         } catch (IOException e) {
             LOG.warn("An exception was caught while optimizing the lucene index: " + e.getMessage(), e);
-        } finally {
-            index.releaseWriter(writer);
         }
     }
 
@@ -952,7 +978,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
     public Occurrences[] scanIndexByField(String field, DocumentSet docs, String start, long max) {
         try {
-            return index.withReader(reader -> {
+            return index.withReader(docs, writeGeneration, reader -> {
                 TreeMap<String, Occurrences> map = new TreeMap<String, Occurrences>();
                 scan(docs, null, start, null, max, map, reader, field);
 
@@ -966,7 +992,7 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     private Occurrences[] scanIndexByQName(List<QName> qnames, DocumentSet docs, NodeSet nodes, String start, String end, long max) throws IOException {
-        return index.withReader(reader -> {
+        return index.withReader(docs, writeGeneration, reader -> {
             TreeMap<String, Occurrences> map = new TreeMap<String, Occurrences>();
             for (QName qname : qnames) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
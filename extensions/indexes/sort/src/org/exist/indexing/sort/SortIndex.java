@@ -47,6 +47,7 @@ public class SortIndex extends AbstractIndex implements RawBackupSupport {
         try {
             btree = new BTreeStore(pool, SORT_INDEX_ID, FILE_FORMAT_VERSION_ID, false,
                     file, pool.getCacheManager());
+            pool.getPageWriter().register(btree);
         } catch (final DBException e) {
             LOG.error("Failed to initialize structural index: " + e.getMessage(), e);
             throw new DatabaseConfigurationException(e.getMessage(), e);
@@ -1312,6 +1312,8 @@ public class RESTServer {
                 compilationTime = 0;
             }
 
+            // a cached result keeps the files of its sorted sequences until it is removed from the cache
+            final SpilledSequences spilledSequences = cache ? new SpilledSequences() : null;
             try {
                 final long executeStart = System.currentTimeMillis();
                 final Sequence resultSequence = xquery.execute(broker, compiled, null, outputProperties);
@@ -1322,7 +1324,7 @@ public class RESTServer {
                 }
 
                 if (cache) {
-                    final int sessionId = sessionManager.add(query, resultSequence);
+                    final int sessionId = sessionManager.add(query, resultSequence, spilledSequences);
                     outputProperties.setProperty(Serializer.PROPERTY_SESSION_ID, Integer.toString(sessionId));
                     if (!response.isCommitted()) {
                         response.setIntHeader("X-Session-Id", sessionId);
@@ -1332,7 +1334,11 @@ public class RESTServer {
                 writeResults(response, broker, transaction, resultSequence, howmany, start, typed, outputProperties, wrap, compilationTime, executionTime);
 
             } finally {
-                context.runCleanupTasks();
+                if (spilledSequences != null) {
+                    context.runCleanupTasks(spilledSequences);
+                } else {
+                    context.runCleanupTasks();
+                }
                 pool.returnCompiledXQuery(source, compiled);
             }
 
@@ -25,7 +25,9 @@ import net.jcip.annotations.ThreadSafe;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SpilledSequences;
 
+import javax.annotation.Nullable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -44,25 +46,43 @@ public class SessionManager {
     private static class QueryResult {
         final String query;
         final Sequence sequence;
+        @Nullable final SpilledSequences spilledSequences;
 
-        private QueryResult(final String query, final Sequence sequence) {
+        private QueryResult(final String query, final Sequence sequence, @Nullable final SpilledSequences spilledSequences) {
             this.query = query;
             this.sequence = sequence;
+            this.spilledSequences = spilledSequences;
         }
     }
 
     public SessionManager() {
-        final Caffeine<Object, Object> cacheBuilder = Caffeine.newBuilder()
-                .expireAfterAccess(TIMEOUT, TimeUnit.MILLISECONDS);
-        if(LOG.isDebugEnabled()) {
-            cacheBuilder.removalListener((key, value, cause) -> LOG.debug("Removing cached query result for session: " + key));
-        }
+        final Caffeine<Integer, QueryResult> cacheBuilder = Caffeine.newBuilder()
+                .expireAfterAccess(TIMEOUT, TimeUnit.MILLISECONDS)
+                .removalListener((key, value, cause) -> {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Removing cached query result for session: " + key);
+                    }
+                    if (value != null && value.spilledSequences != null) {
+                        value.spilledSequences.close();
+                    }
+                });
         cache = cacheBuilder.build();
     }
 
     public int add(final String query, final Sequence sequence) {
+        return add(query, sequence, null);
+    }
+
+    /**
+     * @param query the query
+     * @param sequence the result of the query
+     * @param spilledSequences the sorted sequences the result is read from, which are closed
+     *     when the result is removed, or null
+     * @return the id of the session
+     */
+    public int add(final String query, final Sequence sequence, @Nullable final SpilledSequences spilledSequences) {
         final int sessionId = sessionIdCounter.getAndIncrement();
-        cache.put(sessionId, new QueryResult(query, sequence));
+        cache.put(sessionId, new QueryResult(query, sequence, spilledSequences));
         return sessionId;
     }
 
@@ -37,6 +37,7 @@ import org.exist.xquery.XPathException;
 import org.exist.xquery.XQuery;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SpilledSequences;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -164,9 +165,10 @@ public class RedirectorServlet extends AbstractExistHttpServlet {
         }
         final FileSource source = new FileSource(p, true);
 
-        try {
+        // the files of a sorted result are kept until the request has been dispatched
+        try (final SpilledSequences spilledSequences = new SpilledSequences()) {
             // Prepare and execute the XQuery
-            final Sequence result = executeQuery(source, request, response);
+            final Sequence result = executeQuery(source, request, response, spilledSequences);
 
             String redirectTo = null;
             String servletName = null;
@@ -265,7 +267,8 @@ public class RedirectorServlet extends AbstractExistHttpServlet {
         }
     }
 
-    private Sequence executeQuery(final Source source, final RequestWrapper request, final ResponseWrapper response) throws EXistException, XPathException, PermissionDeniedException, IOException {
+    private Sequence executeQuery(final Source source, final RequestWrapper request, final ResponseWrapper response,
+            final SpilledSequences spilledSequences) throws EXistException, XPathException, PermissionDeniedException, IOException {
         final XQuery xquery = getPool().getXQueryService();
         final XQueryPool pool = getPool().getXQueryPool();
 
@@ -289,7 +292,7 @@ public class RedirectorServlet extends AbstractExistHttpServlet {
             try {
                 return xquery.execute(broker, compiled, null, new Properties());
             } finally {
-                context.runCleanupTasks();
+                context.runCleanupTasks(spilledSequences);
                 pool.returnCompiledXQuery(source, compiled);
             }
         }
@@ -68,6 +68,8 @@ import org.exist.xquery.functions.request.RequestModule;
 import org.exist.xquery.functions.response.ResponseModule;
 import org.exist.xquery.functions.session.SessionModule;
 import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SpilledSequences;
+import org.exist.xquery.value.ValueSequence;
 import org.exist.xquery.value.Item;
 import org.exist.debuggee.DebuggeeFactory;
 import org.exist.dom.persistent.XMLUtil;
@@ -483,12 +485,14 @@ public class XQueryServlet extends AbstractExistHttpServlet {
 
             DebuggeeFactory.checkForDebugRequest(request, context);
 
+            // the result is serialized after the query has been returned to the pool
+            final SpilledSequences spilledSequences = new SpilledSequences();
             Sequence resultSequence;
             try {
                 resultSequence = xquery.execute(broker, query, null, outputProperties);
                 
             } finally {
-                context.runCleanupTasks();
+                context.runCleanupTasks(spilledSequences);
                 getPool().getXQueryPool().returnCompiledXQuery(source, query);
             }
 
@@ -518,12 +522,20 @@ public class XQueryServlet extends AbstractExistHttpServlet {
 	            }
             }
             
-            if (requestAttr != null && (XmldbURI.API_LOCAL.equals(collectionURI.getApiName())) ) {
-                request.setAttribute(requestAttr, resultSequence);
-                
-            } else {
-                XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, output);
-                serializer.serialize(resultSequence);
+            try {
+                if (requestAttr != null && (XmldbURI.API_LOCAL.equals(collectionURI.getApiName())) ) {
+                    // the attribute is read after this servlet has returned, when the temporary files of the result are gone
+                    if (!spilledSequences.isEmpty()) {
+                        resultSequence = new ValueSequence(resultSequence);
+                    }
+                    request.setAttribute(requestAttr, resultSequence);
+
+                } else {
+                    XQuerySerializer serializer = new XQuerySerializer(broker, outputProperties, output);
+                    serializer.serialize(resultSequence);
+                }
+            } finally {
+                spilledSequences.close();
             }
             
 		} catch (final PermissionDeniedException e) {
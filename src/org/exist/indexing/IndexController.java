@@ -34,6 +34,7 @@ import org.exist.storage.MetaStreamListener;
 import org.exist.storage.NodePath;
 import org.exist.storage.txn.Txn;
 import org.exist.util.DatabaseConfigurationException;
+import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.QueryRewriter;
 import org.exist.xquery.XQueryContext;
 import org.w3c.dom.Node;
@@ -208,6 +209,24 @@ public class IndexController {
         }
     }
 
+    /**
+     * Returns true if any index has to index the documents of a collection
+     * again when the collection is moved.
+     *
+     * @param source the URI of the collection before the move
+     * @param destination the URI of the collection after the move
+     * @return true if the moved documents have to be indexed again
+     * @see IndexWorker#reindexOnMove(XmldbURI, XmldbURI)
+     */
+    public boolean reindexOnMove(final XmldbURI source, final XmldbURI destination) {
+        for (final IndexWorker indexWorker : indexWorkers.values()) {
+            if (indexWorker.reindexOnMove(source, destination)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Re-index all nodes below the specified root node, using the given mode.
      *
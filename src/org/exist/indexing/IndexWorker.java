@@ -30,6 +30,7 @@ import org.exist.storage.DBBroker;
 import org.exist.storage.NodePath;
 import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.Occurrences;
+import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.QueryRewriter;
 import org.exist.xquery.XQueryContext;
 import org.w3c.dom.NodeList;
@@ -178,6 +179,19 @@ public interface IndexWorker {
      */
     void removeCollection(Collection collection, DBBroker broker, boolean reindex) throws PermissionDeniedException;
 
+    /**
+     * Returns true if the documents of a collection have to be indexed again when
+     * the collection is moved, e.g. because the index stores the documents of some
+     * collections apart from the others.
+     *
+     * @param source The URI of the collection before the move
+     * @param destination The URI of the collection after the move
+     * @return Whether or not the moved documents have to be indexed again
+     */
+    default boolean reindexOnMove(XmldbURI source, XmldbURI destination) {
+        return false;
+    }
+
     /** 
      * Checking index could be delegated to a worker. Use this method to do so.
      * @param broker The broker that will perform the operation
@@ -96,9 +96,13 @@ public class JMXtoXML {
         putCategory("locking", LockTable.getAllInstancesQuery());
         putCategory("disk", DiskUsage.getAllInstancesQuery());
         putCategory("collectioncaches", CollectionCache.getAllInstancesQuery());
+        putCategory("journal", Journal.getAllInstancesQuery());
+        putCategory("checkpoints", Checkpoints.getAllInstancesQuery());
         putCategory("caches",
                 CacheManager.getAllInstancesQuery(),
-                Cache.getAllInstancesQuery()
+                Cache.getAllInstancesQuery(),
+                PageCaches.getAllInstancesQuery(),
+                OffHeapCache.getAllInstancesQuery()
         );
         putCategory("binarystreamcaches", BinaryValues.getAllInstancesQuery());
         putCategory("processes", ProcessReport.getAllInstancesQuery());
@@ -0,0 +1,76 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.management.impl;
+
+/**
+ * JMX MXBean interface for examining the checkpoints
+ * and the background writing of dirty pages
+ */
+public interface CheckpointsMXBean extends PerInstanceMBean {
+
+    /**
+     * Determine whether dirty pages are written in the background
+     *
+     * @return true if the page writer is enabled
+     */
+    boolean isPageWriterEnabled();
+
+    /**
+     * Get the number of dirty pages in the caches of the database files
+     *
+     * @return the number of dirty pages
+     */
+    int getDirtyPages();
+
+    /**
+     * Get the number of pages which were written by the page writer
+     *
+     * @return the number of pages written
+     */
+    long getPagesWritten();
+
+    /**
+     * Get the number of checkpoints since the database was started
+     *
+     * @return the number of checkpoints
+     */
+    long getCheckpoints();
+
+    /**
+     * Get the duration of the last checkpoint
+     *
+     * @return the duration in milliseconds
+     */
+    long getLastCheckpointTime();
+
+    /**
+     * Get the duration of the longest checkpoint
+     *
+     * @return the duration in milliseconds
+     */
+    long getMaxCheckpointTime();
+
+    /**
+     * Get the total duration of all checkpoints
+     *
+     * @return the duration in milliseconds
+     */
+    long getTotalCheckpointTime();
+}
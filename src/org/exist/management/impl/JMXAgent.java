@@ -94,7 +94,12 @@ public class JMXAgent implements Agent {
                 new DiskUsage(instance),
                 new ProcessReport(instance),
                 new BinaryValues(instance),
-                new CollectionCache(instance)
+                new CollectionCache(instance),
+                new Journal(instance),
+                new PageCaches(instance),
+                new OffHeapCache(instance),
+                new Checkpoints(instance),
+                new QueryPool(instance)
         );
 
         for (final PerInstanceMBean perInstanceMBean : perInstanceMBeans) {
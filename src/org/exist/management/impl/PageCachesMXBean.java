@@ -0,0 +1,52 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.management.impl;
+
+import org.exist.storage.DefaultCacheManager;
+
+import java.util.List;
+
+/**
+ * JMX MXBean interface for examining the page caches
+ * of the database files
+ */
+public interface PageCachesMXBean extends PerInstanceMBean {
+
+    /**
+     * Get the memory budget shared by all page caches
+     *
+     * @return the budget in bytes
+     */
+    long getBudget();
+
+    /**
+     * Get the memory currently used by the pages in all page caches
+     *
+     * @return the resident size in bytes
+     */
+    long getResidentBytes();
+
+    /**
+     * Get a statistics snapshot of each page cache
+     *
+     * @return Statistics for each page cache
+     */
+    List<DefaultCacheManager.CacheStatistics> getStatistics();
+}
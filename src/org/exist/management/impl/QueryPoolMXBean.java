@@ -0,0 +1,60 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.management.impl;
+
+import org.exist.storage.XQueryPool;
+
+import java.util.List;
+
+/**
+ * JMX MXBean interface for examining the pool
+ * of compiled XQueries
+ */
+public interface QueryPoolMXBean extends PerInstanceMBean {
+
+    /**
+     * Get the number of compiled XQueries retained in the pool
+     *
+     * @return the number of compiled XQueries
+     */
+    int getRetainedQueries();
+
+    /**
+     * Get the number of expressions of the compiled XQueries retained in the pool
+     *
+     * @return the number of expressions
+     */
+    long getRetainedExpressions();
+
+    /**
+     * Get the maximum number of expressions retained in the pool
+     *
+     * @return the maximum number of expressions, or 0 if the pool is
+     *     limited by the number of XQueries
+     */
+    long getMaxExpressions();
+
+    /**
+     * Get a statistics snapshot of each recently used XQuery
+     *
+     * @return Statistics for each XQuery
+     */
+    List<XQueryPool.QueryStatistics> getStatistics();
+}
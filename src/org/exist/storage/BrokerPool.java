@@ -54,6 +54,7 @@ import org.exist.scheduler.impl.SystemTaskJobImpl;
 import org.exist.security.*;
 import org.exist.security.SecurityManager;
 import org.exist.security.internal.SecurityManagerImpl;
+import org.exist.storage.cache.OffHeapPageCache;
 import org.exist.storage.journal.JournalManager;
 import org.exist.storage.lock.FileLockService;
 import org.exist.storage.lock.LockManager;
@@ -315,6 +316,16 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
     private DefaultCacheManager cacheManager;
 
+    /**
+     * The off-heap cache of the raw pages of the database files.
+     */
+    private OffHeapPageCache offHeapPageCache;
+
+    /**
+     * Writes the dirty pages of the database files in the background.
+     */
+    private PageWriter pageWriter;
+
     private long reservedMem;
 
     /**
@@ -322,6 +333,11 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      */
     private XQueryPool xQueryPool;
 
+    /**
+     * The cache in which the results of deterministic XQuery expressions are shared between queries.
+     */
+    private QueryResultCache queryResultCache;
+
     /**
      * The monitor in which the database instance's strong>running</strong> XQueries are managed.
      */
@@ -464,6 +480,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         this.securityManager = servicesManager.register(new SecurityManagerImpl(this));
 
         this.cacheManager = servicesManager.register(new DefaultCacheManager(this));
+        final int offHeapCacheSize = conf.getInteger(OffHeapPageCache.PROPERTY_CACHE_SIZE);
+        this.offHeapPageCache = servicesManager.register(new OffHeapPageCache(pageSize, Math.max(0, offHeapCacheSize) * 1024L * 1024L));
         this.xQueryPool = servicesManager.register(new XQueryPool());
         this.processMonitor = servicesManager.register(new ProcessMonitor());
         this.xqueryStats = servicesManager.register(new PerformanceStats(this));
@@ -474,6 +492,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 .orElse(DEFAULT_COLLECTION_BUFFER_SIZE);
         this.collectionCache = servicesManager.register(new CollectionCache());
         this.notificationService = servicesManager.register(new NotificationService());
+        this.queryResultCache = servicesManager.register(new QueryResultCache());
 
         this.journalManager = recoveryEnabled ? Optional.of(new JournalManager()) : Optional.empty();
         if(journalManager.isPresent()) {
@@ -482,6 +501,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
         final SystemTaskManager systemTaskManager = servicesManager.register(new SystemTaskManager(this));
         this.transactionManager = servicesManager.register(new TransactionManager(this, journalManager, systemTaskManager));
+        this.pageWriter = servicesManager.register(new PageWriter(this));
 
         this.symbols = servicesManager.register(new SymbolTable());
 
@@ -768,7 +788,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             LOG.debug("ForceRestart = " + forceRestart);
         }
         if(journalManager.isPresent()) {
-            final RecoveryManager recovery = new RecoveryManager(broker, journalManager.get(), forceRestart);
+            final int redoThreads = conf.getProperty(RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS, RecoveryManager.DEFAULT_REDO_THREADS);
+            final RecoveryManager recovery = new RecoveryManager(broker, journalManager.get(), forceRestart, redoThreads);
             return recovery.recover();
         } else {
             throw new IllegalStateException("Cannot run recovery without a JournalManager");
@@ -999,6 +1020,24 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return cacheManager;
     }
 
+    /**
+     * Returns the background writer of the dirty pages of the database files.
+     *
+     * @return The page writer
+     */
+    public PageWriter getPageWriter() {
+        return pageWriter;
+    }
+
+    /**
+     * Returns the off-heap cache of the raw pages of the database files.
+     *
+     * @return The cache, which may be disabled
+     */
+    public OffHeapPageCache getOffHeapPageCache() {
+        return offHeapPageCache;
+    }
+
     /**
      * Returns the index manager which handles all additional indexes not
      * being part of the database core.
@@ -1019,6 +1058,16 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return xQueryPool;
     }
 
+    /**
+     * Returns the cache in which the results of deterministic XQuery expressions
+     * are shared between queries.
+     *
+     * @return The cache
+     */
+    public QueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
     /**
      * Retuns the XQuery Service
      *
@@ -1416,6 +1465,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
      * @param syncEvent One of {@link org.exist.storage.sync.Sync}
      */
     public void sync(final DBBroker broker, final Sync syncEvent) {
+        final long start = System.currentTimeMillis();
 
         /**
          * Database Systems - The Complete Book (Second edition)
@@ -1451,6 +1501,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 }
 
                 lastMajorSync = System.currentTimeMillis();
+                pageWriter.checkpointCompleted(lastMajorSync - start);
                 if (LOG.isDebugEnabled()) {
                     notificationService.debug();
                 }
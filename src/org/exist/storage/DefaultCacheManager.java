@@ -26,14 +26,22 @@ import org.apache.logging.log4j.Logger;
 
 import org.exist.management.Agent;
 import org.exist.management.AgentFactory;
+import org.exist.storage.cache.BTreeCache;
+import org.exist.storage.cache.BTreeCacheable;
 import org.exist.storage.cache.Cache;
+import org.exist.storage.cache.Cacheable;
+import org.exist.storage.cache.LRUCache;
+import org.exist.storage.cache.TinyLFUCache;
 import org.exist.util.Configuration;
 import org.exist.util.DatabaseConfigurationException;
 
+import java.beans.ConstructorProperties;
 import java.text.NumberFormat;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -41,6 +49,10 @@ import java.util.List;
  * individual caches until the total memory is reached. Caches can also be shrinked if their "load" remains below a given threshold between check
  * intervals.The check interval is determined by the global sync background thread.
  *
+ * <p>Once the memory is used up, the pages are periodically rebalanced between the caches according to their marginal benefit: every cache keeps
+ * a ghost list of the pages it recently evicted, and the number of evicted pages which had to be loaded again per page of the cache estimates how
+ * many misses the cache would avoid if it had more pages. Pages are moved from the cache with the lowest to the cache with the highest benefit.</p>
+ *
  * <p>The class computes the available memory in terms of pages.</p>
  *
  * @author  wolf
@@ -58,6 +70,15 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
     /** The amount by which a large cache will be shrinked if other caches request a resize. */
     public final static double  SHRINK_FACTOR                   = 0.7;
 
+    /**
+     * The factor by which the benefit of additional pages for a cache must exceed the benefit for another cache before pages are moved
+     * between them.
+     */
+    public final static double  REBALANCE_FACTOR                = 2.0;
+
+    /** The minimum number of ghost hits between check intervals for a cache to be considered for growing by rebalancing. */
+    public final static int     REBALANCE_MIN_GHOST_HITS        = 64;
+
     /**
      * The minimum number of pages that must be read from a cache between check intervals to be not considered for shrinking. This is a measure for
      * the "load" of the cache. Caches with high load will never be shrinked. A negative value means that shrinkage will not be performed.
@@ -76,6 +97,14 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
     public static final String  SHRINK_THRESHOLD_ATTRIBUTE     		 	= "cacheShrinkThreshold";
     public static final String  SHRINK_THRESHOLD_PROPERTY      			= "db-connection.cache-shrink-threshold";
 
+    /** Replacement policy of the page caches: scan resistant W-TinyLFU */
+    public static final String  CACHE_POLICY_TINY_LFU           			= "tinylfu";
+    /** Replacement policy of the page caches: plain LRU, inner btree pages are kept */
+    public static final String  CACHE_POLICY_LRU                			= "lru";
+    public static final String  DEFAULT_CACHE_POLICY            			= CACHE_POLICY_LRU;
+    public static final String  CACHE_POLICY_ATTRIBUTE          			= "cachePolicy";
+    public static final String  PROPERTY_CACHE_POLICY           			= "db-connection.cache-policy";
+
     /** Caches maintained by this class. */
     private List<Cache>         caches                          = new ArrayList<Cache>();
 
@@ -100,13 +129,19 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
     private int                 shrinkThreshold                 = DEFAULT_SHRINK_THRESHOLD;
 
     /**
-     * Signals that a resize had been requested by a cache, but the request could not be accepted during normal operations. The manager might try to
-     * shrink the largest cache during the next sync event.
+     * Signals that a resize had been requested by a cache, but the request could not be accepted during normal operations. The manager might
+     * rebalance the pages between the caches during the next sync event.
      */
     private Cache               lastRequest                     = null;
 
+    /** Counters of each cache at the last check interval, used to compute the benefit of the cache. */
+    private final Map<Cache<?>, CacheUsage> usages                 = new IdentityHashMap<>();
+
     private String              instanceName;
 
+    /** The replacement policy of the page caches created by this manager. */
+    private final String        cachePolicy;
+
     public DefaultCacheManager( BrokerPool pool )
     {
         this.instanceName = pool.getId();
@@ -125,6 +160,17 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
 
         shrinkThreshold = configuration.getInteger( SHRINK_THRESHOLD_PROPERTY );
 
+        final String policy = (String)configuration.getProperty( PROPERTY_CACHE_POLICY );
+
+        if( policy == null ) {
+            cachePolicy = DEFAULT_CACHE_POLICY;
+        } else if( CACHE_POLICY_TINY_LFU.equals( policy ) || CACHE_POLICY_LRU.equals( policy ) ) {
+            cachePolicy = policy;
+        } else {
+            LOG.warn( "Unknown cache policy \"" + policy + "\", using \"" + DEFAULT_CACHE_POLICY + "\"" );
+            cachePolicy = DEFAULT_CACHE_POLICY;
+        }
+
         totalMem        = cacheSize * 1024L * 1024L;
 
         final Boolean checkMaxCache = (Boolean)configuration.getProperty( PROPERTY_CACHE_CHECK_MAX_SIZE );
@@ -153,27 +199,71 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
 
         LOG.info( "Cache settings: " + nf.format( totalMem / 1024L ) + "k; totalPages: " + nf.format( totalPageCount ) +
                 "; maxCacheSize: " + nf.format( maxCacheSize ) +
-                "; cacheShrinkThreshold: " + nf.format( shrinkThreshold )
+                "; cacheShrinkThreshold: " + nf.format( shrinkThreshold ) +
+                "; cachePolicy: " + cachePolicy
         );
 
         registerMBean();
     }
 
+    /**
+     * Creates a cache for the pages of a B+-tree, using the configured
+     * replacement policy. The cache is not registered.
+     *
+     * @param name the name of the cache
+     * @param size the initial number of pages in the cache
+     * @param growthFactor the factor by which the cache may grow
+     * @param growthThreshold the amount of thrashing before the cache requests to grow
+     *
+     * @return the new cache
+     */
+    public <T extends BTreeCacheable> Cache<T> createBTreeCache( final String name, final int size, final double growthFactor, final double growthThreshold )
+    {
+        if( CACHE_POLICY_LRU.equals( cachePolicy ) ) {
+            return( new BTreeCache<>( name, size, growthFactor, growthThreshold, Cache.CacheType.BTREE ) );
+        }
+        return( new TinyLFUCache<>( name, size, growthFactor, growthThreshold, Cache.CacheType.BTREE ) );
+    }
+
+
+    /**
+     * Creates a cache for data pages, using the configured
+     * replacement policy. The cache is not registered.
+     *
+     * @param name the name of the cache
+     * @param size the initial number of pages in the cache
+     * @param growthFactor the factor by which the cache may grow
+     * @param growthThreshold the amount of thrashing before the cache requests to grow
+     *
+     * @return the new cache
+     */
+    public <T extends Cacheable> Cache<T> createDataCache( final String name, final int size, final double growthFactor, final double growthThreshold )
+    {
+        if( CACHE_POLICY_LRU.equals( cachePolicy ) ) {
+            return( new LRUCache<>( name, size, growthFactor, growthThreshold, Cache.CacheType.DATA ) );
+        }
+        return( new TinyLFUCache<>( name, size, growthFactor, growthThreshold, Cache.CacheType.DATA ) );
+    }
+
+
     @Override
-    public void registerCache( Cache cache )
+    public synchronized void registerCache( Cache cache )
     {
         currentPageCount += cache.getBuffers();
         caches.add( cache );
+        usages.put( cache, new CacheUsage( cache ) );
         cache.setCacheManager( this );
         registerMBean( cache );
     }
 
 
     @Override
-    public void deregisterCache( Cache cache )
+    public synchronized void deregisterCache( Cache cache )
     {
         Cache next;
 
+        usages.remove( cache );
+
         for( int i = 0; i < caches.size(); i++ ) {
             next = (Cache)caches.get( i );
 
@@ -195,7 +285,7 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
                 lastRequest = cache;
             }
 
-            // no free pages available
+            // no free pages available, the pages may be rebalanced during the next sync event
 //            LOG.debug("Cache " + cache.getName() + " cannot be resized");
             return( -1 );
         }
@@ -249,7 +339,7 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
      * <p>If shrinked, the cache will be reset to the default initial cache size.</p>
      */
     @Override
-    public void checkCaches()
+    public synchronized void checkCaches()
     {
         final int   minSize = (int)( totalPageCount * MIN_SHRINK_FACTOR );
         Cache cache;
@@ -279,32 +369,80 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
     }
 
 
+    /**
+     * Called from the global minor sync event to rebalance the pages between the caches, if a cache requested more pages which could not be
+     * granted since the last check. The benefit of additional pages for a cache is the
+     * number of its ghost hits per page since the last check. Free pages are given to the cache with the highest benefit. If there are no free
+     * pages, and the benefit for that cache exceeds the benefit for the cache with the lowest benefit by {@link #REBALANCE_FACTOR}, the latter
+     * is shrinked by {@link #SHRINK_FACTOR} and its pages are given to the former.
+     */
     @Override
-    public void checkDistribution()
+    public synchronized void checkDistribution()
     {
+        Cache<?> receiver = null;
+        Cache<?> donor = null;
+        double maxBenefit = 0;
+        double minBenefit = Double.MAX_VALUE;
+
+        for( final Cache<?> cache : caches ) {
+            final CacheUsage usage = usages.get( cache );
+            usage.update( cache );
+
+            if( cache.getGrowthFactor() <= 1.0 ) {
+                continue;
+            }
+
+            if( usage.intervalGhostHits >= REBALANCE_MIN_GHOST_HITS && usage.benefit > maxBenefit && cache.getBuffers() < maxCacheSize ) {
+                maxBenefit = usage.benefit;
+                receiver = cache;
+            }
+
+            if( usage.benefit < minBenefit && cache.getBuffers() > getDefaultInitialSize() ) {
+                minBenefit = usage.benefit;
+                donor = cache;
+            }
+        }
+
+        // only rebalance if a cache could not grow since the last check
         if( lastRequest == null ) {
             return;
         }
-        final int   minSize = (int)( totalPageCount * MIN_SHRINK_FACTOR );
-        Cache cache;
+        lastRequest = null;
 
-        for( int i = 0; i < caches.size(); i++ ) {
-            cache = (Cache)caches.get( i );
+        if( receiver == null ) {
+            return;
+        }
 
-            if( cache.getBuffers() >= minSize ) {
-                int newSize = (int)( cache.getBuffers() * SHRINK_FACTOR );
+        int pages = totalPageCount - currentPageCount;
 
-                if( LOG.isDebugEnabled() ) {
-                    final NumberFormat nf = NumberFormat.getNumberInstance();
-                    LOG.debug( "Shrinking cache: " + cache.getName() + " (a " + cache.getClass().getName() + ") to " + nf.format( newSize ) );
-                }
-                currentPageCount -= cache.getBuffers();
-                cache.resize( newSize );
-                currentPageCount += newSize;
-                break;
+        if( pages <= 0 ) {
+
+            if( donor == null || donor == receiver || maxBenefit < minBenefit * REBALANCE_FACTOR ) {
+                return;
             }
+            final int newSize = Math.max( getDefaultInitialSize(), (int)( donor.getBuffers() * SHRINK_FACTOR ) );
+            pages = donor.getBuffers() - newSize;
+
+            if( LOG.isDebugEnabled() ) {
+                final NumberFormat nf = NumberFormat.getNumberInstance();
+                LOG.debug( "Shrinking cache: " + donor.getName() + " (a " + donor.getClass().getName() + ") to " + nf.format( newSize ) +
+                        " in favour of " + receiver.getName() );
+            }
+            currentPageCount -= donor.getBuffers();
+            donor.resize( newSize );
+            currentPageCount += newSize;
         }
-        lastRequest = null;
+
+        final int newSize = Math.min( maxCacheSize, receiver.getBuffers() + pages );
+
+        if( LOG.isDebugEnabled() ) {
+            final NumberFormat nf = NumberFormat.getNumberInstance();
+            LOG.debug( "Growing cache " + receiver.getName() + " (a " + receiver.getClass().getName() + ") from " + nf.format( receiver.getBuffers() ) +
+                    " to " + nf.format( newSize ) );
+        }
+        currentPageCount -= receiver.getBuffers();
+        receiver.resize( newSize );
+        currentPageCount += newSize;
     }
 
 
@@ -339,6 +477,31 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
         return( totalMem );
     }
 
+    public int getPageSize()
+    {
+        return( pageSize );
+    }
+
+    /**
+     * Returns the current usage statistics of all caches.
+     *
+     * @return the statistics of each cache
+     */
+    public synchronized List<CacheStatistics> getStatistics()
+    {
+        final List<CacheStatistics> statistics = new ArrayList<>( caches.size() );
+
+        for( final Cache<?> cache : caches ) {
+            final CacheUsage usage = usages.get( cache );
+            final int hits = cache.getHits();
+            final int fails = cache.getFails();
+            statistics.add( new CacheStatistics( cache.getName(), cache.getType().name(), cache.getBuffers(), cache.getUsedBuffers(),
+                    (long)cache.getUsedBuffers() * pageSize, hits, fails, hits + fails == 0 ? 0 : hits / (double)( hits + fails ),
+                    cache.getEvictions(), cache.getGhostHits(), usage == null ? 0 : usage.benefit ) );
+        }
+        return( statistics );
+    }
+
     /**
      * Returns the default initial size for all caches.
      *
@@ -367,4 +530,144 @@ public class DefaultCacheManager implements CacheManager, BrokerPoolService
             LOG.warn("Exception while registering JMX Cache MBean.", e);
         }
     }
+
+
+    /**
+     * Counters of a cache at the last check interval.
+     */
+    private static class CacheUsage
+    {
+        private long   lastGhostHits;
+        private long   intervalGhostHits = 0;
+
+        /** ghost hits per page during the last check interval */
+        private double benefit = 0;
+
+        CacheUsage( final Cache<?> cache )
+        {
+            this.lastGhostHits = cache.getGhostHits();
+        }
+
+        void update( final Cache<?> cache )
+        {
+            final long ghostHits = cache.getGhostHits();
+            intervalGhostHits = ghostHits - lastGhostHits;
+            lastGhostHits = ghostHits;
+            benefit = intervalGhostHits / (double)Math.max( 1, cache.getBuffers() );
+        }
+    }
+
+    /**
+     * Usage statistics of a single cache.
+     */
+    public static class CacheStatistics
+    {
+        private final String name;
+        private final String type;
+        private final int    size;
+        private final int    used;
+        private final long   residentBytes;
+        private final int    hits;
+        private final int    fails;
+        private final double hitRatio;
+        private final long   evictions;
+        private final long   ghostHits;
+        private final double benefit;
+
+        @ConstructorProperties( { "name", "type", "size", "used", "residentBytes", "hits", "fails", "hitRatio", "evictions", "ghostHits", "benefit" } )
+        public CacheStatistics( final String name, final String type, final int size, final int used, final long residentBytes, final int hits,
+                final int fails, final double hitRatio, final long evictions, final long ghostHits, final double benefit )
+        {
+            this.name          = name;
+            this.type          = type;
+            this.size          = size;
+            this.used          = used;
+            this.residentBytes = residentBytes;
+            this.hits          = hits;
+            this.fails         = fails;
+            this.hitRatio      = hitRatio;
+            this.evictions     = evictions;
+            this.ghostHits     = ghostHits;
+            this.benefit       = benefit;
+        }
+
+        /**
+         * @return the name of the cache, i.e. the name of the database file
+         */
+        public String getName()
+        {
+            return( name );
+        }
+
+        /**
+         * @return the type of the cache, BTREE or DATA
+         */
+        public String getType()
+        {
+            return( type );
+        }
+
+        /**
+         * @return the maximum number of pages in the cache
+         */
+        public int getSize()
+        {
+            return( size );
+        }
+
+        /**
+         * @return the number of pages currently in the cache
+         */
+        public int getUsed()
+        {
+            return( used );
+        }
+
+        /**
+         * @return the number of bytes of the pages currently in the cache
+         */
+        public long getResidentBytes()
+        {
+            return( residentBytes );
+        }
+
+        public int getHits()
+        {
+            return( hits );
+        }
+
+        public int getFails()
+        {
+            return( fails );
+        }
+
+        /**
+         * @return the fraction of lookups which were found in the cache
+         */
+        public double getHitRatio()
+        {
+            return( hitRatio );
+        }
+
+        public long getEvictions()
+        {
+            return( evictions );
+        }
+
+        /**
+         * @return the number of evicted pages which had to be loaded again shortly after
+         */
+        public long getGhostHits()
+        {
+            return( ghostHits );
+        }
+
+        /**
+         * @return the ghost hits per page of the cache during the last check interval
+         */
+        public double getBenefit()
+        {
+            return( benefit );
+        }
+    }
 }
@@ -268,6 +268,7 @@ public class NativeBroker extends DBBroker {
                 this.domDb = configuredDomFile;
             } else {
                 this.domDb = new DOMFile(pool, DOM_DBX_ID, dataDir, config);
+                pool.getPageWriter().register(domDb);
             }
             if(domDb.isReadOnly()) {
                 LOG.warn(FileUtils.fileName(domDb.getFile()) + " is read-only!");
@@ -280,6 +281,7 @@ public class NativeBroker extends DBBroker {
                 this.collectionsDb = configuredCollectionsDb;
             } else {
                 this.collectionsDb = new CollectionStore(pool, COLLECTIONS_DBX_ID, dataDir, config);
+                pool.getPageWriter().register(collectionsDb);
             }
             if(collectionsDb.isReadOnly()) {
                 LOG.warn(FileUtils.fileName(collectionsDb.getFile()) + " is read-only!");
@@ -1684,6 +1686,17 @@ public class NativeBroker extends DBBroker {
             trigger.beforeMoveCollection(this, transaction, sourceCollection, destinationCollectionUri);
         }
 
+        // some indexes keep the documents of different collections apart, and have to index the moved documents again
+        final boolean reindex = getIndexController().reindexOnMove(sourceCollectionUri, destinationCollectionUri);
+        if (reindex) {
+            for (final Iterator<DocumentImpl> i = sourceCollection.iteratorNoLock(this); i.hasNext(); ) {  // NOTE: we already have a WRITE lock on sourceCollection
+                final DocumentImpl document = i.next();
+                if (document.getResourceType() == DocumentImpl.XML_FILE) {
+                    dropIndex(transaction, document);
+                }
+            }
+        }
+
         // remove source from parent
         if (sourceCollectionParent != null) {
             final XmldbURI sourceCollectionName = sourceCollectionUri.lastSegment();
@@ -1711,6 +1724,15 @@ public class NativeBroker extends DBBroker {
             saveCollection(transaction, targetCollection);
         }
 
+        if (reindex) {
+            for (final Iterator<DocumentImpl> i = sourceCollection.iteratorNoLock(this); i.hasNext(); ) {  // NOTE: we already have a WRITE lock on sourceCollection
+                final DocumentImpl document = i.next();
+                if (document.getResourceType() == DocumentImpl.XML_FILE) {
+                    reindexXMLResource(transaction, document, IndexMode.REPAIR);
+                }
+            }
+        }
+
         if(fireTrigger) {
             trigger.afterMoveCollection(this, transaction, sourceCollection, sourceCollectionUri);
         }
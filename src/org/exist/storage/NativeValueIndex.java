@@ -184,6 +184,7 @@ public class NativeValueIndex implements ContentLoadingObserver {
             nativeFile = new BFile(broker.getBrokerPool(), id, FILE_FORMAT_VERSION_ID, false, file,
                     broker.getBrokerPool().getCacheManager(), cacheGrowth,
                     cacheValueThresHold);
+            broker.getBrokerPool().getPageWriter().register(nativeFile);
             config.setProperty(getConfigKeyForFile(), nativeFile);
         }
         dbValues = nativeFile;
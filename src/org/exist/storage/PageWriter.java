@@ -0,0 +1,286 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.lock.ManagedLock;
+import org.exist.util.Configuration;
+import org.exist.util.LockException;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.exist.util.ThreadUtils.newInstanceThread;
+
+/**
+ * Writes the dirty pages of the database files to disk in the background.
+ *
+ * A major sync (checkpoint) writes all dirty pages of all files, whilst
+ * the database does not accept any new operations. The page writer
+ * periodically writes a small batch of dirty pages of each file, holding
+ * the lock of only one file at a time, so that a checkpoint finds few
+ * pages left to write and the database stalls for less time.
+ *
+ * The journal is flushed before the pages of a file are written, so that
+ * no page reaches the disk before the journal entries which describe it.
+ *
+ * Each run takes the btree lock of every file and walks its caches to find
+ * the dirty pages, so the page writer is disabled by default and is only
+ * worth enabling where checkpoints of write heavy databases stall for long.
+ *
+ * The page writer also counts the dirty pages of the database files and
+ * records the duration of the checkpoints, whether or not it is enabled.
+ */
+@ThreadSafe
+public class PageWriter implements BrokerPoolService {
+
+    private final static Logger LOG = LogManager.getLogger(PageWriter.class);
+
+    public static final String PAGE_WRITER_PERIOD_ATTRIBUTE = "page-writer-period";
+    public static final String PROPERTY_PAGE_WRITER_PERIOD = "db-connection.pool.page-writer-period";
+    public static final String PAGE_WRITER_BATCH_ATTRIBUTE = "page-writer-batch";
+    public static final String PROPERTY_PAGE_WRITER_BATCH = "db-connection.pool.page-writer-batch";
+
+    public static final long DEFAULT_PAGE_WRITER_PERIOD = 0;
+    public static final int DEFAULT_PAGE_WRITER_BATCH = 128;
+
+    private final BrokerPool pool;
+    private final Set<BTree> files = new CopyOnWriteArraySet<>();
+
+    private long period = DEFAULT_PAGE_WRITER_PERIOD;
+    private int batch = DEFAULT_PAGE_WRITER_BATCH;
+    @Nullable private ScheduledExecutorService executor = null;
+
+    private final LongAdder pagesWritten = new LongAdder();
+
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong totalCheckpointTime = new AtomicLong();
+    private final AtomicLong maxCheckpointTime = new AtomicLong();
+    private volatile long lastCheckpointTime = 0;
+
+    public PageWriter(final BrokerPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void configure(final Configuration configuration) {
+        this.period = configuration.getProperty(PROPERTY_PAGE_WRITER_PERIOD, DEFAULT_PAGE_WRITER_PERIOD);
+        this.batch = configuration.getProperty(PROPERTY_PAGE_WRITER_BATCH, DEFAULT_PAGE_WRITER_BATCH);
+    }
+
+    @Override
+    public synchronized void startMultiUser(final BrokerPool brokerPool) {
+        if (!isEnabled() || brokerPool.isReadOnly()) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = newInstanceThread(brokerPool, "page-writer", runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::writeDirtyPages, period, period, TimeUnit.MILLISECONDS);
+        LOG.info("Page writer: period " + period + "ms; batch " + batch + " pages");
+    }
+
+    @Override
+    public void stop(final DBBroker systemBroker) {
+        stopExecutor();
+    }
+
+    @Override
+    public void shutdown() {
+        stopExecutor();
+        files.clear();
+    }
+
+    private synchronized void stopExecutor() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            // the files are closed once the services have been stopped
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.warn("Waiting for the page writer to finish");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+
+    /**
+     * @return true if dirty pages are written in the background
+     */
+    public boolean isEnabled() {
+        return period > 0 && batch > 0;
+    }
+
+    /**
+     * Registers a file whose pages are to be written in the background,
+     * and whose dirty pages are counted by {@link #getDirtyPages()}.
+     * The file must have been fully constructed and opened, and must be
+     * guarded by the btree lock named {@link BTree#getLockName()}.
+     *
+     * Does nothing if the file is read-only.
+     *
+     * @param file the database file
+     */
+    public void register(final BTree file) {
+        if (file.getLockName() == null || file.isReadOnly()) {
+            return;
+        }
+        files.add(file);
+    }
+
+    /**
+     * Deregisters a file which is about to be closed.
+     *
+     * @param file the database file
+     */
+    public void deregister(final BTree file) {
+        files.remove(file);
+    }
+
+    /**
+     * Writes a batch of dirty pages of each registered file.
+     *
+     * @return the number of pages written
+     */
+    int writeDirtyPages() {
+        if (BrokerPool.FORCE_CORRUPTION) {
+            return 0;
+        }
+
+        int written = 0;
+        for (final BTree file : files) {
+            final ManagedLock<ReentrantLock> fileLock;
+            try {
+                fileLock = pool.getLockManager().acquireBtreeWriteLock(file.getLockName());
+            } catch (final LockException e) {
+                LOG.warn("Failed to acquire lock on " + file.getLockName(), e);
+                continue;
+            }
+            try {
+                if (BrokerPool.FORCE_CORRUPTION) {
+                    break;
+                }
+                if (!files.contains(file)) {
+                    // the file has been closed in the meantime
+                    continue;
+                }
+
+                // write-ahead: the journal entries of the pages must reach the disk first
+                pool.getJournalManager().ifPresent(journal -> journal.flush(true, false));
+
+                written += file.flushDirtyPages(batch);
+            } catch (final RuntimeException e) {
+                LOG.error("Error while writing the dirty pages of " + file.getLockName(), e);
+            } finally {
+                fileLock.close();
+            }
+        }
+
+        pagesWritten.add(written);
+        return written;
+    }
+
+    /**
+     * Records the duration of a checkpoint.
+     *
+     * @param duration the duration of the checkpoint in milliseconds
+     */
+    void checkpointCompleted(final long duration) {
+        checkpoints.incrementAndGet();
+        totalCheckpointTime.addAndGet(duration);
+        maxCheckpointTime.accumulateAndGet(duration, Math::max);
+        lastCheckpointTime = duration;
+    }
+
+    /**
+     * @return the number of pages written by the page writer
+     */
+    public long getPagesWritten() {
+        return pagesWritten.sum();
+    }
+
+    /**
+     * Counts the dirty pages in the caches of the registered files, whether
+     * or not the page writer is enabled. The btree lock of each file is
+     * taken in turn while its caches are walked.
+     *
+     * @return the number of dirty pages
+     */
+    public int getDirtyPages() {
+        int dirty = 0;
+        for (final BTree file : files) {
+            final ManagedLock<ReentrantLock> fileLock;
+            try {
+                fileLock = pool.getLockManager().acquireBtreeReadLock(file.getLockName());
+            } catch (final LockException e) {
+                LOG.warn("Failed to acquire lock on " + file.getLockName(), e);
+                continue;
+            }
+            try {
+                if (files.contains(file)) {
+                    dirty += file.getDirtyPages();
+                }
+            } finally {
+                fileLock.close();
+            }
+        }
+        return dirty;
+    }
+
+    public long getCheckpoints() {
+        return checkpoints.get();
+    }
+
+    /**
+     * @return the duration of the last checkpoint in milliseconds
+     */
+    public long getLastCheckpointTime() {
+        return lastCheckpointTime;
+    }
+
+    /**
+     * @return the duration of the longest checkpoint in milliseconds
+     */
+    public long getMaxCheckpointTime() {
+        return maxCheckpointTime.get();
+    }
+
+    /**
+     * @return the total duration of all checkpoints in milliseconds
+     */
+    public long getTotalCheckpointTime() {
+        return totalCheckpointTime.get();
+    }
+}
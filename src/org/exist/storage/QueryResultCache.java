@@ -0,0 +1,241 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import java.text.NumberFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeHandle;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.numbering.NodeId;
+import org.exist.util.Configuration;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.ValueSequence;
+
+/**
+ * Global cache for the results of deterministic XQuery expressions, which
+ * are shared by all queries. Results are stored by the
+ * {@link org.exist.xquery.pragmas.CachePragma} under a key describing the
+ * expression and everything it may depend on.
+ *
+ * The documents read by an expression are not known, so every change of
+ * the database invalidates all cached results: a result is only returned
+ * as long as no transaction has been completed and no document has been
+ * updated since its evaluation started.
+ *
+ * Only results consisting of atomic values and stored nodes are cached.
+ * The maximum number of cached results and the maximum number of items
+ * of a cached result can be configured in conf.xml.
+ */
+@ThreadSafe
+public class QueryResultCache implements BrokerPoolService, UpdateListener {
+
+    private static final Logger LOG = LogManager.getLogger(QueryResultCache.class);
+
+    public static final String CONFIGURATION_ELEMENT_NAME = "query-result-cache";
+    public static final String SIZE_ATTRIBUTE = "size";
+    public static final String MAX_ITEMS_ATTRIBUTE = "max-items";
+
+    public static final String PROPERTY_SIZE = "db-connection.query-result-cache.size";
+    public static final String PROPERTY_MAX_ITEMS = "db-connection.query-result-cache.max-items";
+
+    private static final int DEFAULT_SIZE = 128;
+    private static final int DEFAULT_MAX_ITEMS = 10_000;
+
+    private int size = DEFAULT_SIZE;
+    private int maxItems = DEFAULT_MAX_ITEMS;
+
+    private BrokerPool pool;
+    private Cache<String, Entry> cache;
+
+    /**
+     * Counts the document updates, which are reported before
+     * the transaction changing the documents is completed.
+     */
+    private final AtomicLong updates = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Override
+    public void configure(final Configuration configuration) {
+        final Integer sz = (Integer) configuration.getProperty(PROPERTY_SIZE);
+        final Integer maxItms = (Integer) configuration.getProperty(PROPERTY_MAX_ITEMS);
+        if (sz != null) {
+            this.size = sz;
+        }
+        if (maxItms != null) {
+            this.maxItems = maxItms;
+        }
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(Math.max(0, size))
+                .build();
+
+        final NumberFormat nf = NumberFormat.getNumberInstance();
+        LOG.info("QueryResultCache: size = " + nf.format(size) + "; maxItems = " + nf.format(maxItems));
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) {
+        this.pool = brokerPool;
+        brokerPool.getNotificationService().subscribe(this);
+    }
+
+    /**
+     * Returns a stamp, which changes whenever the database is changed.
+     * The stamp has to be taken before the evaluation of a result
+     * passed to {@link #put(String, long, Sequence)}.
+     *
+     * @return the modification stamp of the database
+     */
+    public long getModificationStamp() {
+        return pool.getTransactionManager().getCompletedTransactionCount() + updates.get();
+    }
+
+    /**
+     * Returns the cached result stored under the given key.
+     *
+     * @param key the key of the result
+     * @return a copy of the result, or null if no result is
+     *     cached or the database has been changed since
+     */
+    public Sequence get(final String key) {
+        if (size <= 0) {
+            return null;
+        }
+
+        final Entry entry = cache.getIfPresent(key);
+        if (entry == null || entry.stamp != getModificationStamp()) {
+            if (entry != null) {
+                cache.invalidate(key);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+
+        final ValueSequence result = new ValueSequence(entry.items.length);
+        for (final Item item : entry.items) {
+            if (item instanceof NodeProxy) {
+                // the caller may add context information to the node
+                result.add(new NodeProxy((NodeHandle) item));
+            } else {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stores a result in the cache, if the database has not been changed
+     * during its evaluation and if it only consists of atomic values and
+     * stored nodes.
+     *
+     * @param key the key of the result
+     * @param stamp the {@link #getModificationStamp() modification stamp}
+     *     taken before the evaluation of the result
+     * @param result the result to cache
+     * @return true if the result has been cached
+     * @throws XPathException if the result can not be read
+     */
+    public boolean put(final String key, final long stamp, final Sequence result) throws XPathException {
+        if (size <= 0 || result.getItemCount() > maxItems || stamp != getModificationStamp()) {
+            return false;
+        }
+
+        final Item[] items = new Item[result.getItemCount()];
+        int i = 0;
+        for (final SequenceIterator it = result.iterate(); it.hasNext(); ) {
+            final Item item = it.nextItem();
+            if (item instanceof NodeProxy) {
+                items[i++] = new NodeProxy((NodeHandle) item);
+            } else if (item instanceof AtomicValue) {
+                items[i++] = item;
+            } else {
+                // in-memory nodes, functions, maps or arrays
+                return false;
+            }
+        }
+
+        cache.put(key, new Entry(stamp, items));
+        return true;
+    }
+
+    /**
+     * Removes all results from the cache.
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public void documentUpdated(final DocumentImpl document, final int event) {
+        updates.incrementAndGet();
+        // the results are outdated, free the memory
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+        updates.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void unsubscribe() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void debug() {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("QueryResultCache: " + cache.estimatedSize() + " results; " + hits.get() + " hits; " + misses.get() + " misses");
+        }
+    }
+
+    private static final class Entry {
+        private final long stamp;
+        private final Item[] items;
+
+        private Entry(final long stamp, final Item[] items) {
+            this.stamp = stamp;
+            this.items = items;
+        }
+    }
+}
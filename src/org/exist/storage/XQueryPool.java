@@ -19,21 +19,33 @@
  */
 package org.exist.storage;
 
+import java.beans.ConstructorProperties;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Queue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
+import antlr.collections.AST;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import net.jcip.annotations.ThreadSafe;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.security.Permission;
 import org.exist.security.PermissionDeniedException;
 import org.exist.source.Source;
+import org.exist.source.SourceFactory;
 import org.exist.util.Configuration;
 import org.exist.xquery.*;
+import org.exist.xquery.Module;
 import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
 
 /**
@@ -48,6 +60,20 @@ import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
  * used for a pre-defined timeout (default is {@link #DEFAULT_TIMEOUT}); these
  * settings can be configured in conf.xml.
  *
+ * The pool either holds a maximum number of XQueries, or, if max-expressions
+ * is configured, a maximum number of expressions summed over all retained
+ * compiled copies (including the imported library modules), so that the
+ * number of copies kept adapts to the size of the queries. When the pool is
+ * full, Caffeine's W-TinyLFU policy chooses the XQueries to evict, which
+ * weighs how often a query has been used, not only how recently, so that a
+ * burst of one-off queries does not push the frequently used ones out. The
+ * queries listed as preload in conf.xml are compiled into the pool when the
+ * database starts.
+ *
+ * The pool also keeps the syntax trees of the parsed library modules, which
+ * are shared by all queries importing a module, so that a module is only
+ * parsed again once its source has changed.
+ *
  * @author <a href="mailto:adam@evolvedbinary.com">Adam Retter</a>
  */
 @ThreadSafe
@@ -59,22 +85,38 @@ public class XQueryPool implements BrokerPoolService {
     public static final String MAX_STACK_SIZE_ATTRIBUTE = "max-stack-size";
     public static final String POOL_SIZE_ATTTRIBUTE = "size";
     public static final String TIMEOUT_ATTRIBUTE = "timeout";
+    public static final String MAX_EXPRESSIONS_ATTRIBUTE = "max-expressions";
+    public static final String PRELOAD_ELEMENT_NAME = "preload";
+    public static final String PRELOAD_LOCATION_ATTRIBUTE = "location";
 
     public static final String PROPERTY_MAX_STACK_SIZE = "db-connection.query-pool.max-stack-size";
     public static final String PROPERTY_POOL_SIZE = "db-connection.query-pool.size";
     public static final String PROPERTY_TIMEOUT = "db-connection.query-pool.timeout";
+    public static final String PROPERTY_MAX_EXPRESSIONS = "db-connection.query-pool.max-expressions";
+    public static final String PROPERTY_PRELOAD = "db-connection.query-pool.preload";
 
     private static final int DEFAULT_MAX_POOL_SIZE = 128;
     private static final int DEFAULT_MAX_QUERY_STACK_SIZE = 64;
     private static final long DEFAULT_TIMEOUT = 120_000L;   // ms (i.e. 2 mins)
+    private static final long DEFAULT_MAX_EXPRESSIONS = 0;  // i.e. limit the number of XQueries instead
+
+    /**
+     * Maximum number of XQueries for which statistics are kept.
+     */
+    private static final int MAX_STATISTICS = 1024;
 
     private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
     private int maxQueryStackSize = DEFAULT_MAX_QUERY_STACK_SIZE;
     private long timeout = DEFAULT_TIMEOUT;
+    private long maxExpressions = DEFAULT_MAX_EXPRESSIONS;
+    private List<String> preload = Collections.emptyList();
 
     private final AtomicBoolean configured = new AtomicBoolean();
-    private Cache<Source, Queue<CompiledXQuery>> cache;
+    private Cache<Source, PooledQueries> cache;
+    private Cache<Source, ParsedModule> modules;
+    private Cache<Source, SourceStatistics> statistics;
 
+    @SuppressWarnings("unchecked")
     @Override
     public void configure(final Configuration configuration) {
         if(configured.compareAndSet(false, true)) {
@@ -82,6 +124,8 @@ public class XQueryPool implements BrokerPoolService {
             final Integer maxStSz = (Integer) configuration.getProperty(PROPERTY_MAX_STACK_SIZE);
             final Integer maxPoolSz = (Integer) configuration.getProperty(PROPERTY_POOL_SIZE);
             final Long t = (Long) configuration.getProperty(PROPERTY_TIMEOUT);
+            final Long maxExprs = (Long) configuration.getProperty(PROPERTY_MAX_EXPRESSIONS);
+            final List<String> preloadLocations = (List<String>) configuration.getProperty(PROPERTY_PRELOAD);
             final NumberFormat nf = NumberFormat.getNumberInstance();
 
             if (maxPoolSz != null) {
@@ -102,7 +146,33 @@ public class XQueryPool implements BrokerPoolService {
                 this.timeout = DEFAULT_TIMEOUT;
             }
 
+            if (maxExprs != null) {
+                this.maxExpressions = maxExprs;
+            } else {
+                this.maxExpressions = DEFAULT_MAX_EXPRESSIONS;
+            }
+
+            if (preloadLocations != null) {
+                this.preload = preloadLocations;
+            }
+
+            this.statistics = Caffeine.newBuilder()
+                    .maximumSize(MAX_STATISTICS)
+                    .build();
+
             this.cache = Caffeine.newBuilder()
+                    .maximumWeight(maxExpressions > 0 ? maxExpressions : maxPoolSize)
+                    .weigher((Source source, PooledQueries queries) -> maxExpressions > 0 ? queries.getWeight() : 1)
+                    .expireAfterAccess(timeout, TimeUnit.MILLISECONDS)
+                    .executor(Runnable::run)
+                    .removalListener((Source source, PooledQueries queries, RemovalCause cause) -> {
+                        if (source != null && queries != null && cause.wasEvicted()) {
+                            getStatistics(source).evictions.add(queries.queue.size());
+                        }
+                    })
+                    .build();
+
+            this.modules = Caffeine.newBuilder()
                     .maximumSize(maxPoolSize)
                     .expireAfterAccess(timeout, TimeUnit.MILLISECONDS)
                     .build();
@@ -110,12 +180,45 @@ public class XQueryPool implements BrokerPoolService {
             LOG.info("QueryPool: " +
             "size = " + nf.format(maxPoolSize) + "; " +
             "maxQueryStackSize = " + nf.format(maxQueryStackSize) + "; " +
-            "timeout = " + nf.format(timeout) + "; ");
+            "timeout = " + nf.format(timeout) + "; " +
+            "maxExpressions = " + nf.format(maxExpressions) + "; ");
         } else {
             throw new IllegalStateException("XQuery Pool has already been configured");
         }
     }
 
+    @Override
+    public void startMultiUser(final BrokerPool brokerPool) {
+        if (preload.isEmpty()) {
+            return;
+        }
+
+        try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = brokerPool.getXQueryService();
+            for (final String location : preload) {
+                try {
+                    final Source source = SourceFactory.getSource(broker, null, location, true);
+                    if (source == null) {
+                        LOG.warn("QueryPool: query to preload not found: " + location);
+                        continue;
+                    }
+                    final XQueryContext context = new XQueryContext(brokerPool);
+                    // resolve relative module imports against the location of the query
+                    final int lastSlash = location.lastIndexOf('/');
+                    if (lastSlash > -1) {
+                        context.setModuleLoadPath(location.substring(0, lastSlash + 1));
+                    }
+                    final CompiledXQuery compiled = xquery.compile(broker, context, source);
+                    returnCompiledXQuery(source, compiled);
+                } catch (final Exception e) {
+                    LOG.warn("QueryPool: failed to preload query " + location + ": " + e.getMessage(), e);
+                }
+            }
+        } catch (final Exception e) {
+            LOG.warn("QueryPool: failed to preload queries: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Returns a compiled XQuery to the XQuery pool.
      *
@@ -128,16 +231,16 @@ public class XQueryPool implements BrokerPoolService {
         }
 
         cache.asMap().compute(source, (key, value) -> {
-            final Queue<CompiledXQuery> queue;
+            final PooledQueries queries;
             if (value != null) {
-                queue = value;
+                queries = value;
             } else {
-                queue = new MpmcAtomicArrayQueue<>(maxQueryStackSize);
+                queries = new PooledQueries(new MpmcAtomicArrayQueue<>(maxQueryStackSize), countExpressions(compiledXQuery));
             }
 
-            queue.offer(compiledXQuery);
+            queries.queue.offer(compiledXQuery);
 
-            return queue;
+            return queries;
         });
     }
 
@@ -159,12 +262,15 @@ public class XQueryPool implements BrokerPoolService {
             return null;
         }
 
-        // get (compute by checking validity) the stack of compiled XQuerys for the source
-        final Queue<CompiledXQuery> queue = cache.asMap().computeIfPresent(source, (key, value) -> {
-            if(!value.isEmpty()) {
+        final CompiledXQuery[] borrowed = new CompiledXQuery[1];
+
+        // get (compute by checking validity) the stack of compiled XQuerys for the source,
+        // the compiled XQuery is taken within the computation to update the weight of the entry
+        cache.asMap().computeIfPresent(source, (key, value) -> {
+            if(!value.queue.isEmpty()) {
 
                 // remove any stack of compiled queries which are now invalid
-                final CompiledXQuery firstCompiledXQuery = value.peek();
+                final CompiledXQuery firstCompiledXQuery = value.queue.peek();
                 final Source cachedSource = firstCompiledXQuery.getSource();
                 Source.Validity validity = cachedSource.isValid(broker);
                 if (validity == Source.Validity.UNKNOWN) {
@@ -183,19 +289,20 @@ public class XQueryPool implements BrokerPoolService {
                 if(!firstCompiledXQuery.isValid()) {
                     return null;    // returning null will remove the entry from the cache
                 }
+
+                borrowed[0] = value.queue.poll();
             }
 
             return value;
         });
 
-        if(queue == null) {
-            return null;
-        }
-
-        final CompiledXQuery query = queue.poll();
+        final CompiledXQuery query = borrowed[0];
+        final SourceStatistics sourceStatistics = getStatistics(source);
         if(query == null) {
+            sourceStatistics.misses.increment();
             return null;
         }
+        sourceStatistics.hits.increment();
 
         //check execution permission
         source.validate(broker.getCurrentSubject(), Permission.EXECUTE);
@@ -203,10 +310,270 @@ public class XQueryPool implements BrokerPoolService {
         return query;
     }
 
+    /**
+     * Records the compilation of an XQuery, which was not available
+     * from the XQuery pool.
+     *
+     * @param source The source of the compiled XQuery.
+     * @param nanos The time taken to compile the XQuery in nanoseconds.
+     */
+    public void compiledXQuery(final Source source, final long nanos) {
+        if (source == null || statistics == null) {
+            return;
+        }
+        final SourceStatistics sourceStatistics = getStatistics(source);
+        sourceStatistics.compilations.increment();
+        sourceStatistics.compileTime.add(nanos);
+    }
+
+    private SourceStatistics getStatistics(final Source source) {
+        return statistics.get(source, key -> new SourceStatistics());
+    }
+
+    /**
+     * Counts the expressions of a compiled XQuery including
+     * the expressions of the imported library modules.
+     */
+    private static int countExpressions(final CompiledXQuery compiledXQuery) {
+        final XQueryContext context = compiledXQuery.getContext();
+        if (context == null) {
+            return 1;
+        }
+        long count = context.getExpressionCount();
+        for (final Iterator<Module> i = context.getAllModules(); i.hasNext(); ) {
+            final Module module = i.next();
+            if (!module.isInternalModule() && ((ExternalModule) module).getContext() != null) {
+                count += ((ExternalModule) module).getContext().getExpressionCount();
+            }
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, count));
+    }
+
+    /**
+     * Returns the total number of compiled XQueries retained in the XQuery pool.
+     *
+     * @return the number of compiled XQueries
+     */
+    public int getRetainedQueries() {
+        int retained = 0;
+        for (final PooledQueries queries : cache.asMap().values()) {
+            retained += queries.queue.size();
+        }
+        return retained;
+    }
+
+    /**
+     * Returns the total number of expressions of the compiled XQueries
+     * retained in the XQuery pool.
+     *
+     * @return the number of expressions
+     */
+    public long getRetainedExpressions() {
+        long retained = 0;
+        for (final PooledQueries queries : cache.asMap().values()) {
+            retained += (long) queries.queue.size() * queries.expressions;
+        }
+        return retained;
+    }
+
+    public long getMaxExpressions() {
+        return maxExpressions;
+    }
+
+    /**
+     * Get a statistics snapshot for each XQuery which has recently
+     * been borrowed from or compiled for the XQuery pool.
+     *
+     * @return Statistics for each XQuery
+     */
+    public List<QueryStatistics> getStatistics() {
+        final List<QueryStatistics> snapshot = new ArrayList<>();
+        for (final Map.Entry<Source, SourceStatistics> entry : statistics.asMap().entrySet()) {
+            final Source source = entry.getKey();
+            final SourceStatistics sourceStatistics = entry.getValue();
+            final PooledQueries queries = cache.getIfPresent(source);
+            snapshot.add(new QueryStatistics(
+                    describe(source),
+                    queries == null ? 0 : queries.queue.size(),
+                    queries == null ? 0 : queries.expressions,
+                    sourceStatistics.hits.sum(),
+                    sourceStatistics.misses.sum(),
+                    sourceStatistics.compilations.sum(),
+                    TimeUnit.NANOSECONDS.toMillis(sourceStatistics.compileTime.sum()),
+                    sourceStatistics.evictions.sum()));
+        }
+        return snapshot;
+    }
+
+    static String describe(final Source source) {
+        final String path = source.path();
+        if (path != null && !path.equals(source.type())) {
+            return path;
+        }
+        // e.g. the text of a StringSource
+        final String key = String.valueOf(source.getKey()).replaceAll("\\s+", " ").trim();
+        return source.type() + ": " + (key.length() > 80 ? key.substring(0, 80) + "..." : key);
+    }
+
+    /**
+     * Stores the syntax tree of a parsed library module in the XQuery pool.
+     * The syntax tree is not modified when compiling the module and thus may
+     * be shared by any number of threads.
+     *
+     * @param source The source of the library module.
+     * @param ast The syntax tree of the library module.
+     */
+    public void returnModuleAST(final Source source, final AST ast) {
+        if (source == null || ast == null) {
+            return;
+        }
+        modules.put(source, new ParsedModule(source, ast));
+    }
+
+    /**
+     * Gets the syntax tree of a parsed library module from the XQuery pool.
+     *
+     * @param broker A database broker.
+     * @param source The source of the library module.
+     *
+     * @return The syntax tree of the library module, or null if the module
+     *     has not been parsed yet or its source has changed since.
+     */
+    public AST borrowModuleAST(final DBBroker broker, final Source source) {
+        if (broker == null || source == null) {
+            return null;
+        }
+
+        final ParsedModule module = modules.asMap().computeIfPresent(source, (key, value) -> {
+            Source.Validity validity = value.source.isValid(broker);
+            if (validity == Source.Validity.UNKNOWN) {
+                validity = value.source.isValid(source);
+            }
+
+            if (validity == Source.Validity.INVALID || validity == Source.Validity.UNKNOWN) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(source.getKey() + " is invalid, removing module from XQuery Pool...");
+                }
+                return null;    // returning null will remove the entry from the cache
+            }
+
+            return value;
+        });
+
+        return module == null ? null : module.ast;
+    }
+
     /**
      * Removes all entries from the XQuery Pool.
      */
     public void clear() {
         cache.invalidateAll();
+        modules.invalidateAll();
+    }
+
+    /**
+     * The compiled copies of an XQuery retained in the pool.
+     */
+    private static final class PooledQueries {
+        private final Queue<CompiledXQuery> queue;
+        private final int expressions;
+
+        private PooledQueries(final Queue<CompiledXQuery> queue, final int expressions) {
+            this.queue = queue;
+            this.expressions = expressions;
+        }
+
+        private int getWeight() {
+            return (int) Math.min(Integer.MAX_VALUE, (long) Math.max(1, queue.size()) * expressions);
+        }
+    }
+
+    private static final class SourceStatistics {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder compilations = new LongAdder();
+        private final LongAdder compileTime = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+    }
+
+    public static class QueryStatistics {
+        private final String source;
+        private final int retained;
+        private final int expressions;
+        private final long hits;
+        private final long misses;
+        private final long compilations;
+        private final long compileTime;
+        private final long evictions;
+
+        @ConstructorProperties({ "source", "retained", "expressions", "hits", "misses", "compilations", "compileTime", "evictions" })
+        public QueryStatistics(final String source, final int retained, final int expressions, final long hits,
+                final long misses, final long compilations, final long compileTime, final long evictions) {
+            this.source = source;
+            this.retained = retained;
+            this.expressions = expressions;
+            this.hits = hits;
+            this.misses = misses;
+            this.compilations = compilations;
+            this.compileTime = compileTime;
+            this.evictions = evictions;
+        }
+
+        /**
+         * @return the path of the XQuery or the beginning of its text
+         */
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * @return the number of compiled copies retained in the pool
+         */
+        public int getRetained() {
+            return retained;
+        }
+
+        /**
+         * @return the number of expressions of a compiled copy
+         */
+        public int getExpressions() {
+            return expressions;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getCompilations() {
+            return compilations;
+        }
+
+        /**
+         * @return the total time spent compiling the XQuery in milliseconds
+         */
+        public long getCompileTime() {
+            return compileTime;
+        }
+
+        /**
+         * @return the number of compiled copies evicted from the pool
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+    }
+
+    private static final class ParsedModule {
+        private final Source source;
+        private final AST ast;
+
+        private ParsedModule(final Source source, final AST ast) {
+            this.source = source;
+            this.ast = ast;
+        }
     }
 }
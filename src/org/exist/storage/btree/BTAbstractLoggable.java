@@ -44,6 +44,10 @@ public abstract class BTAbstractLoggable extends AbstractLoggable {
         this.broker = (NativeBroker) broker;
     }
 
+    public byte getFileId() {
+        return fileId;
+    }
+
     protected BTree getStorage() {
         return broker.getStorage(fileId);
     }
@@ -83,6 +83,7 @@ import org.exist.storage.cache.*;
 import org.exist.storage.journal.*;
 import org.exist.storage.txn.Txn;
 import org.exist.util.ByteConversion;
+import org.exist.util.Configuration;
 import org.exist.util.FileUtils;
 import org.exist.util.Lockable;
 import org.exist.xquery.TerminatedException;
@@ -118,6 +119,36 @@ public class BTree extends Paged implements Lockable {
 
     protected final static int MIN_SPACE_PER_KEY = 32;
 
+    /**
+     * Format of the leaf pages of newly created files, either "legacy" (the default)
+     * or "slotted". Files with slotted leaf pages cannot be read by versions of
+     * eXist which do not know that format.
+     */
+    public static final String LEAF_FORMAT_ATTRIBUTE = "btree-leaf-format";
+    public static final String PROPERTY_LEAF_FORMAT = "db-connection.btree-leaf-format";
+    public static final String LEAF_FORMAT_LEGACY_ID = "legacy";
+    public static final String LEAF_FORMAT_SLOTTED_ID = "slotted";
+
+    /**
+     * Leaf page format in which the keys are front-coded against their
+     * predecessor and must all be decoded to search the page.
+     */
+    protected final static byte LEAF_FORMAT_LEGACY = 0;
+
+    /**
+     * Leaf page format which starts with a directory of restart points,
+     * followed by the pointers and the front-coded keys. Every
+     * {@link #RESTART_INTERVAL}th key is stored in full, so a page can
+     * be searched without decoding its keys.
+     */
+    protected final static byte LEAF_FORMAT_SLOTTED = 1;
+
+    /** Number of keys between two restart points of a slotted leaf page */
+    protected final static int RESTART_INTERVAL = 16;
+
+    /** Maximum number of leading bytes a key may share with its predecessor in a slotted leaf page */
+    private final static int MAX_SHARED_LEN = 0xFF;
+
     /** Log entry type for an insert value operation */
     public final static byte LOG_INSERT_VALUE = 0x20;
     /** Log entry type for creation of a new BTree node */
@@ -160,6 +191,9 @@ public class BTree extends Paged implements Lockable {
 
     private double splitFactor = -1;
 
+    /** Leaf format of files created, or rebuilt, by this instance */
+    private final byte configuredLeafFormat;
+
     protected BTree(final BrokerPool pool, final byte fileId, final short fileVersion, final boolean recoveryEnabled,
             final DefaultCacheManager cacheManager) throws DBException {
         super(pool, fileVersion);
@@ -169,6 +203,7 @@ public class BTree extends Paged implements Lockable {
         this.fileHeader = (BTreeFileHeader) getFileHeader();
         fileHeader.setPageCount(0);
         fileHeader.setTotalCount(0);
+        this.configuredLeafFormat = getConfiguredLeafFormat(pool.getConfiguration());
         if (recoveryEnabled && pool.isRecoveryEnabled()) {
             this.logManager = pool.getJournalManager();
         } else {
@@ -176,6 +211,17 @@ public class BTree extends Paged implements Lockable {
         }
     }
 
+    private static byte getConfiguredLeafFormat(final Configuration config) {
+        final String leafFormat = config == null ? null : (String) config.getProperty(PROPERTY_LEAF_FORMAT);
+        if (leafFormat == null || LEAF_FORMAT_LEGACY_ID.equals(leafFormat)) {
+            return LEAF_FORMAT_LEGACY;
+        } else if (LEAF_FORMAT_SLOTTED_ID.equals(leafFormat)) {
+            return LEAF_FORMAT_SLOTTED;
+        }
+        LOG.warn("Unknown " + PROPERTY_LEAF_FORMAT + ": " + leafFormat + ", using: " + LEAF_FORMAT_LEGACY_ID);
+        return LEAF_FORMAT_LEGACY;
+    }
+
     protected boolean isRecoveryEnabled() {
         return logManager.isPresent() && pool.isRecoveryEnabled();
     }
@@ -198,6 +244,7 @@ public class BTree extends Paged implements Lockable {
                 return false;
             }
             fileHeader.setFixedKeyLen(fixedKeyLen);
+            fileHeader.setLeafFormat(configuredLeafFormat);
             try {
                 fileHeader.write();
             } catch (final IOException e) {
@@ -219,6 +266,7 @@ public class BTree extends Paged implements Lockable {
 
     @Override
     public void closeAndRemove() {
+        deregisterPageWriter();
         super.closeAndRemove();
         cacheManager.deregisterCache(cache);
     }
@@ -229,11 +277,16 @@ public class BTree extends Paged implements Lockable {
     }
 
     protected void initCache() {
-        this.cache = new BTreeCache<>(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(), 1.5,
-            0, Cache.CacheType.BTREE);
+        this.cache = cacheManager.createBTreeCache(FileUtils.fileName(getFile()), cacheManager.getDefaultInitialSize(), 1.5, 0);
         cacheManager.registerCache(cache);
     }
 
+    private void deregisterPageWriter() {
+        if (pool != null && pool.getPageWriter() != null) {
+            pool.getPageWriter().deregister(this);
+        }
+    }
+
     protected void setSplitFactor(final double factor) {
         if (factor > 1.0) {
             throw new IllegalArgumentException("splitFactor should be <= 1 > 0");
@@ -313,6 +366,7 @@ public class BTree extends Paged implements Lockable {
         long next = page.pageHeader.getNextPage();
         while (next != Page.NO_PAGE) {
             final BTreeNode nextPage = getBTreeNode(next);
+            nextPage.load();
             for (int i = 0; i < nextPage.nKeys; i++) {
                 final boolean test = query.testValue(nextPage.keys[i]);
                 if (query.getOperator() != IndexQuery.NEQ && !test) {
@@ -392,6 +446,7 @@ public class BTree extends Paged implements Lockable {
 
     protected void scanSequential(BTreeNode page, final IndexQuery query, final Value keyPrefix, final BTreeCallback callback) throws TerminatedException {
         while (page != null) {
+            page.load();
             for (int i = 0; i < page.nKeys; i++) {
                 if (keyPrefix != null && page.keys[i].comparePrefix(keyPrefix) > 0) {
                     return;
@@ -534,8 +589,31 @@ public class BTree extends Paged implements Lockable {
         return flushed;
     }
 
+    /**
+     * Writes at most {@code maxPages} dirty pages of the file's caches to
+     * disk, without removing them from the caches. The caller must hold the
+     * btree lock of the file, and must have flushed the journal.
+     *
+     * @param maxPages the maximum number of pages to write
+     * @return the number of pages written
+     */
+    public int flushDirtyPages(final int maxPages) {
+        return cache.flush(maxPages);
+    }
+
+    /**
+     * Get the number of dirty pages in the file's caches. The caller
+     * must hold the btree lock of the file.
+     *
+     * @return the number of dirty pages
+     */
+    public int getDirtyPages() {
+        return cache.getDirtyCount();
+    }
+
     @Override
 	public void close() throws DBException {
+        deregisterPageWriter();
         if (!isReadOnly()) {
             flush();
         }
@@ -656,13 +734,17 @@ public class BTree extends Paged implements Lockable {
 
     /**
      * Rebuild the btree: removes all branches and rebuilds the tree by scanning
-     * through leaf pages.
+     * through leaf pages. If the slotted leaf format is configured, leaf pages
+     * in the legacy format are converted to it first.
      *
      * @throws TerminatedException
      * @throws IOException
      * @throws DBException
      */
     public void rebuild() throws TerminatedException, IOException, DBException {
+        if (configuredLeafFormat == LEAF_FORMAT_SLOTTED && fileHeader.getLeafFormat() != LEAF_FORMAT_SLOTTED) {
+            convertLeafPages();
+        }
         final TreeInfo info  = scanTree(true);
         if (info.leafPages == 1) {
             final BTreeNode root = getBTreeNode(info.firstPage);
@@ -693,7 +775,7 @@ public class BTree extends Paged implements Lockable {
     //                throw new IOException("No keys found in page " + node.page.getPageNum());
                     continue;
                 }
-                final Value key = node.keys[0];
+                final Value key = node.getKey(0);
                 final BTreeNode parent = findParent(key);
                 if (parent == null) {
                     throw new IOException("Parent is null for page " + node.page.getPageNum());
@@ -707,6 +789,59 @@ public class BTree extends Paged implements Lockable {
         }
     }
 
+    /**
+     * Rewrite all leaf pages in the slotted format. Pages which do not fit
+     * into the slotted format are split, the new pages are only linked into
+     * the chain of leaf pages, which is sufficient for {@link #rebuild()}.
+     *
+     * @throws IOException
+     * @throws DBException
+     */
+    private void convertLeafPages() throws IOException, DBException {
+        LOG.info("Converting leaf pages of " + FileUtils.fileName(getFile()) + " to the slotted format");
+        flush();
+        final Set<Long> converted = new HashSet<>();
+        final long pages = getFileHeader().getTotalCount();
+        for (long i = 0; i < pages; i++) {
+            if (converted.contains(i)) {
+                continue;
+            }
+            BTreeNode node = cache.get(i);
+            if (node == null) {
+                final Page page = getPage(i);
+                page.read();
+                if (page.getPageHeader().getStatus() != LEAF) {
+                    continue;
+                }
+                node = new BTreeNode(page, false);
+                node.read(LEAF_FORMAT_LEGACY);
+            } else if (node.pageHeader.getStatus() != LEAF) {
+                continue;
+            }
+            convertLeafPage(node, converted);
+        }
+        fileHeader.setLeafFormat(LEAF_FORMAT_SLOTTED);
+        fileHeader.write();
+    }
+
+    private void convertLeafPage(final BTreeNode node, final Set<Long> converted) throws IOException {
+        if (node.getCodedDataLen(LEAF_FORMAT_SLOTTED) + node.getRestartsLen(LEAF_FORMAT_SLOTTED) > fileHeader.getWorkSize()) {
+            // move the upper half of the keys to a new page
+            final int pivot = node.nKeys / 2;
+            final BTreeNode right = createBTreeNode(null, LEAF, null, false);
+            right.setValues(Arrays.copyOfRange(node.keys, pivot, node.nKeys));
+            right.setPointers(Arrays.copyOfRange(node.ptrs, pivot, node.nPtrs));
+            right.pageHeader.setNextPage(node.pageHeader.getNextPage());
+            node.setValues(Arrays.copyOfRange(node.keys, 0, pivot));
+            node.setPointers(Arrays.copyOfRange(node.ptrs, 0, pivot));
+            node.pageHeader.setNextPage(right.page.getPageNum());
+            convertLeafPage(right, converted);
+        }
+        node.write(LEAF_FORMAT_SLOTTED);
+        node.currentDataLen = -1;
+        converted.add(node.page.getPageNum());
+    }
+
     /**
      * Walk the tree to find the parent page to which key should
      * be promoted.
@@ -804,6 +939,7 @@ public class BTree extends Paged implements Lockable {
     protected void redoUpdateValue(final UpdateValueLoggable loggable) throws LogException {
         final BTreeNode node = getBTreeNode(loggable.pageNum);
         if (!node.page.getPageHeader().getLsn().equals(Lsn.LSN_INVALID) && requiresRedo(loggable, node.page)) {
+            node.load();
             if (loggable.idx > node.ptrs.length) {
                 LOG.warn(node.page.getPageInfo() +
                         "; loggable.idx = " + loggable.idx + "; node.ptrs.length = " + node.ptrs.length);
@@ -852,6 +988,7 @@ public class BTree extends Paged implements Lockable {
     protected void redoUpdatePage(final UpdatePageLoggable loggable) throws LogException {
         final BTreeNode node = getBTreeNode(loggable.pageNum);
         if (requiresRedo(loggable, node.page)) {
+            node.load();
             node.prefix = loggable.prefix;
             node.keys = loggable.values;
             node.nKeys = loggable.values.length;
@@ -901,9 +1038,18 @@ public class BTree extends Paged implements Lockable {
         private final Page page;
         private final BTreePageHeader pageHeader;
 
-        /** stores the keys in this page */
+        /**
+         * stores the keys in this page, null if the keys of
+         * a slotted leaf page have not been decoded yet
+         */
         private Value[] keys;
 
+        /**
+         * the data of a slotted leaf page as read from disk,
+         * until the keys are decoded by {@link #load()}
+         */
+        private byte[] raw = null;
+
         private Value prefix = Value.EMPTY_VALUE;
 
         /** the number of keys currently stored */
@@ -1041,6 +1187,7 @@ public class BTree extends Paged implements Lockable {
          * @param vals
          */
         private void setValues(final Value[] vals) {
+            load();
             keys = vals;
             nKeys = vals.length;
             pageHeader.setValueCount((short) nKeys);
@@ -1053,11 +1200,19 @@ public class BTree extends Paged implements Lockable {
          * @param pointers
          */
         private void setPointers(final long[] pointers) {
+            load();
             ptrs = pointers;
             nPtrs = pointers.length;
             saved = false;
         }
 
+        /**
+         * @return the format of this node's page
+         */
+        private byte getFormat() {
+            return pageHeader.getStatus() == LEAF ? fileHeader.getLeafFormat() : LEAF_FORMAT_LEGACY;
+        }
+
         /**
          * Returns the raw data size (in bytes) required by this node.
          * 
@@ -1065,7 +1220,7 @@ public class BTree extends Paged implements Lockable {
          */
         private int getDataLen() {
             return currentDataLen < 0 ?
-                recalculateDataLen() : currentDataLen;
+                recalculateDataLen() : currentDataLen + getRestartsLen(getFormat());
         }
 
         /**
@@ -1074,30 +1229,70 @@ public class BTree extends Paged implements Lockable {
          * @return the data length
          */
         private int recalculateDataLen() {
-            currentDataLen = ptrs == null ? 0 : nPtrs * 8;
-            if(fileHeader.getFixedKeyLen() < 0) {
-                currentDataLen += 2 * nKeys;
-            }
+            final byte format = getFormat();
+            currentDataLen = getCodedDataLen(format);
+            return currentDataLen + getRestartsLen(format);
+        }
+
+        /**
+         * Calculates the data size (in bytes) required to store this node
+         * in the given format, without the restart points of a slotted page.
+         * Each key is accounted as if it was front-coded against its
+         * predecessor, which allows to adjust the size for single key
+         * inserts.
+         */
+        private int getCodedDataLen(final byte format) {
+            load();
+            int len = nPtrs * 8;
             if (pageHeader.getStatus() == BRANCH) {
-                currentDataLen += prefix.getLength() + 2;
-            }
-            if (pageHeader.getStatus() == LEAF) {
-                currentDataLen += nKeys - 1;
+                len += prefix.getLength() + 2;
             }
             for (int i = 0; i < nKeys; i++) {
-                if (pageHeader.getStatus() == LEAF && i > 0) {
+                len += getKeyDataLen(format, keys[i], i > 0 ? keys[i - 1] : null);
+            }
+            return len;
+        }
+
+        /**
+         * Calculates the additional data size (in bytes) of the restart
+         * points of a slotted leaf page: the directory entries plus
+         * the prefixes which are not shared by the restart keys.
+         */
+        private int getRestartsLen(final byte format) {
+            if (format != LEAF_FORMAT_SLOTTED || pageHeader.getStatus() != LEAF) {
+                return 0;
+            }
+            load();
+            final int restarts = (nKeys + RESTART_INTERVAL - 1) / RESTART_INTERVAL;
+            int len = restarts * 2;
+            for (int i = RESTART_INTERVAL; i < nKeys; i += RESTART_INTERVAL) {
+                len += calculatePrefixLen(format, keys[i], keys[i - 1]);
+            }
+            return len;
+        }
+
+        /**
+         * Calculates the data size (in bytes) of a key, excluding its pointer.
+         *
+         * @param format the page format
+         * @param key the key
+         * @param previous the key preceding the key in a leaf page, or null
+         */
+        private int getKeyDataLen(final byte format, final Value key, final Value previous) {
+            int len = key.getLength();
+            if (fileHeader.getFixedKeyLen() < 0) {
+                len += format == LEAF_FORMAT_SLOTTED ? getVarLengthSize(key.getLength()) : 2;
+            }
+            if (pageHeader.getStatus() == LEAF) {
+                if (previous != null) {
                     // if this is a leaf page, we use prefix compression to store the keys,
-                    // so subtract the size of the prefix
-                    int prefix = keys[i].commonPrefix(keys[i - 1]);
-                    if (prefix < 0 || prefix > Byte.MAX_VALUE) {
-                        prefix = 0;
-                    }
-                    currentDataLen += keys[i].getLength() - prefix;
-                } else {
-                    currentDataLen += keys[i].getLength();
+                    // so subtract the size of the prefix, add one byte for the prefix length
+                    len += 1 - calculatePrefixLen(format, key, previous);
+                } else if (format == LEAF_FORMAT_SLOTTED) {
+                    len++;
                 }
             }
-            return currentDataLen;
+            return len;
         }
 
         /**
@@ -1110,39 +1305,22 @@ public class BTree extends Paged implements Lockable {
                 recalculateDataLen();
                 return;
             }
-            if (pageHeader.getStatus() == LEAF && idx > 0) {
-                // if this is a leaf page, we use prefix compression to store the keys,
-                // so subtract the size of the prefix
-                int prefix;
-                if (idx + 1< nKeys) {
-                    // recalculate the prefix length for the following value
-                    prefix = calculatePrefixLen(idx + 1, idx - 1);
-                    currentDataLen -= keys[idx + 1].getLength() - prefix;
-                    prefix = calculatePrefixLen(idx + 1, idx);
-                    currentDataLen += keys[idx + 1].getLength() - prefix;
-                }
-                // calculate the prefix length for the new value
-                prefix = calculatePrefixLen(idx, idx - 1);
-                currentDataLen += keys[idx].getLength() - prefix;
-                currentDataLen++; // add one byte for the prefix length
-            } else {
-                currentDataLen += keys[idx].getLength();
-                if (pageHeader.getStatus() == LEAF) {
-                    currentDataLen++;
-                }
-            }
-            currentDataLen += 8;
-            if(fileHeader.getFixedKeyLen() < 0) {
-                currentDataLen += 2;
+            final byte format = getFormat();
+            final Value previous = idx > 0 ? keys[idx - 1] : null;
+            if (pageHeader.getStatus() == LEAF && idx + 1 < nKeys) {
+                // the following key is now front-coded against the new key
+                currentDataLen -= getKeyDataLen(format, keys[idx + 1], previous);
+                currentDataLen += getKeyDataLen(format, keys[idx + 1], keys[idx]);
             }
+            currentDataLen += getKeyDataLen(format, keys[idx], previous) + 8;
         }
 
-        private int calculatePrefixLen(final int idx0, final int idx1) {
-            int prefix = keys[idx0].commonPrefix(keys[idx1]);
-            if (prefix < 0 || prefix > Byte.MAX_VALUE) {
-                prefix = 0;
+        private int calculatePrefixLen(final byte format, final Value key, final Value previous) {
+            final int prefix = key.commonPrefix(previous);
+            if (format == LEAF_FORMAT_SLOTTED) {
+                return Math.min(prefix, MAX_SHARED_LEN);
             }
-            return prefix;
+            return prefix < 0 || prefix > Byte.MAX_VALUE ? 0 : prefix;
         }
 
         /**
@@ -1151,6 +1329,7 @@ public class BTree extends Paged implements Lockable {
          * @return
          */
         private int getPivot(final int preferred) {
+            load();
             if (nKeys == 2) {
                 return 1;
             }
@@ -1208,7 +1387,27 @@ public class BTree extends Paged implements Lockable {
          * @throws IOException
          */
         private void read() throws IOException {
+            read(fileHeader.getLeafFormat());
+        }
+
+        /**
+         * Read the node from the underlying page. The keys of a slotted
+         * leaf page are not decoded until they are needed, see {@link #load()}.
+         *
+         * @param leafFormat the format of the page, if it is a leaf page
+         *
+         * @throws IOException
+         */
+        private void read(final byte leafFormat) throws IOException {
             final byte[] data = page.read();
+            nKeys = pageHeader.getValueCount();
+            nPtrs = pageHeader.getPointerCount();
+            if (leafFormat == LEAF_FORMAT_SLOTTED && pageHeader.getStatus() == LEAF) {
+                raw = data;
+                keys = null;
+                ptrs = null;
+                return;
+            }
             final short keyLen = fileHeader.getFixedKeyLen();
             short valSize = keyLen;
             int p = 0;
@@ -1223,7 +1422,6 @@ public class BTree extends Paged implements Lockable {
                     p += prefixSize;
                 }
             }
-            nKeys = pageHeader.getValueCount();
             keys = new Value[(nKeys * 3) / 2 + 1];
             for (int i = 0; i < nKeys; i++) {
                 if (keyLen < 0) {
@@ -1257,7 +1455,6 @@ public class BTree extends Paged implements Lockable {
                 }
             }
             //	Read in the pointers
-            nPtrs = pageHeader.getPointerCount();
             ptrs = new long[(nPtrs * 3) / 2 + 1];
             for (int i = 0; i < nPtrs; i++) {
                 ptrs[i] = ByteConversion.byteToLong(data, p);
@@ -1265,12 +1462,67 @@ public class BTree extends Paged implements Lockable {
             }
         }
 
+        /**
+         * Decode the keys and pointers of a slotted leaf page which has
+         * been read lazily. Must be called before the keys or pointers
+         * are accessed directly.
+         */
+        private void load() {
+            if (raw == null) {
+                return;
+            }
+            final byte[] data = raw;
+            int p = getRestartCount() * 2;
+            ptrs = new long[(nPtrs * 3) / 2 + 1];
+            for (int i = 0; i < nPtrs; i++) {
+                ptrs[i] = ByteConversion.byteToLong(data, p);
+                p += 8;
+            }
+            final short keyLen = fileHeader.getFixedKeyLen();
+            int valSize = keyLen;
+            keys = new Value[(nKeys * 3) / 2 + 1];
+            for (int i = 0; i < nKeys; i++) {
+                if (keyLen < 0) {
+                    valSize = readVarLength(data, p);
+                    p += getVarLengthSize(valSize);
+                }
+                final int shared = data[p++] & 0xFF;
+                if (shared == 0) {
+                    keys[i] = new Value(data, p, valSize);
+                } else {
+                    // copy the shared leading bytes from the previous key
+                    final byte[] t = new byte[valSize];
+                    System.arraycopy(keys[i - 1].data(), keys[i - 1].start(), t, 0, shared);
+                    System.arraycopy(data, p, t, shared, valSize - shared);
+                    keys[i] = new Value(t);
+                }
+                p += valSize - shared;
+            }
+            raw = null;
+        }
+
         /**
          * Write the node to the underlying page.
          * 
          * @throws IOException
          */
         private void write() throws IOException {
+            write(fileHeader.getLeafFormat());
+        }
+
+        /**
+         * Write the node to the underlying page.
+         *
+         * @param leafFormat the format to use, if this is a leaf page
+         *
+         * @throws IOException
+         */
+        private void write(final byte leafFormat) throws IOException {
+            load();
+            if (leafFormat == LEAF_FORMAT_SLOTTED && pageHeader.getStatus() == LEAF) {
+                writeSlotted();
+                return;
+            }
             if (nKeys != pageHeader.getValueCount()) {
                 throw new RuntimeException("nkeys: " + nKeys + " valueCount: " + pageHeader.getValueCount());
             }
@@ -1324,6 +1576,207 @@ public class BTree extends Paged implements Lockable {
             saved = true;
         }
 
+        /**
+         * Write a leaf page in the slotted format:
+         * [restart offsets][pointers][keys], where each key is stored as
+         * [length, if keys have a variable length][shared prefix length][suffix].
+         * The keys at the restart points do not share a prefix, so that they
+         * can be compared without decoding their predecessors.
+         *
+         * @throws IOException
+         */
+        private void writeSlotted() throws IOException {
+            if (nKeys != pageHeader.getValueCount()) {
+                throw new RuntimeException("nkeys: " + nKeys + " valueCount: " + pageHeader.getValueCount());
+            }
+
+            final byte[] temp = new byte[fileHeader.getWorkSize()];
+            int p = getRestartCount() * 2;
+            if (p + nPtrs * 8 > temp.length) {
+                throw new IOException("calculated: " + getDataLen() + "; required: " + (p + nPtrs * 8));
+            }
+            for (int i = 0; i < nPtrs; i++) {
+                ByteConversion.longToByte(ptrs[i], temp, p);
+                p += 8;
+            }
+            final boolean varLen = fileHeader.getFixedKeyLen() < 0;
+            for (int i = 0; i < nKeys; i++) {
+                final Value key = keys[i];
+                int shared = 0;
+                if (i % RESTART_INTERVAL == 0) {
+                    ByteConversion.shortToByteH((short) p, temp, (i / RESTART_INTERVAL) * 2);
+                } else {
+                    shared = calculatePrefixLen(LEAF_FORMAT_SLOTTED, key, keys[i - 1]);
+                }
+                final int required = p + (varLen ? getVarLengthSize(key.getLength()) : 0) + 1 + key.getLength() - shared;
+                if (required > temp.length) {
+                    throw new IOException("calculated: " + getDataLen() + "; required: " + required);
+                }
+                if (varLen) {
+                    p = writeVarLength(key.getLength(), temp, p);
+                }
+                temp[p++] = (byte) shared;
+                System.arraycopy(key.data(), key.start() + shared, temp, p, key.getLength() - shared);
+                p += key.getLength() - shared;
+            }
+            writeValue(page, new Value(temp, 0, p));
+            saved = true;
+        }
+
+        private int getRestartCount() {
+            return (nKeys + RESTART_INTERVAL - 1) / RESTART_INTERVAL;
+        }
+
+        /**
+         * Binary search for the key on the data of a slotted leaf page, which
+         * has not been decoded. The restart keys are searched first, then the
+         * keys following the closest restart key are compared one by one. A
+         * key which shares more leading bytes with its predecessor than the
+         * predecessor shares with the searched key compares equally to the
+         * predecessor, so only the suffixes of the keys need to be examined.
+         *
+         * @param key the key to search for
+         *
+         * @return the index of the key, or (-(insertion point) - 1)
+         */
+        private int searchRaw(final Value key) {
+            final byte[] data = raw;
+            final short keyLen = fileHeader.getFixedKeyLen();
+
+            // find the last restart key which is less than or equal to the key
+            int low = 0;
+            int high = getRestartCount() - 1;
+            int restart = -1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                int p = ByteConversion.byteToShortH(data, mid * 2) & 0xFFFF;
+                int len = keyLen;
+                if (keyLen < 0) {
+                    len = readVarLength(data, p);
+                    p += getVarLengthSize(len);
+                }
+                final int cmp = compareSuffix(data, p + 1, len, 0, key);
+                if (cmp < 0) {
+                    restart = mid;
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid * RESTART_INTERVAL;  // key found
+                }
+            }
+            if (restart < 0) {
+                return -1;
+            }
+
+            // scan the keys following the restart key
+            final int first = restart * RESTART_INTERVAL;
+            final int last = Math.min(nKeys, first + RESTART_INTERVAL);
+            int p = ByteConversion.byteToShortH(data, restart * 2) & 0xFFFF;
+            int matched = 0;
+            for (int i = first; i < last; i++) {
+                int len = keyLen;
+                if (keyLen < 0) {
+                    len = readVarLength(data, p);
+                    p += getVarLengthSize(len);
+                }
+                final int shared = data[p++] & 0xFF;
+                if (shared <= matched) {
+                    // the key matches the searched key in its first shared bytes
+                    int j = shared;
+                    final int stop = Math.min(len, key.getLength());
+                    while (j < stop && data[p + j - shared] == key.data()[key.start() + j]) {
+                        j++;
+                    }
+                    final int cmp;
+                    if (j < stop) {
+                        cmp = (data[p + j - shared] & 0xFF) - (key.data()[key.start() + j] & 0xFF);
+                    } else {
+                        cmp = len - key.getLength();
+                    }
+                    if (cmp == 0) {
+                        return i;  // key found
+                    } else if (cmp > 0) {
+                        return -(i + 1);
+                    }
+                    matched = j;
+                }
+                // else: the key differs from the searched key at the same position as its predecessor
+                p += len - shared;
+            }
+            return -(last + 1); // key not found
+        }
+
+        /**
+         * Compare the stored suffix of a key to the given key.
+         *
+         * @param data the page data
+         * @param p the offset of the suffix
+         * @param len the length of the stored key
+         * @param shared the number of leading bytes the stored key shares with the given key
+         * @param key the key to compare to
+         *
+         * @return a negative value, zero, or a positive value if the stored key is less than,
+         *     equal to, or greater than the given key
+         */
+        private int compareSuffix(final byte[] data, final int p, final int len, final int shared, final Value key) {
+            final int stop = Math.min(len, key.getLength());
+            for (int j = shared; j < stop; j++) {
+                final int cmp = (data[p + j - shared] & 0xFF) - (key.data()[key.start() + j] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return len - key.getLength();
+        }
+
+        /**
+         * Get the key at the given index without decoding the whole page.
+         *
+         * @param idx the index of the key
+         *
+         * @return the key
+         */
+        private Value getKey(final int idx) {
+            if (raw == null) {
+                return keys[idx];
+            }
+            final byte[] data = raw;
+            final short keyLen = fileHeader.getFixedKeyLen();
+            int p = ByteConversion.byteToShortH(data, (idx / RESTART_INTERVAL) * 2) & 0xFFFF;
+            byte[] current = null;
+            int valSize = keyLen;
+            for (int i = idx - (idx % RESTART_INTERVAL); i <= idx; i++) {
+                if (keyLen < 0) {
+                    valSize = readVarLength(data, p);
+                    p += getVarLengthSize(valSize);
+                }
+                final int shared = data[p++] & 0xFF;
+                final byte[] t = new byte[valSize];
+                if (shared > 0) {
+                    System.arraycopy(current, 0, t, 0, shared);
+                }
+                System.arraycopy(data, p, t, shared, valSize - shared);
+                p += valSize - shared;
+                current = t;
+            }
+            return new Value(current);
+        }
+
+        /**
+         * Get the pointer at the given index without decoding the whole page.
+         *
+         * @param idx the index of the pointer
+         *
+         * @return the pointer
+         */
+        private long getPointer(final int idx) {
+            if (raw == null) {
+                return ptrs[idx];
+            }
+            return ByteConversion.byteToLong(raw, getRestartCount() * 2 + idx * 8);
+        }
+
         /**
          * Retrieve the child node at guven index.
          * 
@@ -1354,6 +1807,7 @@ public class BTree extends Paged implements Lockable {
                         return KEY_NOT_FOUND;
                     }
                     else {
+                        load();
                         try {
                             allowUnload = false;
                             if (transaction != null && isRecoveryEnabled()) {
@@ -1392,6 +1846,7 @@ public class BTree extends Paged implements Lockable {
                     return getChildNode(idx).addValue(transaction, value, pointer);
 
                 case LEAF :
+                    load();
                     try {
                         allowUnload = false;
                         if (idx >= 0) {
@@ -1475,6 +1930,7 @@ public class BTree extends Paged implements Lockable {
             final long[] rightPtrs;
             Value separator;
             final short vc = pageHeader.getValueCount();
+            load();
             pivot = getPivot(pivot);
 
             // Split the node into two nodes
@@ -1640,7 +2096,7 @@ public class BTree extends Paged implements Lockable {
                     if (idx < 0) {
                         return KEY_NOT_FOUND;
                     } else {
-                        return ptrs[idx];
+                        return getPointer(idx);
                     }
 
                 default :
@@ -1690,6 +2146,7 @@ public class BTree extends Paged implements Lockable {
             writer.write("NEXT: ");
             writer.write(Long.toString(pageHeader.getNextPage()));
             writer.write(": ");
+            load();
             for (int i = 0; i < nKeys; i++) {
                 if (i > 0) {
                     writer.write(' ');
@@ -1790,12 +2247,15 @@ public class BTree extends Paged implements Lockable {
                             }
                             break;
                         case LEAF :
+                            if (query.getOperator() == IndexQuery.EQ) {
+                                // a single key: no need to decode the page
+                                if (leftIdx >= 0) {
+                                    callback.indexInfo(getKey(leftIdx), getPointer(leftIdx));
+                                }
+                                break;
+                            }
+                            load();
                             switch (query.getOperator()) {
-                                case IndexQuery.EQ :
-                                    if (leftIdx >= 0) {
-                                        callback.indexInfo(keys[leftIdx], ptrs[leftIdx]);
-                                    }
-                                    break;
                                 case IndexQuery.NEQ :
                                     for (int i = 0; i < nPtrs; i++) {
                                         if (i != leftIdx) {
@@ -1916,6 +2376,7 @@ public class BTree extends Paged implements Lockable {
                     }
                     break;
                 case LEAF :
+                    load();
                     for (int i = 0; i < nKeys; i++) {
                         if (query == null || query.getOperator() != IndexQuery.TRUNC_LEFT
                                 || query.testValue(keys[i])) {
@@ -1977,12 +2438,15 @@ public class BTree extends Paged implements Lockable {
                         break;
                     case LEAF :
                         pfxIdx = pfxIdx < 0 ? - (pfxIdx + 1) : pfxIdx + 1;
+                        if (query.getOperator() == IndexQuery.EQ) {
+                            // a single key: no need to decode the page
+                            if (leftIdx >= 0) {
+                                callback.indexInfo(getKey(leftIdx), getPointer(leftIdx));
+                            }
+                            break;
+                        }
+                        load();
                         switch (query.getOperator()) {
-                            case IndexQuery.EQ :
-                                if (leftIdx >= 0) {
-                                    callback.indexInfo(keys[leftIdx], ptrs[leftIdx]);
-                                }
-                                break;
                             case IndexQuery.NEQ :
                                 for (int i = pfxIdx; i < nPtrs; i++) {
                                     if (keys[i].comparePrefix(keyPrefix) > 0) {
@@ -2043,6 +2507,7 @@ public class BTree extends Paged implements Lockable {
                         }
                         break;
                     case LEAF :
+                        load();
                         for (int i = 0; i < nKeys; i++) {
                             if (query.getOperator() != IndexQuery.TRUNC_LEFT || query.testValue(keys[i])) {
                                 callback.indexInfo(keys[i], ptrs[i]);
@@ -2056,6 +2521,7 @@ public class BTree extends Paged implements Lockable {
         }
 
         protected void scanRaw(final IndexQuery query, final BTreeCallback callback) throws TerminatedException {
+            load();
             for (int i = 0; i < nKeys; i++) {
                 if (query == null || query.testValue(keys[i])) {
                     callback.indexInfo(keys[i], ptrs[i]);
@@ -2084,6 +2550,7 @@ public class BTree extends Paged implements Lockable {
          */
         private void remove(final Txn transaction, final IndexQuery query, final BTreeCallback callback)
                 throws IOException, BTreeException, TerminatedException {
+            load();
             if (query != null && query.getOperator() != IndexQuery.ANY
                     && query.getOperator() != IndexQuery.TRUNC_LEFT) {
                 final Value[] qvals = query.getValues();
@@ -2449,6 +2916,7 @@ public class BTree extends Paged implements Lockable {
          * @param idx
          */
         private void insertKey(Value val, final int idx) {
+            load();
             if (pageHeader.getStatus() == BRANCH) {
                 // in a leaf page we might have to adjust the prefix
                 if (nKeys == 0) {
@@ -2474,6 +2942,7 @@ public class BTree extends Paged implements Lockable {
          * @param idx
          */
         private void removeKey(final int idx) {
+            load();
             try {
                 System.arraycopy(keys, idx + 1, keys, idx, nKeys - idx - 1);
             } catch (ArrayIndexOutOfBoundsException e) {
@@ -2490,6 +2959,7 @@ public class BTree extends Paged implements Lockable {
          * @param idx
          */
         private void insertPointer(final long ptr, final int idx) {
+            load();
             resizePtrs(nPtrs + 1);
             System.arraycopy(ptrs, idx, ptrs, idx + 1, nPtrs - idx);
             ptrs[idx] = ptr;
@@ -2502,6 +2972,7 @@ public class BTree extends Paged implements Lockable {
          * @param idx
          */
         private void removePointer(final int idx) {
+            load();
             System.arraycopy(ptrs, idx + 1, ptrs, idx, nPtrs - idx - 1);
             nPtrs--;
             saved = false;
@@ -2511,6 +2982,9 @@ public class BTree extends Paged implements Lockable {
          * Search for the given key in the keys of this node.
          */
         private int searchKey(Value key) {
+            if (raw != null) {
+                return searchRaw(key);
+            }
             if (pageHeader.getStatus() == BRANCH && prefix != null && prefix.getLength() > 0) {
                 // if this is a leaf page, check the common prefix first
                 if (key.getLength() < prefix.getLength()) {
@@ -2570,6 +3044,37 @@ public class BTree extends Paged implements Lockable {
         }
     }
 
+    /**
+     * Get the number of bytes needed to store a key length
+     * in a slotted leaf page: one byte for lengths below 128, two
+     * bytes otherwise.
+     *
+     * @param len the key length
+     *
+     * @return the number of bytes
+     */
+    private static int getVarLengthSize(final int len) {
+        return len < 0x80 ? 1 : 2;
+    }
+
+    private static int writeVarLength(final int len, final byte[] data, final int offset) {
+        if (len < 0x80) {
+            data[offset] = (byte) len;
+            return offset + 1;
+        }
+        data[offset] = (byte) (0x80 | (len >>> 8));
+        data[offset + 1] = (byte) len;
+        return offset + 2;
+    }
+
+    private static int readVarLength(final byte[] data, final int offset) {
+        final int b = data[offset] & 0xFF;
+        if (b < 0x80) {
+            return b;
+        }
+        return ((b & 0x7F) << 8) | (data[offset + 1] & 0xFF);
+    }
+
     @Override
     public FileHeader createFileHeader(final int pageSize) {
         return new BTreeFileHeader(pageSize);
@@ -2612,6 +3117,7 @@ public class BTree extends Paged implements Lockable {
 
         private long rootPage = 0;
         private short fixedLen = -1;
+        private byte leafFormat = LEAF_FORMAT_LEGACY;
 
         public BTreeFileHeader(final long pageCount, final int pageSize) {
             super(pageCount, pageSize);
@@ -2628,6 +3134,10 @@ public class BTree extends Paged implements Lockable {
             offset += 8;
             fixedLen = ByteConversion.byteToShort(buf, offset);
             offset += 2;
+            // the leaf format is kept in the last byte of the header, as subclasses
+            // append their own data to the header. It is zero in files written
+            // before the format was introduced.
+            leafFormat = buf[buf.length - 1];
             return offset;
         }
 
@@ -2638,6 +3148,7 @@ public class BTree extends Paged implements Lockable {
             offset += 8;
             ByteConversion.shortToByte(fixedLen, buf, offset);
             offset += 2;
+            buf[buf.length - 1] = leafFormat;
             return offset;
         }
 
@@ -2668,6 +3179,21 @@ public class BTree extends Paged implements Lockable {
             this.fixedLen = keyLen;
         }
 
+        /**
+         * The format of the leaf pages, either {@link #LEAF_FORMAT_LEGACY}
+         * or {@link #LEAF_FORMAT_SLOTTED}
+         *
+         * @return the leaf format
+         */
+        public byte getLeafFormat() {
+            return leafFormat;
+        }
+
+        public void setLeafFormat(final byte leafFormat) {
+            this.leafFormat = leafFormat;
+            setDirty(true);
+        }
+
         @Override
         public int getMaxKeySize() {
             return (getWorkSize() / 2) - MIN_SPACE_PER_KEY;
@@ -0,0 +1,81 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Page I/O which uses positional reads and writes on the
+ * {@link FileChannel} of the file.
+ *
+ * Positional operations do not modify the file pointer, so concurrent
+ * readers do not have to be serialized.
+ *
+ * NOTE: a {@link FileChannel} is closed if a thread performing I/O on it
+ * is interrupted, after which the file has to be re-opened.
+ */
+class FileChannelPageIO implements PageIO {
+
+    private final RandomAccessFile raf;
+    protected final FileChannel channel;
+
+    FileChannelPageIO(final RandomAccessFile raf) {
+        this.raf = raf;
+        this.channel = raf.getChannel();
+    }
+
+    @Override
+    public void read(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        final ByteBuffer dst = ByteBuffer.wrap(buf, off, len);
+        long pos = position;
+        while (dst.hasRemaining()) {
+            final int count = channel.read(dst, pos);
+            if (count < 0) {
+                // past the end of the file
+                Arrays.fill(buf, dst.position(), off + len, (byte) 0);
+                break;
+            }
+            pos += count;
+        }
+    }
+
+    @Override
+    public void write(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        final ByteBuffer src = ByteBuffer.wrap(buf, off, len);
+        long pos = position;
+        while (src.hasRemaining()) {
+            pos += channel.write(src, pos);
+        }
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Page I/O which serves reads from read-only memory mappings
+ * of the file, writes are positional through the {@link FileChannel}.
+ *
+ * The file is mapped lazily in regions of {@link #REGION_SIZE} bytes, a
+ * region is re-mapped when the file has grown past the end of its mapping.
+ * As the mappings and the channel share the operating system's page cache,
+ * writes are immediately visible through the mappings.
+ *
+ * This is best suited to large read-mostly files, e.g. dom.dbx. Mappings
+ * are only released when they are garbage collected.
+ */
+class MappedPageIO extends FileChannelPageIO {
+
+    /**
+     * Size of a mapped region, a multiple of any
+     * supported page size.
+     */
+    static final int REGION_SIZE = 64 * 1024 * 1024;
+
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+    MappedPageIO(final RandomAccessFile raf) {
+        super(raf);
+    }
+
+    @Override
+    public void read(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        final int regionIdx = (int) (position / REGION_SIZE);
+        final int regionOffset = (int) (position % REGION_SIZE);
+        if (regionOffset + len > REGION_SIZE) {
+            // spans two regions
+            super.read(position, buf, off, len);
+            return;
+        }
+
+        final MappedByteBuffer region = getRegion(regionIdx, regionOffset + len);
+        if (region == null) {
+            // past the end of the file
+            super.read(position, buf, off, len);
+            return;
+        }
+
+        final ByteBuffer src = region.duplicate();
+        src.position(regionOffset);
+        src.get(buf, off, len);
+    }
+
+    /**
+     * Gets the mapping of a region, mapping or re-mapping
+     * the region if required.
+     *
+     * @param regionIdx the index of the region
+     * @param minLength the minimum number of bytes that must be mapped
+     *
+     * @return the mapped region, or null if the file is not large enough
+     */
+    private MappedByteBuffer getRegion(final int regionIdx, final int minLength) throws IOException {
+        MappedByteBuffer[] current = regions;
+        if (regionIdx < current.length && current[regionIdx] != null && current[regionIdx].limit() >= minLength) {
+            return current[regionIdx];
+        }
+
+        synchronized (this) {
+            current = regions;
+            if (regionIdx < current.length && current[regionIdx] != null && current[regionIdx].limit() >= minLength) {
+                return current[regionIdx];
+            }
+
+            final long regionStart = (long) regionIdx * REGION_SIZE;
+            final long available = channel.size() - regionStart;
+            if (available < minLength) {
+                return null;
+            }
+
+            final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(available, REGION_SIZE));
+            final MappedByteBuffer[] updated = Arrays.copyOf(current, Math.max(current.length, regionIdx + 1));
+            updated[regionIdx] = region;
+            regions = updated;
+            return region;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        regions = new MappedByteBuffer[0];
+        super.close();
+    }
+}
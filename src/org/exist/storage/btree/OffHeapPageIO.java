@@ -0,0 +1,116 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import org.exist.storage.cache.OffHeapPageCache;
+
+import java.io.IOException;
+
+/**
+ * Page I/O which keeps a copy of the pages it transfers in the
+ * {@link OffHeapPageCache}, and serves page reads from there if possible.
+ *
+ * Only transfers of exactly one page are cached. As writes are always
+ * passed through to the underlying page I/O, the cached pages never
+ * need to be written back.
+ */
+final class OffHeapPageIO implements PageIO {
+
+    /** pages are identified by the file id in the upper bits and their position in the lower bits */
+    private static final int POSITION_BITS = 44;
+    private static final long MAX_POSITION = (1L << POSITION_BITS) - 1;
+    private static final int MAX_FILE_ID = (1 << (63 - POSITION_BITS)) - 1;
+
+    private final PageIO io;
+    private final OffHeapPageCache cache;
+    private final int pageSize;
+    private volatile long fileKey;
+
+    OffHeapPageIO(final PageIO io, final OffHeapPageCache cache) {
+        this.io = io;
+        this.cache = cache;
+        this.pageSize = cache.getPageSize();
+        this.fileKey = newFileKey();
+    }
+
+    /**
+     * @return the key of the file, or -1 if the file ids
+     *     are exhausted, in which case the cache is bypassed
+     */
+    private long newFileKey() {
+        final int fileId = cache.newFileId();
+        if (fileId < 0 || fileId > MAX_FILE_ID) {
+            return -1;
+        }
+        return (long) fileId << POSITION_BITS;
+    }
+
+    @Override
+    public void read(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        final long fileKey = this.fileKey;
+        if (len != pageSize || position > MAX_POSITION || fileKey < 0) {
+            io.read(position, buf, off, len);
+            return;
+        }
+
+        final long key = fileKey | position;
+        if (cache.read(key, buf, off)) {
+            return;
+        }
+
+        final long stamp = cache.stamp(key);
+        io.read(position, buf, off, len);
+        cache.fill(key, stamp, buf, off);
+    }
+
+    @Override
+    public void write(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        try {
+            io.write(position, buf, off, len);
+        } catch (final IOException e) {
+            // the content of the file is unknown, drop all pages of the file
+            fileKey = newFileKey();
+            throw e;
+        }
+
+        final long fileKey = this.fileKey;
+        if (fileKey < 0) {
+            return;
+        }
+        if (len == pageSize && position <= MAX_POSITION) {
+            cache.update(fileKey | position, buf, off);
+        } else {
+            // may overlap any cached page, drop all pages of the file
+            this.fileKey = newFileKey();
+        }
+    }
+
+    @Override
+    public long size() throws IOException {
+        return io.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the pages of the file are not accessible anymore and will be replaced over time
+        fileKey = -1;
+        io.close();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Low-level page I/O used by {@link Paged} to transfer
+ * pages from and to the underlying database file.
+ *
+ * All offsets are absolute positions within the file. Reads
+ * beyond the end of the file do not fail, instead the remainder
+ * of the buffer is filled with zeros, which is what {@link Paged}
+ * expects when it grows a file.
+ */
+interface PageIO extends AutoCloseable {
+
+    /**
+     * Reads {@code len} bytes from the file at {@code position}
+     * into {@code buf}.
+     *
+     * @param position the absolute position in the file
+     * @param buf the buffer to read into
+     * @param off the offset in {@code buf} to start writing at
+     * @param len the number of bytes to read
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void read(long position, byte[] buf, int off, int len) throws IOException;
+
+    /**
+     * Writes {@code len} bytes from {@code buf} to the file
+     * at {@code position}.
+     *
+     * @param position the absolute position in the file
+     * @param buf the buffer to read from
+     * @param off the offset in {@code buf} to start reading at
+     * @param len the number of bytes to write
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void write(long position, byte[] buf, int off, int len) throws IOException;
+
+    /**
+     * @return the current size of the file in bytes
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    long size() throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * The available page I/O strategies, as configured
+     * by the {@link Paged#PAGE_IO_ATTRIBUTE} in conf.xml.
+     */
+    enum Mode {
+        /**
+         * Seek and read/write through a {@link RandomAccessFile},
+         * concurrent readers are serialized on the file pointer.
+         */
+        RAF("raf"),
+
+        /**
+         * Positional reads/writes through the {@link java.nio.channels.FileChannel}
+         * of the file, concurrent readers do not need to coordinate.
+         */
+        CHANNEL("channel"),
+
+        /**
+         * Reads from a read-only memory mapping of the file, writes
+         * are positional through the {@link java.nio.channels.FileChannel}.
+         */
+        MMAP("mmap");
+
+        private final String id;
+
+        Mode(final String id) {
+            this.id = id;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        /**
+         * Get the mode from its configuration id.
+         *
+         * @param id the id of the mode, e.g. "channel"
+         *
+         * @return the mode or null if there is no mode for the id
+         */
+        public static Mode fromId(final String id) {
+            for (final Mode mode : values()) {
+                if (mode.id.equalsIgnoreCase(id.trim())) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Create the page I/O strategy for a file.
+     *
+     * @param mode the page I/O mode
+     * @param raf the open file
+     *
+     * @return the page I/O
+     */
+    static PageIO create(final Mode mode, final RandomAccessFile raf) {
+        switch (mode) {
+            case CHANNEL:
+                return new FileChannelPageIO(raf);
+
+            case MMAP:
+                return new MappedPageIO(raf);
+
+            case RAF:
+            default:
+                return new RandomAccessFilePageIO(raf);
+        }
+    }
+}
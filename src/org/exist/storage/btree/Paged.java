@@ -74,8 +74,10 @@ package org.exist.storage.btree;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.storage.BrokerPool;
+import org.exist.storage.cache.OffHeapPageCache;
 import org.exist.storage.journal.Lsn;
 import org.exist.util.ByteConversion;
+import org.exist.util.Configuration;
 import org.exist.util.FileUtils;
 import org.exist.xquery.Constants;
 
@@ -90,6 +92,8 @@ import java.nio.channels.NonWritableChannelException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  *  Paged is a paged file foundation that is used by the BTree class and
@@ -120,6 +124,20 @@ public abstract class Paged implements AutoCloseable {
     public static final int OFFSET_RECORD_COUNT = OFFSET_MAX_KEY_SIZE + LENGTH_MAX_KEY_SIZE; //43
     public static final int OFFSET_REMAINDER = OFFSET_RECORD_COUNT + LENGTH_RECORD_COUNT; //51
 
+    /**
+     * The page I/O strategy used for database files,
+     * one of "raf" (the default), "channel" or "mmap".
+     */
+    public static final String PAGE_IO_ATTRIBUTE = "page-io";
+    public static final String PROPERTY_PAGE_IO = "db-connection.page-io";
+
+    /**
+     * Comma separated list of the names of database files
+     * which should be memory mapped, e.g. "dom.dbx,structure.dbx".
+     */
+    public static final String PAGE_IO_MMAP_ATTRIBUTE = "page-io-mmap";
+    public static final String PROPERTY_PAGE_IO_MMAP = "db-connection.page-io-mmap";
+
     protected final static Logger LOG = LogManager.getLogger(Paged.class);
 
     protected final static byte DELETED = 127;
@@ -131,9 +149,11 @@ public abstract class Paged implements AutoCloseable {
     protected final short fileVersion;
     private final FileHeader fileHeader;
     private final byte[] tempPageData;
-    private final byte[] tempHeaderData;
+    private final PageIO.Mode pageIOMode;
+    private final Set<String> mmapFiles;
+    private final OffHeapPageCache offHeapPageCache;
 
-    private RandomAccessFile raf;
+    private PageIO io;
     private Path file;
     private boolean readOnly = false;
     private boolean fileIsNew = false;
@@ -142,7 +162,30 @@ public abstract class Paged implements AutoCloseable {
         this.fileVersion = fileVersion;
         this.fileHeader = createFileHeader(pool.getPageSize());
         this.tempPageData = new byte[fileHeader.pageSize];
-        this.tempHeaderData = new byte[fileHeader.pageHeaderSize];
+
+        final Configuration config = pool.getConfiguration();
+        final String pageIO = config == null ? null : (String) config.getProperty(PROPERTY_PAGE_IO);
+        PageIO.Mode mode = PageIO.Mode.RAF;
+        if (pageIO != null) {
+            mode = PageIO.Mode.fromId(pageIO);
+            if (mode == null) {
+                LOG.warn("Unknown " + PROPERTY_PAGE_IO + ": " + pageIO + ", using: " + PageIO.Mode.RAF.id());
+                mode = PageIO.Mode.RAF;
+            }
+        }
+        this.pageIOMode = mode;
+
+        this.offHeapPageCache = pool.getOffHeapPageCache();
+
+        this.mmapFiles = new HashSet<>();
+        final String mmap = config == null ? null : (String) config.getProperty(PROPERTY_PAGE_IO_MMAP);
+        if (mmap != null) {
+            for (final String fileName : mmap.split(",")) {
+                if (!fileName.trim().isEmpty()) {
+                    mmapFiles.add(fileName.trim());
+                }
+            }
+        }
     }
 
     public final static void setPageSize(final int pageSize) {
@@ -165,7 +208,7 @@ public abstract class Paged implements AutoCloseable {
     @Override
     public void close() throws DBException {
         try {
-            raf.close();
+            io.close();
         } catch (final IOException e) {
             throw new DBException("an error occurred while closing database file: " + e.getMessage());
         }
@@ -227,11 +270,14 @@ public abstract class Paged implements AutoCloseable {
      * @throws IOException
      */
     public void backupToStream(final OutputStream os) throws IOException {
-        raf.seek(0);
         final byte[] buf = new byte[4096];
-        int len;
-        while ((len = raf.read(buf)) > 0) {
+        final long size = io.size();
+        long position = 0;
+        while (position < size) {
+            final int len = (int) Math.min(buf.length, size - position);
+            io.read(position, buf, 0, len);
             os.write(buf, 0, len);
+            position += len;
         }
     }
 
@@ -259,7 +305,7 @@ public abstract class Paged implements AutoCloseable {
      */
     public void closeAndRemove() {
         try {
-            raf.close();
+            io.close();
         } catch (final IOException e) {
             //TODO : forward the exception ? -pb
             LOG.error("Failed to close data file: " + file.toAbsolutePath().toString());
@@ -389,11 +435,13 @@ public abstract class Paged implements AutoCloseable {
     protected final void setFile(final Path file) throws DBException {
         this.file = file;
         fileIsNew = !Files.exists(file);
+        final RandomAccessFile raf;
         try {
             if ((!Files.exists(file)) || Files.isWritable(file)) {
+                RandomAccessFile rwRaf = null;
                 try {
-                    raf = new RandomAccessFile(file.toFile(), "rw");
-                    final FileChannel channel = raf.getChannel();   
+                    rwRaf = new RandomAccessFile(file.toFile(), "rw");
+                    final FileChannel channel = rwRaf.getChannel();
                     final FileLock lock = channel.tryLock();
                     if (lock == null) {
                         readOnly = true;
@@ -402,9 +450,13 @@ public abstract class Paged implements AutoCloseable {
                 } catch (final NonWritableChannelException e) {
                     //No way : switch to read-only mode
                     readOnly = true;
-                    raf = new RandomAccessFile(file.toFile(), "r");
+                    if (rwRaf != null) {
+                        rwRaf.close();
+                    }
+                    rwRaf = new RandomAccessFile(file.toFile(), "r");
                     LOG.warn(e);
                 }
+                raf = rwRaf;
             } else {
                 readOnly = true;
                 raf = new RandomAccessFile(file.toFile(), "r");
@@ -412,6 +464,20 @@ public abstract class Paged implements AutoCloseable {
         } catch (final IOException e) {
             LOG.warn("An exception occurred while opening database file " +
                 file.toAbsolutePath().toString() + ": " + e.getMessage(), e);
+            return;
+        }
+
+        final PageIO.Mode mode = mmapFiles.contains(FileUtils.fileName(file)) ? PageIO.Mode.MMAP : pageIOMode;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Using " + mode.id() + " page I/O for: " + FileUtils.fileName(file));
+        }
+        final PageIO pageIO = PageIO.create(mode, raf);
+        if (mode != PageIO.Mode.MMAP && offHeapPageCache != null && offHeapPageCache.isEnabled()
+                && offHeapPageCache.getPageSize() == fileHeader.pageSize) {
+            // memory mapped files are already cached by the operating system
+            this.io = new OffHeapPageIO(pageIO, offHeapPageCache);
+        } else {
+            this.io = pageIO;
         }
     }
 
@@ -702,8 +768,7 @@ public abstract class Paged implements AutoCloseable {
         }
 
         public final synchronized void read() throws IOException {
-            raf.seek(0);
-            raf.read(buf);
+            io.read(0, buf, 0, buf.length);
             read(buf);
             calculateWorkSize();
             dirty = false;
@@ -839,9 +904,8 @@ public abstract class Paged implements AutoCloseable {
         }
 
         public final synchronized void write() throws IOException {
-            raf.seek(0);
             write(buf);
-            raf.write(buf);
+            io.write(0, buf, 0, buf.length);
             dirty = false;
         }
     }
@@ -935,17 +999,20 @@ public abstract class Paged implements AutoCloseable {
 
         public byte[] read() throws IOException {
             try {
-                if (raf.getFilePointer() != offset) {
-                    raf.seek(offset);
-                }
-                Arrays.fill(tempHeaderData, (byte)0);
-                raf.read(tempHeaderData);
+                // Read the page header and data with a single read
+                final byte[] pageData = new byte[fileHeader.pageSize];
+                io.read(offset, pageData, 0, pageData.length);
                 // Read in the header
-                header.read(tempHeaderData, 0);
+                header.read(pageData, 0);
                 // Read the working data
-                final byte[] workData = new byte[header.dataLen];
-                raf.read(workData);
-                return workData;
+                final int dataStart = fileHeader.pageHeaderSize;
+                if (dataStart + header.dataLen <= pageData.length) {
+                    return Arrays.copyOfRange(pageData, dataStart, dataStart + header.dataLen);
+                } else {
+                    final byte[] workData = new byte[header.dataLen];
+                    io.read(offset + dataStart, workData, 0, workData.length);
+                    return workData;
+                }
             } catch(final Exception e) {
                 LOG.warn("error while reading page: " + getPageInfo(), e);
                 throw new IOException(e.getMessage());
@@ -977,10 +1044,7 @@ public abstract class Paged implements AutoCloseable {
                     System.arraycopy(data, 0, tempPageData, fileHeader.pageHeaderSize, data.length);
                 }
             }
-            if (raf.getFilePointer() != offset) {
-                raf.seek(offset);
-            }
-            raf.write(tempPageData);
+            io.write(offset, tempPageData, 0, tempPageData.length);
         }
 
         @Override
@@ -1000,11 +1064,8 @@ public abstract class Paged implements AutoCloseable {
         }
 
         public void dumpPage() throws IOException {
-            if (raf.getFilePointer() != offset) {
-                raf.seek(offset);
-            }
             final byte[] data = new byte[fileHeader.pageSize];
-            raf.read(data);
+            io.read(offset, data, 0, data.length);
             LOG.debug("Contents of page " + pageNum + ": " + hexDump(data));
         }
     }
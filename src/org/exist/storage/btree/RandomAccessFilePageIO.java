@@ -0,0 +1,73 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Page I/O which seeks and reads/writes through a {@link RandomAccessFile}.
+ *
+ * As the file pointer is shared, all operations are serialized.
+ */
+class RandomAccessFilePageIO implements PageIO {
+
+    private final RandomAccessFile raf;
+
+    RandomAccessFilePageIO(final RandomAccessFile raf) {
+        this.raf = raf;
+    }
+
+    @Override
+    public synchronized void read(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        if (raf.getFilePointer() != position) {
+            raf.seek(position);
+        }
+        int read = 0;
+        while (read < len) {
+            final int count = raf.read(buf, off + read, len - read);
+            if (count < 0) {
+                // past the end of the file
+                Arrays.fill(buf, off + read, off + len, (byte) 0);
+                break;
+            }
+            read += count;
+        }
+    }
+
+    @Override
+    public synchronized void write(final long position, final byte[] buf, final int off, final int len) throws IOException {
+        if (raf.getFilePointer() != position) {
+            raf.seek(position);
+        }
+        raf.write(buf, off, len);
+    }
+
+    @Override
+    public long size() throws IOException {
+        return raf.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
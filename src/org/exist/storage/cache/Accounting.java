@@ -25,6 +25,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.util.hashtable.SequencedLongHashMap;
 
+import java.util.Iterator;
+
 /**
  * Keeps track of various cache parameters. Most important,
  * this class is used to determine if a cache should be grown by
@@ -71,9 +73,22 @@ public class Accounting {
     
     /** the map used to track replaced page numbers */
     private SequencedLongHashMap<Object> map;
+
+    /** ghost list of the keys of recently evicted pages, in eviction order */
+    private SequencedLongHashMap<Object> ghosts;
+
+    /** the number of keys the hash table of the ghost list was sized for */
+    private int ghostsCapacity = 64;
+
+    /** total number of pages evicted during the lifetime of the cache */
+    private long evictions = 0;
+
+    /** total number of pages loaded which were in the ghost list */
+    private long ghostHits = 0;
     
     public Accounting(double thrashingFactor) {
         map = new SequencedLongHashMap<Object>((maxEntries * 3) / 2);
+        ghosts = new SequencedLongHashMap<Object>(ghostsCapacity);
         this.thrashingFactor = thrashingFactor;
     }
     
@@ -84,8 +99,70 @@ public class Accounting {
      * @param totalSize
      */
     public void setTotalSize(int totalSize) {
+        // keep the ghost history, it tells how the cache would do with more pages
+        while (ghosts.size() > Math.max(1, totalSize)) {
+            ghosts.removeFirst();
+        }
+        if (totalSize > ghostsCapacity) {
+            // rehash the ghost list into a larger table, in eviction order
+            ghostsCapacity = (totalSize * 3) / 2;
+            final SequencedLongHashMap<Object> resized = new SequencedLongHashMap<Object>(ghostsCapacity);
+            for (final Iterator<Long> i = ghosts.iterator(); i.hasNext(); ) {
+                resized.put(i.next(), DUMMY);
+            }
+            ghosts = resized;
+        }
         this.totalSize = totalSize;
     }
+
+    /**
+     * Called by the cache when a page has been evicted. The key
+     * of the page is kept in a ghost list of the same size as the cache.
+     *
+     * @param key the key of the evicted page
+     */
+    public void evicted(long key) {
+        ++evictions;
+        ghosts.remove(key);
+        while (ghosts.size() >= Math.max(1, totalSize)) {
+            ghosts.removeFirst();
+        }
+        ghosts.put(key, DUMMY);
+    }
+
+    /**
+     * Called by the cache when a page is added, i.e. has been
+     * loaded from disk. If the page is in the ghost list, it would
+     * still have been in a cache of twice the size.
+     *
+     * @param key the key of the added page
+     */
+    public void loaded(long key) {
+        if (ghosts.size() > 0 && ghosts.remove(key) != null) {
+            ++ghostHits;
+        }
+    }
+
+    /**
+     * Returns the number of pages evicted during the
+     * lifetime of the cache.
+     *
+     * @return number of evicted pages
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of pages which were loaded again
+     * shortly after their eviction, i.e. the number of misses
+     * a cache of twice the size would have avoided.
+     *
+     * @return number of hits in the ghost list
+     */
+    public long getGhostHits() {
+        return ghostHits;
+    }
     
     /**
      * Increment the number of total cache hits by one.
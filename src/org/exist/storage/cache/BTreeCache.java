@@ -40,6 +40,7 @@ public class BTreeCache<T extends BTreeCacheable> extends LRUCache<T> {
 
     @Override
     public void add(final T item) {
+        accounting.loaded(item.getKey());
         map.put(item.getKey(), item);
         if (map.size() >= max + 1) {
             removeNext(item);
@@ -56,6 +57,7 @@ public class BTreeCache<T extends BTreeCacheable> extends LRUCache<T> {
                     (mustRemoveInner || !cached.isInnerPage())) {
                 cached.sync(true);
                 map.remove(next.getKey());
+                accounting.evicted(cached.getKey());
                 removed = true;
             } else {
                 next = next.getNext();
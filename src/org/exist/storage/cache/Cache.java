@@ -101,6 +101,24 @@ public interface Cache<T extends Cacheable> {
      */
     boolean flush();
 
+    /**
+     * Write at most maxItems dirty items to disk, without
+     * removing them from the cache. Items which have not been
+     * accessed recently are written first if the cache can tell.
+     *
+     * @param maxItems the maximum number of items to write
+     * @return the number of items written
+     */
+    int flush(int maxItems);
+
+    /**
+     * Get the number of dirty items that need to be
+     * written to disk.
+     *
+     * @return number of dirty items
+     */
+    int getDirtyCount();
+
     /**
      * Get the size of this cache.
      * 
@@ -159,6 +177,24 @@ public interface Cache<T extends Cacheable> {
      */
     int getFails();
 
+    /**
+     * Get the number of pages which have been evicted
+     * from the cache to make room for other pages.
+     *
+     * @return number of evicted pages
+     */
+    long getEvictions();
+
+    /**
+     * Get the number of pages which were added to the cache again
+     * shortly after they had been evicted, i.e. the number of misses
+     * which a larger cache would have avoided. This is a measure for
+     * the benefit of growing the cache.
+     *
+     * @return number of re-added pages
+     */
+    long getGhostHits();
+
     /**
      * Get the load factor if the cache
      *
@@ -0,0 +1,128 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Approximates the access frequency of page keys with
+ * a Count-Min sketch of small saturating counters.
+ *
+ * The counters are periodically halved, so that the sketch
+ * reflects the recent popularity of a page rather than its
+ * popularity over the whole lifetime of the cache.
+ */
+@NotThreadSafe
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int MIN_WIDTH = 16;
+    private static final int MAX_WIDTH = 1 << 26;
+
+    /** number of additions per counter row before the counters are aged */
+    private static final int SAMPLE_FACTOR = 10;
+
+    private static final long[] SEEDS = {
+            0x9e3779b97f4a7c15L,
+            0xc2b2ae3d27d4eb4fL,
+            0x165667b19e3779f9L,
+            0xd6e8feb86659fd93L
+    };
+
+    private byte[] counters;
+    private int width;
+    private int additions;
+    private int sampleSize;
+
+    FrequencySketch(final int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Grows the sketch so that it can track the frequencies
+     * of {@code capacity} distinct keys with a low error rate.
+     * The sketch is never shrunk.
+     *
+     * @param capacity the number of keys the cache can hold
+     */
+    void ensureCapacity(final int capacity) {
+        int newWidth = MIN_WIDTH;
+        while (newWidth < capacity && newWidth < MAX_WIDTH) {
+            newWidth <<= 1;
+        }
+        if (counters != null && newWidth <= width) {
+            return;
+        }
+        this.counters = new byte[DEPTH * newWidth];
+        this.width = newWidth;
+        this.additions = 0;
+        this.sampleSize = SAMPLE_FACTOR * newWidth;
+    }
+
+    /**
+     * Records an access to the key.
+     *
+     * @param key the key, usually the page number
+     */
+    void increment(final long key) {
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            final int i = indexOf(key, row);
+            if (counters[i] < MAX_COUNT) {
+                counters[i]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            age();
+        }
+    }
+
+    /**
+     * Returns the estimated number of recent accesses to the key.
+     *
+     * @param key the key, usually the page number
+     *
+     * @return the estimated frequency, between 0 and 15
+     */
+    int frequency(final long key) {
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, counters[indexOf(key, row)]);
+        }
+        return frequency;
+    }
+
+    private void age() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = (byte) (counters[i] >>> 1);
+        }
+        additions >>>= 1;
+    }
+
+    private int indexOf(final long key, final int row) {
+        long h = (key + SEEDS[row]) * 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 31;
+        h *= 0x94d049bb133111ebL;
+        h ^= h >>> 29;
+        return row * width + ((int) h & (width - 1));
+    }
+}
@@ -99,6 +99,7 @@ public class GClockCache<T extends Cacheable> implements Cache<T> {
 			return;
 		}
 		item.setReferenceCount(initialRefCount);
+		accounting.loaded(item.getKey());
 		if (count < size) {
 			items[count++] = item;
 			map.put(item.getKey(), item);
@@ -157,6 +158,28 @@ public class GClockCache<T extends Cacheable> implements Cache<T> {
 		return flushed;
 	}
 
+	@Override
+	public int flush(final int maxItems) {
+		int written = 0;
+		for (int i = 0; i < count && written < maxItems; i++) {
+			if (items[i] != null && items[i].sync(false)) {
+				++written;
+			}
+		}
+		return written;
+	}
+
+	@Override
+	public int getDirtyCount() {
+		int dirty = 0;
+		for (int i = 0; i < count; i++) {
+			if (items[i] != null && items[i].isDirty()) {
+				++dirty;
+			}
+		}
+		return dirty;
+	}
+
 	@Override
 	public boolean hasDirtyItems() {
 	    for(int i = 0; i < count; i++) {
@@ -191,6 +214,7 @@ public class GClockCache<T extends Cacheable> implements Cache<T> {
                     }
 					map.remove(old.getKey());
 					old.sync(true);
+					accounting.evicted(old.getKey());
 				} else {
 					used++;
 				}
@@ -238,6 +262,16 @@ public class GClockCache<T extends Cacheable> implements Cache<T> {
         return accounting.getThrashing();
     }
 
+    @Override
+    public long getEvictions() {
+        return accounting.getEvictions();
+    }
+
+    @Override
+    public long getGhostHits() {
+        return accounting.getGhostHits();
+    }
+
     @Override
     public void setCacheManager(final CacheManager manager) {
         this.cacheManager = manager;
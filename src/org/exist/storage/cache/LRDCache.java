@@ -63,6 +63,7 @@ public class LRDCache<T extends Cacheable> extends GClockCache<T> {
 		} else {
 			item.setReferenceCount(initialRefCount);
 			item.setTimestamp(totalReferences);
+			accounting.loaded(item.getKey());
 			if (count < size) {
 				items[count++] = item;
 				map.put(item.getKey(), item);
@@ -109,6 +110,7 @@ public class LRDCache<T extends Cacheable> extends GClockCache<T> {
 		if (old != null) {
 			map.remove(old.getKey());
 			old.sync(true);
+			accounting.evicted(old.getKey());
 		} else {
 			used++;
 		}
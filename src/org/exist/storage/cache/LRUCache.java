@@ -85,6 +85,7 @@ public class LRUCache<T extends Cacheable> implements Cache<T> {
         if(map.size() == max) {
             removeOne(item);
         }
+        accounting.loaded(item.getKey());
         map.put(item.getKey(), item);
     }
 
@@ -121,7 +122,30 @@ public class LRUCache<T extends Cacheable> implements Cache<T> {
 		return flushed;
 	}
 
-	
+	@Override
+	public int flush(final int maxItems) {
+		int written = 0;
+		// the least recently used items come first
+		for(SequencedLongHashMap.Entry<T> next = map.getFirstEntry(); next != null && written < maxItems; next = next.getNext()) {
+			final T cacheable = next.getValue();
+			if(cacheable.isDirty() && cacheable.sync(false)) {
+				written++;
+			}
+		}
+		return written;
+	}
+
+	@Override
+	public int getDirtyCount() {
+		int dirty = 0;
+		for(SequencedLongHashMap.Entry<T> next = map.getFirstEntry(); next != null; next = next.getNext()) {
+			if(next.getValue().isDirty()) {
+				dirty++;
+			}
+		}
+		return dirty;
+	}
+
     @Override
     public boolean hasDirtyItems() {
         for(SequencedLongHashMap.Entry<T> next = map.getFirstEntry(); next != null; next = next.getNext()) {
@@ -157,6 +181,16 @@ public class LRUCache<T extends Cacheable> implements Cache<T> {
         return accounting.getThrashing();
     }
 
+    @Override
+    public long getEvictions() {
+        return accounting.getEvictions();
+    }
+
+    @Override
+    public long getGhostHits() {
+        return accounting.getGhostHits();
+    }
+
 	protected void removeOne(final T item) {
         boolean removed = false;
         SequencedLongHashMap.Entry<T> next = map.getFirstEntry();
@@ -165,6 +199,7 @@ public class LRUCache<T extends Cacheable> implements Cache<T> {
             if(cached.allowUnload() && cached.getKey() != item.getKey()) {
                 cached.sync(true);
                 map.remove(next.getKey());
+                accounting.evicted(cached.getKey());
                 removed = true;
             } else {
                 next = next.getNext();
@@ -0,0 +1,393 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.BrokerPoolService;
+import org.exist.util.hashtable.Long2ObjectHashMap;
+
+import java.beans.ConstructorProperties;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Second level cache for the raw pages of the database files, which
+ * is held outside of the Java heap.
+ *
+ * The on-heap page caches ({@link Cache}) hold the decoded pages, which
+ * are expensive in terms of heap and garbage collection. This cache holds
+ * a copy of the on-disk content of the pages in direct memory instead, so
+ * that a page which has been evicted from an on-heap cache can be reloaded
+ * without disk I/O. The cache is write-through: the database files are
+ * always up to date, so pages can be dropped from this cache at any time.
+ *
+ * Memory is allocated lazily in slabs of {@link #SLAB_SIZE} bytes, which
+ * are divided into slots of the database page size. The slots are spread
+ * over a number of independently locked segments, each of which replaces
+ * its slots with the CLOCK algorithm once it is full.
+ */
+@ThreadSafe
+public class OffHeapPageCache implements BrokerPoolService {
+
+    private final static Logger LOG = LogManager.getLogger(OffHeapPageCache.class);
+
+    public static final String CACHE_SIZE_ATTRIBUTE = "offHeapCacheSize";
+    public static final String PROPERTY_CACHE_SIZE = "db-connection.off-heap-cache-size";
+
+    public static final int SLAB_SIZE = 64 * 1024 * 1024;
+
+    private static final int SEGMENTS = 16;
+
+    private final int pageSize;
+    private final long maxBytes;
+    private final Segment[] segments;
+    private final AtomicInteger nextFileId = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param pageSize the size of the pages of the database files
+     * @param maxBytes the maximum amount of direct memory to use,
+     *     a value less than or equal to zero disables the cache
+     */
+    public OffHeapPageCache(final int pageSize, final long maxBytes) {
+        this.pageSize = pageSize;
+        this.maxBytes = Math.max(0, maxBytes);
+
+        final long maxPages = this.maxBytes / pageSize;
+        final int slotsPerSegment = (int) Math.min(Integer.MAX_VALUE, maxPages / SEGMENTS);
+        if (slotsPerSegment > 0) {
+            this.segments = new Segment[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new Segment(slotsPerSegment);
+            }
+            LOG.info("Off-heap page cache: " + (this.maxBytes / 1024L) + "k; pages: " + (maxPages));
+        } else {
+            this.segments = null;
+        }
+    }
+
+    /**
+     * @return true if the cache has any capacity
+     */
+    public boolean isEnabled() {
+        return segments != null;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Allocates an id for an opened database file. All pages cached for
+     * a file are identified by its id and their position in the file. A
+     * file may request a new id to drop all of its pages from the cache.
+     *
+     * @return a new file id
+     */
+    public int newFileId() {
+        return nextFileId.incrementAndGet();
+    }
+
+    /**
+     * Copies a page from the cache.
+     *
+     * @param key the key of the page
+     * @param buf the buffer to copy the page to
+     * @param off the offset within {@code buf}
+     *
+     * @return true if the page was in the cache, false otherwise
+     */
+    public boolean read(final long key, final byte[] buf, final int off) {
+        final boolean found = segment(key).read(key, buf, off);
+        if (found) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return found;
+    }
+
+    /**
+     * Returns a stamp which must be obtained before a page
+     * is read from disk and then passed to {@link #fill(long, long, byte[], int)}.
+     *
+     * @param key the key of the page
+     *
+     * @return the stamp
+     */
+    public long stamp(final long key) {
+        return segment(key).writeCount;
+    }
+
+    /**
+     * Adds a page which has been read from disk. The page is not added if
+     * a page of the same segment has been written since the stamp was taken,
+     * as the page read may already be stale.
+     *
+     * @param key the key of the page
+     * @param stamp the stamp from {@link #stamp(long)}
+     * @param buf the page data
+     * @param off the offset of the page within {@code buf}
+     */
+    public void fill(final long key, final long stamp, final byte[] buf, final int off) {
+        segment(key).put(key, buf, off, stamp);
+    }
+
+    /**
+     * Updates a page which has been written to disk.
+     *
+     * @param key the key of the page
+     * @param buf the page data
+     * @param off the offset of the page within {@code buf}
+     */
+    public void update(final long key, final byte[] buf, final int off) {
+        segment(key).put(key, buf, off, -1);
+    }
+
+    private Segment segment(final long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 32;
+        return segments[(int) h & (SEGMENTS - 1)];
+    }
+
+    @Override
+    public void shutdown() {
+        if (segments != null) {
+            for (final Segment segment : segments) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Get a snapshot of the statistics of the cache
+     *
+     * @return statistics of the cache
+     */
+    public Statistics getStatistics() {
+        long allocatedBytes = 0;
+        long pages = 0;
+        if (segments != null) {
+            for (final Segment segment : segments) {
+                segment.lock.lock();
+                try {
+                    for (final ByteBuffer slab : segment.slabs) {
+                        allocatedBytes += slab.capacity();
+                    }
+                    pages += segment.map.size();
+                } finally {
+                    segment.lock.unlock();
+                }
+            }
+        }
+        return new Statistics(maxBytes, allocatedBytes, pages * pageSize, pages, pageSize,
+                hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private static final class Slot {
+        static final long FREE = -1;
+
+        final ByteBuffer buffer;
+        long key = FREE;
+        boolean referenced;
+
+        Slot(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int capacity;
+        private final int slabCapacity;
+
+        @GuardedBy("lock") private final Long2ObjectHashMap<Slot> map;
+        @GuardedBy("lock") private final List<ByteBuffer> slabs = new ArrayList<>();
+        @GuardedBy("lock") private final List<Slot> slots = new ArrayList<>();
+        @GuardedBy("lock") private int hand = 0;
+
+        /** the number of writes to the segment, guarded by lock for writes */
+        private volatile long writeCount = 0;
+
+        Segment(final int capacity) {
+            this.capacity = capacity;
+            this.slabCapacity = Math.max(1, Math.min(capacity, SLAB_SIZE / pageSize));
+            this.map = new Long2ObjectHashMap<>(Math.min(capacity, 1024));
+        }
+
+        boolean read(final long key, final byte[] buf, final int off) {
+            lock.lock();
+            try {
+                final Slot slot = map.get(key);
+                if (slot == null) {
+                    return false;
+                }
+                slot.referenced = true;
+                final ByteBuffer buffer = slot.buffer.duplicate();
+                buffer.get(buf, off, pageSize);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(final long key, final byte[] buf, final int off, final long stamp) {
+            lock.lock();
+            try {
+                if (stamp < 0) {
+                    writeCount++;
+                } else if (stamp != writeCount) {
+                    // a page was written after the data has been read
+                    return;
+                }
+
+                Slot slot = map.get(key);
+                if (slot == null) {
+                    slot = allocate();
+                    slot.key = key;
+                    map.put(key, slot);
+                }
+                slot.referenced = true;
+                final ByteBuffer buffer = slot.buffer.duplicate();
+                buffer.put(buf, off, pageSize);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @GuardedBy("lock")
+        private Slot allocate() {
+            if (slots.size() < capacity) {
+                final int index = slots.size() % slabCapacity;
+                if (index == 0) {
+                    slabs.add(ByteBuffer.allocateDirect(Math.min(slabCapacity, capacity - slots.size()) * pageSize));
+                }
+                final ByteBuffer slab = slabs.get(slabs.size() - 1).duplicate();
+                slab.position(index * pageSize);
+                slab.limit(index * pageSize + pageSize);
+                final Slot slot = new Slot(slab.slice());
+                slots.add(slot);
+                return slot;
+            }
+
+            // CLOCK replacement
+            while (true) {
+                final Slot slot = slots.get(hand);
+                hand = (hand + 1) % slots.size();
+                if (slot.referenced) {
+                    slot.referenced = false;
+                } else {
+                    map.remove(slot.key);
+                    slot.key = Slot.FREE;
+                    evictions.increment();
+                    return slot;
+                }
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                map.clear();
+                slots.clear();
+                slabs.clear();
+                hand = 0;
+                writeCount++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public static class Statistics {
+        private final long maxBytes;
+        private final long allocatedBytes;
+        private final long usedBytes;
+        private final long pages;
+        private final int pageSize;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        @ConstructorProperties({"maxBytes", "allocatedBytes", "usedBytes", "pages", "pageSize", "hits", "misses", "evictions"})
+        public Statistics(final long maxBytes, final long allocatedBytes, final long usedBytes, final long pages,
+                final int pageSize, final long hits, final long misses, final long evictions) {
+            this.maxBytes = maxBytes;
+            this.allocatedBytes = allocatedBytes;
+            this.usedBytes = usedBytes;
+            this.pages = pages;
+            this.pageSize = pageSize;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        /**
+         * @return the maximum amount of direct memory the cache may allocate
+         */
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        /**
+         * @return the amount of direct memory allocated by the cache
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return the amount of direct memory holding cached pages
+         */
+        public long getUsedBytes() {
+            return usedBytes;
+        }
+
+        public long getPages() {
+            return pages;
+        }
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+    }
+}
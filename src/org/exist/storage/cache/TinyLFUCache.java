@@ -0,0 +1,554 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.CacheManager;
+import org.jctools.queues.atomic.MpscAtomicArrayQueue;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Scan resistant cache implementing the W-TinyLFU replacement policy.
+ *
+ * New pages enter a small LRU admission window. Pages leaving the window
+ * compete with the least recently used page of the main space, and are only
+ * admitted if they have been accessed more frequently, as estimated by a
+ * {@link FrequencySketch}. The main space is a segmented LRU: pages which are
+ * accessed again while on probation are promoted to the protected segment.
+ * A large scan therefore only churns the admission window and the probation
+ * segment, whilst frequently used pages, e.g. the inner pages of a B+-tree,
+ * stay in the cache.
+ *
+ * Lookups do not block: the pages are held in a concurrent map, and the
+ * bookkeeping for a cache hit is either done immediately if the policy lock
+ * is free, or deferred through a small lossy buffer which is drained by the
+ * next thread holding the lock. Adding, removing and evicting pages is
+ * serialized on the policy lock.
+ *
+ * Like {@link LRUCache}, this cache ignores the reference counts and
+ * timestamps of the {@link Cacheable} objects.
+ */
+@ThreadSafe
+public class TinyLFUCache<T extends Cacheable> implements Cache<T> {
+
+    private final static Logger LOG = LogManager.getLogger(TinyLFUCache.class);
+
+    /** fraction of the cache used by the admission window */
+    private static final double WINDOW_FRACTION = 0.01;
+
+    /** fraction of the main space used by the protected segment */
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    private static final int READ_BUFFER_SIZE = 128;
+
+    private final String name;
+    private final CacheType type;
+    private final double growthFactor;
+    private final ConcurrentHashMap<Long, Node<T>> map;
+    private final Queue<Node<T>> readBuffer = new MpscAtomicArrayQueue<>(READ_BUFFER_SIZE);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    @GuardedBy("lock") private final Accounting accounting;
+    @GuardedBy("lock") private final FrequencySketch sketch;
+    @GuardedBy("lock") private final Segment<T> window = new Segment<>();
+    @GuardedBy("lock") private final Segment<T> probation = new Segment<>();
+    @GuardedBy("lock") private final Segment<T> protectedSegment = new Segment<>();
+    @GuardedBy("lock") private int maxWindow;
+    @GuardedBy("lock") private int maxProtected;
+
+    private volatile int max;
+    private volatile CacheManager cacheManager = null;
+    private int hitsOld = 0;
+
+    public TinyLFUCache(final String name, final int size, final double growthFactor, final double growthThreshold, final CacheType type) {
+        this.name = name;
+        this.type = type;
+        this.growthFactor = growthFactor;
+        this.accounting = new Accounting(growthThreshold);
+        this.map = new ConcurrentHashMap<>(size * 2);
+        this.sketch = new FrequencySketch(size);
+        setMax(size);
+    }
+
+    @GuardedBy("lock")
+    private void setMax(final int size) {
+        this.max = size;
+        this.maxWindow = Math.max(1, (int) (size * WINDOW_FRACTION));
+        this.maxProtected = (int) ((size - maxWindow) * PROTECTED_FRACTION);
+        accounting.setTotalSize(size);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public CacheType getType() {
+        return type;
+    }
+
+    @Override
+    public void add(final T item) {
+        add(item, 1);
+    }
+
+    @Override
+    public void add(final T item, final int initialRefCount) {
+        final long key = item.getKey();
+        final boolean resizeNeeded;
+        lock.lock();
+        try {
+            drainReadBuffer();
+
+            Node<T> node = map.get(key);
+            if (node != null) {
+                node.item = item;
+                onAccess(node);
+                return;
+            }
+
+            node = new Node<>(key, item);
+            map.put(key, node);
+            accounting.loaded(key);
+            sketch.increment(key);
+            window.addLast(node);
+
+            resizeNeeded = evictIfNeeded(node) && growthFactor > 1.0 && accounting.resizeNeeded();
+        } finally {
+            lock.unlock();
+        }
+
+        final CacheManager manager = cacheManager;
+        if (resizeNeeded && manager != null) {
+            manager.requestMem(this);
+        }
+    }
+
+    @Override
+    public T get(final T item) {
+        return get(item.getKey());
+    }
+
+    @Override
+    public T get(final long key) {
+        final Node<T> node = map.get(key);
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        recordAccess(node);
+        return node.item;
+    }
+
+    @Override
+    public void remove(final T item) {
+        lock.lock();
+        try {
+            final Node<T> node = map.remove(item.getKey());
+            if (node != null && node.segment != null) {
+                node.segment.remove(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean flush() {
+        boolean flushed = false;
+        for (final Node<T> node : map.values()) {
+            final T cacheable = node.item;
+            if (cacheable.isDirty()) {
+                flushed = flushed | cacheable.sync(false);
+            }
+        }
+        return flushed;
+    }
+
+    @Override
+    public int flush(final int maxItems) {
+        int written = 0;
+        for (final Node<T> node : map.values()) {
+            if (written >= maxItems) {
+                break;
+            }
+            final T cacheable = node.item;
+            if (cacheable.isDirty() && cacheable.sync(false)) {
+                written++;
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public int getDirtyCount() {
+        int dirty = 0;
+        for (final Node<T> node : map.values()) {
+            if (node.item.isDirty()) {
+                dirty++;
+            }
+        }
+        return dirty;
+    }
+
+    @Override
+    public boolean hasDirtyItems() {
+        for (final Node<T> node : map.values()) {
+            if (node.item.isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getBuffers() {
+        return max;
+    }
+
+    @Override
+    public int getUsedBuffers() {
+        return map.size();
+    }
+
+    @Override
+    public int getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public int getFails() {
+        return misses.get();
+    }
+
+    public int getThrashing() {
+        lock.lock();
+        try {
+            return accounting.getThrashing();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return accounting.getEvictions();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getGhostHits() {
+        lock.lock();
+        try {
+            return accounting.getGhostHits();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getGrowthFactor() {
+        return growthFactor;
+    }
+
+    @Override
+    public void setCacheManager(final CacheManager manager) {
+        this.cacheManager = manager;
+    }
+
+    /**
+     * Resizes the cache. When the cache shrinks, only the
+     * least valuable pages are evicted, the rest are kept.
+     *
+     * @param newSize the new size of the cache.
+     */
+    @Override
+    public void resize(final int newSize) {
+        lock.lock();
+        try {
+            drainReadBuffer();
+            setMax(newSize);
+            sketch.ensureCapacity(newSize);
+            evictIfNeeded(null);
+            accounting.reset();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getLoad() {
+        if (hitsOld == 0) {
+            hitsOld = hits.get();
+            return Integer.MAX_VALUE;
+        }
+        final int currentHits = hits.get();
+        final int load = currentHits - hitsOld;
+        hitsOld = currentHits;
+        return load;
+    }
+
+    /**
+     * Records a cache hit for the policy, without
+     * blocking if another thread holds the lock.
+     */
+    private void recordAccess(final Node<T> node) {
+        if (lock.tryLock()) {
+            try {
+                drainReadBuffer();
+                onAccess(node);
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            // if the buffer is full the access is simply not recorded
+            readBuffer.offer(node);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void drainReadBuffer() {
+        Node<T> node;
+        while ((node = readBuffer.poll()) != null) {
+            onAccess(node);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void onAccess(final Node<T> node) {
+        final Segment<T> segment = node.segment;
+        if (segment == null) {
+            // removed or evicted in the meantime
+            return;
+        }
+
+        sketch.increment(node.key);
+
+        if (segment == probation) {
+            probation.remove(node);
+            protectedSegment.addLast(node);
+            demoteProtected();
+        } else {
+            segment.moveToLast(node);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void demoteProtected() {
+        while (protectedSegment.size > maxProtected) {
+            final Node<T> demoted = protectedSegment.first();
+            protectedSegment.remove(demoted);
+            probation.addLast(demoted);
+        }
+    }
+
+    /**
+     * Moves pages from the admission window into the main space,
+     * and evicts pages until the cache is within its size.
+     *
+     * @param added the page which has just been added and
+     *     must not be evicted, or null
+     *
+     * @return true if a page was evicted
+     */
+    @GuardedBy("lock")
+    private boolean evictIfNeeded(final Node<T> added) {
+        boolean evicted = false;
+
+        final int maxMain = max - maxWindow;
+        while (window.size > maxWindow) {
+            final Node<T> candidate = window.first();
+            window.remove(candidate);
+
+            if (probation.size + protectedSegment.size < maxMain) {
+                probation.addLast(candidate);
+                continue;
+            }
+
+            final Node<T> victim = findVictim(added, false);
+            if (victim == null) {
+                // every page in the main space is in use
+                probation.addLast(candidate);
+            } else if (admit(candidate, victim, added)) {
+                evict(victim);
+                probation.addLast(candidate);
+                evicted = true;
+            } else {
+                evict(candidate);
+                evicted = true;
+            }
+        }
+
+        while (map.size() > max) {
+            final Node<T> victim = findVictim(added, true);
+            if (victim == null) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Unable to remove entry from cache " + name);
+                }
+                break;
+            }
+            evict(victim);
+            evicted = true;
+        }
+
+        demoteProtected();
+
+        if (evicted && added != null) {
+            accounting.replacedPage(added.item);
+        }
+        return evicted;
+    }
+
+    /**
+     * Decides whether a page leaving the admission window should replace
+     * the victim from the main space.
+     */
+    @GuardedBy("lock")
+    private boolean admit(final Node<T> candidate, final Node<T> victim, final Node<T> added) {
+        if (candidate == added || !candidate.item.allowUnload()) {
+            return true;
+        }
+        return sketch.frequency(candidate.key) > sketch.frequency(victim.key);
+    }
+
+    /**
+     * Finds the next page to evict, preferring the probation segment
+     * over the protected segment, and leaf pages over inner B+-tree pages.
+     */
+    @GuardedBy("lock")
+    private Node<T> findVictim(final Node<T> added, final boolean includeWindow) {
+        for (int pass = 0; pass < 2; pass++) {
+            final boolean mustRemoveInner = pass == 1;
+            Node<T> victim = findVictim(probation, added, mustRemoveInner);
+            if (victim == null) {
+                victim = findVictim(protectedSegment, added, mustRemoveInner);
+            }
+            if (victim == null && includeWindow) {
+                victim = findVictim(window, added, mustRemoveInner);
+            }
+            if (victim != null) {
+                return victim;
+            }
+        }
+        return null;
+    }
+
+    @GuardedBy("lock")
+    private Node<T> findVictim(final Segment<T> segment, final Node<T> added, final boolean mustRemoveInner) {
+        for (Node<T> node = segment.first(); node != null; node = segment.next(node)) {
+            if (node != added && node.item.allowUnload() && (mustRemoveInner || !isInnerPage(node.item))) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isInnerPage(final Cacheable item) {
+        return item instanceof BTreeCacheable && ((BTreeCacheable) item).isInnerPage();
+    }
+
+    @GuardedBy("lock")
+    private void evict(final Node<T> node) {
+        if (LOG.isTraceEnabled()) {
+            LOG.trace(name + " evicting " + node.key);
+        }
+        if (node.segment != null) {
+            node.segment.remove(node);
+        }
+        map.remove(node.key, node);
+        node.item.sync(true);
+        accounting.evicted(node.key);
+    }
+
+    private static final class Node<T extends Cacheable> {
+        final long key;
+        volatile T item;
+
+        // guarded by the policy lock
+        Segment<T> segment;
+        Node<T> prev;
+        Node<T> next;
+
+        Node(final long key, final T item) {
+            this.key = key;
+            this.item = item;
+        }
+    }
+
+    /**
+     * Doubly linked list of nodes in access order,
+     * from the least to the most recently used.
+     */
+    private static final class Segment<T extends Cacheable> {
+        private final Node<T> head = new Node<>(-1, null);
+        int size = 0;
+
+        Segment() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        Node<T> first() {
+            return head.next == head ? null : head.next;
+        }
+
+        Node<T> next(final Node<T> node) {
+            return node.next == head ? null : node.next;
+        }
+
+        void addLast(final Node<T> node) {
+            node.segment = this;
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            size++;
+        }
+
+        void remove(final Node<T> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.segment = null;
+            size--;
+        }
+
+        void moveToLast(final Node<T> node) {
+            remove(node);
+            addLast(node);
+        }
+    }
+}
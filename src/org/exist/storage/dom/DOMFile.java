@@ -61,7 +61,6 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
 import org.exist.storage.journal.JournalException;
 import org.exist.storage.journal.LogEntryTypes;
 import org.exist.storage.journal.Loggable;
@@ -192,7 +191,7 @@ public class DOMFile extends BTree implements Lockable {
         fileHeader = (BTreeFileHeader)getFileHeader();
         fileHeader.setPageCount(0);
         fileHeader.setTotalCount(0);
-        dataCache = new LRUCache<>(getFileName(), 256, 0.0, 1.0, Cache.CacheType.DATA);
+        dataCache = cacheManager.createDataCache(getFileName(), 256, 0.0, 1.0);
         cacheManager.registerCache(dataCache);
         final Path file = dataDir.resolve(getFileName());
         setFile(file);
@@ -1375,6 +1374,20 @@ public class DOMFile extends BTree implements Lockable {
         return flushed;
     }
 
+    @Override
+    public int flushDirtyPages(final int maxPages) {
+        int written = super.flushDirtyPages(maxPages);
+        if (written < maxPages) {
+            written += dataCache.flush(maxPages - written);
+        }
+        return written;
+    }
+
+    @Override
+    public int getDirtyPages() {
+        return super.getDirtyPages() + dataCache.getDirtyCount();
+    }
+
     @Override
     public void printStatistics() {
         super.printStatistics();
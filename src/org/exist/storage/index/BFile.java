@@ -36,7 +36,6 @@ import org.exist.storage.btree.IndexQuery;
 import org.exist.storage.btree.Value;
 import org.exist.storage.cache.Cache;
 import org.exist.storage.cache.Cacheable;
-import org.exist.storage.cache.LRUCache;
 import org.exist.storage.io.VariableByteArrayInput;
 import org.exist.storage.io.VariableByteInput;
 import org.exist.storage.io.VariableByteOutputStream;
@@ -145,7 +144,7 @@ public class BFile extends BTree {
         super(pool, fileId, fileVersion, recoveryEnabled, cacheManager, file);
         lockManager = pool.getLockManager();
         fileHeader = (BFileHeader) getFileHeader();
-        dataCache = new LRUCache<>(FileUtils.fileName(file), 64, cacheGrowth, thresholdData, Cache.CacheType.DATA);
+        dataCache = cacheManager.createDataCache(FileUtils.fileName(file), 64, cacheGrowth, thresholdData);
         cacheManager.registerCache(dataCache);
         minFree = PAGE_MIN_FREE;
         maxValueSize = fileHeader.getWorkSize() / 2;
@@ -373,6 +372,20 @@ public class BFile extends BTree {
         return flushed;
     }
 
+    @Override
+    public int flushDirtyPages(final int maxPages) {
+        int written = super.flushDirtyPages(maxPages);
+        if (written < maxPages) {
+            written += dataCache.flush(maxPages - written);
+        }
+        return written;
+    }
+
+    @Override
+    public int getDirtyPages() {
+        return super.getDirtyPages() + dataCache.getDirtyCount();
+    }
+
     public BufferStats getDataBufferStats() {
         if (dataCache == null) {
             return null;
@@ -19,9 +19,11 @@
  */
 package org.exist.storage.journal;
 
+import java.beans.ConstructorProperties;
 import java.io.*;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
@@ -29,10 +31,13 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 import net.jpountz.xxhash.XXHash64;
 import net.jpountz.xxhash.XXHashFactory;
+import net.jcip.annotations.GuardedBy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.EXistException;
@@ -93,6 +98,11 @@ import static org.exist.util.ThreadUtils.newInstanceThread;
  * {@code transactionId}    8 bytes (java.lang.long) the id of the transaction that created the record.
  * {@code dataLength}       2 bytes (java.lang.short) the length of the log entry {@code data}.
  *
+ * When group commit is enabled, committing transactions do not flush the journal themselves.
+ * Instead they call {@link #awaitGroupCommit(Lsn)} which blocks until a dedicated flusher thread
+ * has written (and synced) the journal up to their commit record. A single flush then covers
+ * all transactions which committed whilst the previous flush was in progress.
+ *
  * @author wolf
  * @author aretter
  */
@@ -116,11 +126,13 @@ public final class Journal implements Closeable {
     public static final String RECOVERY_SYNC_ON_COMMIT_ATTRIBUTE = "sync-on-commit";
     public static final String RECOVERY_JOURNAL_DIR_ATTRIBUTE = "journal-dir";
     public static final String RECOVERY_SIZE_LIMIT_ATTRIBUTE = "size";
+    public static final String RECOVERY_GROUP_COMMIT_DELAY_ATTRIBUTE = "group-commit-delay";
 
     public static final String PROPERTY_RECOVERY_SIZE_MIN = "db-connection.recovery.size-min";
     public static final String PROPERTY_RECOVERY_SIZE_LIMIT = "db-connection.recovery.size-limit";
     public static final String PROPERTY_RECOVERY_JOURNAL_DIR = "db-connection.recovery.journal-dir";
     public static final String PROPERTY_RECOVERY_SYNC_ON_COMMIT = "db-connection.recovery.sync-on-commit";
+    public static final String PROPERTY_RECOVERY_GROUP_COMMIT_DELAY = "db-connection.recovery.group-commit-delay";
 
     public static final String LOG_FILE_SUFFIX = "log";
     public static final String BAK_FILE_SUFFIX = ".bak";
@@ -246,6 +258,58 @@ public final class Journal implements Closeable {
     private final static boolean DEFAULT_SYNC_ON_COMMIT = true;
     private final boolean syncOnCommit;
 
+    /**
+     * if set to true, transaction commits are flushed in batches
+     * by the group commit flusher thread
+     */
+    private final boolean groupCommit;
+
+    /**
+     * time in milliseconds that the group commit flusher waits
+     * for further commits to join a batch before flushing
+     */
+    private final static long DEFAULT_GROUP_COMMIT_DELAY = 0;
+    private final long groupCommitDelay;
+
+    /**
+     * latch used to coordinate committing threads with the group commit flusher
+     */
+    private final Object groupCommitLatch = new Object();
+
+    /**
+     * the highest LSN that a committing thread is waiting for
+     */
+    @GuardedBy("groupCommitLatch") private Lsn groupCommitRequestedLsn = Lsn.LSN_INVALID;
+
+    /**
+     * the highest LSN that has been flushed by the group commit flusher
+     */
+    @GuardedBy("groupCommitLatch") private Lsn groupCommitFlushedLsn = Lsn.LSN_INVALID;
+
+    /**
+     * the number of committing threads that have joined the next batch
+     */
+    @GuardedBy("groupCommitLatch") private int groupCommitPending = 0;
+
+    /**
+     * The entries after groupCommitFailedFromLsn up to groupCommitFailedLsn could not
+     * be flushed by the last failed group commit. Their committers fail with groupCommitFailure.
+     */
+    @GuardedBy("groupCommitLatch") private Lsn groupCommitFailedFromLsn = Lsn.LSN_INVALID;
+    @GuardedBy("groupCommitLatch") private Lsn groupCommitFailedLsn = Lsn.LSN_INVALID;
+    @GuardedBy("groupCommitLatch") private IOException groupCommitFailure = null;
+
+    @GuardedBy("groupCommitLatch") private boolean groupCommitRunning = false;
+    private Thread groupCommitFlusher;
+
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong syncCount = new AtomicLong();
+    @GuardedBy("groupCommitLatch") private long groupCommitBatches = 0;
+    @GuardedBy("groupCommitLatch") private long groupCommitCommits = 0;
+    @GuardedBy("groupCommitLatch") private int groupCommitMaxBatchSize = 0;
+    @GuardedBy("groupCommitLatch") private long groupCommitWaitTime = 0;
+    @GuardedBy("groupCommitLatch") private long groupCommitMaxWaitTime = 0;
+
     private final Path fsJournalDir;
 
     private volatile boolean initialised = false;
@@ -262,6 +326,12 @@ public final class Journal implements Closeable {
             LOG.debug("SyncOnCommit = " + syncOnCommit);
         }
 
+        this.groupCommit = pool.getConfiguration().getProperty(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, false);
+        this.groupCommitDelay = pool.getConfiguration().getProperty(PROPERTY_RECOVERY_GROUP_COMMIT_DELAY, DEFAULT_GROUP_COMMIT_DELAY);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("GroupCommit = " + groupCommit + ", GroupCommitDelay = " + groupCommitDelay + "ms");
+        }
+
         final Optional<Path> logDir = Optional.ofNullable((Path) pool.getConfiguration().getProperty(PROPERTY_RECOVERY_JOURNAL_DIR));
         if (logDir.isPresent()) {
             Path f = logDir.get();
@@ -311,6 +381,15 @@ public final class Journal implements Closeable {
                     "eXist process. A lock file: " + lck.toAbsolutePath().toString() + " is present in the " +
                     "log directory. Last access to the lock file: " + lastHeartbeat);
         }
+
+        if (groupCommit) {
+            synchronized (groupCommitLatch) {
+                groupCommitRunning = true;
+            }
+            groupCommitFlusher = newInstanceThread(pool, "journal.group-commit", new GroupCommitRunnable());
+            groupCommitFlusher.setDaemon(true);
+            groupCommitFlusher.start();
+        }
     }
 
     /**
@@ -422,6 +501,239 @@ public final class Journal implements Closeable {
 
     private void sync() throws IOException {
         channel.force(true);
+        syncCount.incrementAndGet();
+    }
+
+    /**
+     * Wait until the journal has been flushed, and if sync-on-commit is
+     * enabled synced, at least up to the entry with the given LSN.
+     *
+     * Only has an effect if group commit is enabled. The calling thread
+     * joins the next batch of the group commit flusher.
+     *
+     * @param lsn the LSN of the entry, typically a transaction commit.
+     *
+     * @throws JournalException if the journal could not be flushed, was shut down or the wait was interrupted.
+     */
+    public void awaitGroupCommit(final Lsn lsn) throws JournalException {
+        if (!groupCommit || lsn == null || Lsn.LSN_INVALID.equals(lsn)) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        synchronized (groupCommitLatch) {
+            checkGroupCommitFailed(lsn);
+            if (groupCommitFlushedLsn.compareTo(lsn) >= 0) {
+                // already flushed by a previous batch
+                return;
+            }
+
+            if (lsn.compareTo(groupCommitRequestedLsn) > 0) {
+                groupCommitRequestedLsn = lsn;
+            }
+            groupCommitPending++;
+            groupCommitLatch.notifyAll();
+
+            try {
+                while (groupCommitFlushedLsn.compareTo(lsn) < 0) {
+                    checkGroupCommitFailed(lsn);
+                    if (!groupCommitRunning) {
+                        throw new JournalException("Journal was shut down before group commit of: " + lsn);
+                    }
+                    groupCommitLatch.wait();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JournalException("Interrupted whilst waiting for group commit of: " + lsn, e);
+            }
+
+            final long waitTime = System.nanoTime() - start;
+            groupCommitWaitTime += waitTime;
+            if (waitTime > groupCommitMaxWaitTime) {
+                groupCommitMaxWaitTime = waitTime;
+            }
+        }
+    }
+
+    @GuardedBy("groupCommitLatch")
+    private void checkGroupCommitFailed(final Lsn lsn) throws JournalException {
+        if (groupCommitFailure != null && lsn.compareTo(groupCommitFailedFromLsn) > 0
+                && lsn.compareTo(groupCommitFailedLsn) <= 0) {
+            throw new JournalException("Group commit could not flush the Journal up to: " + lsn, groupCommitFailure);
+        }
+    }
+
+    /**
+     * Flushes the journal for the committing threads which
+     * are waiting in {@link #awaitGroupCommit(Lsn)}.
+     */
+    private class GroupCommitRunnable implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                final int batchSize;
+                final Lsn requestedLsn;
+                synchronized (groupCommitLatch) {
+                    try {
+                        while (groupCommitRunning && !isGroupCommitRequested()) {
+                            groupCommitLatch.wait();
+                        }
+                    } catch (final InterruptedException e) {
+                        // restore the interrupted status and shut down
+                        Thread.currentThread().interrupt();
+                        groupCommitRunning = false;
+                    }
+
+                    if (!isGroupCommitRequested()) {
+                        // nothing pending and we have been stopped
+                        groupCommitLatch.notifyAll();
+                        return;
+                    }
+                }
+
+                if (groupCommitDelay > 0) {
+                    try {
+                        Thread.sleep(groupCommitDelay);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                synchronized (groupCommitLatch) {
+                    batchSize = groupCommitPending;
+                    groupCommitPending = 0;
+                    requestedLsn = groupCommitRequestedLsn;
+                }
+
+                Lsn flushedLsn = null;
+                IOException failure = null;
+                try {
+                    flushedLsn = flushGroup();
+                } catch (final IOException e) {
+                    LOG.error("Group commit could not flush the Journal up to: " + requestedLsn + ": " + e.getMessage(), e);
+                    failure = e;
+                }
+
+                synchronized (groupCommitLatch) {
+                    if (failure != null) {
+                        // fail the committing threads instead of reporting their commits as durable
+                        groupCommitFailedFromLsn = groupCommitFlushedLsn;
+                        groupCommitFailedLsn = requestedLsn;
+                        groupCommitFailure = failure;
+                    } else if (flushedLsn.compareTo(groupCommitFlushedLsn) > 0) {
+                        groupCommitFlushedLsn = flushedLsn;
+                    }
+                    groupCommitBatches++;
+                    groupCommitCommits += batchSize;
+                    if (batchSize > groupCommitMaxBatchSize) {
+                        groupCommitMaxBatchSize = batchSize;
+                    }
+                    groupCommitLatch.notifyAll();
+                }
+            }
+        }
+    }
+
+    @GuardedBy("groupCommitLatch")
+    private boolean isGroupCommitRequested() {
+        return groupCommitRequestedLsn.compareTo(groupCommitFlushedLsn) > 0
+                && groupCommitRequestedLsn.compareTo(groupCommitFailedLsn) > 0;
+    }
+
+    /**
+     * Flush the current buffer for a group commit, and
+     * sync the file if sync-on-commit is enabled.
+     *
+     * The sync is performed without holding the monitor of
+     * the journal, so that other transactions can continue
+     * writing to the journal in the meantime.
+     *
+     * @return the LSN up to which the journal has been flushed
+     *
+     * @throws IOException if the buffer could not be written or the file could not be synced
+     */
+    private Lsn flushGroup() throws IOException {
+        final FileChannel syncChannel;
+        final Lsn flushedLsn;
+        synchronized (this) {
+            if (currentBuffer != null && channel != null) {
+                synchronized (latch) {
+                    writeBuffer();
+                }
+            }
+            flushedLsn = lastLsnWritten;
+            syncChannel = channel;
+        }
+
+        if (syncOnCommit && syncChannel != null) {
+            try {
+                syncChannel.force(true);
+                syncCount.incrementAndGet();
+            } catch (final ClosedChannelException e) {
+                // the journal file was switched or closed, which syncs the file
+            }
+
+            synchronized (this) {
+                if (flushedLsn.compareTo(lastSyncLsn) > 0) {
+                    lastSyncLsn = flushedLsn;
+                }
+            }
+        }
+
+        try {
+            if (syncChannel != null && syncChannel.isOpen() && syncChannel.size() >= journalSizeLimit) {
+                pool.triggerCheckpoint();
+            }
+        } catch (final IOException e) {
+            LOG.warn("Failed to trigger checkpoint!", e);
+        }
+
+        return flushedLsn;
+    }
+
+    /**
+     * Stops the group commit flusher, after it has
+     * flushed any pending commits.
+     */
+    private void stopGroupCommit() {
+        if (groupCommitFlusher == null) {
+            return;
+        }
+
+        synchronized (groupCommitLatch) {
+            groupCommitRunning = false;
+            groupCommitLatch.notifyAll();
+        }
+
+        try {
+            groupCommitFlusher.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted whilst waiting for the group commit flusher to stop");
+        }
+        groupCommitFlusher = null;
+    }
+
+    /**
+     * Get a snapshot of the journal statistics.
+     *
+     * @return the statistics of the journal.
+     */
+    public Statistics getStatistics() {
+        final long uptime = System.currentTimeMillis() - startTime;
+        final long syncs = syncCount.get();
+        synchronized (groupCommitLatch) {
+            return new Statistics(
+                    groupCommit,
+                    syncs,
+                    uptime > 0 ? syncs / (uptime / 1000d) : 0,
+                    groupCommitBatches,
+                    groupCommitCommits,
+                    groupCommitMaxBatchSize,
+                    TimeUnit.NANOSECONDS.toMillis(groupCommitWaitTime),
+                    TimeUnit.NANOSECONDS.toMillis(groupCommitMaxWaitTime)
+            );
+        }
     }
 
     /**
@@ -433,23 +745,29 @@ public final class Journal implements Closeable {
         }
         synchronized (latch) {
             try {
-                if (currentBuffer.position() > 0) {
-                    currentBuffer.flip();
-                    final int size = currentBuffer.remaining();
-                    while (currentBuffer.hasRemaining()) {
-                        channel.write(currentBuffer);
-                    }
-
-                    lastLsnWritten = currentLsn;
-                }
+                writeBuffer();
             } catch (final IOException e) {
                 LOG.warn("Flushing log file failed!", e);
-            } finally {
-                currentBuffer.clear();
             }
         }
     }
 
+    @GuardedBy("latch")
+    private void writeBuffer() throws IOException {
+        try {
+            if (currentBuffer.position() > 0) {
+                currentBuffer.flip();
+                while (currentBuffer.hasRemaining()) {
+                    channel.write(currentBuffer);
+                }
+
+                lastLsnWritten = currentLsn;
+            }
+        } finally {
+            currentBuffer.clear();
+        }
+    }
+
     /**
      * Write a checkpoint record to the journal and flush it. If switchLogFiles is true,
      * a new journal will be started, but only if the file is larger than
@@ -650,6 +968,8 @@ public final class Journal implements Closeable {
             return; // the db has probably shut down already
         }
 
+        stopGroupCommit();
+
         if (!BrokerPool.FORCE_CORRUPTION) {
             if (checkpoint) {
                 LOG.info("Shutting down Journal with checkpoint...");
@@ -694,6 +1014,90 @@ public final class Journal implements Closeable {
         return hex + '.' + LOG_FILE_SUFFIX;
     }
 
+    /**
+     * A snapshot of the journal statistics.
+     */
+    public static class Statistics {
+        private final boolean groupCommit;
+        private final long syncCount;
+        private final double syncsPerSecond;
+        private final long groupCommitBatches;
+        private final long groupCommitCommits;
+        private final int groupCommitMaxBatchSize;
+        private final long groupCommitWaitTime;
+        private final long groupCommitMaxWaitTime;
+
+        /**
+         * @param groupCommit true if group commit is enabled
+         * @param syncCount the number of syncs of the journal file
+         * @param syncsPerSecond the average number of syncs per second since startup
+         * @param groupCommitBatches the number of batches flushed by the group commit flusher
+         * @param groupCommitCommits the number of commits flushed by the group commit flusher
+         * @param groupCommitMaxBatchSize the largest number of commits flushed in a single batch
+         * @param groupCommitWaitTime the total time in milliseconds commits have waited for the group commit flusher
+         * @param groupCommitMaxWaitTime the longest time in milliseconds a commit has waited for the group commit flusher
+         */
+        @ConstructorProperties({"groupCommit", "syncCount", "syncsPerSecond", "groupCommitBatches", "groupCommitCommits", "groupCommitMaxBatchSize", "groupCommitWaitTime", "groupCommitMaxWaitTime"})
+        public Statistics(final boolean groupCommit, final long syncCount, final double syncsPerSecond,
+                final long groupCommitBatches, final long groupCommitCommits, final int groupCommitMaxBatchSize,
+                final long groupCommitWaitTime, final long groupCommitMaxWaitTime) {
+            this.groupCommit = groupCommit;
+            this.syncCount = syncCount;
+            this.syncsPerSecond = syncsPerSecond;
+            this.groupCommitBatches = groupCommitBatches;
+            this.groupCommitCommits = groupCommitCommits;
+            this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+            this.groupCommitWaitTime = groupCommitWaitTime;
+            this.groupCommitMaxWaitTime = groupCommitMaxWaitTime;
+        }
+
+        public boolean isGroupCommit() {
+            return groupCommit;
+        }
+
+        public long getSyncCount() {
+            return syncCount;
+        }
+
+        public double getSyncsPerSecond() {
+            return syncsPerSecond;
+        }
+
+        public long getGroupCommitBatches() {
+            return groupCommitBatches;
+        }
+
+        public long getGroupCommitCommits() {
+            return groupCommitCommits;
+        }
+
+        public int getGroupCommitMaxBatchSize() {
+            return groupCommitMaxBatchSize;
+        }
+
+        /**
+         * @return the average number of commits flushed in a single batch
+         */
+        public double getGroupCommitAverageBatchSize() {
+            return groupCommitBatches == 0 ? 0 : (double) groupCommitCommits / groupCommitBatches;
+        }
+
+        public long getGroupCommitWaitTime() {
+            return groupCommitWaitTime;
+        }
+
+        public long getGroupCommitMaxWaitTime() {
+            return groupCommitMaxWaitTime;
+        }
+
+        /**
+         * @return the average time in milliseconds a commit has waited for the group commit flusher
+         */
+        public double getGroupCommitAverageWaitTime() {
+            return groupCommitCommits == 0 ? 0 : (double) groupCommitWaitTime / groupCommitCommits;
+        }
+    }
+
     private static class RemoveRunnable implements Runnable {
         private final SeekableByteChannel channel;
         private final Path path;
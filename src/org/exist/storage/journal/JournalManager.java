@@ -104,6 +104,25 @@ public class JournalManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * Wait until an entry written by {@link #journalGroup(Loggable)}
+     * has been flushed by the group commit. Has no effect if group
+     * commits are disabled.
+     *
+     * NOTE: This must not be called whilst holding any locks
+     * which committing transactions need, otherwise no other
+     * commits can join the group.
+     *
+     * @see Journal#awaitGroupCommit(Lsn)
+     *
+     * @param loggable The entry previously written by {@link #journalGroup(Loggable)}
+     */
+    public void awaitGroupCommit(final Loggable loggable) throws JournalException {
+        if(!journallingDisabled && groupCommits) {
+            journal.awaitGroupCommit(loggable.getLsn());
+        }
+    }
+
     /**
      * @see Journal#checkpoint(long, boolean)
      *
@@ -157,6 +176,18 @@ public class JournalManager implements BrokerPoolService {
         return journal.lastWrittenLsn();
     }
 
+    /**
+     * @see Journal#getStatistics()
+     *
+     * @return the statistics of the journal, or null if journalling is disabled
+     */
+    public Journal.Statistics getStatistics() {
+        if(journallingDisabled || journal == null) {
+            return null;
+        }
+        return journal.getStatistics();
+    }
+
 
 
     public RecoveryManager.JournalRecoveryAccessor getRecoveryAccessor(final RecoveryManager recoveryManager) {
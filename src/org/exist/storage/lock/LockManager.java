@@ -19,7 +19,6 @@
  */
 package org.exist.storage.lock;
 
-import com.evolvedbinary.j8fu.tuple.Tuple3;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.storage.lock.Lock.LockType;
@@ -28,10 +27,8 @@ import org.exist.util.WeakLazyStripes;
 import org.exist.xmldb.XmldbURI;
 import uk.ac.ic.doc.slurp.multilock.MultiLock;
 
-import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.Consumer;
 
 /**
  * A Lock Manager for Locks that are used across
@@ -70,6 +67,7 @@ public class LockManager {
     private static final Logger LOG = LogManager.getLogger(LockManager.class);
     private static final boolean USE_FAIR_SCHEDULER = true;  //Java's ReentrantReadWriteLock must use the Fair Scheduler to get FIFO like ordering
     private static final boolean USE_MULTILOCK_FOR_DOCUMENTS = Boolean.getBoolean(PROP_USE_MULTILOCK_FOR_DOCUMENTS);
+    private static final String[] NO_PATHS = new String[0];
 
     /**
      * Set to true to enable Multi-Writer/Multi-Reader semantics for
@@ -165,31 +163,39 @@ public class LockManager {
      * @return A READ_LOCK on the Collection.
      */
     public ManagedCollectionLock acquireCollectionReadLock(final XmldbURI collectionPath) throws LockException {
-        final XmldbURI[] segments = collectionPath.getPathSegments();
+        final String[] paths = getCollectionLockPaths(collectionPath);
 
-        final long groupId = System.nanoTime();
+        final boolean trackEvents = lockTable.isEnabled();
+        final long groupId = trackEvents ? System.nanoTime() : 0;
 
-        String path = "";
-        final Tuple3<MultiLock, Lock.LockMode, String>[] locked = new Tuple3[segments.length];
-        for(int i = 0; i < segments.length; i++) {
-            path += '/' + segments[i].toString();
+        final MultiLock[] locks = new MultiLock[paths.length];
+        final Lock.LockMode[] lockModes = new Lock.LockMode[paths.length];
+        for(int i = 0; i < paths.length; i++) {
+            final String path = paths[i];
 
             final Lock.LockMode lockMode;
-            if(i + 1 == segments.length) {
+            if(i + 1 == paths.length) {
                 lockMode = Lock.LockMode.READ_LOCK; //leaf
             } else {
                 lockMode = Lock.LockMode.INTENTION_READ; //ancestor
             }
             final MultiLock lock = getCollectionLock(path);
 
-            lockTable.attempt(groupId, path, LockType.COLLECTION, lockMode);
+            if(trackEvents) {
+                lockTable.attempt(groupId, path, LockType.COLLECTION, lockMode);
+            }
             if(lock(lock, lockMode)) {
-                locked[i] = new Tuple3<>(lock, lockMode, path);
-                lockTable.acquired(groupId, path, LockType.COLLECTION, lockMode);
+                locks[i] = lock;
+                lockModes[i] = lockMode;
+                if(trackEvents) {
+                    lockTable.acquired(groupId, path, LockType.COLLECTION, lockMode);
+                }
             } else {
-                lockTable.attemptFailed(groupId, path, LockType.COLLECTION, lockMode);
+                if(trackEvents) {
+                    lockTable.attemptFailed(groupId, path, LockType.COLLECTION, lockMode);
+                }
 
-                unlockAll(locked, l -> lockTable.released(groupId, l._3, LockType.COLLECTION, l._2));
+                unlockAll(locks, lockModes, paths, trackEvents, groupId);
 
                 throw new LockException("Unable to acquire " + lockMode + " for: " + path);
             }
@@ -197,11 +203,60 @@ public class LockManager {
 
         return new ManagedCollectionLock(
                 collectionPath,
-                Arrays.stream(locked).map(Tuple3::get_1).toArray(MultiLock[]::new),
-                () -> unlockAll(locked, l -> lockTable.released(groupId, l._3, LockType.COLLECTION, l._2))
+                locks,
+                () -> unlockAll(locks, lockModes, paths, trackEvents, groupId)
         );
     }
 
+    /**
+     * Calculates the ids of the locks for a Collection and
+     * all of its ancestors, i.e. the paths of the Collections
+     * from the root down to the Collection itself.
+     *
+     * The ids are equivalent to joining the {@link XmldbURI#getPathSegments()},
+     * but are cut from the path of the Collection, so that neither the segments
+     * nor intermediate strings have to be created.
+     *
+     * @param collectionPath The path of the Collection
+     *
+     * @return the lock ids in acquisition order
+     */
+    static String[] getCollectionLockPaths(final XmldbURI collectionPath) {
+        String path = collectionPath.getRawCollectionPath();
+        if(path == null || path.isEmpty()) {
+            return NO_PATHS;
+        }
+        if(path.charAt(0) != '/') {
+            path = '/' + path;
+        }
+
+        // trailing separators do not form a segment
+        int end = path.length();
+        while(end > 1 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        if(end <= 1) {
+            return NO_PATHS;
+        }
+
+        int count = 1;
+        for(int i = 1; i < end; i++) {
+            if(path.charAt(i) == '/') {
+                count++;
+            }
+        }
+
+        final String[] paths = new String[count];
+        paths[count - 1] = path.substring(0, end);
+        int idx = count - 2;
+        for(int i = end - 1; i > 0 && idx >= 0; i--) {
+            if(path.charAt(i) == '/') {
+                paths[idx--] = path.substring(0, i);
+            }
+        }
+        return paths;
+    }
+
     /**
      * Locks a lock object.
      *
@@ -240,13 +295,23 @@ public class LockManager {
      *
      * Locks are released in the opposite to their acquisition order
      *
-     * @param locked An array of locks in acquisition order
+     * @param locks An array of locks in acquisition order, entries which were not locked are null
+     * @param lockModes The modes with which the {@code locks} were locked
+     * @param paths The ids of the {@code locks}
+     * @param trackEvents true if the releases should be reported to the lock table
+     * @param groupId The group id of the lock events
      */
-    private void unlockAll(final Tuple3<MultiLock, Lock.LockMode, String>[] locked, final Consumer<Tuple3<MultiLock, Lock.LockMode, String>> unlockListener) {
-        for(int i = locked.length - 1; i >= 0; i--) {
-            final Tuple3<MultiLock, Lock.LockMode, String> lock = locked[i];
-            unlock(lock._1, lock._2);
-            unlockListener.accept(lock);
+    private void unlockAll(final MultiLock[] locks, final Lock.LockMode[] lockModes, final String[] paths,
+            final boolean trackEvents, final long groupId) {
+        for(int i = locks.length - 1; i >= 0; i--) {
+            final MultiLock lock = locks[i];
+            if(lock == null) {
+                continue;
+            }
+            unlock(lock, lockModes[i]);
+            if(trackEvents) {
+                lockTable.released(groupId, paths[i], LockType.COLLECTION, lockModes[i]);
+            }
         }
     }
 
@@ -299,19 +364,20 @@ public class LockManager {
      * @return A WRITE_LOCK on the Collection.
      */
     ManagedCollectionLock acquireCollectionWriteLock(final XmldbURI collectionPath, final boolean lockParent) throws LockException {
-        final XmldbURI[] segments = collectionPath.getPathSegments();
+        final String[] paths = getCollectionLockPaths(collectionPath);
 
-        final long groupId = System.nanoTime();
+        final boolean trackEvents = lockTable.isEnabled();
+        final long groupId = trackEvents ? System.nanoTime() : 0;
 
-        String path = "";
-        final Tuple3<MultiLock, Lock.LockMode, String>[] locked = new Tuple3[segments.length];
-        for(int i = 0; i < segments.length; i++) {
-            path += '/' + segments[i].toString();
+        final MultiLock[] locks = new MultiLock[paths.length];
+        final Lock.LockMode[] lockModes = new Lock.LockMode[paths.length];
+        for(int i = 0; i < paths.length; i++) {
+            final String path = paths[i];
 
             final Lock.LockMode lockMode;
-            if(lockParent && i + 2 == segments.length) {
+            if(lockParent && i + 2 == paths.length) {
                 lockMode = Lock.LockMode.WRITE_LOCK;    // parent
-            } else if(i + 1 == segments.length) {
+            } else if(i + 1 == paths.length) {
                 lockMode = Lock.LockMode.WRITE_LOCK;    // leaf
             } else {
                 // ancestor
@@ -338,14 +404,21 @@ public class LockManager {
                 }
             }
 
-            lockTable.attempt(groupId, path, LockType.COLLECTION, lockMode);
+            if(trackEvents) {
+                lockTable.attempt(groupId, path, LockType.COLLECTION, lockMode);
+            }
             if(lock(lock, lockMode)) {
-                locked[i] = new Tuple3<>(lock, lockMode, path);
-                lockTable.acquired(groupId, path, LockType.COLLECTION, lockMode);
+                locks[i] = lock;
+                lockModes[i] = lockMode;
+                if(trackEvents) {
+                    lockTable.acquired(groupId, path, LockType.COLLECTION, lockMode);
+                }
             } else {
-                lockTable.attemptFailed(groupId, path, LockType.COLLECTION, lockMode);
+                if(trackEvents) {
+                    lockTable.attemptFailed(groupId, path, LockType.COLLECTION, lockMode);
+                }
 
-                unlockAll(locked, l -> lockTable.released(groupId, l._3, LockType.COLLECTION, l._2));
+                unlockAll(locks, lockModes, paths, trackEvents, groupId);
 
                 throw new LockException("Unable to acquire " + lockMode + " for: " + path);
             }
@@ -353,8 +426,8 @@ public class LockManager {
 
         return new ManagedCollectionLock(
                 collectionPath,
-                Arrays.stream(locked).map(Tuple3::get_1).toArray(MultiLock[]::new),
-                () -> unlockAll(locked, l -> lockTable.released(groupId, l._3, LockType.COLLECTION, l._2))
+                locks,
+                () -> unlockAll(locks, lockModes, paths, trackEvents, groupId)
         );
     }
 
@@ -460,6 +533,29 @@ public class LockManager {
         });
     }
 
+    /**
+     * Waits for an update which is in progress on a Document, without
+     * holding a lock on the Document afterwards.
+     *
+     * If no WRITE_LOCK is held for the Document this returns immediately
+     * without taking a lock, otherwise it waits until a READ_LOCK
+     * can be acquired and then releases it again.
+     *
+     * This is only a best-effort check: nothing prevents a writer from
+     * acquiring the WRITE_LOCK as soon as this returns, so the caller
+     * must not assume the Document stays unchanged while it reads it.
+     *
+     * @param documentPath The URI of the Document within the database
+     *
+     * @throws LockException if the lock could not be acquired
+     */
+    public void awaitDocumentUpdate(final XmldbURI documentPath) throws LockException {
+        final DocumentLock existingLock = getDocumentLock(documentPath.toString());
+        if(existingLock.isWriteLocked()) {
+            acquireDocumentReadLock(documentPath).close();
+        }
+    }
+
     /**
      * Returns true if a WRITE_LOCK is held for a Document
      *
@@ -135,6 +135,18 @@ public class LockTable {
         this.traceStackDepth = traceStackDepth;
     }
 
+    /**
+     * Returns whether lock events are reported to the lock table.
+     *
+     * When events are disabled, callers may skip the preparation
+     * of events altogether.
+     *
+     * @return true if lock events are reported, false otherwise
+     */
+    public boolean isEnabled() {
+        return !disableEvents;
+    }
+
     public void attempt(final long groupId, final String id, final LockType lockType, final LockMode mode) {
         event(Attempt, groupId, id, lockType, mode);
     }
@@ -0,0 +1,209 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.recovery;
+
+import net.jcip.annotations.ThreadSafe;
+import org.exist.Database;
+import org.exist.storage.AbstractBinaryLoggable;
+import org.exist.storage.NativeBroker;
+import org.exist.storage.btree.BTAbstractLoggable;
+import org.exist.storage.dom.DOMFile;
+import org.exist.storage.index.AbstractBFileLoggable;
+import org.exist.storage.journal.LogEntryTypes;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.journal.Loggable;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.exist.util.ThreadUtils.newInstanceThread;
+
+/**
+ * Redoes journal entries on a pool of worker threads.
+ *
+ * The entries are partitioned by the database file which they modify.
+ * All entries of a file are redone by the same worker in journal order,
+ * so that the pages of a file are only ever accessed by a single thread,
+ * whilst the entries of different files are redone concurrently. Redoing
+ * an entry only depends on the state of the pages of its own file.
+ *
+ * Entries which cannot be attributed to a file are redone by the calling
+ * thread once all previously submitted entries have been redone.
+ */
+@ThreadSafe
+final class ParallelRedo implements AutoCloseable {
+
+    /** maximum number of entries which have been submitted but not yet redone */
+    private static final int MAX_PENDING = 16 * 1024;
+
+    private static final int PARTITION_NONE = -1;
+    private static final int PARTITION_SERIAL = -2;
+    private static final int PARTITION_BINARY = 256;
+
+    private final ExecutorService[] workers;
+    private final Semaphore pending = new Semaphore(MAX_PENDING);
+
+    private final Object failureLock = new Object();
+    @Nullable private volatile Loggable failedEntry = null;
+    @Nullable private volatile Throwable failure = null;
+
+    ParallelRedo(final Database database, final int threads) {
+        this.workers = new ExecutorService[threads];
+        for (int i = 0; i < threads; i++) {
+            final String threadName = "recovery.redo-" + i;
+            this.workers[i] = Executors.newSingleThreadExecutor(runnable -> newInstanceThread(database, threadName, runnable));
+        }
+    }
+
+    /**
+     * Schedules an entry to be redone.
+     *
+     * @param entry the journal entry
+     *
+     * @throws LogException if redoing this or a previously submitted entry failed
+     * @throws Error if redoing a previously submitted entry raised an error
+     */
+    void redo(final Loggable entry) throws LogException {
+        checkFailure();
+
+        final int partition = partitionOf(entry);
+        if (partition == PARTITION_NONE) {
+            // transaction boundaries have nothing to redo
+            entry.redo();
+            return;
+        }
+
+        if (partition == PARTITION_SERIAL) {
+            await();
+            entry.redo();
+            return;
+        }
+
+        try {
+            pending.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LogException("Interrupted whilst redoing the journal", e);
+        }
+
+        workers[partition % workers.length].execute(() -> {
+            try {
+                if (failure == null) {
+                    entry.redo();
+                }
+            } catch (final Throwable t) {
+                // also errors, which would otherwise only end the worker's task
+                synchronized (failureLock) {
+                    if (failure == null) {
+                        failedEntry = entry;
+                        failure = t;
+                    }
+                }
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    /**
+     * Waits until all submitted entries have been redone.
+     *
+     * @throws LogException if redoing an entry failed
+     * @throws Error if redoing an entry raised an error
+     */
+    void await() throws LogException {
+        try {
+            pending.acquire(MAX_PENDING);
+            pending.release(MAX_PENDING);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LogException("Interrupted whilst redoing the journal", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Get the entry which could not be redone.
+     *
+     * @return the entry, or null if no entry failed
+     */
+    @Nullable
+    Loggable getFailedEntry() {
+        return failedEntry;
+    }
+
+    /**
+     * Passes the failure of a worker on to the calling thread, as if it had
+     * redone the entry itself.
+     */
+    private void checkFailure() throws LogException {
+        final Throwable t = failure;
+        if (t != null) {
+            if (t instanceof LogException) {
+                throw (LogException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new LogException(t.getMessage(), t);
+        }
+    }
+
+    private static int partitionOf(final Loggable entry) {
+        final byte type = entry.getLogType();
+        if (type == LogEntryTypes.TXN_START || type == LogEntryTypes.TXN_COMMIT
+                || type == LogEntryTypes.TXN_ABORT || type == LogEntryTypes.CHECKPOINT) {
+            return PARTITION_NONE;
+        } else if (entry instanceof BTAbstractLoggable) {
+            return ((BTAbstractLoggable) entry).getFileId() & 0xFF;
+        } else if (entry instanceof AbstractBFileLoggable) {
+            return ((AbstractBFileLoggable) entry).getFileId() & 0xFF;
+        } else if (type >= DOMFile.LOG_CREATE_PAGE && type <= DOMFile.LOG_UPDATE_LINK) {
+            // DOMFile records and the DOMFile's own b+-tree share dom.dbx
+            return NativeBroker.DOM_DBX_ID;
+        } else if (entry instanceof AbstractBinaryLoggable) {
+            return PARTITION_BINARY;
+        } else {
+            return PARTITION_SERIAL;
+        }
+    }
+
+    /**
+     * Shuts down the workers once they have completed the submitted entries.
+     * Entries which are still pending after a failure are skipped.
+     */
+    @Override
+    public void close() {
+        for (final ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (final ExecutorService worker : workers) {
+                while (!worker.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // keep waiting, the database files must not be modified once recovery has finished
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -54,14 +54,35 @@ public class RecoveryManager {
 	
 	private final static Logger LOG = LogManager.getLogger(RecoveryManager.class);
 
+    public static final String RECOVERY_REDO_THREADS_ATTRIBUTE = "redo-threads";
+    public static final String PROPERTY_RECOVERY_REDO_THREADS = "db-connection.recovery.redo-threads";
+    public static final int DEFAULT_REDO_THREADS = 1;
+
+    /** the interval, in percent of the journal, at which the progress of the redo is reported */
+    private static final int REPORT_PROGRESS_INTERVAL = 5;
+
     private final DBBroker broker;
     private final JournalRecoveryAccessor journalRecovery;
     private final boolean restartOnError;
+    private final int redoThreads;
 
     public RecoveryManager(final DBBroker broker, final JournalManager journalManager, final boolean restartOnError) {
+        this(broker, journalManager, restartOnError, 1);
+    }
+
+    /**
+     * @param broker the broker to use for the recovery
+     * @param journalManager the journal manager
+     * @param restartOnError true if the database should start even if the recovery failed
+     * @param redoThreads the number of threads to redo the journal with, 1 redoes
+     *     the journal on the calling thread
+     */
+    public RecoveryManager(final DBBroker broker, final JournalManager journalManager, final boolean restartOnError,
+            final int redoThreads) {
         this.broker = broker;
         this.journalRecovery = journalManager.getRecoveryAccessor(this);
         this.restartOnError = restartOnError;
+        this.redoThreads = Math.max(1, redoThreads);
 	}
 
 	/**
@@ -238,9 +259,12 @@ public class RecoveryManager {
             // ------- REDO ---------
             if (LOG.isInfoEnabled())
                 {LOG.info("First pass: redoing " + txnCount + " transactions...");}
-            final ProgressBar progress = new ProgressBar("Redo ", FileUtils.sizeQuietly(last));
+            final long journalSize = FileUtils.sizeQuietly(last);
+            final ProgressBar progress = new ProgressBar("Redo ", journalSize);
             Loggable next = null;
             int redoCnt = 0;
+            int reportedPercent = 0;
+            final ParallelRedo parallelRedo = redoThreads > 1 ? new ParallelRedo(broker.getBrokerPool(), redoThreads) : null;
             try {
                 while ((next = reader.nextEntry()) != null) {
                     SanityCheck.ASSERT(next.getLogType() != LogEntryTypes.CHECKPOINT,
@@ -258,18 +282,36 @@ public class RecoveryManager {
                     }
         //            LOG.debug("Redo: " + next.dump());
                     // redo the log entry
-                    next.redo();
+                    if (parallelRedo != null) {
+                        parallelRedo.redo(next);
+                    } else {
+                        next.redo();
+                    }
                     progress.set(next.getLsn().getOffset());
+                    if (journalSize > 0) {
+                        final int percent = (int) (next.getLsn().getOffset() * 100 / journalSize);
+                        if (percent >= reportedPercent + REPORT_PROGRESS_INTERVAL) {
+                            reportedPercent = percent;
+                            broker.getBrokerPool().reportStatus("Running recovery: redo " + percent + "%...");
+                        }
+                    }
                     if (next.getLsn().equals(lastLsn))
                         {break;} // last readable entry reached. Stop here.
                 }
+                if (parallelRedo != null) {
+                    parallelRedo.await();
+                }
             } catch (final Exception e) {
                 LOG.error("Exception caught while redoing transactions. Aborting recovery to avoid possible damage. " +
                     "Before starting again, make sure to run a check via the emergency export tool.", e);
-                if (next != null)
-                    {LOG.info("Log entry that caused the exception: " + next.dump());}
+                final Loggable failed = parallelRedo != null && parallelRedo.getFailedEntry() != null ? parallelRedo.getFailedEntry() : next;
+                if (failed != null)
+                    {LOG.info("Log entry that caused the exception: " + failed.dump());}
                 throw new LogException("Recovery aborted. ");
             } finally {
+                if (parallelRedo != null) {
+                    parallelRedo.close();
+                }
                 LOG.info("Redo processed " + redoCnt + " out of " + txnCount + " transactions.");
             }
 
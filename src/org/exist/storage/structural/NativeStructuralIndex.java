@@ -76,6 +76,7 @@ public class NativeStructuralIndex extends AbstractIndex implements RawBackupSup
         try {
             btree = new BTreeStore(pool, STRUCTURAL_INDEX_ID, FILE_FORMAT_VERSION_ID, false,
                     file, pool.getCacheManager());
+            pool.getPageWriter().register(btree);
         } catch (final DBException e) {
             LOG.error("Failed to initialize structural index: " + e.getMessage(), e);
             throw new DatabaseConfigurationException(e.getMessage(), e);
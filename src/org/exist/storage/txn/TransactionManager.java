@@ -62,6 +62,8 @@ public class TransactionManager implements BrokerPoolService {
 
     private long nextTxnId = 0;
 
+    private volatile long completedTxns = 0;
+
     private final BrokerPool pool;
     private final Optional<JournalManager> journalManager;
 
@@ -131,23 +133,39 @@ public class TransactionManager implements BrokerPoolService {
             return;
         }
 
+        final TxnCommit commitRecord = new TxnCommit(txn.getId());
         withLock(broker -> {
             if(journalManager.isPresent()) {
                 try {
-                    journalManager.get().journalGroup(new TxnCommit(txn.getId()));
+                    journalManager.get().journalGroup(commitRecord);
                 } catch(final JournalException e) {
                     LOG.error("Failed to write commit record to journal: " + e.getMessage());
                 }
             }
 
-            txn.signalCommit();
             txn.releaseAll();
             transactions.remove(txn.getId());
+            completedTxns++;
             processSystemTasks();
-            if(LOG.isDebugEnabled()) {
-                LOG.debug("Committed transaction: " + txn.getId());
-            }
         });
+
+        // with group commit, wait outside of the lock so that other commits can join the group.
+        // The transaction is only committed once its commit record has been flushed.
+        if(journalManager.isPresent()) {
+            try {
+                journalManager.get().awaitGroupCommit(commitRecord);
+            } catch(final JournalException e) {
+                LOG.error("Failed to flush commit record to journal: " + e.getMessage());
+                txn.signalAbort();
+                throw new TransactionException("Transaction " + txn.getId() + " is not durable, " +
+                        "its commit record could not be flushed to the journal: " + e.getMessage(), e);
+            }
+        }
+
+        txn.signalCommit();
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("Committed transaction: " + txn.getId());
+        }
     }
 	
     public void abort(final Txn txn) {
@@ -171,6 +189,7 @@ public class TransactionManager implements BrokerPoolService {
 
             txn.signalAbort();
             txn.releaseAll();
+            completedTxns++;
             processSystemTasks();
         });
     }
@@ -222,6 +241,17 @@ public class TransactionManager implements BrokerPoolService {
     public Lock getLock() {
         return lock;
     }
+
+    /**
+     * Returns the number of transactions which have been committed or aborted
+     * since the database was started. Any change to the database is completed
+     * by a change of this number.
+     *
+     * @return the number of completed transactions
+     */
+    public long getCompletedTransactionCount() {
+        return completedTxns;
+    }
     
     /**
      * Create a new checkpoint. A checkpoint fixes the current database state. All dirty pages
@@ -50,8 +50,14 @@ import org.exist.storage.DefaultCacheManager;
 import org.exist.storage.IndexSpec;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.NativeValueIndex;
+import org.exist.storage.PageWriter;
+import org.exist.storage.QueryResultCache;
 import org.exist.storage.XQueryPool;
+import org.exist.storage.btree.BTree;
+import org.exist.storage.btree.Paged;
+import org.exist.storage.cache.OffHeapPageCache;
 import org.exist.storage.journal.Journal;
+import org.exist.storage.recovery.RecoveryManager;
 import org.exist.storage.serializers.CustomMatchListenerFactory;
 import org.exist.storage.serializers.Serializer;
 import org.exist.validation.GrammarPool;
@@ -335,6 +341,36 @@ public class Configuration implements ErrorHandler
         config.put( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL, Configuration.parseBoolean( raiseErrorOnFailedRetrieval, XQueryContext.XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT ) );
         LOG.debug( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL + ": " + config.get( XQueryContext.PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL ) );
 
+        final String lockFreeReads = getConfigAttributeValue( xquery, XQueryContext.LOCK_FREE_READS_ATTRIBUTE );
+        config.put( XQueryContext.PROPERTY_LOCK_FREE_READS, Configuration.parseBoolean( lockFreeReads, XQueryContext.LOCK_FREE_READS_DEFAULT ) );
+        LOG.debug( XQueryContext.PROPERTY_LOCK_FREE_READS + ": " + config.get( XQueryContext.PROPERTY_LOCK_FREE_READS ) );
+
+        final String sortSpillThreshold = getConfigAttributeValue( xquery, XQueryContext.SORT_SPILL_THRESHOLD_ATTRIBUTE );
+
+        if( ( sortSpillThreshold != null ) && ( sortSpillThreshold.length() > 0 ) ) {
+
+            try {
+                config.put( XQueryContext.PROPERTY_SORT_SPILL_THRESHOLD, Integer.valueOf( sortSpillThreshold ) );
+                LOG.debug( XQueryContext.PROPERTY_SORT_SPILL_THRESHOLD + ": " + config.get( XQueryContext.PROPERTY_SORT_SPILL_THRESHOLD ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "sort-spill-threshold attribute in xquery section needs to be a number" ) );
+            }
+        }
+
+        final String jitThreshold = getConfigAttributeValue( xquery, XQueryContext.JIT_THRESHOLD_ATTRIBUTE );
+
+        if( ( jitThreshold != null ) && ( jitThreshold.length() > 0 ) ) {
+
+            try {
+                config.put( XQueryContext.PROPERTY_JIT_THRESHOLD, Integer.valueOf( jitThreshold ) );
+                LOG.debug( XQueryContext.PROPERTY_JIT_THRESHOLD + ": " + config.get( XQueryContext.PROPERTY_JIT_THRESHOLD ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "jit-threshold attribute in xquery section needs to be a number" ) );
+            }
+        }
+
         final String trace = getConfigAttributeValue( xquery, PerformanceStats.CONFIG_ATTR_TRACE );
         config.put( PerformanceStats.CONFIG_PROPERTY_TRACE, trace );
 
@@ -838,6 +874,23 @@ public class Configuration implements ErrorHandler
         
         // Process the Check Max Cache value
         
+        String offHeapCacheMem = getConfigAttributeValue( con, OffHeapPageCache.CACHE_SIZE_ATTRIBUTE );
+
+        if( offHeapCacheMem != null ) {
+
+            if( offHeapCacheMem.endsWith( "M" ) || offHeapCacheMem.endsWith( "m" ) ) {
+                offHeapCacheMem = offHeapCacheMem.substring( 0, offHeapCacheMem.length() - 1 );
+            }
+
+            try {
+                config.put( OffHeapPageCache.PROPERTY_CACHE_SIZE, Integer.valueOf(offHeapCacheMem) );
+                LOG.debug( OffHeapPageCache.PROPERTY_CACHE_SIZE + ": " + config.get( OffHeapPageCache.PROPERTY_CACHE_SIZE ) + "m" );
+            }
+            catch( final NumberFormatException nfe ) {
+                LOG.warn("Cannot convert " + OffHeapPageCache.PROPERTY_CACHE_SIZE + " value to integer: " + offHeapCacheMem, nfe);
+            }
+        }
+
         String checkMaxCache = getConfigAttributeValue( con, DefaultCacheManager.CACHE_CHECK_MAX_SIZE_ATTRIBUTE );
         
         if( checkMaxCache == null ) {
@@ -860,6 +913,13 @@ public class Configuration implements ErrorHandler
             LOG.warn("Cannot convert " + DefaultCacheManager.SHRINK_THRESHOLD_PROPERTY + " value to integer: " + cacheShrinkThreshold, nfe);
         }
 
+        final String cachePolicy = getConfigAttributeValue( con, DefaultCacheManager.CACHE_POLICY_ATTRIBUTE );
+
+        if( cachePolicy != null ) {
+            config.put( DefaultCacheManager.PROPERTY_CACHE_POLICY, cachePolicy.trim().toLowerCase() );
+            LOG.debug( DefaultCacheManager.PROPERTY_CACHE_POLICY + ": " + config.get( DefaultCacheManager.PROPERTY_CACHE_POLICY ) );
+        }
+
         String collectionCache = getConfigAttributeValue(con, CollectionCache.CACHE_SIZE_ATTRIBUTE);
         if(collectionCache != null) {
             collectionCache = collectionCache.toLowerCase();
@@ -906,6 +966,27 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String pageIO = getConfigAttributeValue( con, Paged.PAGE_IO_ATTRIBUTE );
+
+        if( pageIO != null ) {
+            config.put( Paged.PROPERTY_PAGE_IO, pageIO );
+            LOG.debug( Paged.PROPERTY_PAGE_IO + ": " + config.get( Paged.PROPERTY_PAGE_IO ) );
+        }
+
+        final String pageIOMmap = getConfigAttributeValue( con, Paged.PAGE_IO_MMAP_ATTRIBUTE );
+
+        if( pageIOMmap != null ) {
+            config.put( Paged.PROPERTY_PAGE_IO_MMAP, pageIOMmap );
+            LOG.debug( Paged.PROPERTY_PAGE_IO_MMAP + ": " + config.get( Paged.PROPERTY_PAGE_IO_MMAP ) );
+        }
+
+        final String leafFormat = getConfigAttributeValue( con, BTree.LEAF_FORMAT_ATTRIBUTE );
+
+        if( leafFormat != null ) {
+            config.put( BTree.PROPERTY_LEAF_FORMAT, leafFormat.trim().toLowerCase() );
+            LOG.debug( BTree.PROPERTY_LEAF_FORMAT + ": " + config.get( BTree.PROPERTY_LEAF_FORMAT ) );
+        }
+
         //Not clear : rather looks like a buffers count
         final String collCacheSize = getConfigAttributeValue( con, BrokerPool.COLLECTION_CACHE_SIZE_ATTRIBUTE );
 
@@ -1102,6 +1183,12 @@ public class Configuration implements ErrorHandler
             configureXQueryPool( (Element)queryPoolConf.item( 0 ) );
         }
 
+        final NodeList queryResultCacheConf = con.getElementsByTagName( QueryResultCache.CONFIGURATION_ELEMENT_NAME );
+
+        if( queryResultCacheConf.getLength() > 0 ) {
+            configureQueryResultCache( (Element)queryResultCacheConf.item( 0 ) );
+        }
+
         final NodeList watchConf = con.getElementsByTagName( XQueryWatchDog.CONFIGURATION_ELEMENT_NAME );
 
         if( watchConf.getLength() > 0 ) {
@@ -1130,6 +1217,32 @@ public class Configuration implements ErrorHandler
         setProperty( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, parseBoolean( option, false ) );
         LOG.debug( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT + ": " + config.get( BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT ) );
 
+        option = getConfigAttributeValue( recovery, Journal.RECOVERY_GROUP_COMMIT_DELAY_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                setProperty( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY, Long.valueOf( option ) );
+                LOG.debug( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY + ": " + config.get( Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY ) + "ms" );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "group-commit-delay attribute in recovery section needs to be a number" ) );
+            }
+        }
+
+        option = getConfigAttributeValue( recovery, RecoveryManager.RECOVERY_REDO_THREADS_ATTRIBUTE );
+
+        if( option != null ) {
+
+            try {
+                setProperty( RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS, Integer.valueOf( option ) );
+                LOG.debug( RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS + ": " + config.get( RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                throw( new DatabaseConfigurationException( "redo-threads attribute in recovery section needs to be a number" ) );
+            }
+        }
+
         option = getConfigAttributeValue( recovery, Journal.RECOVERY_JOURNAL_DIR_ATTRIBUTE );
 
         if(option != null) {
@@ -1260,8 +1373,66 @@ public class Configuration implements ErrorHandler
                 LOG.warn( e );
             }
         }
+
+        final String maxExpressions = getConfigAttributeValue( queryPool, XQueryPool.MAX_EXPRESSIONS_ATTRIBUTE );
+
+        if( maxExpressions != null ) {
+
+            try {
+                config.put( XQueryPool.PROPERTY_MAX_EXPRESSIONS, Long.valueOf(maxExpressions) );
+                LOG.debug( XQueryPool.PROPERTY_MAX_EXPRESSIONS + ": " + config.get( XQueryPool.PROPERTY_MAX_EXPRESSIONS ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final NodeList preloadConf = queryPool.getElementsByTagName( XQueryPool.PRELOAD_ELEMENT_NAME );
+        final List<String> preload = new ArrayList<>();
+
+        for( int i = 0; i < preloadConf.getLength(); i++ ) {
+            final String location = getConfigAttributeValue( (Element)preloadConf.item( i ), XQueryPool.PRELOAD_LOCATION_ATTRIBUTE );
+
+            if( location != null && !location.isEmpty() ) {
+                preload.add( location );
+            }
+        }
+
+        if( !preload.isEmpty() ) {
+            config.put( XQueryPool.PROPERTY_PRELOAD, preload );
+            LOG.debug( XQueryPool.PROPERTY_PRELOAD + ": " + preload );
+        }
     }
     
+    private void configureQueryResultCache( Element queryResultCache )
+    {
+        final String size = getConfigAttributeValue( queryResultCache, QueryResultCache.SIZE_ATTRIBUTE );
+
+        if( size != null ) {
+
+            try {
+                config.put( QueryResultCache.PROPERTY_SIZE, Integer.valueOf(size) );
+                LOG.debug( QueryResultCache.PROPERTY_SIZE + ": " + config.get( QueryResultCache.PROPERTY_SIZE ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String maxItems = getConfigAttributeValue( queryResultCache, QueryResultCache.MAX_ITEMS_ATTRIBUTE );
+
+        if( maxItems != null ) {
+
+            try {
+                config.put( QueryResultCache.PROPERTY_MAX_ITEMS, Integer.valueOf(maxItems) );
+                LOG.debug( QueryResultCache.PROPERTY_MAX_ITEMS + ": " + config.get( QueryResultCache.PROPERTY_MAX_ITEMS ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+    }
+
     public static class StartupTriggerConfig {
         private final String clazz;
         private final Map<String, List<? extends Object>> params;
@@ -1404,6 +1575,32 @@ public class Configuration implements ErrorHandler
                 LOG.warn( e );
             }
         }
+
+        final String pageWriterPeriod = getConfigAttributeValue( pool, PageWriter.PAGE_WRITER_PERIOD_ATTRIBUTE );
+
+        if( pageWriterPeriod != null ) {
+
+            try {
+                config.put( PageWriter.PROPERTY_PAGE_WRITER_PERIOD, Long.valueOf(pageWriterPeriod) );
+                LOG.debug( PageWriter.PROPERTY_PAGE_WRITER_PERIOD + ": " + config.get( PageWriter.PROPERTY_PAGE_WRITER_PERIOD ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
+        final String pageWriterBatch = getConfigAttributeValue( pool, PageWriter.PAGE_WRITER_BATCH_ATTRIBUTE );
+
+        if( pageWriterBatch != null ) {
+
+            try {
+                config.put( PageWriter.PROPERTY_PAGE_WRITER_BATCH, Integer.valueOf(pageWriterBatch) );
+                LOG.debug( PageWriter.PROPERTY_PAGE_WRITER_BATCH + ": " + config.get( PageWriter.PROPERTY_PAGE_WRITER_BATCH ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
     }
 
 
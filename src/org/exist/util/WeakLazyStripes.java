@@ -93,6 +93,15 @@ public class WeakLazyStripes<K, S> {
      * @return the stripe
      */
     public S get(final K key) {
+        // fast path, a lock-free read for stripes which already exist
+        final WeakReference<S> existingRef = stripes.get(key);
+        if(existingRef != null) {
+            final S existing = existingRef.get();
+            if(existing != null) {
+                return existing;
+            }
+        }
+
         final WeakReference<S> stripeRef = stripes.compute(key, (k, valueRef) -> {
             if(valueRef == null) {
                 return new WeakReference<>(creator.apply(k), referenceQueue);
@@ -185,6 +185,7 @@ public class LocalXPathQueryService extends AbstractLocalService implements EXis
         final long start = System.currentTimeMillis();
         final CompiledXQuery expr = (CompiledXQuery)expression;
         Sequence result = null;
+        ResourceSet resourceSet = null;
         final XQueryContext context = expr.getContext();
         try {
             context.setStaticallyKnownDocuments(docs);
@@ -195,6 +196,13 @@ public class LocalXPathQueryService extends AbstractLocalService implements EXis
 
             final XQuery xquery = brokerPool.getXQueryService();
             result = xquery.execute(broker, expr, contextSet, properties);
+
+            // collect the items before the cleanup tasks delete any temporary files the result is read from
+            if (result != null) {
+                resourceSet = new LocalResourceSet(user, brokerPool, collection, properties, result, sortExpr);
+            }
+        } catch (final XMLDBException e) {
+            throw e;
         } catch (final Exception e) {
             // need to catch all runtime exceptions here to be able to release locked documents
             throw new XMLDBException(ErrorCodes.VENDOR_ERROR, e.getMessage(), e);
@@ -220,11 +228,7 @@ public class LocalXPathQueryService extends AbstractLocalService implements EXis
             });
         }
         LOG.debug("query took " + (System.currentTimeMillis() - start) + " ms.");
-        if(result != null) {
-            return new LocalResourceSet(user, brokerPool, collection, properties, result, sortExpr);
-        } else {
-            return null;
-        }
+        return resourceSet;
     }
 
     @Override
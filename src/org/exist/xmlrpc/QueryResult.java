@@ -29,6 +29,7 @@ import java.util.Properties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.xquery.value.BinaryValue;
+import org.exist.xquery.value.SpilledSequences;
 
 /**
  * Simple container for the results of a query. Used to cache
@@ -44,6 +45,8 @@ public class QueryResult extends AbstractCachedResult {
     protected Properties serialization = null;
     // set upon failure
     protected XPathException exception = null;
+    // the sorted sequences the result is read from
+    private final SpilledSequences spilledSequences = new SpilledSequences();
 
     public QueryResult(final Sequence result, final Properties outputProperties) {
         this(result, outputProperties, 0);
@@ -67,6 +70,14 @@ public class QueryResult extends AbstractCachedResult {
         return exception;
     }
 
+    /**
+     * @return the predicate to run the cleanup tasks of the query with,
+     *     which keeps the files of sorted sequences until this result is closed
+     */
+    public SpilledSequences getSpilledSequences() {
+        return spilledSequences;
+    }
+
     /**
      * @return Returns the result.
      */
@@ -90,5 +101,6 @@ public class QueryResult extends AbstractCachedResult {
 
             result = null;
         }
+        spilledSequences.close();
     }
 }
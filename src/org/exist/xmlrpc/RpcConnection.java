@@ -402,6 +402,7 @@ public class RpcConnection implements RpcAPI {
             try {
                 final QueryResult result = this.<QueryResult>compileQuery(broker, transaction, source, parameters).apply(compiledQuery -> doQuery(broker, compiledQuery, null, parameters));
                 if (result.hasErrors()) {
+                    result.close();
                     throw new EXistException(result.getException());
                 }
                 result.queryTime = System.currentTimeMillis() - startTime;
@@ -1668,17 +1669,18 @@ public class RpcConnection implements RpcAPI {
             final long startTime = System.currentTimeMillis();
 
             try {
-                final QueryResult qr = this.<QueryResult>compileQuery(broker, transaction, source, parameters).apply(compiled -> doQuery(broker, compiled, null, parameters));
-                if (qr == null) {
-                    return "<?xml version=\"1.0\"?>\n"
-                            + "<exist:result xmlns:exist=\"" + Namespaces.EXIST_NS + "\" "
-                            + "hitCount=\"0\"/>";
-                }
-                if (qr.hasErrors()) {
-                    throw qr.getException();
-                }
+                try (final QueryResult qr = this.<QueryResult>compileQuery(broker, transaction, source, parameters).apply(compiled -> doQuery(broker, compiled, null, parameters))) {
+                    if (qr == null) {
+                        return "<?xml version=\"1.0\"?>\n"
+                                + "<exist:result xmlns:exist=\"" + Namespaces.EXIST_NS + "\" "
+                                + "hitCount=\"0\"/>";
+                    }
+                    if (qr.hasErrors()) {
+                        throw qr.getException();
+                    }
 
-                return printAll(broker, qr.result, howmany, start, parameters, (System.currentTimeMillis() - startTime));
+                    return printAll(broker, qr.result, howmany, start, parameters, (System.currentTimeMillis() - startTime));
+                }
             } catch (final XPathException e) {
                 throw new EXistException(e);
             }
@@ -2898,20 +2900,20 @@ public class RpcConnection implements RpcAPI {
 
             final Map<String, Object> parameters = new HashMap<>();
             try {
-                final QueryResult qr = this.<QueryResult>compileQuery(broker, transaction, source, parameters).apply(compiledQuery -> doQuery(broker, compiledQuery, null, parameters));
-                if (qr == null) {
-                    return new HashMap<>();
-                }
-                if (qr.hasErrors()) {
-                    throw qr.getException();
-                }
-                if (qr.result == null) {
-                    return summaryToMap(qr.queryTime, null, null, null);
-                }
-
-                final Tuple2<java.util.Collection<NodeCount>, java.util.Collection<DoctypeCount>> summary = summarise(qr.result);
-                return summaryToMap(System.currentTimeMillis() - startTime, qr.result, summary._1, summary._2);
+                try (final QueryResult qr = this.<QueryResult>compileQuery(broker, transaction, source, parameters).apply(compiledQuery -> doQuery(broker, compiledQuery, null, parameters))) {
+                    if (qr == null) {
+                        return new HashMap<>();
+                    }
+                    if (qr.hasErrors()) {
+                        throw qr.getException();
+                    }
+                    if (qr.result == null) {
+                        return summaryToMap(qr.queryTime, null, null, null);
+                    }
 
+                    final Tuple2<java.util.Collection<NodeCount>, java.util.Collection<DoctypeCount>> summary = summarise(qr.result);
+                    return summaryToMap(System.currentTimeMillis() - startTime, qr.result, summary._1, summary._2);
+                }
             } catch (final XPathException e) {
                 throw new EXistException(e);
             }
@@ -3619,14 +3621,21 @@ public class RpcConnection implements RpcAPI {
         return compiledOp -> {
             final XQueryPool pool = broker.getBrokerPool().getXQueryPool();
             CompiledXQuery compiled = null;
+            R result = null;
             try {
                 compiled = compile(broker, source, parameters);
-                return compiledOp.apply(compiled);
+                result = compiledOp.apply(compiled);
+                return result;
             } catch (final IOException e) {
                 throw new EXistException(e);
             } finally {
                 if (compiled != null) {
-                    compiled.getContext().runCleanupTasks();
+                    // a query result is read after the query has finished, and keeps the files of its sorted sequences until it is closed
+                    if (result instanceof QueryResult) {
+                        compiled.getContext().runCleanupTasks(((QueryResult) result).getSpilledSequences());
+                    } else {
+                        compiled.getContext().runCleanupTasks();
+                    }
                     pool.returnCompiledXQuery(source, compiled);
                 }
             }
@@ -2,18 +2,28 @@ package org.exist.xquery;
 
 import org.exist.dom.QName;
 import org.exist.dom.QName.IllegalQNameException;
+import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.Type;
 
+import javax.annotation.Nullable;
+
 /**
  * Abstract base class for clauses in a FLWOR expressions, for/let/group by ...
  */
 public abstract class AbstractFLWORClause extends AbstractExpression implements FLWORClause {
 
+    /**
+     * Signals that all items of the result will be used,
+     * see {@link #setResultLimit(int)}.
+     */
+    public static final int NO_RESULT_LIMIT = Integer.MAX_VALUE;
+
     protected LocalVariable firstVar = null;
     private FLWORClause previousClause  = null;
     protected Expression returnExpr;
     private int actualReturnType = Type.ITEM;
+    private int resultLimit = NO_RESULT_LIMIT;
 
     public AbstractFLWORClause(XQueryContext context) {
         super(context);
@@ -71,6 +81,123 @@ public abstract class AbstractFLWORClause extends AbstractExpression implements
         return previousClause;
     }
 
+    @Override
+    public void setResultLimit(final int limit) {
+        this.resultLimit = limit;
+    }
+
+    /**
+     * Get the maximum number of result items which will be used from
+     * the current evaluation of this clause. The limit is cleared, so that
+     * it does not apply to a recursive evaluation of this clause.
+     *
+     * If a subsequent "order by" clause sorts the tuples, the limit is passed on
+     * to it instead, so that it only keeps the first items in sort order.
+     *
+     * @return the limit, or {@link #NO_RESULT_LIMIT} if all items are used or
+     *     if a subsequent clause needs to see all tuples
+     */
+    protected int getResultLimit() {
+        final int resultLimit = this.resultLimit;
+        if (resultLimit == NO_RESULT_LIMIT) {
+            return NO_RESULT_LIMIT;
+        }
+        this.resultLimit = NO_RESULT_LIMIT;
+        for (Expression next = returnExpr; next instanceof FLWORClause; next = ((FLWORClause) next).getReturnExpression()) {
+            final ClauseType type = ((FLWORClause) next).getType();
+            if (type == ClauseType.ORDERBY) {
+                ((FLWORClause) next).setResultLimit(resultLimit);
+                return NO_RESULT_LIMIT;
+            } else if (type == ClauseType.GROUPBY) {
+                return NO_RESULT_LIMIT;
+            }
+        }
+        return resultLimit;
+    }
+
+    /**
+     * Get the result limit set for the next evaluation of this clause,
+     * without clearing it.
+     *
+     * @return the limit, or {@link #NO_RESULT_LIMIT} if no limit has been set
+     */
+    int getPendingResultLimit() {
+        return resultLimit;
+    }
+
+    /**
+     * Passes a result limit on to the return expression if it is another clause.
+     *
+     * @param limit the maximum number of result items of the return expression which will be used
+     */
+    protected void setReturnResultLimit(final int limit) {
+        if (returnExpr instanceof FLWORClause) {
+            ((FLWORClause) returnExpr).setResultLimit(limit);
+        }
+    }
+
+    /**
+     * Evaluates an expression of which at most the first {@code limit} items
+     * will be used. If the expression is a FLWOR expression, its iteration
+     * stops once the limit has been reached, otherwise the expression is
+     * evaluated as usual.
+     *
+     * The tuples after the limit are not evaluated at all, so any side effects
+     * of their return clause are skipped as well, e.g. the documents stored by
+     * xmldb:store or the nodes changed by an update expression. Queries which
+     * rely on such side effects must not pass the FLWOR expression to
+     * fn:head, fn:exists, fn:empty, fn:subsequence or a positional predicate.
+     *
+     * @param expr the expression to evaluate
+     * @param limit the maximum number of result items which will be used
+     * @param contextSequence the context sequence
+     * @param contextItem the context item
+     * @return the result of the expression, which may be truncated after {@code limit} items
+     * @throws XPathException if the evaluation fails
+     */
+    public static Sequence evalWithResultLimit(final Expression expr, final int limit,
+            final Sequence contextSequence, final Item contextItem) throws XPathException {
+        final FLWORClause clause = getTopClause(expr);
+        if (clause == null || limit < 1) {
+            return expr.eval(contextSequence, contextItem);
+        }
+        clause.setResultLimit(limit);
+        try {
+            return expr.eval(contextSequence, contextItem);
+        } finally {
+            // the limit may have been passed on to a clause which did not consume it
+            for (Expression next = clause; next instanceof FLWORClause; next = ((FLWORClause) next).getReturnExpression()) {
+                ((FLWORClause) next).setResultLimit(NO_RESULT_LIMIT);
+            }
+        }
+    }
+
+    /**
+     * Checks if {@link #evalWithResultLimit} can stop the evaluation of an
+     * expression early, i.e. if the expression is a FLWOR expression.
+     *
+     * @param expr the expression to check
+     * @return true if the expression accepts a result limit
+     */
+    public static boolean acceptsResultLimit(final Expression expr) {
+        return getTopClause(expr) != null;
+    }
+
+    @Nullable
+    private static FLWORClause getTopClause(final Expression expr) {
+        Expression simplified = expr.simplify();
+        if (simplified instanceof DynamicCardinalityCheck
+                && ((DynamicCardinalityCheck) simplified).getRequiredCardinality() == Cardinality.ZERO_OR_MORE) {
+            // the argument check of a function parameter which accepts any number of items
+            simplified = simplified.getSubExpression(0).simplify();
+        }
+        if ((simplified instanceof ForExpr || simplified instanceof LetExpr)
+                && ((FLWORClause) simplified).getPreviousClause() == null) {
+            return (FLWORClause) simplified;
+        }
+        return null;
+    }
+
     protected void setActualReturnType(int type) {
         this.actualReturnType = type;
     }
@@ -85,6 +212,7 @@ public abstract class AbstractFLWORClause extends AbstractExpression implements
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
         firstVar = null;
+        resultLimit = NO_RESULT_LIMIT;
     }
 
     @Override
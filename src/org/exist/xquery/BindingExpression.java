@@ -29,6 +29,9 @@ import org.exist.numbering.NodeId;
 import org.exist.storage.UpdateListener;
 import org.exist.xquery.value.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Abstract superclass for the variable binding expressions "for" and "let".
  * 
@@ -48,6 +51,9 @@ public abstract class BindingExpression extends AbstractFLWORClause implements R
 
 	private ExprUpdateListener listener;
 
+    // hash joins of the following clauses, which keep state while this clause is evaluated
+    private List<HashJoin> hashJoins = null;
+
 
     public BindingExpression(XQueryContext context) {
 		super(context);
@@ -129,6 +135,31 @@ public abstract class BindingExpression extends AbstractFLWORClause implements R
 		}
 	}
 
+    /**
+     * Registers the hash join of a following "for" clause, whose state
+     * is dropped once the evaluation of this clause has finished.
+     *
+     * @param hashJoin the hash join
+     */
+    void addHashJoin(final HashJoin hashJoin) {
+        if (hashJoins == null) {
+            hashJoins = new ArrayList<>(1);
+        }
+        hashJoins.add(hashJoin);
+    }
+
+    /**
+     * Drops the state of the hash joins of the following clauses.
+     * To be called when the evaluation of this clause has finished.
+     */
+    protected void resetHashJoins() {
+        if (hashJoins != null) {
+            for (final HashJoin hashJoin : hashJoins) {
+                hashJoin.reset();
+            }
+        }
+    }
+
     protected void registerUpdateListener(final Sequence sequence) {
         if (listener == null) {
             listener = new ExprUpdateListener(sequence);
@@ -0,0 +1,173 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.xquery.value.BooleanValue;
+import org.exist.xquery.value.DoubleValue;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.Type;
+
+/**
+ * The body of a user-defined function compiled by the {@link FunctionCompiler}.
+ *
+ * The generated code works on primitive values. The arguments are passed
+ * to it in a frame of longs: one slot per parameter, holding a long, the
+ * bits of a double, or 1 for true and 0 for false. Whenever an argument or an intermediate result
+ * can not be represented by a primitive value, e.g. an integer exceeding the
+ * range of a long, the compiled function gives up and the function body has
+ * to be interpreted instead.
+ */
+public final class CompiledFunction {
+
+    private static final UnsupportedValueException UNSUPPORTED_VALUE = new UnsupportedValueException();
+
+    private final UserDefinedFunction function;
+    private final int[] parameterTypes;
+    private final int resultType;
+    private final Body body;
+
+    CompiledFunction(final UserDefinedFunction function, final int[] parameterTypes, final int resultType,
+            final Body body) {
+        this.function = function;
+        this.parameterTypes = parameterTypes;
+        this.resultType = resultType;
+        this.body = body;
+    }
+
+    /**
+     * Evaluates the function body for the given arguments.
+     *
+     * @param args the arguments of the function call
+     * @return the result, or null if the body has to be interpreted
+     *     to evaluate the call
+     * @throws XPathException if the query is terminated, or the recursion
+     *     of the function exceeds the stack
+     */
+    public Sequence eval(final Sequence[] args) throws XPathException {
+        try {
+            final long[] frame = new long[parameterTypes.length];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                frame[i] = toSlot(args[i], parameterTypes[i]);
+            }
+            return box(body.eval(frame), resultType);
+        } catch (final ArithmeticException | UnsupportedValueException e) {
+            // overflow, division by zero or an argument which is not a single value:
+            // the interpreter computes the exact result or raises the proper error
+            return null;
+        } catch (final StackOverflowError e) {
+            throw new XPathException(function, ErrorCodes.ERROR, "Stack overflow in the recursive calls of function " +
+                    function.getSignature().getName());
+        }
+    }
+
+    private static long toSlot(final Sequence arg, final int type) {
+        final Item item = single(arg);
+        switch (type) {
+            case Type.INTEGER:
+                if (item instanceof IntegerValue && ((IntegerValue) item).isLong()) {
+                    return ((IntegerValue) item).getLong();
+                }
+                break;
+            case Type.DOUBLE:
+                if (item instanceof DoubleValue) {
+                    return Double.doubleToRawLongBits(((DoubleValue) item).getValue());
+                }
+                break;
+            case Type.BOOLEAN:
+                if (item instanceof BooleanValue) {
+                    return ((BooleanValue) item).getValue() ? 1 : 0;
+                }
+                break;
+        }
+        throw UNSUPPORTED_VALUE;
+    }
+
+    private static Item single(final Sequence arg) {
+        if (arg == null || !arg.hasOne()) {
+            throw UNSUPPORTED_VALUE;
+        }
+        return arg.itemAt(0);
+    }
+
+    private static Sequence box(final long slot, final int type) {
+        switch (type) {
+            case Type.INTEGER:
+                return new IntegerValue(slot);
+            case Type.DOUBLE:
+                return new DoubleValue(Double.longBitsToDouble(slot));
+            default:
+                return BooleanValue.valueOf(slot != 0);
+        }
+    }
+
+    /**
+     * Integer division, which fails for the one quotient
+     * exceeding the range of a long. Called by the generated code.
+     */
+    public static long idiv(final long dividend, final long divisor) {
+        if (dividend == Long.MIN_VALUE && divisor == -1) {
+            throw new ArithmeticException("long overflow");
+        }
+        return dividend / divisor;
+    }
+
+    /**
+     * The base class of the code generated by the {@link FunctionCompiler}.
+     */
+    public abstract static class Body {
+
+        private final XQueryContext context;
+        private final Expression[] calls;
+
+        protected Body(final XQueryContext context, final Expression[] calls) {
+            this.context = context;
+            this.calls = calls;
+        }
+
+        /**
+         * Evaluates the function body.
+         *
+         * @param frame the arguments, one slot per parameter
+         * @return the result, as the slot of a frame
+         * @throws TerminatedException if the query is terminated
+         */
+        public abstract long eval(long[] frame) throws TerminatedException;
+
+        /**
+         * Reports a compiled call of the function to the watchdog.
+         *
+         * @param call the index of the call
+         * @throws TerminatedException if the query is terminated
+         */
+        public final void proceed(final int call) throws TerminatedException {
+            context.proceed(calls[call]);
+        }
+    }
+
+    private static final class UnsupportedValueException extends RuntimeException {
+        private static final long serialVersionUID = -3207454165916484107L;
+
+        private UnsupportedValueException() {
+            super(null, null, false, false);
+        }
+    }
+}
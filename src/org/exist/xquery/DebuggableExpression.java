@@ -41,6 +41,13 @@ public class DebuggableExpression implements Expression, RewritableExpression {
         this.column = this.expression.getColumn();
     }
 
+    /**
+     * @return the wrapped expression
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     public int getExpressionId() {
         return expression.getExpressionId();
     }
@@ -90,4 +90,16 @@ public interface FLWORClause extends Expression {
      * @return first variable created
      */
     LocalVariable getStartVariable();
+
+    /**
+     * Signal that at most the first {@code limit} items of the result of
+     * the next evaluation of this clause will be used, e.g. because the
+     * FLWOR expression is the input of a positional predicate or of fn:head.
+     * Clauses which iterate stop once they have produced that many items,
+     * unless a subsequent "order by" or "group by" clause needs to see all
+     * tuples.
+     *
+     * @param limit the maximum number of result items which will be used
+     */
+    void setResultLimit(int limit);
 }
\ No newline at end of file
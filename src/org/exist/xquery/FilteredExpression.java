@@ -102,7 +102,14 @@ public class FilteredExpression extends AbstractExpression {
         if (contextItem != null)
             {contextSequence = contextItem.toSequence();}
         Sequence result;
-        final Sequence seq = expression.eval(contextSequence, contextItem);
+        final Sequence seq;
+        if (abbreviated || (contextSequence != null && contextSequence.isPersistentSet())) {
+            seq = expression.eval(contextSequence, contextItem);
+        } else {
+            // only the first items are selected by a predicate like [1]
+            seq = AbstractFLWORClause.evalWithResultLimit(expression, getPositionalLimit(),
+                    contextSequence, contextItem);
+        }
         if (seq.isEmpty())
             {result = Sequence.EMPTY_SEQUENCE;}
         else {
@@ -146,6 +153,30 @@ public class FilteredExpression extends AbstractExpression {
         return result;
     }
 
+    /**
+     * Determines how many items of the filtered sequence may be selected by the first
+     * predicate, which is known if the predicate is a literal position. A FLWOR
+     * expression stops producing items after that position, skipping the side effects
+     * of the remaining tuples, see {@link AbstractFLWORClause#evalWithResultLimit}.
+     *
+     * @return the position of the last item which may be selected, or
+     *     {@link AbstractFLWORClause#NO_RESULT_LIMIT} if any item may be selected
+     */
+    private int getPositionalLimit() {
+        final Predicate pred = predicates.get(0);
+        if (pred.getSubExpressionCount() != 1) {
+            return AbstractFLWORClause.NO_RESULT_LIMIT;
+        }
+        final Expression inner = pred.getSubExpression(0).simplify();
+        if (inner instanceof LiteralValue && ((LiteralValue) inner).getValue() instanceof IntegerValue) {
+            final IntegerValue position = (IntegerValue) ((LiteralValue) inner).getValue();
+            if (position.isPositive() && position.compareTo(new IntegerValue(Integer.MAX_VALUE)) < 0) {
+                return position.getInt();
+            }
+        }
+        return AbstractFLWORClause.NO_RESULT_LIMIT;
+    }
+
     private Sequence processPredicate(Sequence contextSequence, Sequence seq) throws XPathException {
         for (final Predicate pred : predicates) {
             seq = pred.evalPredicate(contextSequence, seq, Constants.DESCENDANT_SELF_AXIS);
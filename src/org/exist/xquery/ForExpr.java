@@ -27,6 +27,8 @@ import org.exist.dom.persistent.NodeSet;
 import org.exist.xquery.util.ExpressionDumper;
 import org.exist.xquery.value.*;
 
+import javax.annotation.Nullable;
+
 /**
  * Represents an XQuery "for" expression.
  * 
@@ -37,6 +39,7 @@ public class ForExpr extends BindingExpression {
     private String positionalVariable = null;
     private boolean allowEmpty = false;
     private boolean isOuterFor = true;
+    @Nullable private HashJoin hashJoin = null;
 
     public ForExpr(XQueryContext context, boolean allowingEmpty) {
         super(context);
@@ -58,6 +61,53 @@ public class ForExpr extends BindingExpression {
         positionalVariable = var;
     }
 
+    @Nullable
+    String getPositionalVariable() {
+        return positionalVariable;
+    }
+
+    boolean isAllowingEmpty() {
+        return allowEmpty;
+    }
+
+    /**
+     * Evaluate this clause as a hash join with the preceding clauses,
+     * see {@link HashJoin}.
+     *
+     * @param hashJoin the join, or null to iterate the input sequence for each tuple
+     */
+    void setHashJoin(@Nullable final HashJoin hashJoin) {
+        this.hashJoin = hashJoin;
+    }
+
+    @Nullable
+    HashJoin getHashJoin() {
+        return hashJoin;
+    }
+
+    /**
+     * Get the maximum number of items which will be used from the sorted
+     * result of the current evaluation of this clause, if this clause is
+     * directly followed by an "order by" clause with a single order spec.
+     * An index function evaluating the input sequence of this clause may
+     * then only return the items which sort first, if it knows their order,
+     * and if each item of the input sequence yields exactly one result item,
+     * e.g. if the "order by" clause returns the variable of this clause.
+     *
+     * This is only meaningful while the input sequence is evaluated.
+     *
+     * @return the limit, or {@link #NO_RESULT_LIMIT} if all items may be used
+     */
+    public int getOrderByResultLimit() {
+        if (positionalVariable != null || allowEmpty || hashJoin != null || !(returnExpr instanceof OrderByClause)
+                || ((OrderByClause) returnExpr).getOrderSpecs().length != 1) {
+            return NO_RESULT_LIMIT;
+        }
+        // not yet passed on to the "order by" clause if this is the top clause
+        final int limit = getPendingResultLimit();
+        return limit != NO_RESULT_LIMIT ? limit : ((OrderByClause) returnExpr).getPendingResultLimit();
+    }
+
 	/* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.Expression)
      */
@@ -126,7 +176,7 @@ public class ForExpr extends BindingExpression {
         Sequence resultSequence = new ValueSequence(unordered);
         try {
             // Evaluate the "in" expression
-            in = inputSequence.eval(contextSequence, null);
+            in = hashJoin != null ? hashJoin.getInput(inputSequence, contextSequence) : inputSequence.eval(contextSequence, null);
             clearContext(getExpressionId(), in);
             // Declare the iteration variable
             var = createVariable(varName);
@@ -180,13 +230,24 @@ public class ForExpr extends BindingExpression {
                                 ", got " + Cardinality.getDescription(in.getCardinality()));
             }
 
-            // Loop through each variable binding
+            // Loop through each variable binding, stopping early if only
+            // the first items of the result will be used
+            final int limit = getResultLimit();
             int p = 0;
             if (in.isEmpty() && allowEmpty) {
-                processItem(var, AtomicValue.EMPTY_VALUE, Sequence.EMPTY_SEQUENCE, resultSequence, at, p);
+                processItem(var, AtomicValue.EMPTY_VALUE, Sequence.EMPTY_SEQUENCE, resultSequence, at, p, limit);
             } else {
-                for (final SequenceIterator i = in.iterate(); i.hasNext(); p++) {
-                    processItem(var, i.nextItem(), in, resultSequence, at, p);
+                int remaining = limit;
+                final int[] matches = hashJoin != null ? hashJoin.probe(in, var) : null;
+                if (matches != null) {
+                    // only visit the items whose join keys match
+                    for (int j = 0; j < matches.length && remaining > 0; j++) {
+                        remaining -= processItem(var, hashJoin.itemAt(matches[j]), in, resultSequence, at, matches[j], remaining);
+                    }
+                } else {
+                    for (final SequenceIterator i = in.iterate(); i.hasNext() && remaining > 0; p++) {
+                        remaining -= processItem(var, i.nextItem(), in, resultSequence, at, p, remaining);
+                    }
                 }
             }
         } catch (final QName.IllegalQNameException e) {
@@ -194,6 +255,7 @@ public class ForExpr extends BindingExpression {
         } finally {
             // restore the local variable stack 
             context.popLocalVariables(mark, resultSequence);
+            resetHashJoins();
         }
 
         clearContext(getExpressionId(), in);
@@ -233,8 +295,12 @@ public class ForExpr extends BindingExpression {
         return resultSequence;
     }
 
-    private void processItem(LocalVariable var, Item contextItem, Sequence in, Sequence resultSequence, LocalVariable
-            at, int p) throws XPathException {
+    /**
+     * @return the number of items added to the result sequence, if {@code remaining} is
+     *     less than {@link #NO_RESULT_LIMIT}, zero otherwise
+     */
+    private int processItem(LocalVariable var, Item contextItem, Sequence in, Sequence resultSequence, LocalVariable
+            at, int p, int remaining) throws XPathException {
         context.proceed(this);
         context.setContextSequencePosition(p, in);
         if (positionalVariable != null) {
@@ -248,10 +314,13 @@ public class ForExpr extends BindingExpression {
         //Reset the context position
         context.setContextSequencePosition(0, null);
 
-        resultSequence.addAll(returnExpr.eval(null));
+        setReturnResultLimit(remaining);
+        final Sequence returned = returnExpr.eval(null);
+        resultSequence.addAll(returned);
 
         // free resources
         var.destroy(context, resultSequence);
+        return remaining == NO_RESULT_LIMIT ? 0 : returned.getItemCount();
     }
 
     private boolean callPostEval() {
@@ -334,6 +403,9 @@ public class ForExpr extends BindingExpression {
     */
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
+        if (hashJoin != null) {
+            hashJoin.reset();
+        }
     }
 
     public void accept(ExpressionVisitor visitor) {
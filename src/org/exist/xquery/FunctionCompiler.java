@@ -0,0 +1,758 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.QName;
+import org.exist.xquery.Constants.ArithmeticOperator;
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.Constants.StringTruncationOperator;
+import org.exist.xquery.functions.fn.FunNot;
+import org.exist.xquery.functions.fn.FunTrueOrFalse;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.BooleanValue;
+import org.exist.xquery.value.DecimalValue;
+import org.exist.xquery.value.DoubleValue;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles the body of a user-defined function to a Java class, which is
+ * generated with ASM, loaded into the JVM and then evaluated instead of the
+ * expression tree.
+ *
+ * Only functions, of which the parameters and the result are declared as
+ * single xs:integer, xs:double or xs:boolean values, are compiled. Their
+ * body may consist of literals, parameter references, arithmetic and unary
+ * operators, value and general comparisons, "and", "or", conditional
+ * expressions, fn:not, fn:true, fn:false and calls of the function itself.
+ * The generated code works on primitive values, without allocating
+ * sequences for intermediate results, and the calls of the function
+ * itself are calls of a Java method.
+ *
+ * Integers are computed as long values. If a computation overflows, the
+ * compiled function gives up and the function is interpreted instead,
+ * see {@link CompiledFunction#eval(Sequence[])}.
+ */
+public final class FunctionCompiler {
+
+    private static final Logger LOG = LogManager.getLogger(FunctionCompiler.class);
+
+    private static final String GENERATED_CLASS_PREFIX = "org.exist.xquery.generated.CompiledFunction";
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    private static final String COMPILED_FUNCTION = org.objectweb.asm.Type.getInternalName(CompiledFunction.class);
+    private static final String BODY = org.objectweb.asm.Type.getInternalName(CompiledFunction.Body.class);
+    private static final String BODY_CONSTRUCTOR = org.objectweb.asm.Type.getMethodDescriptor(
+            org.objectweb.asm.Type.VOID_TYPE, org.objectweb.asm.Type.getType(XQueryContext.class),
+            org.objectweb.asm.Type.getType(Expression[].class));
+    private static final String[] TERMINATED_EXCEPTION = { org.objectweb.asm.Type.getInternalName(TerminatedException.class) };
+
+    /**
+     * The kind of primitive value an expression is compiled to.
+     */
+    private enum Kind {
+        INTEGER(Type.INTEGER, "J", 2),
+        DOUBLE(Type.DOUBLE, "D", 2),
+        BOOLEAN(Type.BOOLEAN, "Z", 1),
+        // decimal literals, which are only compiled as operands of double operations
+        DECIMAL(Type.DECIMAL, null, 0);
+
+        final int xqueryType;
+        // the JVM type descriptor and the number of local variable slots of the primitive value
+        final String descriptor;
+        final int size;
+
+        Kind(final int xqueryType, final String descriptor, final int size) {
+            this.xqueryType = xqueryType;
+            this.descriptor = descriptor;
+            this.size = size;
+        }
+
+        static Kind of(final SequenceType sequenceType) {
+            if (sequenceType == null || sequenceType.getCardinality() != Cardinality.EXACTLY_ONE) {
+                return null;
+            }
+            switch (sequenceType.getPrimaryType()) {
+                case Type.INTEGER:
+                    return INTEGER;
+                case Type.DOUBLE:
+                    return DOUBLE;
+                case Type.BOOLEAN:
+                    return BOOLEAN;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final UserDefinedFunction function;
+    private final List<QName> parameters;
+    private final Kind[] parameterKinds;
+    private final Kind resultKind;
+    private final Map<Expression, Kind> kinds = new IdentityHashMap<>();
+    private final int[] parameterLocals;
+    // the compiled calls of the function itself, which are reported to the watchdog
+    private final List<Expression> calls = new ArrayList<>();
+    private String callDescriptor;
+
+    private FunctionCompiler(final UserDefinedFunction function, final Kind[] parameterKinds, final Kind resultKind) {
+        this.function = function;
+        this.parameters = function.getParameters();
+        this.parameterKinds = parameterKinds;
+        this.resultKind = resultKind;
+        this.parameterLocals = new int[parameterKinds.length];
+    }
+
+    /**
+     * Compiles the body of the given function.
+     *
+     * @param function the function to compile
+     * @return the compiled function, or null if the function can not be compiled
+     */
+    public static CompiledFunction compile(final UserDefinedFunction function) {
+        if (function.getFunctionBody() == null || function.getClosureVariables() != null) {
+            return null;
+        }
+        final FunctionSignature signature = function.getSignature();
+        final SequenceType[] argumentTypes = signature.getArgumentTypes();
+        if (argumentTypes.length != function.getParameters().size()) {
+            return null;
+        }
+        final Kind[] parameterKinds = new Kind[argumentTypes.length];
+        for (int i = 0; i < argumentTypes.length; i++) {
+            parameterKinds[i] = Kind.of(argumentTypes[i]);
+            if (parameterKinds[i] == null) {
+                return null;
+            }
+        }
+        final Kind resultKind = Kind.of(signature.getReturnType());
+        if (resultKind == null) {
+            return null;
+        }
+
+        final FunctionCompiler compiler = new FunctionCompiler(function, parameterKinds, resultKind);
+        if (compiler.kindOf(function.getFunctionBody()) != resultKind) {
+            return null;
+        }
+        final CompiledFunction compiled = compiler.build();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Compiled function " + signature);
+        }
+        return compiled;
+    }
+
+    /**
+     * Determines the kind of value the expression is compiled to.
+     *
+     * @return the kind of value, or null if the expression can not be compiled
+     */
+    private Kind kindOf(final Expression expression) {
+        final Expression expr = unwrap(expression);
+        if (kinds.containsKey(expr)) {
+            return kinds.get(expr);
+        }
+        final Kind kind = computeKind(expr);
+        kinds.put(expr, kind);
+        return kind;
+    }
+
+    private Kind computeKind(final Expression expr) {
+        if (expr instanceof LiteralValue) {
+            final AtomicValue value = ((LiteralValue) expr).getValue();
+            switch (value.getType()) {
+                case Type.INTEGER:
+                    return ((IntegerValue) value).isLong() ? Kind.INTEGER : null;
+                case Type.DOUBLE:
+                    return Kind.DOUBLE;
+                case Type.DECIMAL:
+                    return Kind.DECIMAL;
+                case Type.BOOLEAN:
+                    return Kind.BOOLEAN;
+                default:
+                    return null;
+            }
+
+        } else if (expr instanceof VariableReference) {
+            final int index = parameters.indexOf(((VariableReference) expr).getName());
+            return index < 0 ? null : parameterKinds[index];
+
+        } else if (expr instanceof OpNumeric) {
+            final OpNumeric op = (OpNumeric) expr;
+            final Kind kind = promote(kindOf(op.getLeft()), kindOf(op.getRight()));
+            if (kind == null || kind == Kind.BOOLEAN) {
+                return null;
+            }
+            switch (op.operator) {
+                case DIVISION:
+                    // the quotient of two integers is a decimal
+                    return kind == Kind.DOUBLE ? kind : null;
+                case DIVISION_INTEGER:
+                    return kind == Kind.INTEGER ? kind : null;
+                default:
+                    return kind;
+            }
+
+        } else if (expr instanceof UnaryExpr) {
+            final UnaryExpr unary = (UnaryExpr) expr;
+            if (unary.getLength() != 1) {
+                return null;
+            }
+            final Kind kind = kindOf(unary.getSubExpression(0));
+            return kind == Kind.INTEGER || kind == Kind.DOUBLE ? kind : null;
+
+        } else if (expr instanceof GeneralComparison) {
+            final GeneralComparison comparison = (GeneralComparison) expr;
+            if (comparison.getTruncation() != StringTruncationOperator.NONE || comparison.getRelation() == Comparison.IN) {
+                return null;
+            }
+            final Kind kind = promote(kindOf(comparison.getLeft()), kindOf(comparison.getRight()));
+            return kind == Kind.INTEGER || kind == Kind.DOUBLE ? Kind.BOOLEAN : null;
+
+        } else if (expr instanceof OpAnd || expr instanceof OpOr) {
+            final LogicalOp op = (LogicalOp) expr;
+            return kindOf(op.getLeft()) == Kind.BOOLEAN && kindOf(op.getRight()) == Kind.BOOLEAN ? Kind.BOOLEAN : null;
+
+        } else if (expr instanceof ConditionalExpression) {
+            final ConditionalExpression conditional = (ConditionalExpression) expr;
+            if (kindOf(conditional.getTestExpr()) != Kind.BOOLEAN) {
+                return null;
+            }
+            final Kind kind = kindOf(conditional.getThenExpr());
+            return kind != null && kind != Kind.DECIMAL && kind == kindOf(conditional.getElseExpr()) ? kind : null;
+
+        } else if (expr instanceof InternalFunctionCall) {
+            final Function fn = ((InternalFunctionCall) expr).getFunction();
+            if (fn instanceof FunNot) {
+                return kindOf(fn.getArgument(0)) == Kind.BOOLEAN ? Kind.BOOLEAN : null;
+            } else if (fn instanceof FunTrueOrFalse) {
+                return Kind.BOOLEAN;
+            }
+            return null;
+
+        } else if (expr instanceof FunctionCall) {
+            final FunctionCall call = (FunctionCall) expr;
+            if (!isSelfCall(call)) {
+                return null;
+            }
+            for (int i = 0; i < parameterKinds.length; i++) {
+                if (!convertible(kindOf(call.getArgument(i)), parameterKinds[i])) {
+                    return null;
+                }
+            }
+            return resultKind;
+
+        } else if (expr instanceof DynamicCardinalityCheck) {
+            final DynamicCardinalityCheck check = (DynamicCardinalityCheck) expr;
+            final Kind kind = kindOf(check.getSubExpression(0));
+            return kind != null && Cardinality.checkCardinality(check.getRequiredCardinality(), Cardinality.EXACTLY_ONE)
+                    ? kind : null;
+
+        } else if (expr instanceof Atomize) {
+            return kindOf(((Atomize) expr).getExpression());
+
+        } else if (expr instanceof UntypedValueCheck) {
+            // converts numeric values to the required type
+            final Kind kind = kindOf(expr.getSubExpression(0));
+            if (kind != null && Type.subTypeOf(kind.xqueryType, expr.returnsType())) {
+                return kind;
+            } else if (expr.returnsType() == Type.DOUBLE && (kind == Kind.INTEGER || kind == Kind.DECIMAL)) {
+                return Kind.DOUBLE;
+            }
+            return null;
+
+        } else if (expr instanceof DynamicTypeCheck) {
+            final Kind kind = kindOf(expr.getSubExpression(0));
+            return kind != null && Type.subTypeOf(kind.xqueryType, expr.returnsType()) ? kind : null;
+        }
+        return null;
+    }
+
+    private boolean isSelfCall(final FunctionCall call) {
+        final FunctionSignature signature = function.getSignature();
+        return signature.getName() != null && call.getFunction() != null
+                && signature.equals(call.getFunction().getSignature())
+                && call.getArgumentCount() == parameterKinds.length;
+    }
+
+    /**
+     * Returns the kind of value both operands are converted to
+     * by an arithmetic operation or comparison.
+     */
+    private static Kind promote(final Kind left, final Kind right) {
+        if (left == null || right == null) {
+            return null;
+        } else if (left == right) {
+            return left == Kind.DECIMAL ? null : left;
+        } else if (left == Kind.BOOLEAN || right == Kind.BOOLEAN) {
+            return null;
+        } else if (left == Kind.DOUBLE || right == Kind.DOUBLE) {
+            return Kind.DOUBLE;
+        }
+        return null;
+    }
+
+    private static boolean convertible(final Kind from, final Kind to) {
+        return from == to || (to == Kind.DOUBLE && (from == Kind.INTEGER || from == Kind.DECIMAL));
+    }
+
+    private static Expression unwrap(Expression expr) {
+        while (true) {
+            if (expr.getClass() == PathExpr.class && ((PathExpr) expr).getLength() == 1) {
+                expr = ((PathExpr) expr).getSubExpression(0);
+            } else if (expr instanceof DebuggableExpression) {
+                expr = ((DebuggableExpression) expr).getExpression();
+            } else {
+                return expr;
+            }
+        }
+    }
+
+    /**
+     * Skips the expressions which only check or atomize the value of their
+     * operand. The checks always succeed for the kinds of values accepted by
+     * {@link #kindOf(Expression)}.
+     */
+    private static Expression strip(final Expression expression) {
+        Expression expr = unwrap(expression);
+        while (true) {
+            if (expr instanceof Atomize) {
+                expr = unwrap(((Atomize) expr).getExpression());
+            } else if (expr instanceof DynamicCardinalityCheck || expr instanceof UntypedValueCheck
+                    || expr instanceof DynamicTypeCheck) {
+                expr = unwrap(expr.getSubExpression(0));
+            } else {
+                return expr;
+            }
+        }
+    }
+
+    private CompiledFunction build() {
+        final int[] parameterTypes = new int[parameterKinds.length];
+        for (int i = 0; i < parameterKinds.length; i++) {
+            parameterTypes[i] = parameterKinds[i].xqueryType;
+        }
+        final String className = GENERATED_CLASS_PREFIX + CLASS_COUNTER.incrementAndGet();
+        final byte[] bytes = generate(className.replace('.', '/'));
+        final CompiledFunction.Body body;
+        try {
+            final Class<?> bodyClass = new FunctionClassLoader().define(className, bytes);
+            body = (CompiledFunction.Body) bodyClass.getConstructor(XQueryContext.class, Expression[].class)
+                    .newInstance(function.getContext(), calls.toArray(new Expression[0]));
+        } catch (final ReflectiveOperationException | LinkageError e) {
+            LOG.warn("Failed to load the compiled function " + function.getSignature() + ": " + e.getMessage(), e);
+            return null;
+        }
+        return new CompiledFunction(function, parameterTypes, resultKind.xqueryType, body);
+    }
+
+    /**
+     * Generates a subclass of {@link CompiledFunction.Body}. Its method "call"
+     * takes the parameters as primitive values and computes the function body,
+     * the method "eval" unpacks the parameters from a frame and calls it.
+     */
+    private byte[] generate(final String internalName) {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, internalName, null,
+                BODY, null);
+
+        final MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", BODY_CONSTRUCTOR, null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitVarInsn(Opcodes.ALOAD, 1);
+        init.visitVarInsn(Opcodes.ALOAD, 2);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, BODY, "<init>", BODY_CONSTRUCTOR, false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        final StringBuilder descriptor = new StringBuilder("(");
+        int local = 1;
+        for (int i = 0; i < parameterKinds.length; i++) {
+            parameterLocals[i] = local;
+            descriptor.append(parameterKinds[i].descriptor);
+            local += parameterKinds[i].size;
+        }
+        callDescriptor = descriptor.append(')').append(resultKind.descriptor).toString();
+
+        final MethodVisitor eval = cw.visitMethod(Opcodes.ACC_PUBLIC, "eval", "([J)J", null, TERMINATED_EXCEPTION);
+        eval.visitCode();
+        eval.visitVarInsn(Opcodes.ALOAD, 0);
+        for (int i = 0; i < parameterKinds.length; i++) {
+            eval.visitVarInsn(Opcodes.ALOAD, 1);
+            pushInt(eval, i);
+            eval.visitInsn(Opcodes.LALOAD);
+            if (parameterKinds[i] == Kind.DOUBLE) {
+                eval.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "longBitsToDouble", "(J)D", false);
+            } else if (parameterKinds[i] == Kind.BOOLEAN) {
+                eval.visitInsn(Opcodes.L2I);
+            }
+        }
+        eval.visitMethodInsn(Opcodes.INVOKEVIRTUAL, internalName, "call", callDescriptor, false);
+        if (resultKind == Kind.DOUBLE) {
+            eval.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "doubleToRawLongBits", "(D)J", false);
+        } else if (resultKind == Kind.BOOLEAN) {
+            eval.visitInsn(Opcodes.I2L);
+        }
+        eval.visitInsn(Opcodes.LRETURN);
+        eval.visitMaxs(0, 0);
+        eval.visitEnd();
+
+        final MethodVisitor call = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, "call", callDescriptor, null,
+                TERMINATED_EXCEPTION);
+        call.visitCode();
+        emit(call, internalName, function.getFunctionBody(), resultKind);
+        call.visitInsn(resultKind == Kind.DOUBLE ? Opcodes.DRETURN : resultKind == Kind.INTEGER ? Opcodes.LRETURN : Opcodes.IRETURN);
+        call.visitMaxs(0, 0);
+        call.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Emits the code computing the value of an expression as a long,
+     * a double, or an int which is 1 for true and 0 for false.
+     */
+    private void emit(final MethodVisitor mv, final String owner, final Expression expr, final Kind kind) {
+        switch (kind) {
+            case INTEGER:
+                emitInteger(mv, owner, expr);
+                break;
+            case DOUBLE:
+                emitDouble(mv, owner, expr);
+                break;
+            case BOOLEAN:
+                emitBoolean(mv, owner, expr);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected kind of value: " + kind);
+        }
+    }
+
+    private void emitInteger(final MethodVisitor mv, final String owner, final Expression expression) {
+        final Expression expr = strip(expression);
+
+        if (expr instanceof LiteralValue) {
+            mv.visitLdcInsn(((IntegerValue) ((LiteralValue) expr).getValue()).getLong());
+
+        } else if (expr instanceof VariableReference) {
+            mv.visitVarInsn(Opcodes.LLOAD, parameterLocal((VariableReference) expr));
+
+        } else if (expr instanceof OpNumeric) {
+            final OpNumeric op = (OpNumeric) expr;
+            emitInteger(mv, owner, op.getLeft());
+            emitInteger(mv, owner, op.getRight());
+            switch (op.operator) {
+                case ADDITION:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "addExact", "(JJ)J", false);
+                    break;
+                case SUBTRACTION:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "subtractExact", "(JJ)J", false);
+                    break;
+                case MULTIPLICATION:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "multiplyExact", "(JJ)J", false);
+                    break;
+                case DIVISION_INTEGER:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, COMPILED_FUNCTION, "idiv", "(JJ)J", false);
+                    break;
+                case MODULUS:
+                    mv.visitInsn(Opcodes.LREM);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected integer operator: " + op.operator);
+            }
+
+        } else if (expr instanceof UnaryExpr) {
+            final UnaryExpr unary = (UnaryExpr) expr;
+            emitInteger(mv, owner, unary.getSubExpression(0));
+            if (unary.getMode() == ArithmeticOperator.SUBTRACTION) {
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "negateExact", "(J)J", false);
+            }
+
+        } else if (expr instanceof ConditionalExpression) {
+            emitConditional(mv, owner, (ConditionalExpression) expr, Kind.INTEGER);
+
+        } else if (expr instanceof FunctionCall) {
+            emitSelfCall(mv, owner, (FunctionCall) expr);
+
+        } else {
+            throw new IllegalStateException("Unexpected expression: " + expr.getClass().getName());
+        }
+    }
+
+    private void emitDouble(final MethodVisitor mv, final String owner, final Expression expression) {
+        final Expression expr = strip(expression);
+
+        if (expr instanceof LiteralValue) {
+            mv.visitLdcInsn(toDouble(((LiteralValue) expr).getValue()));
+
+        } else if (kinds.get(expr) == Kind.INTEGER) {
+            emitInteger(mv, owner, expr);
+            mv.visitInsn(Opcodes.L2D);
+
+        } else if (expr instanceof VariableReference) {
+            mv.visitVarInsn(Opcodes.DLOAD, parameterLocal((VariableReference) expr));
+
+        } else if (expr instanceof OpNumeric) {
+            final OpNumeric op = (OpNumeric) expr;
+            emitDouble(mv, owner, op.getLeft());
+            emitDouble(mv, owner, op.getRight());
+            switch (op.operator) {
+                case ADDITION:
+                    mv.visitInsn(Opcodes.DADD);
+                    break;
+                case SUBTRACTION:
+                    mv.visitInsn(Opcodes.DSUB);
+                    break;
+                case MULTIPLICATION:
+                    mv.visitInsn(Opcodes.DMUL);
+                    break;
+                case DIVISION:
+                    mv.visitInsn(Opcodes.DDIV);
+                    break;
+                case MODULUS:
+                    mv.visitInsn(Opcodes.DREM);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected double operator: " + op.operator);
+            }
+
+        } else if (expr instanceof UnaryExpr) {
+            final UnaryExpr unary = (UnaryExpr) expr;
+            emitDouble(mv, owner, unary.getSubExpression(0));
+            if (unary.getMode() == ArithmeticOperator.SUBTRACTION) {
+                mv.visitInsn(Opcodes.DNEG);
+            }
+
+        } else if (expr instanceof ConditionalExpression) {
+            emitConditional(mv, owner, (ConditionalExpression) expr, Kind.DOUBLE);
+
+        } else if (expr instanceof FunctionCall) {
+            emitSelfCall(mv, owner, (FunctionCall) expr);
+
+        } else {
+            throw new IllegalStateException("Unexpected expression: " + expr.getClass().getName());
+        }
+    }
+
+    private void emitBoolean(final MethodVisitor mv, final String owner, final Expression expression) {
+        final Expression expr = strip(expression);
+
+        if (expr instanceof LiteralValue) {
+            mv.visitInsn(((BooleanValue) ((LiteralValue) expr).getValue()).getValue() ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+
+        } else if (expr instanceof VariableReference) {
+            mv.visitVarInsn(Opcodes.ILOAD, parameterLocal((VariableReference) expr));
+
+        } else if (expr instanceof GeneralComparison) {
+            final GeneralComparison comparison = (GeneralComparison) expr;
+            final Comparison relation = comparison.getRelation();
+            if (promote(kindOf(comparison.getLeft()), kindOf(comparison.getRight())) == Kind.INTEGER) {
+                emitInteger(mv, owner, comparison.getLeft());
+                emitInteger(mv, owner, comparison.getRight());
+                mv.visitInsn(Opcodes.LCMP);
+            } else {
+                emitDouble(mv, owner, comparison.getLeft());
+                emitDouble(mv, owner, comparison.getRight());
+                // NaN compares as greater for "lt" and "le", and as less for "gt" and "ge",
+                // so that all comparisons but "ne" are false, as in XQuery
+                mv.visitInsn(relation == Comparison.LT || relation == Comparison.LTEQ ? Opcodes.DCMPG : Opcodes.DCMPL);
+            }
+            final Label isTrue = new Label();
+            final Label end = new Label();
+            mv.visitJumpInsn(jumpIfTrue(relation), isTrue);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitJumpInsn(Opcodes.GOTO, end);
+            mv.visitLabel(isTrue);
+            mv.visitInsn(Opcodes.ICONST_1);
+            mv.visitLabel(end);
+
+        } else if (expr instanceof OpAnd) {
+            final LogicalOp op = (LogicalOp) expr;
+            final Label isFalse = new Label();
+            final Label end = new Label();
+            emitBoolean(mv, owner, op.getLeft());
+            mv.visitJumpInsn(Opcodes.IFEQ, isFalse);
+            emitBoolean(mv, owner, op.getRight());
+            mv.visitJumpInsn(Opcodes.GOTO, end);
+            mv.visitLabel(isFalse);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitLabel(end);
+
+        } else if (expr instanceof OpOr) {
+            final LogicalOp op = (LogicalOp) expr;
+            final Label isTrue = new Label();
+            final Label end = new Label();
+            emitBoolean(mv, owner, op.getLeft());
+            mv.visitJumpInsn(Opcodes.IFNE, isTrue);
+            emitBoolean(mv, owner, op.getRight());
+            mv.visitJumpInsn(Opcodes.GOTO, end);
+            mv.visitLabel(isTrue);
+            mv.visitInsn(Opcodes.ICONST_1);
+            mv.visitLabel(end);
+
+        } else if (expr instanceof ConditionalExpression) {
+            emitConditional(mv, owner, (ConditionalExpression) expr, Kind.BOOLEAN);
+
+        } else if (expr instanceof InternalFunctionCall) {
+            final Function fn = ((InternalFunctionCall) expr).getFunction();
+            if (fn instanceof FunNot) {
+                emitBoolean(mv, owner, fn.getArgument(0));
+                mv.visitInsn(Opcodes.ICONST_1);
+                mv.visitInsn(Opcodes.IXOR);
+            } else {
+                mv.visitInsn(fn.isCalledAs("true") ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+            }
+
+        } else if (expr instanceof FunctionCall) {
+            emitSelfCall(mv, owner, (FunctionCall) expr);
+
+        } else {
+            throw new IllegalStateException("Unexpected expression: " + expr.getClass().getName());
+        }
+    }
+
+    private static int jumpIfTrue(final Comparison relation) {
+        switch (relation) {
+            case EQ:
+                return Opcodes.IFEQ;
+            case NEQ:
+                return Opcodes.IFNE;
+            case LT:
+                return Opcodes.IFLT;
+            case LTEQ:
+                return Opcodes.IFLE;
+            case GT:
+                return Opcodes.IFGT;
+            case GTEQ:
+                return Opcodes.IFGE;
+            default:
+                throw new IllegalStateException("Unexpected comparison: " + relation);
+        }
+    }
+
+    private void emitConditional(final MethodVisitor mv, final String owner, final ConditionalExpression conditional,
+            final Kind kind) {
+        final Label elseBranch = new Label();
+        final Label end = new Label();
+        emitBoolean(mv, owner, conditional.getTestExpr());
+        mv.visitJumpInsn(Opcodes.IFEQ, elseBranch);
+        emit(mv, owner, conditional.getThenExpr(), kind);
+        mv.visitJumpInsn(Opcodes.GOTO, end);
+        mv.visitLabel(elseBranch);
+        emit(mv, owner, conditional.getElseExpr(), kind);
+        mv.visitLabel(end);
+    }
+
+    /**
+     * Emits a call of the function itself. Like an interpreted call, each
+     * call is reported to the watchdog, which terminates the query if it is
+     * killed or times out.
+     */
+    private void emitSelfCall(final MethodVisitor mv, final String owner, final FunctionCall call) {
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        for (int i = 0; i < parameterKinds.length; i++) {
+            emit(mv, owner, call.getArgument(i), parameterKinds[i]);
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        pushInt(mv, calls.size());
+        calls.add(call);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BODY, "proceed", "(I)V", false);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, "call", callDescriptor, false);
+    }
+
+    private int parameterLocal(final VariableReference reference) {
+        return parameterLocals[parameters.indexOf(reference.getName())];
+    }
+
+    private static void pushInt(final MethodVisitor mv, final int value) {
+        if (value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    private static double toDouble(final AtomicValue value) {
+        if (value instanceof IntegerValue) {
+            return ((IntegerValue) value).getLong();
+        } else if (value instanceof DecimalValue) {
+            return ((DecimalValue) value).getValue().doubleValue();
+        }
+        return ((DoubleValue) value).getValue();
+    }
+
+    /**
+     * Loads each compiled function in its own class loader,
+     * so that the class is unloaded together with the query.
+     */
+    private static final class FunctionClassLoader extends ClassLoader {
+
+        FunctionClassLoader() {
+            super(CompiledFunction.class.getClassLoader());
+        }
+
+        Class<?> define(final String name, final byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Counts the calls of a user-defined function, and compiles
+     * the function once the number of calls reaches the threshold
+     * configured by {@link XQueryContext#getJitThreshold()}.
+     */
+    static final class CallCounter {
+
+        private int calls = 0;
+        private boolean attempted = false;
+        private CompiledFunction compiled = null;
+
+        /**
+         * Registers a call of the function.
+         *
+         * @return the compiled function, or null if the function has to be interpreted
+         */
+        CompiledFunction onCall(final UserDefinedFunction function) {
+            if (!attempted) {
+                final int threshold = function.getContext().getJitThreshold();
+                if (threshold > 0 && ++calls >= threshold) {
+                    attempted = true;
+                    compiled = compile(function);
+                }
+            }
+            return compiled;
+        }
+    }
+}
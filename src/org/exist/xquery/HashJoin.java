@@ -0,0 +1,587 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.dom.QName;
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.Constants.StringTruncationOperator;
+import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.NumericValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates a "for" clause which is joined to the preceding clauses by an
+ * equality comparison in the "where" clause directly following it, e.g.
+ *
+ * <pre>for $a in $orders, $c in $customers where $a/@cid = $c/@id return ...</pre>
+ *
+ * Without the join, the input sequence of the inner "for" clause is iterated and
+ * the "where" clause is evaluated for every tuple of the preceding clauses, which
+ * is quadratic. The join evaluates the input sequence and its side of the
+ * comparison only once per evaluation of the FLWOR expression, and builds a hash
+ * table from the atomized keys to the positions of the items in the input sequence.
+ * For each tuple of the preceding clauses, only the items whose keys match are
+ * iterated.
+ *
+ * The "where" clause is still evaluated for the items found, so the hash table
+ * only has to return a superset of the matching items. If the types of the keys
+ * do not allow to decide this, e.g. because the comparison would raise a type
+ * error, all items are iterated as usual.
+ */
+final class HashJoin {
+
+    private static final int CLASS_NUMERIC = 1;
+    private static final int CLASS_STRING = 2;
+    private static final int CLASS_UNTYPED = 3;
+
+    private static final Set<String> CONTEXT_DEPENDENT_FUNCTIONS =
+            new HashSet<>(Arrays.asList("id", "idref", "element-with-id", "lang"));
+
+    private final XQueryContext context;
+    private final BindingExpression firstClause;
+    private final QName firstVariable;
+    private final Expression buildKey;
+    private final Expression probeKey;
+
+    // state of the current evaluation of the FLWOR expression
+    @Nullable private Variable firstBinding = null;
+    @Nullable private Sequence input = null;
+    @Nullable private Table table = null;
+
+    private HashJoin(final XQueryContext context, final BindingExpression firstClause, final QName firstVariable,
+            final Expression buildKey, final Expression probeKey) {
+        this.context = context;
+        this.firstClause = firstClause;
+        this.firstVariable = firstVariable;
+        this.buildKey = buildKey;
+        this.probeKey = probeKey;
+    }
+
+    /**
+     * Checks if a "for" clause can be evaluated as a hash join.
+     *
+     * @param context the context of the query
+     * @param forExpr the "for" clause
+     * @return the join, or null if the clause is not joined by an equality comparison
+     *     between independent expressions
+     */
+    @Nullable
+    static HashJoin create(final XQueryContext context, final ForExpr forExpr) {
+        if (forExpr.getPreviousClause() == null || forExpr.getPositionalVariable() != null
+                || forExpr.isAllowingEmpty() || !(forExpr.getReturnExpression() instanceof WhereClause)
+                || context.getDefaultCollator() != null) {
+            return null;
+        }
+        try {
+            // the variables bound by the preceding clauses, which change for every tuple;
+            // "let" clauses before the first "for" are only evaluated once
+            final Set<QName> outerVariables = new HashSet<>();
+            final Set<QName> letVariables = new HashSet<>();
+            FLWORClause first = null;
+            for (FLWORClause clause = forExpr.getPreviousClause(); clause != null; clause = clause.getPreviousClause()) {
+                switch (clause.getType()) {
+                    case FOR:
+                        outerVariables.addAll(letVariables);
+                        letVariables.clear();
+                        final String positional = ((ForExpr) clause).getPositionalVariable();
+                        if (positional != null) {
+                            outerVariables.add(QName.parse(context, positional, null));
+                        }
+                        outerVariables.add(QName.parse(context, ((ForExpr) clause).getVariable(), null));
+                        break;
+                    case LET:
+                        letVariables.add(QName.parse(context, ((LetExpr) clause).getVariable(), null));
+                        break;
+                    case WHERE:
+                        break;
+                    default:
+                        return null;
+                }
+                first = clause;
+            }
+            if (outerVariables.isEmpty() || !(first instanceof BindingExpression)) {
+                return null;
+            }
+
+            final Set<QName> referenced = new HashSet<>();
+            if (!isIndependent(forExpr.getInputSequence(), outerVariables, referenced, false)) {
+                return null;
+            }
+
+            final QName innerVariable = QName.parse(context, forExpr.getVariable(), null);
+            Expression whereExpr = ((WhereClause) forExpr.getReturnExpression()).getWhereExpr();
+            if (whereExpr instanceof DebuggableExpression) {
+                whereExpr = ((DebuggableExpression) whereExpr).getExpression();
+            }
+            final GeneralComparison comparison = findJoinComparison(whereExpr, innerVariable, outerVariables);
+            if (comparison == null) {
+                return null;
+            }
+            final Expression buildKey;
+            final Expression probeKey;
+            if (references(comparison.getLeft(), innerVariable)) {
+                buildKey = comparison.getLeft();
+                probeKey = comparison.getRight();
+            } else {
+                buildKey = comparison.getRight();
+                probeKey = comparison.getLeft();
+            }
+            final BindingExpression firstClause = (BindingExpression) first;
+            final QName firstVariable = QName.parse(context, firstClause.getVariable(), null);
+            return new HashJoin(context, firstClause, firstVariable, buildKey, probeKey);
+        } catch (final QName.IllegalQNameException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds a comparison in the where expression, or in one of the operands of an "and",
+     * which compares a key of the inner variable with a key of the outer variables.
+     */
+    @Nullable
+    private static GeneralComparison findJoinComparison(final Expression expr, final QName innerVariable,
+            final Set<QName> outerVariables) {
+        if (expr instanceof OpAnd) {
+            final GeneralComparison left = findJoinComparison(((OpAnd) expr).getLeft(), innerVariable, outerVariables);
+            return left != null ? left : findJoinComparison(((OpAnd) expr).getRight(), innerVariable, outerVariables);
+        }
+        if (expr instanceof PathExpr && expr.getClass() == PathExpr.class && ((PathExpr) expr).getLength() == 1) {
+            return findJoinComparison(((PathExpr) expr).getSubExpression(0), innerVariable, outerVariables);
+        }
+        if (expr.getClass() != GeneralComparison.class) {
+            return null;
+        }
+        final GeneralComparison comparison = (GeneralComparison) expr;
+        if (comparison.getRelation() != Comparison.EQ || comparison.getTruncation() != StringTruncationOperator.NONE
+                || comparison.collationArg != null) {
+            return null;
+        }
+        final Set<QName> innerOnly = new HashSet<>(outerVariables);
+        final Set<QName> outerOnly = new HashSet<>();
+        outerOnly.add(innerVariable);
+        for (int i = 0; i < 2; i++) {
+            final Expression build = i == 0 ? comparison.getLeft() : comparison.getRight();
+            final Expression probe = i == 0 ? comparison.getRight() : comparison.getLeft();
+            final Set<QName> buildReferences = new HashSet<>();
+            if (isIndependent(build, innerOnly, buildReferences, false) && buildReferences.contains(innerVariable)
+                    && isIndependent(probe, outerOnly, new HashSet<>(), false)) {
+                return comparison;
+            }
+        }
+        return null;
+    }
+
+    private static boolean references(final Expression expr, final QName variable) {
+        final Set<QName> referenced = new HashSet<>();
+        isIndependent(expr, new HashSet<>(), referenced, false);
+        return referenced.contains(variable);
+    }
+
+    /**
+     * Checks if an expression returns the same result whenever it is evaluated,
+     * as long as it does not reference any of the given variables. Only expressions
+     * which are known to be free of side effects and not to depend on the context
+     * item are accepted.
+     *
+     * @param expr the expression
+     * @param forbidden the variables which may not be referenced
+     * @param referenced receives the variables which are referenced
+     * @param hasContext true if the expression is evaluated relative to a context item
+     *     set by an enclosing expression, i.e. a step or predicate
+     */
+    private static boolean isIndependent(final Expression expr, final Set<QName> forbidden,
+            final Set<QName> referenced, final boolean hasContext) {
+        if (expr instanceof LiteralValue) {
+            return true;
+        } else if (expr instanceof VariableReference) {
+            final QName name = ((VariableReference) expr).getName();
+            referenced.add(name);
+            return !forbidden.contains(name);
+        } else if (expr.getClass() == PathExpr.class || expr instanceof Predicate) {
+            final PathExpr path = (PathExpr) expr;
+            final boolean inPredicate = hasContext || expr instanceof Predicate;
+            for (int i = 0; i < path.getLength(); i++) {
+                if (!isIndependent(path.getSubExpression(i), forbidden, referenced, inPredicate || i > 0)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (expr instanceof RangeExpression) {
+            final RangeExpression range = (RangeExpression) expr;
+            return isIndependent(range.start, forbidden, referenced, hasContext)
+                    && isIndependent(range.end, forbidden, referenced, hasContext);
+        } else if (expr instanceof SequenceConstructor || expr instanceof ConcatExpr) {
+            final PathExpr operands = (PathExpr) expr;
+            for (int i = 0; i < operands.getLength(); i++) {
+                if (!isIndependent(operands.getSubExpression(i), forbidden, referenced, hasContext)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (expr instanceof LocationStep) {
+            if (!hasContext) {
+                return false;
+            }
+            for (final Predicate pred : ((LocationStep) expr).getPredicates()) {
+                if (!isIndependent(pred, forbidden, referenced, true)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (expr instanceof RootNode) {
+            return hasContext;
+        } else if (expr instanceof GeneralComparison || expr instanceof ValueComparison
+                || expr instanceof LogicalOp || expr instanceof OpNumeric) {
+            if (expr instanceof GeneralComparison && ((GeneralComparison) expr).collationArg instanceof Expression) {
+                return false;
+            }
+            final BinaryOp op = (BinaryOp) expr;
+            return isIndependent(op.getLeft(), forbidden, referenced, hasContext)
+                    && isIndependent(op.getRight(), forbidden, referenced, hasContext);
+        } else if (expr instanceof DynamicCardinalityCheck || expr instanceof DynamicTypeCheck
+                || expr instanceof Atomize || expr instanceof UntypedValueCheck) {
+            return isIndependent(expr.getSubExpression(0), forbidden, referenced, hasContext);
+        } else if (expr instanceof InternalFunctionCall) {
+            return isIndependent(((InternalFunctionCall) expr).getFunction(), forbidden, referenced, hasContext);
+        } else if (expr instanceof Function && !(expr instanceof FunctionCall)) {
+            final Function function = (Function) expr;
+            final QName name = function.getSignature().getName();
+            if (!Function.BUILTIN_FUNCTION_NS.equals(name.getNamespaceURI())
+                    || function.getArgumentCount() == 0
+                    || CONTEXT_DEPENDENT_FUNCTIONS.contains(name.getLocalPart())) {
+                return false;
+            }
+            for (int i = 0; i < function.getArgumentCount(); i++) {
+                if (!isIndependent(function.getArgument(i), forbidden, referenced, hasContext)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the first clause of the FLWOR expression, whose evaluation
+     * is the evaluation of the whole FLWOR expression.
+     *
+     * @return the first clause
+     */
+    BindingExpression getFirstClause() {
+        return firstClause;
+    }
+
+    /**
+     * Get the input sequence of the "for" clause, which is only evaluated
+     * once per evaluation of the FLWOR expression.
+     *
+     * @param inputSequence the input expression of the "for" clause
+     * @param contextSequence the context sequence
+     * @return the input sequence
+     * @throws XPathException if the evaluation fails
+     */
+    Sequence getInput(final Expression inputSequence, final Sequence contextSequence) throws XPathException {
+        // a new binding of the first variable marks a new evaluation of the FLWOR expression
+        final Variable binding = context.resolveVariable(firstVariable);
+        if (input == null || binding != firstBinding) {
+            reset();
+            input = inputSequence.eval(contextSequence, null);
+            firstBinding = binding;
+        }
+        return input;
+    }
+
+    /**
+     * Finds the items of the input sequence which may match the current tuple
+     * of the preceding clauses.
+     *
+     * @param in the input sequence returned by {@link #getInput(Expression, Sequence)}
+     * @param var the variable of the "for" clause
+     * @return the positions of the items in ascending order, or null if all items have to be iterated
+     * @throws XPathException if the evaluation of the keys fails
+     */
+    @Nullable
+    int[] probe(final Sequence in, final LocalVariable var) throws XPathException {
+        if (in != input || in.isEmpty()) {
+            return null;
+        }
+        if (table == null) {
+            table = build(in, var);
+        }
+        if (table.keys == null) {
+            return null;
+        }
+
+        final Sequence keys = probeKey.eval(null);
+        int[] result = null;
+        boolean merge = false;
+        for (final SequenceIterator i = keys.iterate(); i.hasNext(); ) {
+            final AtomicValue value = atomize(i.nextItem());
+            if (value == null) {
+                return null;
+            }
+            final int keyClass = classOf(value);
+            final Object stringKey;
+            final Object numericKey;
+            switch (keyClass) {
+                case CLASS_NUMERIC:
+                    if (table.hasString || table.hasUncastableUntyped) {
+                        // the comparison raises a type error
+                        return null;
+                    }
+                    stringKey = null;
+                    numericKey = numericKey(((NumericValue) value).getDouble());
+                    break;
+                case CLASS_STRING:
+                    if (table.hasNumeric) {
+                        return null;
+                    }
+                    stringKey = value.getStringValue();
+                    numericKey = null;
+                    break;
+                case CLASS_UNTYPED:
+                    stringKey = value.getStringValue();
+                    if (table.hasNumeric) {
+                        final Double d = castToDouble(value);
+                        if (d == null) {
+                            return null;
+                        }
+                        numericKey = numericKey(d);
+                    } else {
+                        numericKey = null;
+                    }
+                    break;
+                default:
+                    return null;
+            }
+            for (final Object key : new Object[] { stringKey, numericKey }) {
+                if (key == null) {
+                    continue;
+                }
+                final int[] positions = table.keys.get(key);
+                if (positions == null) {
+                    continue;
+                }
+                if (result == null) {
+                    result = positions;
+                } else {
+                    final int[] merged = Arrays.copyOf(result, result.length + positions.length);
+                    System.arraycopy(positions, 0, merged, result.length, positions.length);
+                    result = merged;
+                    merge = true;
+                }
+            }
+        }
+        if (result == null) {
+            return new int[0];
+        }
+        if (merge) {
+            Arrays.sort(result);
+            int size = 0;
+            for (int i = 0; i < result.length; i++) {
+                if (size == 0 || result[size - 1] != result[i]) {
+                    result[size++] = result[i];
+                }
+            }
+            result = Arrays.copyOf(result, size);
+        }
+        return result;
+    }
+
+    /**
+     * @param position a position returned by {@link #probe(Sequence, LocalVariable)}
+     * @return the item of the input sequence at the position
+     */
+    Item itemAt(final int position) {
+        return table.items[position];
+    }
+
+    private Table build(final Sequence in, final LocalVariable var) throws XPathException {
+        final Table table = new Table(in.getItemCount());
+        try {
+            final Map<Object, Positions> keys = buildKeys(in, var, table);
+            if (keys != null) {
+                table.keys = new HashMap<>(keys.size());
+                for (final Map.Entry<Object, Positions> entry : keys.entrySet()) {
+                    table.keys.put(entry.getKey(), entry.getValue().toArray());
+                }
+            }
+        } finally {
+            var.setValue(in);
+        }
+        return table;
+    }
+
+    @Nullable
+    private Map<Object, Positions> buildKeys(final Sequence in, final LocalVariable var, final Table table)
+            throws XPathException {
+        final Map<Object, Positions> keys = new HashMap<>();
+        int position = 0;
+        for (final SequenceIterator i = in.iterate(); i.hasNext(); position++) {
+            final Item item = i.nextItem();
+            table.items[position] = item;
+            var.setValue(item.toSequence());
+            if (var.getSequenceType() == null) {
+                var.checkType();
+            }
+            final Sequence itemKeys = buildKey.eval(null);
+            for (final SequenceIterator j = itemKeys.iterate(); j.hasNext(); ) {
+                final AtomicValue value = atomize(j.nextItem());
+                if (value == null) {
+                    return null;
+                }
+                switch (classOf(value)) {
+                    case CLASS_NUMERIC:
+                        table.hasNumeric = true;
+                        add(keys, numericKey(((NumericValue) value).getDouble()), position);
+                        break;
+                    case CLASS_STRING:
+                        table.hasString = true;
+                        add(keys, value.getStringValue(), position);
+                        break;
+                    case CLASS_UNTYPED:
+                        add(keys, value.getStringValue(), position);
+                        final Double d = castToDouble(value);
+                        if (d == null) {
+                            table.hasUncastableUntyped = true;
+                        } else {
+                            add(keys, numericKey(d), position);
+                        }
+                        break;
+                    default:
+                        // the keys cannot be compared by hashing
+                        return null;
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static void add(final Map<Object, Positions> keys, @Nullable final Object key, final int position) {
+        if (key != null) {
+            keys.computeIfAbsent(key, k -> new Positions()).add(position);
+        }
+    }
+
+    @Nullable
+    private static AtomicValue atomize(final Item item) throws XPathException {
+        if (item instanceof AtomicValue || item instanceof NodeValue) {
+            return item.atomize();
+        }
+        return null;
+    }
+
+    private static int classOf(final AtomicValue value) {
+        final int type = value.getType();
+        if (type == Type.UNTYPED_ATOMIC) {
+            return CLASS_UNTYPED;
+        } else if (type == Type.STRING) {
+            return CLASS_STRING;
+        } else if (Type.subTypeOf(type, Type.NUMBER)) {
+            return CLASS_NUMERIC;
+        }
+        return 0;
+    }
+
+    @Nullable
+    private static Double castToDouble(final AtomicValue value) {
+        try {
+            return ((NumericValue) value.convertTo(Type.DOUBLE)).getDouble();
+        } catch (final XPathException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Double numericKey(final double d) {
+        if (Double.isNaN(d)) {
+            // NaN is not equal to anything
+            return null;
+        }
+        // -0 and +0 are equal
+        return d + 0.0;
+    }
+
+    /**
+     * @return true if the input sequence of an evaluation is still referenced
+     */
+    boolean hasState() {
+        return input != null || table != null;
+    }
+
+    /**
+     * Drops the state of the current evaluation.
+     */
+    void reset() {
+        firstBinding = null;
+        input = null;
+        table = null;
+    }
+
+    @Override
+    public String toString() {
+        return "hash join on " + ExpressionDumper.dump(buildKey) + " = " + ExpressionDumper.dump(probeKey);
+    }
+
+    private static final class Table {
+        final Item[] items;
+        boolean hasNumeric = false;
+        boolean hasString = false;
+        boolean hasUncastableUntyped = false;
+
+        /** the positions of the items by key, or null if the keys cannot be hashed */
+        @Nullable Map<Object, int[]> keys = null;
+
+        Table(final int size) {
+            this.items = new Item[size];
+        }
+    }
+
+    private static final class Positions {
+        private int[] positions = new int[1];
+        private int size = 0;
+
+        void add(final int position) {
+            if (size > 0 && positions[size - 1] == position) {
+                return;
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        int[] toArray() {
+            return size == positions.length ? positions : Arrays.copyOf(positions, size);
+        }
+    }
+}
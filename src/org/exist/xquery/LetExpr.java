@@ -108,6 +108,7 @@ public class LetExpr extends BindingExpression {
                 var.setContextDocs(inputSequence.getContextDocSet());
                 registerUpdateListener(in);
 
+                setReturnResultLimit(getResultLimit());
                 resultSequence = returnExpr.eval(contextSequence, null);
 
                 if (sequenceType != null) {
@@ -144,6 +145,7 @@ public class LetExpr extends BindingExpression {
             } finally {
                 // Restore the local variable stack
                 context.popLocalVariables(mark, resultSequence);
+                resetHashJoins();
             }
             clearContext(getExpressionId(), in);
             if (context.getProfiler().isEnabled())
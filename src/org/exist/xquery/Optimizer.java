@@ -314,6 +314,28 @@ public class Optimizer extends DefaultExpressionVisitor {
         comparison.getRight().accept(this);
     }
 
+    @Override
+    public void visitForExpression(final ForExpr forExpr) {
+        super.visitForExpression(forExpr);
+        // check if a nested "for" is joined to the preceding clauses by an equality comparison
+        final HashJoin hashJoin = HashJoin.create(context, forExpr);
+        if (hashJoin != null) {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Using " + hashJoin + " for " + ExpressionDumper.dump(forExpr));
+            }
+            forExpr.setHashJoin(hashJoin);
+            // do not keep the input and table referenced from the compiled query once the FLWOR expression has been evaluated
+            hashJoin.getFirstClause().addHashJoin(hashJoin);
+        }
+        for (final QueryRewriter rewriter : rewriters) {
+            try {
+                rewriter.rewriteForExpression(forExpr);
+            } catch (final XPathException e) {
+                LOG.warn("Exception called while rewriting for expression: " + e.getMessage(), e);
+            }
+        }
+    }
+
     public void visitPredicate(Predicate predicate) {
         ++predicates;
         super.visitPredicate(predicate);
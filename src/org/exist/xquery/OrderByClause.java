@@ -53,7 +53,8 @@ public class OrderByClause extends AbstractFLWORClause {
     public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
         final OrderedValueSequence orderedResult;
         if (stack.isEmpty()) {
-            orderedResult = new OrderedValueSequence(orderSpecs, 100);
+            // only the first items in sort order are kept if the result is limited
+            orderedResult = new OrderedValueSequence(context, orderSpecs, 100, getResultLimit());
         } else {
             orderedResult = stack.pop();
         }
@@ -48,6 +48,18 @@ public class QueryRewriter {
         return null;
     }
 
+    /**
+     * Inspect a "for" clause after its sub-expressions have been visited by the
+     * optimizer. An index module may e.g. tell an index function evaluating the
+     * input sequence how the items are used, so that it can be evaluated more
+     * efficiently. The expression tree must not be changed.
+     *
+     * @param forExpr the "for" clause
+     * @throws XPathException
+     */
+    public void rewriteForExpression(ForExpr forExpr) throws XPathException {
+    }
+
     protected XQueryContext getContext() {
         return context;
     }
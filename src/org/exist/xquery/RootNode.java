@@ -108,7 +108,7 @@ public class RootNode extends Step {
         try {
             // wait for pending updates
             if (!context.inProtectedMode()) {
-                docLocks = ds.lock(context.getBroker(), false);
+                docLocks = context.awaitPendingUpdates(ds);
             }
 
 	        DocumentImpl doc;
@@ -44,6 +44,10 @@ public class UnaryExpr extends PathExpr {
 		this.mode = mode;
 	}
 
+	public ArithmeticOperator getMode() {
+		return mode;
+	}
+
 	public int returnsType() {
 		return Type.DECIMAL;
 	}
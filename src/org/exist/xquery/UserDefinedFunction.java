@@ -53,6 +53,9 @@ public class UserDefinedFunction extends Function implements Cloneable {
     protected boolean visited = false;
 
     private List<ClosureVariable> closureVariables = null;
+
+    // shared with the clones used for recursive calls
+    private final FunctionCompiler.CallCounter calls = new FunctionCompiler.CallCounter();
     
 	public UserDefinedFunction(XQueryContext context, FunctionSignature signature) {
 		super(context, signature);
@@ -128,6 +131,15 @@ public class UserDefinedFunction extends Function implements Cloneable {
 	 * @see org.exist.xquery.Expression#eval(org.exist.dom.persistent.DocumentSet, org.exist.xquery.value.Sequence, org.exist.xquery.value.Item)
 	 */
 	public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
+        if (!context.isProfilingEnabled() && context.getDebuggeeJoint() == null) {
+            final CompiledFunction compiled = calls.onCall(this);
+            if (compiled != null) {
+                final Sequence result = compiled.eval(currentArguments);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
 //        context.expressionStart(this);
         context.stackEnter(this);
         // make sure reset state is called after query has finished
@@ -104,6 +104,7 @@ public class WhereClause extends AbstractFLWORClause {
     @Override
     public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
         if (applyWhereExpression()) {
+            setReturnResultLimit(getResultLimit());
             return returnExpr.eval(null);
         }
         return Sequence.EMPTY_SEQUENCE;
@@ -75,8 +75,11 @@ public class XQuery {
 
         context.setSource(source);
 
+        final long start = System.nanoTime();
         try(final Reader reader = source.getReader()) {
-            return compile(broker, context, reader, xpointer);
+            final CompiledXQuery compiled = compile(broker, context, reader, xpointer);
+            broker.getBrokerPool().getXQueryPool().compiledXQuery(source, System.nanoTime() - start);
+            return compiled;
         } catch(final UnsupportedEncodingException e) {
             throw new XPathException(ErrorCodes.XQST0087, "unsupported encoding " + e.getMessage());
         }
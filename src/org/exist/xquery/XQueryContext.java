@@ -59,6 +59,7 @@ import org.exist.Database;
 import org.exist.EXistException;
 import org.exist.Namespaces;
 import org.exist.collections.Collection;
+import org.exist.collections.ManagedLocks;
 import org.exist.debuggee.Debuggee;
 import org.exist.debuggee.DebuggeeJoint;
 import org.exist.dom.persistent.*;
@@ -78,8 +79,11 @@ import org.exist.source.*;
 import org.exist.stax.ExtendedXMLStreamReader;
 import org.exist.storage.DBBroker;
 import org.exist.storage.UpdateListener;
+import org.exist.storage.XQueryPool;
 import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.lock.LockManager;
 import org.exist.storage.lock.LockedDocumentMap;
+import org.exist.storage.lock.ManagedDocumentLock;
 import org.exist.storage.txn.Txn;
 import org.exist.util.Collations;
 import org.exist.util.Configuration;
@@ -112,6 +116,9 @@ public class XQueryContext implements BinaryValueManager, Context {
     public static final String XQUERY_BACKWARD_COMPATIBLE_ATTRIBUTE = "backwardCompatible";
     public static final String XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_ATTRIBUTE = "raise-error-on-failed-retrieval";
     public static final String ENFORCE_INDEX_USE_ATTRIBUTE = "enforce-index-use";
+    public static final String LOCK_FREE_READS_ATTRIBUTE = "lock-free-reads";
+    public static final String SORT_SPILL_THRESHOLD_ATTRIBUTE = "sort-spill-threshold";
+    public static final String JIT_THRESHOLD_ATTRIBUTE = "jit-threshold";
 
     //TODO : move elsewhere ?
     public static final String BUILT_IN_MODULE_URI_ATTRIBUTE = "uri";
@@ -123,6 +130,12 @@ public class XQueryContext implements BinaryValueManager, Context {
     public static final String PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL = "xquery.raise-error-on-failed-retrieval";
     public static final boolean XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT = false;
     public static final String PROPERTY_ENFORCE_INDEX_USE = "xquery.enforce-index-use";
+    public static final String PROPERTY_LOCK_FREE_READS = "xquery.lock-free-reads";
+    public static final boolean LOCK_FREE_READS_DEFAULT = false;
+    public static final String PROPERTY_SORT_SPILL_THRESHOLD = "xquery.sort-spill-threshold";
+    public static final int SORT_SPILL_THRESHOLD_DEFAULT = 100000;
+    public static final String PROPERTY_JIT_THRESHOLD = "xquery.jit-threshold";
+    public static final int JIT_THRESHOLD_DEFAULT = 0;
 
     //TODO : move elsewhere ?
     public static final String PROPERTY_BUILT_IN_MODULES = "xquery.modules";
@@ -369,6 +382,12 @@ public class XQueryContext implements BinaryValueManager, Context {
 
     private boolean raiseErrorOnFailedRetrieval = XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL_DEFAULT;
 
+    private boolean lockFreeReads = LOCK_FREE_READS_DEFAULT;
+
+    private int sortSpillThreshold = SORT_SPILL_THRESHOLD_DEFAULT;
+
+    private int jitThreshold = JIT_THRESHOLD_DEFAULT;
+
     private boolean isShared = false;
 
     private Source source = null;
@@ -988,6 +1007,15 @@ public class XQueryContext implements BinaryValueManager, Context {
         staticDocumentPaths = docs;
     }
 
+    /**
+     * Returns the paths of the statically known documents and collections.
+     *
+     * @return the paths, or null if all documents in the database are statically known
+     */
+    public XmldbURI[] getStaticallyKnownDocumentPaths() {
+        return staticDocumentPaths;
+    }
+
     @Override
     public void setStaticallyKnownDocuments(final DocumentSet set) {
         staticDocuments = set;
@@ -1207,6 +1235,78 @@ public class XQueryContext implements BinaryValueManager, Context {
         return false;
     }
 
+    /**
+     * Returns true if the query reads documents without locking them,
+     * see {@link #awaitPendingUpdates(DocumentSet)}.
+     *
+     * @return true if lock-free reads are enabled
+     */
+    public boolean isLockFreeReads() {
+        return lockFreeReads;
+    }
+
+    public void setLockFreeReads(final boolean lockFreeReads) {
+        this.lockFreeReads = lockFreeReads;
+    }
+
+    /**
+     * Returns the number of items a sort keeps in memory before it writes
+     * them to a temporary file, see {@link org.exist.xquery.value.ExternalSort}.
+     *
+     * @return the number of items, or 0 if sorts never spill to disk
+     */
+    public int getSortSpillThreshold() {
+        return sortSpillThreshold;
+    }
+
+    public void setSortSpillThreshold(final int sortSpillThreshold) {
+        this.sortSpillThreshold = sortSpillThreshold;
+    }
+
+    /**
+     * Returns the number of calls after which a user-defined function is
+     * compiled, see {@link FunctionCompiler}.
+     *
+     * @return the number of calls, or 0 if functions are always interpreted
+     */
+    public int getJitThreshold() {
+        return jitThreshold;
+    }
+
+    public void setJitThreshold(final int jitThreshold) {
+        this.jitThreshold = jitThreshold;
+    }
+
+    /**
+     * Waits for any pending updates on the documents before they
+     * are read by the query.
+     *
+     * By default all documents are read locked at once, and the
+     * caller has to release the locks once it has collected the documents.
+     * With lock-free reads no document locks are held, the query only waits
+     * for an update which is in progress on a document at the moment it
+     * checks, one document at a time, and so never blocks the writers of
+     * other documents. This gives no isolation: an update which starts
+     * after the check may be seen by the query while it is still running.
+     *
+     * @param docs the documents which are about to be read
+     *
+     * @return the locks to release once the documents have been collected
+     *
+     * @throws LockException if a lock could not be acquired
+     */
+    public ManagedLocks<ManagedDocumentLock> awaitPendingUpdates(final DocumentSet docs) throws LockException {
+        if (!lockFreeReads) {
+            return docs.lock(getBroker(), false);
+        }
+
+        final LockManager lockManager = getBroker().getBrokerPool().getLockManager();
+        for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
+            lockManager.awaitDocumentUpdate(i.next().getURI());
+        }
+        return new ManagedLocks<>(Collections.<ManagedDocumentLock>emptyList());
+    }
+
 
 //  /**
 //   * If lock is true, all documents loaded during query execution
@@ -2463,27 +2563,85 @@ public class XQueryContext implements BinaryValueManager, Context {
             LOG.debug("Loading module from " + location);
         }
 
+        if (namespaceURI == null) {
+            final QName qname;
+            try {
+                qname = source.isModule();
+            } catch (final IOException e) {
+                throw moduleLoadException("IO exception while loading module from '" + source + "'", location, e);
+            }
+            if (qname == null) {
+                return null;
+            }
+            namespaceURI = qname.getNamespaceURI();
+        }
+
+        final ExternalModuleImpl modExternal = new ExternalModuleImpl(namespaceURI, prefix);
+        setModule(namespaceURI, modExternal);
+        final XQueryContext modContext = new ModuleContext(this, prefix, namespaceURI, location);
+        modExternal.setContext(modContext);
+
+        // the syntax tree of the module is shared by all queries importing it
+        final XQueryPool xqueryPool = getBroker().getBrokerPool().getXQueryPool();
+        AST ast = xqueryPool.borrowModuleAST(getBroker(), source);
+        if (ast == null) {
+            ast = parseModule(namespaceURI, location, source, modContext);
+            xqueryPool.returnModuleAST(source, ast);
+        }
+
+        final XQueryTreeParser astParser = new XQueryTreeParser(modContext, modExternal);
+        try {
+            final PathExpr path = new PathExpr(modContext);
+            astParser.xpath(ast, path);
+
+            if (astParser.foundErrors()) {
+                throw new XPathException("error found while loading module from " + location + ": " + astParser.getErrorMessage(), astParser.getLastException());
+            }
+
+            modExternal.setRootExpression(path);
+
+            if (namespaceURI != null && !modExternal.getNamespaceURI().equals(namespaceURI)) {
+                throw new XPathException("namespace URI declared by module (" + modExternal.getNamespaceURI() + ") does not match namespace URI in import statement, which was: " + namespaceURI);
+            }
+
+            // Set source information on module context
+//            String sourceClassName = source.getClass().getName();
+//            modContext.setSourceKey(source.getKey().toString());
+            // Extract the source type from the classname by removing the package prefix and the "Source" suffix
+//            modContext.setSourceType( sourceClassName.substring( 17, sourceClassName.length() - 6 ) );
+
+            modExternal.setSource(source);
+            modContext.setSource(source);
+            modExternal.setIsReady(true);
+            return modExternal;
+        } catch (final RecognitionException e) {
+            throw new XPathException(e.getLine(), e.getColumn(), "error found while loading module from " + location + ": " + e.getMessage());
+        } catch (final XPathException e) {
+            e.prependMessage("Error while loading module " + location + ": ");
+            throw e;
+        }
+    }
+
+    /**
+     * Parse the source of an XQuery Module
+     *
+     * @param namespaceURI the namespace URI of the module.
+     * @param location     the location of the module
+     * @param source       the source of the module.
+     * @param modContext   the context of the module.
+     * @return The syntax tree of the module
+     * @throws XPathException if the module could not be loaded or parsed
+     */
+    private AST parseModule(final String namespaceURI, final String location, final Source source,
+                            final XQueryContext modContext) throws XPathException {
         try (final Reader reader = source.getReader()) {
             if (reader == null) {
                 throw moduleLoadException("failed to load module: '" + namespaceURI + "' from: " +
                         "'" + source + "', location: '" + location + "'. Source not found. ", location);
             }
 
-            if (namespaceURI == null) {
-                final QName qname = source.isModule();
-                if (qname == null) {
-                    return null;
-                }
-                namespaceURI = qname.getNamespaceURI();
-            }
-
-            final ExternalModuleImpl modExternal = new ExternalModuleImpl(namespaceURI, prefix);
-            setModule(namespaceURI, modExternal);
-            final XQueryContext modContext = new ModuleContext(this, prefix, namespaceURI, location);
-            modExternal.setContext(modContext);
             final XQueryLexer lexer = new XQueryLexer(modContext, reader);
             final XQueryParser parser = new XQueryParser(lexer);
-            final XQueryTreeParser astParser = new XQueryTreeParser(modContext, modExternal);
 
             try {
                 parser.xpath();
@@ -2494,31 +2652,7 @@ public class XQueryContext implements BinaryValueManager, Context {
                     }
                     throw new XPathException("error found while loading module from " + location + ": " + parser.getErrorMessage());
                 }
-                final AST ast = parser.getAST();
-
-                final PathExpr path = new PathExpr(modContext);
-                astParser.xpath(ast, path);
-
-                if (astParser.foundErrors()) {
-                    throw new XPathException("error found while loading module from " + location + ": " + astParser.getErrorMessage(), astParser.getLastException());
-                }
-
-                modExternal.setRootExpression(path);
-
-                if (namespaceURI != null && !modExternal.getNamespaceURI().equals(namespaceURI)) {
-                    throw new XPathException("namespace URI declared by module (" + modExternal.getNamespaceURI() + ") does not match namespace URI in import statement, which was: " + namespaceURI);
-                }
-
-                // Set source information on module context
-//            String sourceClassName = source.getClass().getName();
-//            modContext.setSourceKey(source.getKey().toString());
-                // Extract the source type from the classname by removing the package prefix and the "Source" suffix
-//            modContext.setSourceType( sourceClassName.substring( 17, sourceClassName.length() - 6 ) );
-
-                modExternal.setSource(source);
-                modContext.setSource(source);
-                modExternal.setIsReady(true);
-                return modExternal;
+                return parser.getAST();
             } catch (final RecognitionException e) {
                 throw new XPathException(e.getLine(), e.getColumn(), "error found while loading module from " + location + ": " + e.getMessage());
             } catch (final TokenStreamException e) {
@@ -2776,6 +2910,10 @@ public class XQueryContext implements BinaryValueManager, Context {
             if (NoIndexPragma.NO_INDEX_PRAGMA.equals(qname)) {
                 return new NoIndexPragma(qname, contents);
             }
+
+            if (CachePragma.CACHE_PRAGMA.equals(qname)) {
+                return new CachePragma(qname, contents);
+            }
         }
 
         return null;
@@ -2852,6 +2990,18 @@ public class XQueryContext implements BinaryValueManager, Context {
         final Boolean option = ((Boolean) config.getProperty(PROPERTY_XQUERY_RAISE_ERROR_ON_FAILED_RETRIEVAL));
         raiseErrorOnFailedRetrieval = (option != null) && option;
 
+        // Switch: lockFreeReads
+        final Boolean lockFreeReadsOption = ((Boolean) config.getProperty(PROPERTY_LOCK_FREE_READS));
+        lockFreeReads = (lockFreeReadsOption != null) && lockFreeReadsOption;
+
+        // Number of items kept in memory by a sort
+        final Integer sortSpillThresholdOption = (Integer) config.getProperty(PROPERTY_SORT_SPILL_THRESHOLD);
+        sortSpillThreshold = sortSpillThresholdOption != null ? sortSpillThresholdOption : SORT_SPILL_THRESHOLD_DEFAULT;
+
+        // Number of calls before a function is compiled
+        final Integer jitThresholdOption = (Integer) config.getProperty(PROPERTY_JIT_THRESHOLD);
+        jitThreshold = jitThresholdOption != null ? jitThresholdOption : JIT_THRESHOLD_DEFAULT;
+
         // Get map of built-in modules
         final Map<String, Class<Module>> builtInModules = (Map) config.getProperty(PROPERTY_BUILT_IN_MODULES);
 
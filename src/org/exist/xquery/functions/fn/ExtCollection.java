@@ -196,7 +196,11 @@ public class ExtCollection extends Function {
             ManagedDocumentLock dlock = null;
             try {
                 if (!context.inProtectedMode()) {
-                    dlock = lockManager.acquireDocumentReadLock(doc.getURI());
+                    if (context.isLockFreeReads()) {
+                        lockManager.awaitDocumentUpdate(doc.getURI());
+                    } else {
+                        dlock = lockManager.acquireDocumentReadLock(doc.getURI());
+                    }
                 }
                 result.add(new NodeProxy(doc));
             } catch (final LockException e) {
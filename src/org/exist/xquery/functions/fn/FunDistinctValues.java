@@ -22,7 +22,8 @@
 package org.exist.xquery.functions.fn;
 
 import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.HashSet;
+import java.util.Set;
 
 import com.ibm.icu.text.Collator;
 import org.apache.logging.log4j.LogManager;
@@ -40,10 +41,10 @@ import org.exist.xquery.ValueComparison;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.AtomicValueKey;
 import org.exist.xquery.value.FunctionReturnSequenceType;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.Item;
-import org.exist.xquery.value.NumericValue;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceIterator;
 import org.exist.xquery.value.SequenceType;
@@ -117,32 +118,14 @@ public class FunDistinctValues extends CollatingFunction {
         }
         final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
         final Collator collator = getCollator(contextSequence, contextItem, 2);		
-        final TreeSet<AtomicValue> set = new TreeSet<AtomicValue>(new ValueComparator(collator));
+        final Set<AtomicValueKey> set = new HashSet<>();
         final ValueSequence result = new ValueSequence();
-        Item item;
-        AtomicValue value;
-        boolean hasAlreadyNaN = false;
         for (final SequenceIterator i = seq.iterate(); i.hasNext();) {
-            item = i.nextItem();
-            value = item.atomize();
-            if (!set.contains(value)) {
-                if (Type.subTypeOf(value.getType(), Type.NUMBER)) {
-                    if (((NumericValue)value).isNaN()) {
-                        //although NaN does not equal itself, if $arg 
-                        //contains multiple NaN values a single NaN is returned.
-                        if (!hasAlreadyNaN) {
-                            set.add(value);
-                            result.add(value);	
-                            hasAlreadyNaN = true;
-                        }
-                    } else {
-                        set.add(value);
-                        result.add(value);
-                    }
-                } else {
-                    set.add(value);
-                    result.add(value);
-                }
+            final AtomicValue value = i.nextItem().atomize();
+            //although NaN does not equal itself, if $arg
+            //contains multiple NaN values a single NaN is returned.
+            if (set.add(AtomicValueKey.of(value, collator))) {
+                result.add(value);
             }
         }
         if (context.getProfiler().isEnabled())
@@ -22,6 +22,7 @@
 package org.exist.xquery.functions.fn;
 
 import org.exist.dom.QName;
+import org.exist.xquery.AbstractFLWORClause;
 import org.exist.xquery.Cardinality;
 import org.exist.xquery.Dependency;
 import org.exist.xquery.Function;
@@ -77,7 +78,8 @@ public class FunExists extends Function {
         //if(contextItem != null)
 			//contextSequence = contextItem.toSequence();
         
-		final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
+		// only the first item is needed to decide
+		final Sequence seq = AbstractFLWORClause.evalWithResultLimit(getArgument(0), 1, contextSequence, contextItem);
 		final Sequence result = seq.isEmpty() ? BooleanValue.FALSE : BooleanValue.TRUE;
         
         if (context.getProfiler().isEnabled()) 
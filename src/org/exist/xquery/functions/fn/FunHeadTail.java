@@ -3,6 +3,7 @@ package org.exist.xquery.functions.fn;
 import org.exist.dom.persistent.ExtArrayNodeSet;
 import org.exist.dom.persistent.NodeSet;
 import org.exist.dom.QName;
+import org.exist.xquery.AbstractFLWORClause;
 import org.exist.xquery.AnalyzeContextInfo;
 import org.exist.xquery.BasicFunction;
 import org.exist.xquery.Cardinality;
@@ -13,6 +14,7 @@ import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.Item;
 import org.exist.xquery.value.Sequence;
 import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
@@ -51,6 +53,19 @@ public class FunHeadTail extends BasicFunction {
 		}
 	}
 	
+	@Override
+	public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
+		if (isCalledAs("head")) {
+			// only the first item of the argument is needed
+			if (contextItem != null) {
+				contextSequence = contextItem.toSequence();
+			}
+			final Sequence seq = AbstractFLWORClause.evalWithResultLimit(getArgument(0), 1, contextSequence, contextItem);
+			return eval(new Sequence[] { seq }, contextSequence);
+		}
+		return super.eval(contextSequence, contextItem);
+	}
+
 	@Override
 	public Sequence eval(Sequence[] args, Sequence contextSequence)
 			throws XPathException {
@@ -24,6 +24,7 @@ import org.exist.dom.QName;
 import org.exist.util.Collations;
 import org.exist.xquery.*;
 import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.ExternalSort;
 import org.exist.xquery.value.FunctionParameterSequenceType;
 import org.exist.xquery.value.FunctionReference;
 import org.exist.xquery.value.FunctionReturnSequenceType;
@@ -35,6 +36,9 @@ import org.exist.xquery.value.SequenceType;
 import org.exist.xquery.value.Type;
 import org.exist.xquery.value.ValueSequence;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -96,26 +100,29 @@ public class FunSort extends BasicFunction {
 
     try (FunctionReference ref = function(args, 2)) {
 
-      final Sequence refArgs[] = new Sequence[1];
-
-      Item item;
-      Sequence value;
+      // sorts with more items than should be kept in memory write them to temporary files
+      final int spillThreshold = context.getSortSpillThreshold();
+      if (spillThreshold > 0 && seq.getItemCountLong() > spillThreshold) {
+        return externalSort(seq, ref, contextSequence, collator, spillThreshold);
+      }
 
       for (final SequenceIterator i = seq.iterate(); i.hasNext(); ) {
-        item = i.nextItem();
-        if (ref != null) {
-          refArgs[0] = item.toSequence();
-          value = ref.evalFunction(contextSequence, null, refArgs);
-        } else {
-          value = item.toSequence();
-        }
-
-        keys.add(Atomize.atomize(value));
+        keys.add(key(i.nextItem(), ref, contextSequence));
       }
     }
     return sort(seq, keys, collator);
   }
 
+  private Sequence key(Item item, FunctionReference ref, Sequence contextSequence) throws XPathException {
+    final Sequence value;
+    if (ref != null) {
+      value = ref.evalFunction(contextSequence, null, new Sequence[] { item.toSequence() });
+    } else {
+      value = item.toSequence();
+    }
+    return Atomize.atomize(value);
+  }
+
   private Sequence sort(Sequence seq, ArrayList<Sequence> keys, Collator collator) throws XPathException {
 
     final Holder<XPathException> exception = new Holder<>();
@@ -127,22 +134,74 @@ public class FunSort extends BasicFunction {
 
     //sorting
     try {
-      Arrays.sort(order, (i1, i2) -> {
+      Arrays.sort(order, (i1, i2) -> compare(keys.get(i1), keys.get(i2), collator, exception));
+    } catch (IllegalArgumentException e) {
+      throw typeError(exception, e);
+    }
+
+    //form final sequence
+    final ValueSequence result = new ValueSequence(seq.getItemCount());
+    result.keepUnOrdered(true);
+
+    for(int i = 0; i < size; i++) {
+      result.add(seq.itemAt(order[i]));
+    }
+
+    return result;
+  }
 
-        Sequence seq1 = keys.get(i1);
-        Sequence seq2 = keys.get(i2);
+  private Sequence externalSort(Sequence seq, FunctionReference ref, Sequence contextSequence, Collator collator, int spillThreshold) throws XPathException {
 
-        int size1 = seq1.getItemCount();
-        int size2 = seq2.getItemCount();
-        int minSize = Math.min(size1, size2);
+    final Holder<XPathException> exception = new Holder<>();
 
-        if (size1 == 0) {
-          return -size2;
+    final ExternalSort<SortRecord> sort = new ExternalSort<>(context,
+        (record1, record2) -> compare(record1.key, record2.key, collator, exception), new SortRecordCodec());
+    SortRecord[] records = new SortRecord[spillThreshold];
+    int length = 0;
+    boolean spill = true;
+
+    try {
+      for (final SequenceIterator i = seq.iterate(); i.hasNext(); ) {
+        if (length == records.length) {
+          if (spill && sort.spill(records, length)) {
+            Arrays.fill(records, null);
+            length = 0;
+          } else {
+            // the records cannot be written, so all further records are kept in memory
+            spill = false;
+            records = Arrays.copyOf(records, length * 2);
+          }
         }
+        final Item item = i.nextItem();
+        records[length++] = new SortRecord(item, key(item, ref, contextSequence));
+      }
+      return sort.merge(records, length);
+    } catch (IllegalArgumentException e) {
+      throw typeError(exception, e);
+    }
+  }
+
+  private XPathException typeError(Holder<XPathException> exception, IllegalArgumentException e) {
+    if (exception.get() != null) {
+      return new XPathException(FunSort.this, ErrorCodes.XPTY0004, exception.get());
+    } else {
+      return new XPathException(FunSort.this, ErrorCodes.XPTY0004, e.getMessage());
+    }
+  }
+
+  private static int compare(Sequence seq1, Sequence seq2, Collator collator, Holder<XPathException> exception) {
+
+    int size1 = seq1.getItemCount();
+    int size2 = seq2.getItemCount();
+    int minSize = Math.min(size1, size2);
+
+    if (size1 == 0) {
+      return -size2;
+    }
 
-        for (int pos = 0; pos < minSize; pos++) {
-          Item item1 = seq1.itemAt(pos);
-          Item item2 = seq2.itemAt(pos);
+    for (int pos = 0; pos < minSize; pos++) {
+      Item item1 = seq1.itemAt(pos);
+      Item item2 = seq2.itemAt(pos);
 
 //          int res;
 //          if (item1 instanceof org.exist.dom.memtree.NodeImpl && (!(item2 instanceof org.exist.dom.memtree.NodeImpl))) {
@@ -153,59 +212,41 @@ public class FunSort extends BasicFunction {
 //            res = Constants.INFERIOR;
 //          }
 
-          int res = Constants.EQUAL;
-          if (FunDeepEqual.deepEquals(item1, item2, collator)) {
-            continue;
-          } if (Type.subTypeOf(item1.getType(), Type.NUMBER) && ((NumericValue)item1).isNaN()) {
-            res = Constants.INFERIOR;
-
-          } else if (Type.subTypeOf(item1.getType(), Type.STRING) && Type.subTypeOf(item2.getType(), Type.STRING)) {
-            try {
-              res = Collations.compare(collator, item1.getStringValue(), item2.getStringValue());
-            } catch (XPathException e) {
-              exception.set(e);
-            }
-          } else if (item1 instanceof AtomicValue && item2 instanceof AtomicValue) {
-            try {
-              // throw type error if values cannot be compared with lt
-              ValueComparison.compareAtomic(collator, (AtomicValue)item1, (AtomicValue)item2, Constants.StringTruncationOperator.NONE, Constants.Comparison.LT);
-              res = ((AtomicValue)item1).compareTo(collator, (AtomicValue)item2);
-            } catch (XPathException e) {
-              exception.set(e);
-              throw new IllegalArgumentException();
-            }
+      int res = Constants.EQUAL;
+      if (FunDeepEqual.deepEquals(item1, item2, collator)) {
+        continue;
+      } if (Type.subTypeOf(item1.getType(), Type.NUMBER) && ((NumericValue)item1).isNaN()) {
+        res = Constants.INFERIOR;
+
+      } else if (Type.subTypeOf(item1.getType(), Type.STRING) && Type.subTypeOf(item2.getType(), Type.STRING)) {
+        try {
+          res = Collations.compare(collator, item1.getStringValue(), item2.getStringValue());
+        } catch (XPathException e) {
+          exception.set(e);
+        }
+      } else if (item1 instanceof AtomicValue && item2 instanceof AtomicValue) {
+        try {
+          // throw type error if values cannot be compared with lt
+          ValueComparison.compareAtomic(collator, (AtomicValue)item1, (AtomicValue)item2, Constants.StringTruncationOperator.NONE, Constants.Comparison.LT);
+          res = ((AtomicValue)item1).compareTo(collator, (AtomicValue)item2);
+        } catch (XPathException e) {
+          exception.set(e);
+          throw new IllegalArgumentException();
+        }
 
 //          } else if (item1 instanceof Comparable && item2 instanceof Comparable) {
 //            res = ((Comparable) item1).compareTo(item2);
 
-          } else {
-            res = Constants.INFERIOR;
-          }
-
-          if (res != Constants.EQUAL) {
-            return res;
-          }
-        }
-
-        return (size1 - size2);
-      });
-    } catch (IllegalArgumentException e) {
-      if (exception.get() != null) {
-        throw new XPathException(FunSort.this, ErrorCodes.XPTY0004, exception.get());
       } else {
-        throw new XPathException(FunSort.this, ErrorCodes.XPTY0004, e.getMessage());
+        res = Constants.INFERIOR;
       }
-    }
-
-    //form final sequence
-    final ValueSequence result = new ValueSequence(seq.getItemCount());
-    result.keepUnOrdered(true);
 
-    for(int i = 0; i < size; i++) {
-      result.add(seq.itemAt(order[i]));
+      if (res != Constants.EQUAL) {
+        return res;
+      }
     }
 
-    return result;
+    return (size1 - size2);
   }
 
   private Collator collator(Sequence[] args, int pos) throws XPathException {
@@ -234,6 +275,59 @@ public class FunSort extends BasicFunction {
     }
   }
 
+  private static class SortRecord {
+    final Item item;
+    final Sequence key;
+
+    SortRecord(Item item, Sequence key) {
+      this.item = item;
+      this.key = key;
+    }
+  }
+
+  private static class SortRecordCodec implements ExternalSort.RecordCodec<SortRecord> {
+
+    @Override
+    public Item getItem(SortRecord record) {
+      return record.item;
+    }
+
+    @Override
+    public boolean canWrite(ExternalSort<SortRecord> sort, SortRecord record) {
+      if (!sort.canWrite(record.item)) {
+        return false;
+      }
+      final int size = record.key.getItemCount();
+      for (int i = 0; i < size; i++) {
+        if (!sort.canWrite(record.key.itemAt(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void write(ExternalSort<SortRecord> sort, SortRecord record, DataOutput os) throws IOException {
+      sort.writeItem(record.item, os);
+      final int size = record.key.getItemCount();
+      os.writeInt(size);
+      for (int i = 0; i < size; i++) {
+        sort.writeItem(record.key.itemAt(i), os);
+      }
+    }
+
+    @Override
+    public SortRecord read(ExternalSort<SortRecord> sort, DataInput is) throws IOException {
+      final Item item = sort.readItem(is);
+      final int size = is.readInt();
+      final ValueSequence key = new ValueSequence(size);
+      for (int i = 0; i < size; i++) {
+        key.add(sort.readItem(is));
+      }
+      return new SortRecord(item, key);
+    }
+  }
+
   static class Holder<T> {
     T obj;
 
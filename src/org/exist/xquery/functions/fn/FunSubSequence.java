@@ -27,6 +27,8 @@ import org.exist.dom.QName;
 import org.exist.xquery.*;
 import org.exist.xquery.value.*;
 
+import javax.annotation.Nullable;
+
 /**
  * Implements the fn:subsequence function.
  *
@@ -98,42 +100,35 @@ public class FunSubSequence extends Function {
         }
 
         final Sequence result;
-        final Sequence seq = getArgument(0).eval(contextSequence, contextItem);
-        if (seq.isEmpty()) {
-            result = Sequence.EMPTY_SEQUENCE;
+        final Sequence seq;
+        final double[] range;
+        if (AbstractFLWORClause.acceptsResultLimit(getArgument(0))) {
+            // the positions are evaluated first, so that the evaluation of the
+            // source sequence can stop after the last item which is selected
+            range = evalRange(contextSequence, contextItem);
+            final int limit = range != null && range[1] > 1 && range[1] <= AbstractFLWORClause.NO_RESULT_LIMIT ?
+                    (int) (range[1] - 1) : AbstractFLWORClause.NO_RESULT_LIMIT;
+            seq = AbstractFLWORClause.evalWithResultLimit(getArgument(0), limit, contextSequence, contextItem);
         } else {
+            seq = getArgument(0).eval(contextSequence, contextItem);
+            range = seq.isEmpty() ? null : evalRange(contextSequence, contextItem);
+        }
 
-            final long startArg = ((IntegerValue)getArgument(1).eval(contextSequence, contextItem).convertTo(Type.INTEGER)).getLong();
-            final long toExclusive;
-            if (getArgumentCount() == 3) {
-                /*
-                    From: https://www.w3.org/TR/xpath-functions-31/#func-subsequence
-
-                    $sourceSeq[fn:round($startingLoc) le position()
-                            and position() lt fn:round($startingLoc) + fn:round($length)]
-                 */
-                final long lengthArg = ((IntegerValue) getArgument(2).eval(contextSequence, contextItem).convertTo(Type.INTEGER)).getLong();
-                toExclusive = startArg + lengthArg;
-            } else {
-                /*
-                    From: https://www.w3.org/TR/xpath-functions-31/#func-subsequence
-
-                    $sourceSeq[fn:round($startingLoc) le position()]
-                 */
-                toExclusive = Long.MAX_VALUE;   // we can't travel past Long.MAX_VALUE (...at the moment!)
-            }
+        if (seq.isEmpty() || range == null) {
+            result = Sequence.EMPTY_SEQUENCE;
+        } else {
 
             //TODO(AR) are there shortcuts where we can determine that the result is an empty-sequence from the args
 
             // we can't start before the first item
             final long fromInclusive;
-            if (startArg <= 0) {
+            if (range[0] <= 0) {
                 fromInclusive = 1;
             } else {
-                fromInclusive = startArg;
+                fromInclusive = toLong(range[0]);
             }
 
-            result = new SubSequence(fromInclusive, toExclusive, seq);
+            result = new SubSequence(fromInclusive, toLong(range[1]), seq);
         }
 
         if (context.getProfiler().isEnabled()) {
@@ -142,4 +137,56 @@ public class FunSubSequence extends Function {
 
         return result;
     }
+
+    /**
+     * Evaluates the starting position and the length of the subsequence.
+     *
+     * @return the first position and the position after the last one, which
+     *     are infinite for an infinite argument, or null if the
+     *     positions are NaN and no item is selected
+     */
+    @Nullable
+    private double[] evalRange(final Sequence contextSequence, final Item contextItem) throws XPathException {
+        final double startArg = toPosition(getArgument(1).eval(contextSequence, contextItem));
+        final double toExclusive;
+        if (getArgumentCount() == 3) {
+            /*
+                From: https://www.w3.org/TR/xpath-functions-31/#func-subsequence
+
+                $sourceSeq[fn:round($startingLoc) le position()
+                        and position() lt fn:round($startingLoc) + fn:round($length)]
+             */
+            final double lengthArg = toPosition(getArgument(2).eval(contextSequence, contextItem));
+            toExclusive = startArg + lengthArg;
+        } else {
+            /*
+                From: https://www.w3.org/TR/xpath-functions-31/#func-subsequence
+
+                $sourceSeq[fn:round($startingLoc) le position()]
+             */
+            toExclusive = Double.POSITIVE_INFINITY;
+        }
+
+        // no position is compared true with NaN, which is also the sum of -INF and INF
+        if (Double.isNaN(startArg) || Double.isNaN(toExclusive)) {
+            return null;
+        }
+        return new double[] { startArg, toExclusive };
+    }
+
+    /**
+     * Converts a finite position to an integer, NaN and the infinities are kept as they are.
+     */
+    private static double toPosition(final Sequence arg) throws XPathException {
+        final double position = ((DoubleValue) arg.convertTo(Type.DOUBLE)).getDouble();
+        if (Double.isNaN(position) || Double.isInfinite(position)) {
+            return position;
+        }
+        return ((IntegerValue) arg.convertTo(Type.INTEGER)).getLong();
+    }
+
+    private static long toLong(final double position) {
+        // we can't travel past Long.MAX_VALUE (...at the moment!)
+        return position >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) position;
+    }
 }
@@ -40,6 +40,7 @@ import org.exist.dom.memtree.NodeImpl;
 import org.exist.dom.memtree.ReferenceNode;
 import org.exist.dom.memtree.SAXAdapter;
 import org.exist.dom.persistent.LockedDocument;
+import org.exist.dom.persistent.NodeSet;
 import org.exist.security.PermissionDeniedException;
 import org.exist.source.DBSource;
 import org.exist.source.FileSource;
@@ -380,7 +381,8 @@ public class Eval extends BasicFunction {
                 }
             }
 
-            if(hasSupplements) {
+            // a sorted sequence may be read from temporary files, which the cleanup tasks of the inner query delete
+            if(hasSupplements || !(sequence instanceof NodeSet)) {
                 sequence = newSeq;
             }
 
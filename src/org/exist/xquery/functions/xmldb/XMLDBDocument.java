@@ -90,7 +90,11 @@ public class XMLDBDocument extends BasicFunction {
         try {
 
             // wait for pending updates
-            docLocks = mdocs.lock(context.getBroker(), lockOnLoad);
+            if (lockOnLoad) {
+                docLocks = mdocs.lock(context.getBroker(), true);
+            } else {
+                docLocks = context.awaitPendingUpdates(mdocs);
+            }
 
             final Sequence results = new ExtArrayNodeSet(mdocs.getDocumentCount(), 1);
             for (final Iterator<DocumentImpl> i = mdocs.getDocumentIterator(); i.hasNext(); ) {
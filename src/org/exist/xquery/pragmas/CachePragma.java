@@ -0,0 +1,324 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.pragmas;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.Namespaces;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.source.DBSource;
+import org.exist.source.Source;
+import org.exist.storage.QueryResultCache;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.*;
+import org.exist.xquery.util.ExpressionDumper;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Caches the result of the enclosed expression in the database-wide
+ * {@link QueryResultCache}, so that other queries evaluating the same
+ * expression with the same variable bindings can reuse it:
+ *
+ * <pre>(# exist:cache #) { count(collection('/db/data')//item) }</pre>
+ *
+ * The expression has to be deterministic, i.e. its result may only depend
+ * on the database and on the variables it references. The result is cached under
+ * a key made of the source and text of the expression, the user, the
+ * statically known documents, the context items and the values of the
+ * variables the expression references. If one of them is not an atomic
+ * value or a stored node, the expression is just evaluated.
+ */
+public class CachePragma extends Pragma {
+
+    private final static Logger LOG = LogManager.getLogger(CachePragma.class);
+
+    public final static QName CACHE_PRAGMA = new QName("cache", Namespaces.EXIST_NS, "exist");
+
+    private XQueryContext context = null;
+    private Expression expression = null;
+    private String expressionKey = null;
+    private Set<QName> variableNames = null;
+    private boolean allVariables = false;
+
+    public CachePragma(final QName qname, final String contents) throws XPathException {
+        super(qname, contents);
+    }
+
+    @Override
+    public void before(final XQueryContext context, final Expression expression, final Sequence contextSequence) throws XPathException {
+        this.context = context;
+        if (this.expression != expression) {
+            this.expression = expression;
+            this.expressionKey = null;
+            this.variableNames = null;
+            this.allVariables = false;
+        }
+    }
+
+    @Override
+    public Sequence eval(final Sequence contextSequence, final Item contextItem) throws XPathException {
+        final String key = createKey(contextSequence, contextItem);
+        if (key == null) {
+            return null;
+        }
+
+        final QueryResultCache cache = context.getBroker().getBrokerPool().getQueryResultCache();
+        Sequence result = cache.get(key);
+        if (result != null) {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Using cached result of expression at line " + expression.getLine());
+            }
+            return result;
+        }
+
+        final long stamp = cache.getModificationStamp();
+        result = expression.eval(contextSequence, contextItem);
+        cache.put(key, stamp, result);
+        return result;
+    }
+
+    @Override
+    public void after(final XQueryContext context, final Expression expression) throws XPathException {
+    }
+
+    @Override
+    public void resetState(final boolean postOptimization) {
+        context = null;
+    }
+
+    /**
+     * Creates the key of the result of the expression.
+     *
+     * @return the key, or null if the result can not be cached
+     */
+    private String createKey(final Sequence contextSequence, final Item contextItem) throws XPathException {
+        final int dependencies = expression.getDependencies();
+        if (Dependency.dependsOn(dependencies, Dependency.CONTEXT_POSITION)) {
+            return null;
+        }
+
+        final StringBuilder key = new StringBuilder(getExpressionKey());
+        key.append('\u0000').append(context.getSubject().getName());
+
+        final XmldbURI[] staticDocumentPaths = context.getStaticallyKnownDocumentPaths();
+        if (staticDocumentPaths != null) {
+            for (final XmldbURI path : staticDocumentPaths) {
+                key.append('\u0000').append(path);
+            }
+        }
+
+        if (Dependency.dependsOn(dependencies, Dependency.CONTEXT_SET | Dependency.CONTEXT_ITEM)) {
+            key.append("\u0000.");
+            if (contextItem != null) {
+                if (!appendValue(key, contextItem.toSequence())) {
+                    return null;
+                }
+            } else if (contextSequence != null && !appendValue(key, contextSequence)) {
+                return null;
+            }
+        }
+
+        // sorted, so that the same bindings always give the same key
+        final Map<QName, Variable> variables = new TreeMap<>();
+        if (getVariableNames() == null) {
+            variables.putAll(context.getVariables());
+        } else {
+            for (final QName name : variableNames) {
+                final Variable variable = context.resolveVariable(name);
+                // null if the variable is bound within the expression itself
+                if (variable != null) {
+                    variables.put(name, variable);
+                }
+            }
+        }
+        for (final Variable variable : variables.values()) {
+            key.append("\u0000$").append(variable.getQName().getStringValue());
+            final Sequence value = variable.getValue();
+            if (value != null && !appendValue(key, value)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Not caching the result of expression at line " + expression.getLine() +
+                            ": $" + variable.getQName().getStringValue() + " is bound to an unsupported value");
+                }
+                return null;
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the names of the variables referenced by the expression,
+     * including those referenced by the user-defined functions it calls.
+     *
+     * @return the names, or null if the expression contains expressions
+     *     the names can not be collected from, so all variables in scope
+     *     have to be part of the key
+     */
+    private @Nullable Set<QName> getVariableNames() {
+        if (variableNames == null && !allVariables) {
+            final VariableCollector collector = new VariableCollector();
+            expression.accept(collector);
+            if (collector.complete) {
+                variableNames = collector.names;
+            } else {
+                allVariables = true;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Keying the result of expression at line " + expression.getLine() +
+                            " on all variables in scope: " + collector.unknown.getClass().getName() +
+                            " can not be traversed");
+                }
+            }
+        }
+        return variableNames;
+    }
+
+    private String getExpressionKey() {
+        if (expressionKey == null) {
+            final StringBuilder key = new StringBuilder();
+            final Source source = context.getSource();
+            if (source != null) {
+                key.append(source.type()).append(':').append(source.getKey());
+                if (source instanceof DBSource) {
+                    key.append(':').append(((DBSource) source).getLastModified());
+                }
+            }
+            key.append('\u0000').append(expression.getLine()).append(':').append(expression.getColumn());
+            key.append('\u0000').append(ExpressionDumper.dump(expression));
+            expressionKey = key.toString();
+        }
+        return expressionKey;
+    }
+
+    /**
+     * Collects the names of the variables referenced by an expression.
+     *
+     * Expressions which the visitor can not look into, e.g. inline or
+     * dynamic function calls, mark the names as incomplete.
+     */
+    private static class VariableCollector extends DefaultExpressionVisitor {
+
+        private final Set<QName> names = new TreeSet<>();
+        private final Set<UserDefinedFunction> functions = new HashSet<>();
+        private boolean complete = true;
+        private Expression unknown = null;
+
+        @Override
+        public void visit(final Expression expression) {
+            if (expression instanceof LiteralValue || expression instanceof EmptySequenceExpr
+                    || expression instanceof RootNode) {
+                return;
+            }
+            final int count = expression.getSubExpressionCount();
+            if (count == 0) {
+                complete = false;
+                unknown = expression;
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                expression.getSubExpression(i).accept(this);
+            }
+        }
+
+        @Override
+        public void visitVariableReference(final VariableReference ref) {
+            names.add(ref.getName());
+        }
+
+        @Override
+        public void visitUserFunction(final UserDefinedFunction function) {
+            // recursive functions are visited once
+            if (functions.add(function)) {
+                super.visitUserFunction(function);
+            }
+        }
+
+        @Override
+        public void visitFunctionCall(final FunctionCall call) {
+            if (call.getFunction() == null) {
+                complete = false;
+                unknown = call;
+                return;
+            }
+            super.visitFunctionCall(call);
+        }
+
+        @Override
+        public void visitGeneralComparison(final GeneralComparison comparison) {
+            visitPathExpr(comparison);
+        }
+
+        @Override
+        public void visitAndExpr(final OpAnd and) {
+            visitPathExpr(and);
+        }
+
+        @Override
+        public void visitOrExpr(final OpOr or) {
+            visitPathExpr(or);
+        }
+
+        @Override
+        public void visitCastExpr(final CastExpression expression) {
+            expression.getInnerExpression().accept(this);
+        }
+
+        @Override
+        public void visitFilteredExpr(final FilteredExpression filtered) {
+            filtered.getExpression().accept(this);
+            for (final Predicate predicate : filtered.getPredicates()) {
+                predicate.accept(this);
+            }
+        }
+    }
+
+    /**
+     * Appends the items of the given value to the key.
+     *
+     * @return false if the value contains items other than atomic values and stored nodes
+     */
+    private static boolean appendValue(final StringBuilder key, final Sequence value) throws XPathException {
+        key.append('(');
+        for (final SequenceIterator i = value.iterate(); i.hasNext(); ) {
+            final Item item = i.nextItem();
+            if (item instanceof NodeProxy) {
+                final NodeProxy node = (NodeProxy) item;
+                key.append("node ").append(node.getOwnerDocument().getDocId()).append('/').append(node.getNodeId());
+            } else if (item instanceof AtomicValue) {
+                key.append(Type.getTypeName(item.getType())).append(' ').append(item.getStringValue());
+            } else {
+                return false;
+            }
+            key.append('\u0000');
+        }
+        key.append(')');
+        return true;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery.value;
+
+import com.ibm.icu.text.Collator;
+import org.exist.util.io.FastByteArrayOutputStream;
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.Constants.StringTruncationOperator;
+import org.exist.xquery.ErrorCodes;
+import org.exist.xquery.ValueComparison;
+import org.exist.xquery.XPathException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Wraps an atomic value to be used as a key in hash based collections,
+ * e.g. to eliminate duplicate values or to group values.
+ *
+ * Two keys are equal if their values are equal according to the "eq"
+ * operator, with the exceptions required by fn:distinct-values and the
+ * "group by" clause: NaN is equal to NaN, the empty sequence is equal to
+ * the empty sequence, and values which cannot be compared are not equal.
+ * Untyped values are compared as strings.
+ *
+ * Integers within the range of a long, doubles and booleans are compared
+ * by their primitive values. Strings are compared by their collation keys,
+ * which are computed once per value, so no collator calls are needed to
+ * compare them. Binary values are compared by their octets. Values of other types are compared with
+ * {@link ValueComparison#compareAtomic(Collator, AtomicValue, AtomicValue, StringTruncationOperator, Comparison)}.
+ */
+public final class AtomicValueKey {
+
+    private static final int EMPTY = 0;
+    private static final int NAN = 1;
+    private static final int INTEGER = 2;
+    private static final int DOUBLE = 3;
+    private static final int NUMBER = 4;
+    private static final int STRING = 5;
+    private static final int BOOLEAN = 6;
+    private static final int BINARY = 7;
+    private static final int OTHER = 8;
+
+    private final AtomicValue value;
+    @Nullable private final Collator collator;
+    private final int kind;
+
+    // the long, the bits of the double or the boolean value
+    private final long bits;
+
+    // the string, its collation key or the octets of a binary value
+    @Nullable private final Object key;
+
+    private final int hashCode;
+
+    private AtomicValueKey(final AtomicValue value, @Nullable final Collator collator, final int kind,
+            final long bits, @Nullable final Object key, final int hashCode) {
+        this.value = value;
+        this.collator = collator;
+        this.kind = kind;
+        this.bits = bits;
+        this.key = key;
+        this.hashCode = hashCode;
+    }
+
+    /**
+     * Creates the key of an atomic value.
+     *
+     * @param value the value, or {@link AtomicValue#EMPTY_VALUE}
+     * @param collator the collator to compare strings, or null for codepoint comparison
+     * @return the key
+     * @throws XPathException if the value cannot be converted
+     */
+    public static AtomicValueKey of(final AtomicValue value, @Nullable final Collator collator) throws XPathException {
+        if (value.isEmpty()) {
+            return new AtomicValueKey(value, collator, EMPTY, 0, null, 0);
+        }
+
+        final int type = value.getType();
+        if (Type.subTypeOf(type, Type.NUMBER)) {
+            final NumericValue number = (NumericValue) value;
+            if (number.isNaN()) {
+                return new AtomicValueKey(value, collator, NAN, 0, null, 1);
+            }
+            // values which are only equal after promotion to xs:float have to hash alike
+            final double d = number.getDouble();
+            final int hash = Float.hashCode(d == 0 ? 0f : (float) d);
+            if (number instanceof IntegerValue && ((IntegerValue) number).isLong()) {
+                return new AtomicValueKey(value, collator, INTEGER, number.getLong(), null, hash);
+            } else if (type == Type.DOUBLE) {
+                return new AtomicValueKey(value, collator, DOUBLE, Double.doubleToLongBits(d == 0 ? 0d : d), null, hash);
+            }
+            return new AtomicValueKey(value, collator, NUMBER, 0, null, hash);
+        }
+
+        if (Type.subTypeOf(type, Type.STRING) || type == Type.UNTYPED_ATOMIC || type == Type.ANY_URI) {
+            final String s = value.getStringValue();
+            if (collator == null) {
+                return new AtomicValueKey(value, null, STRING, 0, s, s.hashCode());
+            }
+            final byte[] collationKey;
+            try {
+                collationKey = collator.getCollationKey(s).toByteArray();
+            } catch (final UnsupportedOperationException e) {
+                throw new XPathException(ErrorCodes.FOCH0004, e.getMessage());
+            }
+            return new AtomicValueKey(value, collator, STRING, 0, collationKey, Arrays.hashCode(collationKey));
+        }
+
+        if (type == Type.BOOLEAN) {
+            final boolean b = ((BooleanValue) value).getValue();
+            return new AtomicValueKey(value, collator, BOOLEAN, b ? 1 : 0, null, Boolean.hashCode(b));
+        }
+
+        if (value instanceof BinaryValue) {
+            // xs:hexBinary and xs:base64Binary values with the same octets are equal
+            final byte[] octets;
+            try (final FastByteArrayOutputStream os = new FastByteArrayOutputStream()) {
+                ((BinaryValue) value).streamBinaryTo(os);
+                octets = os.toByteArray();
+            } catch (final IOException e) {
+                throw new XPathException(ErrorCodes.FORG0001, "Unable to read binary value: " + e.getMessage(), e);
+            }
+            return new AtomicValueKey(value, collator, BINARY, 0, octets, Arrays.hashCode(octets));
+        }
+
+        final int hash;
+        if (value instanceof AbstractDateTimeValue) {
+            // the comparison of date/time values takes the implicit timezone into account
+            hash = 31 * type + Long.hashCode(((AbstractDateTimeValue) value).getTimeInMillis());
+        } else if (value instanceof DurationValue) {
+            // durations of different subtypes can be equal, e.g. PT0S and P0M
+            final DurationValue duration = (DurationValue) value;
+            final BigDecimal seconds = duration.secondsValueSigned();
+            hash = 31 * duration.monthsValueSigned().hashCode()
+                    + (seconds.signum() == 0 ? 0 : seconds.stripTrailingZeros().hashCode());
+        } else if (value instanceof QNameValue) {
+            // the prefix is not compared
+            hash = ((QNameValue) value).getQName().hashCode();
+        } else {
+            hash = 31 * type + value.getStringValue().hashCode();
+        }
+        return new AtomicValueKey(value, collator, OTHER, 0, null, hash);
+    }
+
+    /**
+     * @return the value of the key
+     */
+    public AtomicValue getValue() {
+        return value;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof AtomicValueKey)) {
+            return false;
+        }
+        final AtomicValueKey other = (AtomicValueKey) obj;
+        if (hashCode != other.hashCode) {
+            return false;
+        }
+
+        if (kind == other.kind) {
+            switch (kind) {
+                case EMPTY:
+                case NAN:
+                    return true;
+                case INTEGER:
+                case DOUBLE:
+                case BOOLEAN:
+                    return bits == other.bits;
+                case STRING:
+                    return collator == null ? key.equals(other.key) : Arrays.equals((byte[]) key, (byte[]) other.key);
+                case BINARY:
+                    return Arrays.equals((byte[]) key, (byte[]) other.key);
+                default:
+                    return compare(other);
+            }
+        }
+        // numbers of different types
+        return isNumber() && other.isNumber() && compare(other);
+    }
+
+    private boolean isNumber() {
+        return kind == INTEGER || kind == DOUBLE || kind == NUMBER;
+    }
+
+    private boolean compare(final AtomicValueKey other) {
+        try {
+            return ValueComparison.compareAtomic(collator, value, other.value, StringTruncationOperator.NONE,
+                    Comparison.EQ);
+        } catch (final XPathException e) {
+            // values which cannot be compared are distinct
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return value.toString();
+    }
+}
@@ -0,0 +1,632 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery.value;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.numbering.NodeId;
+import org.exist.util.io.TemporaryFileManager;
+import org.exist.xquery.ErrorCodes;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Sorts more records than should be kept in memory, by writing sorted runs
+ * of records to temporary files, which are merged into a single file of
+ * sorted items when all records have been added.
+ *
+ * A record holds an item and its sort keys. Records are written by a
+ * {@link RecordCodec}, which uses {@link #writeItem(Item, DataOutput)} and
+ * {@link #writeValue(AtomicValue, DataOutput)} to write the item and its keys.
+ * Persistent nodes are written as their document id and node id, most atomic
+ * values in a binary form. All other items, e.g. in-memory nodes or function
+ * items, and nodes which carry matches or context information, cannot be
+ * written. Records holding such items are not written to files, instead the
+ * sort keeps them in memory, see {@link #spill(Object[], int)}.
+ *
+ * The order of records which are equal according to the comparator is kept,
+ * as runs are written in the order in which the records were added.
+ *
+ * The files of the runs are deleted when they have been merged. The file of
+ * the sorted items is deleted, and any readers of it are closed, when the
+ * cleanup tasks of the query are run, unless they are run with a
+ * {@link SpilledSequences} predicate, which keeps the files until the result
+ * of the query has been consumed.
+ *
+ * @param <E> the type of the records
+ */
+public class ExternalSort<E> implements XQueryContext.CleanupTask {
+
+    private static final Logger LOG = LogManager.getLogger(ExternalSort.class);
+
+    private static final byte NODE = 0;
+    private static final byte DOCUMENT = 1;
+    private static final byte EMPTY = 2;
+    private static final byte STRING = 3;
+    private static final byte INTEGER = 4;
+    private static final byte DECIMAL = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte FLOAT = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte LEXICAL = 9;
+
+    // the tag of an atomic value which cannot be written
+    private static final byte NONE = -1;
+
+    /**
+     * Writes and reads the records of a sort.
+     *
+     * @param <E> the type of the records
+     */
+    public interface RecordCodec<E> {
+
+        /**
+         * @param record the record
+         * @return the item of the record, which is the item in the sorted sequence
+         */
+        Item getItem(E record);
+
+        /**
+         * @param sort the sort
+         * @param record the record
+         * @return true if the item and the sort keys of the record can be written
+         */
+        boolean canWrite(ExternalSort<E> sort, E record);
+
+        void write(ExternalSort<E> sort, E record, DataOutput os) throws IOException;
+
+        E read(ExternalSort<E> sort, DataInput is) throws IOException;
+    }
+
+    private final XQueryContext context;
+    private final Comparator<? super E> comparator;
+    private final RecordCodec<E> codec;
+
+    private final List<Run> runs = new ArrayList<>();
+
+    // the documents of the nodes written to the files
+    private final Map<Integer, DocumentImpl> documents = new HashMap<>();
+
+    // the sequences reading the files of sorted items
+    private final List<SpilledSequence> sequences = new ArrayList<>();
+
+    public ExternalSort(final XQueryContext context, final Comparator<? super E> comparator, final RecordCodec<E> codec) {
+        this.context = context;
+        this.comparator = comparator;
+        this.codec = codec;
+    }
+
+    /**
+     * Sorts the first records of an array and writes them to a temporary file.
+     *
+     * If any of the records cannot be written, nothing is written and the
+     * caller has to keep the records in memory. Records which are added later
+     * should then be kept in memory too, as the records in memory are merged
+     * in memory if any of them cannot be written.
+     *
+     * @param records the records, which are sorted in place if they are written
+     * @param length the number of records to write
+     * @return true if the records have been written, false if they have to be kept in memory
+     * @throws XPathException if the records cannot be written
+     */
+    public boolean spill(final E[] records, final int length) throws XPathException {
+        if (!canWrite(records, length)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Keeping " + length + " items in memory, as some of them cannot be written to a file");
+            }
+            return false;
+        }
+        Arrays.sort(records, 0, length, comparator);
+        if (runs.isEmpty()) {
+            context.registerCleanupTask(this);
+        }
+        final Path file = createFile();
+        runs.add(new Run(file, length));
+        try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            for (int i = 0; i < length; i++) {
+                codec.write(this, records[i], os);
+            }
+        } catch (final IOException e) {
+            throw new XPathException(ErrorCodes.ERROR, "Failed to write sorted items to " + file.toAbsolutePath() + ": " + e.getMessage(), e);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Wrote " + length + " sorted items to " + file.toAbsolutePath());
+        }
+        return true;
+    }
+
+    private boolean canWrite(final E[] records, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (!codec.canWrite(this, records[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if records have been written to temporary files
+     */
+    public boolean hasSpilled() {
+        return !runs.isEmpty();
+    }
+
+    /**
+     * Merges the records written so far with the remaining records, which
+     * were added last, into a sequence of sorted items.
+     *
+     * The sorted items are written to a temporary file, which is read by the
+     * returned sequence, unless no records have been written so far or some
+     * of the remaining records cannot be written. The items are then merged
+     * into a sequence in memory.
+     *
+     * @param records the remaining records, which are sorted in place
+     * @param length the number of remaining records
+     * @return the sorted items
+     * @throws XPathException if the records cannot be merged
+     */
+    public Sequence merge(final E[] records, final int length) throws XPathException {
+        Arrays.sort(records, 0, length, comparator);
+        if (runs.isEmpty()) {
+            final ValueSequence sequence = new ValueSequence(length);
+            sequence.keepUnOrdered(true);
+            for (int i = 0; i < length; i++) {
+                sequence.add(codec.getItem(records[i]));
+            }
+            return sequence;
+        }
+        final boolean inMemory = !canWrite(records, length);
+
+        final List<RecordSource> sources = new ArrayList<>(runs.size() + 1);
+        final PriorityQueue<RecordSource> queue = new PriorityQueue<>(runs.size() + 1, (source1, source2) -> {
+            final int cmp = comparator.compare(source1.current, source2.current);
+            // records of earlier runs were added first
+            return cmp != 0 ? cmp : Integer.compare(source1.index, source2.index);
+        });
+
+        final Path file = inMemory ? null : createFile();
+        int itemType = Type.ANY_TYPE;
+        long count = 0;
+        boolean merged = false;
+        try {
+            for (final Run run : runs) {
+                sources.add(new RunSource(sources.size(), run));
+            }
+            sources.add(new ArraySource(sources.size(), records, length));
+            for (final RecordSource source : sources) {
+                if (source.next()) {
+                    queue.add(source);
+                }
+            }
+
+            if (inMemory) {
+                final ValueSequence sequence = new ValueSequence();
+                sequence.keepUnOrdered(true);
+                while (!queue.isEmpty()) {
+                    final RecordSource source = queue.poll();
+                    sequence.add(codec.getItem(source.current));
+                    if (source.next()) {
+                        queue.add(source);
+                    }
+                }
+                return sequence;
+            }
+
+            try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                while (!queue.isEmpty()) {
+                    final RecordSource source = queue.poll();
+                    final Item item = codec.getItem(source.current);
+                    writeItem(item, os);
+                    itemType = itemType == Type.ANY_TYPE ? item.getType() : Type.getCommonSuperType(item.getType(), itemType);
+                    count++;
+                    if (source.next()) {
+                        queue.add(source);
+                    }
+                }
+            }
+            merged = true;
+        } catch (final IOException e) {
+            throw new XPathException(ErrorCodes.ERROR, "Failed to merge sorted items" + (inMemory ? "" : " into " + file.toAbsolutePath()) +
+                    ": " + e.getMessage(), e);
+        } finally {
+            for (final RecordSource source : sources) {
+                source.close();
+            }
+            deleteRuns();
+            if (file != null && !merged) {
+                TemporaryFileManager.getInstance().returnTemporaryFile(file);
+            }
+        }
+        final SpilledSequence sequence = new SpilledSequence(this, file, count, itemType);
+        sequences.add(sequence);
+        return sequence;
+    }
+
+    private static Path createFile() throws XPathException {
+        try {
+            return TemporaryFileManager.getInstance().getTemporaryFile();
+        } catch (final IOException e) {
+            throw new XPathException(ErrorCodes.ERROR, "Failed to create a temporary file for sorting: " + e.getMessage(), e);
+        }
+    }
+
+    private void deleteRuns() {
+        for (final Run run : runs) {
+            TemporaryFileManager.getInstance().returnTemporaryFile(run.file);
+        }
+        runs.clear();
+    }
+
+    /**
+     * Deletes the runs of a sort which was not completed, and closes the
+     * sequences of sorted items accepted by the predicate. Sequences which
+     * are not accepted have to be closed by the caller.
+     */
+    @Override
+    public void cleanup(final XQueryContext context, final Predicate<Object> predicate) {
+        deleteRuns();
+        for (final SpilledSequence sequence : sequences) {
+            if (predicate.test(sequence)) {
+                sequence.close();
+            }
+        }
+        sequences.clear();
+    }
+
+    /**
+     * @param item the item
+     * @return true if the item can be written by {@link #writeItem(Item, DataOutput)}
+     */
+    public boolean canWrite(final Item item) {
+        if (item instanceof NodeProxy) {
+            final NodeProxy node = (NodeProxy) item;
+            return node.getMatches() == null && node.getContext() == null;
+        }
+        return item instanceof AtomicValue && tagOf((AtomicValue) item) != NONE;
+    }
+
+    /**
+     * @param value the value, or {@link AtomicValue#EMPTY_VALUE}
+     * @return true if the value can be written by {@link #writeValue(AtomicValue, DataOutput)}
+     */
+    public boolean canWriteValue(final AtomicValue value) {
+        return value == AtomicValue.EMPTY_VALUE || tagOf(value) != NONE;
+    }
+
+    /**
+     * Writes an item.
+     *
+     * @param item the item
+     * @param os the output to write to
+     * @throws IOException if the item cannot be written
+     */
+    public void writeItem(final Item item, final DataOutput os) throws IOException {
+        if (item instanceof NodeProxy) {
+            final NodeProxy node = (NodeProxy) item;
+            if (node.getMatches() == null && node.getContext() == null) {
+                final DocumentImpl doc = node.getOwnerDocument();
+                documents.putIfAbsent(doc.getDocId(), doc);
+                final NodeId nodeId = node.getNodeId();
+                if (NodeId.DOCUMENT_NODE.equals(nodeId)) {
+                    os.writeByte(DOCUMENT);
+                    os.writeInt(doc.getDocId());
+                } else {
+                    os.writeByte(NODE);
+                    os.writeInt(doc.getDocId());
+                    os.writeShort(node.getNodeType());
+                    os.writeLong(node.getInternalAddress());
+                    final byte[] data = new byte[nodeId.size()];
+                    nodeId.serialize(data, 0);
+                    os.writeInt(nodeId.units());
+                    os.writeInt(data.length);
+                    os.write(data);
+                }
+                return;
+            }
+        } else if (item instanceof AtomicValue && writeAtomicValue((AtomicValue) item, os)) {
+            return;
+        }
+        throw new IOException("Cannot write an item of type " + Type.getTypeName(item.getType()) + " to a sort file");
+    }
+
+    /**
+     * Reads an item written by {@link #writeItem(Item, DataOutput)}.
+     *
+     * @param is the input to read from
+     * @return the item
+     * @throws IOException if the item cannot be read
+     */
+    public Item readItem(final DataInput is) throws IOException {
+        final byte tag = is.readByte();
+        switch (tag) {
+            case DOCUMENT:
+                return new NodeProxy(document(is.readInt()));
+            case NODE:
+                final DocumentImpl doc = document(is.readInt());
+                final short nodeType = is.readShort();
+                final long address = is.readLong();
+                final int units = is.readInt();
+                final byte[] data = new byte[is.readInt()];
+                is.readFully(data);
+                final NodeId nodeId = doc.getBrokerPool().getNodeFactory().createFromData(units, data, 0);
+                return new NodeProxy(doc, nodeId, nodeType, address);
+            default:
+                return readValue(tag, is);
+        }
+    }
+
+    /**
+     * Writes an atomic value or the empty value.
+     *
+     * @param value the value, or {@link AtomicValue#EMPTY_VALUE}
+     * @param os the output to write to
+     * @throws IOException if the value cannot be written
+     */
+    public void writeValue(final AtomicValue value, final DataOutput os) throws IOException {
+        if (value == AtomicValue.EMPTY_VALUE) {
+            os.writeByte(EMPTY);
+        } else if (!writeAtomicValue(value, os)) {
+            throw new IOException("Cannot write a value of type " + Type.getTypeName(value.getType()) + " to a sort file");
+        }
+    }
+
+    /**
+     * Reads a value written by {@link #writeValue(AtomicValue, DataOutput)}.
+     *
+     * @param is the input to read from
+     * @return the value
+     * @throws IOException if the value cannot be read
+     */
+    public AtomicValue readValue(final DataInput is) throws IOException {
+        final Item item = readValue(is.readByte(), is);
+        if (!(item instanceof AtomicValue)) {
+            throw new IOException("Expected an atomic value, found: " + Type.getTypeName(item.getType()));
+        }
+        return (AtomicValue) item;
+    }
+
+    private static byte tagOf(final AtomicValue value) {
+        final Class<?> valueClass = value.getClass();
+        if (valueClass == StringValue.class || valueClass == UntypedAtomicValue.class || valueClass == AnyURIValue.class) {
+            return STRING;
+        } else if (valueClass == IntegerValue.class) {
+            return INTEGER;
+        } else if (valueClass == DecimalValue.class) {
+            return DECIMAL;
+        } else if (valueClass == DoubleValue.class) {
+            return DOUBLE;
+        } else if (valueClass == FloatValue.class) {
+            return FLOAT;
+        } else if (valueClass == BooleanValue.class) {
+            return BOOLEAN;
+        } else if (value instanceof AbstractDateTimeValue || value instanceof DurationValue) {
+            // date, time and duration values keep their timezone and type in their lexical form
+            return LEXICAL;
+        }
+        return NONE;
+    }
+
+    private boolean writeAtomicValue(final AtomicValue value, final DataOutput os) throws IOException {
+        final byte tag = tagOf(value);
+        if (tag == NONE) {
+            return false;
+        }
+        final int type = value.getType();
+        try {
+            os.writeByte(tag);
+            switch (tag) {
+                case STRING:
+                case LEXICAL:
+                    os.writeInt(type);
+                    writeString(value.getStringValue(), os);
+                    break;
+                case INTEGER:
+                    os.writeInt(type);
+                    writeBytes(value.toJavaObject(BigInteger.class).toByteArray(), os);
+                    break;
+                case DECIMAL:
+                    final BigDecimal decimal = ((DecimalValue) value).getValue();
+                    os.writeInt(decimal.scale());
+                    writeBytes(decimal.unscaledValue().toByteArray(), os);
+                    break;
+                case DOUBLE:
+                    os.writeDouble(((DoubleValue) value).getValue());
+                    break;
+                case FLOAT:
+                    os.writeFloat(((FloatValue) value).getValue());
+                    break;
+                case BOOLEAN:
+                    os.writeBoolean(((BooleanValue) value).getValue());
+                    break;
+            }
+        } catch (final XPathException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return true;
+    }
+
+    private Item readValue(final byte tag, final DataInput is) throws IOException {
+        try {
+            switch (tag) {
+                case EMPTY:
+                    return AtomicValue.EMPTY_VALUE;
+                case STRING:
+                    final int stringType = is.readInt();
+                    final String s = readString(is);
+                    switch (stringType) {
+                        case Type.UNTYPED_ATOMIC:
+                            return new UntypedAtomicValue(s);
+                        case Type.ANY_URI:
+                            return new AnyURIValue(s);
+                        case Type.STRING:
+                            return new StringValue(s);
+                        default:
+                            return new StringValue(s, stringType, false);
+                    }
+                case INTEGER:
+                    final int integerType = is.readInt();
+                    return new IntegerValue(new BigInteger(readBytes(is)), integerType);
+                case DECIMAL:
+                    final int scale = is.readInt();
+                    return new DecimalValue(new BigDecimal(new BigInteger(readBytes(is)), scale));
+                case DOUBLE:
+                    return new DoubleValue(is.readDouble());
+                case FLOAT:
+                    return new FloatValue(is.readFloat());
+                case BOOLEAN:
+                    return BooleanValue.valueOf(is.readBoolean());
+                case LEXICAL:
+                    final int type = is.readInt();
+                    return new StringValue(readString(is)).convertTo(type);
+                default:
+                    throw new IOException("Unknown item in sort file: " + tag);
+            }
+        } catch (final XPathException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private DocumentImpl document(final int docId) throws IOException {
+        final DocumentImpl doc = documents.get(docId);
+        if (doc == null) {
+            throw new IOException("Unknown document in sort file: " + docId);
+        }
+        return doc;
+    }
+
+    private static void writeString(final String s, final DataOutput os) throws IOException {
+        writeBytes(s.getBytes(StandardCharsets.UTF_8), os);
+    }
+
+    private static String readString(final DataInput is) throws IOException {
+        return new String(readBytes(is), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(final byte[] data, final DataOutput os) throws IOException {
+        os.writeInt(data.length);
+        os.write(data);
+    }
+
+    private static byte[] readBytes(final DataInput is) throws IOException {
+        final byte[] data = new byte[is.readInt()];
+        is.readFully(data);
+        return data;
+    }
+
+    private static class Run {
+        final Path file;
+        final int length;
+
+        Run(final Path file, final int length) {
+            this.file = file;
+            this.length = length;
+        }
+    }
+
+    private abstract class RecordSource {
+        final int index;
+        E current;
+
+        RecordSource(final int index) {
+            this.index = index;
+        }
+
+        abstract boolean next() throws IOException;
+
+        void close() {
+        }
+    }
+
+    private class ArraySource extends RecordSource {
+        private final E[] records;
+        private final int length;
+        private int pos = 0;
+
+        ArraySource(final int index, final E[] records, final int length) {
+            super(index);
+            this.records = records;
+            this.length = length;
+        }
+
+        @Override
+        boolean next() {
+            if (pos < length) {
+                current = records[pos++];
+                return true;
+            }
+            current = null;
+            return false;
+        }
+    }
+
+    private class RunSource extends RecordSource {
+        private final DataInputStream is;
+        private int remaining;
+
+        RunSource(final int index, final Run run) throws IOException {
+            super(index);
+            this.is = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file)));
+            this.remaining = run.length;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (remaining > 0) {
+                remaining--;
+                current = codec.read(ExternalSort.this, is);
+                return true;
+            }
+            current = null;
+            return false;
+        }
+
+        @Override
+        void close() {
+            try {
+                is.close();
+            } catch (final IOException e) {
+                LOG.warn("Failed to close sort file: " + e.getMessage(), e);
+            }
+        }
+    }
+}
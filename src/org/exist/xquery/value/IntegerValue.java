@@ -312,6 +312,14 @@ public class IntegerValue extends NumericValue {
         return value.longValue();
     }
 
+    /**
+     * @return true if the value is within the range of a long,
+     *     i.e. {@link #getLong()} returns the exact value
+     */
+    public boolean isLong() {
+        return value.bitLength() < Long.SIZE;
+    }
+
     @Override
     public double getDouble() {
         return value.doubleValue();
@@ -30,11 +30,19 @@ import org.exist.numbering.NodeId;
 import org.exist.xquery.Constants;
 import org.exist.xquery.OrderSpec;
 import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
 import org.exist.xquery.util.ExpressionDumper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.stream.Stream;
 
 /**
@@ -44,6 +52,15 @@ import java.util.stream.Stream;
  * Contrary to class {@link org.exist.xquery.value.PreorderedValueSequence},
  * all order expressions are evaluated once for each item in the sequence
  * <b>while</b> items are added.
+ * <p>
+ * If only the first items in sort order will be used, a limit can be given.
+ * The sequence then only keeps the items which are among the first items
+ * so far in a bounded heap, and only these items are sorted.
+ * <p>
+ * Otherwise, if a query context is given, the items are written to
+ * temporary files by an {@link ExternalSort} whenever the number of items
+ * in memory reaches the sort spill threshold of the context, unless some
+ * of the items or their sort keys cannot be written.
  *
  * @author wolf
  */
@@ -54,27 +71,82 @@ public class OrderedValueSequence extends AbstractSequence {
     private int count = 0;
     private int state = 0;
 
+    // the number of items added, which determines the order of items with equal keys
+    private int added = 0;
+
+    // the maximum number of items to keep, and the heap of the items kept, with the last item on top
+    private final int limit;
+    private PriorityQueue<Entry> heap = null;
+
     // used to keep track of the type of added items.
     private int itemType = Type.ANY_TYPE;
 
+    // the number of items kept in memory before they are written to temporary files, or 0
+    private int spillThreshold;
+    private final XQueryContext context;
+    private ExternalSort<Entry> externalSort = null;
+    private int spilledCount = 0;
+
+    // the sorted items, if items have been written to temporary files
+    private Sequence spilled = null;
+
     public OrderedValueSequence(final OrderSpec orderSpecs[], final int size) {
+        this(orderSpecs, size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param orderSpecs the order specs
+     * @param size the initial capacity
+     * @param limit the maximum number of items to keep after sorting,
+     *     or {@link Integer#MAX_VALUE} to keep all items
+     */
+    public OrderedValueSequence(final OrderSpec orderSpecs[], final int size, final int limit) {
+        this(null, orderSpecs, size, limit);
+    }
+
+    /**
+     * @param context the query context, which determines when items are written
+     *     to temporary files, or null to keep all items in memory
+     * @param orderSpecs the order specs
+     * @param size the initial capacity
+     * @param limit the maximum number of items to keep after sorting,
+     *     or {@link Integer#MAX_VALUE} to keep all items
+     */
+    public OrderedValueSequence(final XQueryContext context, final OrderSpec orderSpecs[], final int size, final int limit) {
         this.orderSpecs = orderSpecs;
-        this.items = new Entry[size == 0 ? 1 : size];
+        this.limit = limit;
+        this.context = context;
+        this.spillThreshold = context != null && limit == Integer.MAX_VALUE ? Math.max(0, context.getSortSpillThreshold()) : 0;
+        if (limit < Integer.MAX_VALUE) {
+            this.items = new Entry[0];
+            this.heap = new PriorityQueue<>(Math.max(1, Math.min(size, limit)), Collections.reverseOrder());
+        } else {
+            this.items = new Entry[size == 0 ? 1 : size];
+        }
     }
 
     @Override
-    public SequenceIterator iterate() {
+    public SequenceIterator iterate() throws XPathException {
+        if (spilled != null) {
+            return spilled.iterate();
+        }
         return new OrderedValueSequenceIterator();
     }
 
     @Override
-    public SequenceIterator unorderedIterator() {
+    public SequenceIterator unorderedIterator() throws XPathException {
+        if (spilled != null) {
+            return spilled.unorderedIterator();
+        }
         return new OrderedValueSequenceIterator();
     }
 
     @Override
     public long getItemCountLong() {
-        return (items == null) ? 0 : count;
+        if (spilled != null) {
+            return spilled.getItemCountLong();
+        }
+        return (items == null) ? spilledCount : spilledCount + count;
     }
 
     @Override
@@ -96,14 +168,32 @@ public class OrderedValueSequence extends AbstractSequence {
             hasOne = true;
         }
         isEmpty = false;
-        if (count == 0 && items.length == 1) {
-            items = new Entry[2];
-        } else if (count == items.length) {
-            final Entry newItems[] = new Entry[count * 2];
-            System.arraycopy(items, 0, newItems, 0, count);
-            items = newItems;
-        }
-        items[count] = new Entry(item, count++);
+        final Entry entry = new Entry(item, added++);
+        if (heap != null) {
+            // keep the entry only if it is among the first entries so far
+            if (heap.size() < limit) {
+                heap.add(entry);
+            } else if (entry.compareTo(heap.peek()) < 0) {
+                heap.poll();
+                heap.add(entry);
+            } else {
+                return;
+            }
+            count = heap.size();
+            hasOne = count == 1;
+        } else {
+            if (spillThreshold > 0 && count == spillThreshold) {
+                spill();
+            }
+            if (count == 0 && items.length == 1) {
+                items = new Entry[2];
+            } else if (count == items.length) {
+                final Entry newItems[] = new Entry[count * 2];
+                System.arraycopy(items, 0, newItems, 0, count);
+                items = newItems;
+            }
+            items[count++] = entry;
+        }
         checkItemType(item.getType());
         setHasChanged();
     }
@@ -122,7 +212,34 @@ public class OrderedValueSequence extends AbstractSequence {
         }
     }
 
-    public void sort() {
+    private void spill() throws XPathException {
+        if (externalSort == null) {
+            externalSort = new ExternalSort<>(context, Comparator.naturalOrder(), new EntryCodec());
+        }
+        if (!externalSort.spill(items, count)) {
+            // keep all further items in memory
+            spillThreshold = 0;
+            return;
+        }
+        Arrays.fill(items, 0, count, null);
+        spilledCount += count;
+        count = 0;
+    }
+
+    public void sort() throws XPathException {
+        if (externalSort != null && externalSort.hasSpilled()) {
+            // merge the items in memory with the items written to temporary files
+            spilled = externalSort.merge(items, count);
+            externalSort = null;
+            items = null;
+            count = 0;
+            spilledCount = 0;
+            return;
+        }
+        if (heap != null) {
+            items = heap.toArray(new Entry[heap.size()]);
+            heap = null;
+        }
 //		FastQSort.sort(items, 0, count - 1);
         items =
                 Stream.of(items).filter(Objects::nonNull)
@@ -137,6 +254,9 @@ public class OrderedValueSequence extends AbstractSequence {
 
     @Override
     public Item itemAt(final int pos) {
+        if (spilled != null) {
+            return spilled.itemAt(pos);
+        }
         if (items != null && pos > -1 && pos < count) {
             return items[pos].item;
         } else {
@@ -161,6 +281,9 @@ public class OrderedValueSequence extends AbstractSequence {
 
     @Override
     public NodeSet toNodeSet() throws XPathException {
+        if (spilled != null) {
+            return spilled.toNodeSet();
+        }
         //return early
         if (isEmpty()) {
             return NodeSet.EMPTY_SET;
@@ -233,6 +356,9 @@ public class OrderedValueSequence extends AbstractSequence {
 
     @Override
     public boolean isPersistentSet() {
+        if (spilled != null) {
+            return spilled.isPersistentSet();
+        }
         if (count == 0) {
             return true;
         }
@@ -250,6 +376,9 @@ public class OrderedValueSequence extends AbstractSequence {
 
     @Override
     public MemoryNodeSet toMemNodeSet() throws XPathException {
+        if (spilled != null) {
+            return spilled.toMemNodeSet();
+        }
         if (count == 0) {
             return MemoryNodeSet.EMPTY;
         }
@@ -268,6 +397,9 @@ public class OrderedValueSequence extends AbstractSequence {
 
     @Override
     public String toString() {
+        if (spilled != null) {
+            return spilled.toString();
+        }
         final StringBuilder builder = new StringBuilder();
         for (int i = 0; i < count; i++) {
             builder.append(items[i].toString());
@@ -326,6 +458,12 @@ public class OrderedValueSequence extends AbstractSequence {
             }
         }
 
+        private Entry(final Item item, final AtomicValue[] values, final int position) {
+            this.item = item;
+            this.values = values;
+            this.pos = position;
+        }
+
         @Override
         public int compareTo(final Entry other) {
             int cmp = 0;
@@ -336,10 +474,10 @@ public class OrderedValueSequence extends AbstractSequence {
                     final boolean aIsEmpty = (a.isEmpty() || (Type.subTypeOf(a.getType(), Type.NUMBER) && ((NumericValue) a).isNaN()));
                     final boolean bIsEmpty = (b.isEmpty() || (Type.subTypeOf(b.getType(), Type.NUMBER) && ((NumericValue) b).isNaN()));
                     if (aIsEmpty) {
-                        if (bIsEmpty)
-                        // both values are empty
-                        {
-                            return Constants.EQUAL;
+                        if (bIsEmpty) {
+                            // both values are empty: the next key or the position decides
+                            cmp = Constants.EQUAL;
+                            continue;
                         } else if ((orderSpecs[i].getModifiers() & OrderSpec.EMPTY_LEAST) != 0) {
                             cmp = Constants.INFERIOR;
                         } else {
@@ -403,6 +541,47 @@ public class OrderedValueSequence extends AbstractSequence {
         }
     }
 
+    private class EntryCodec implements ExternalSort.RecordCodec<Entry> {
+
+        @Override
+        public Item getItem(final Entry entry) {
+            return entry.item;
+        }
+
+        @Override
+        public boolean canWrite(final ExternalSort<Entry> sort, final Entry entry) {
+            if (!sort.canWrite(entry.item)) {
+                return false;
+            }
+            for (final AtomicValue value : entry.values) {
+                if (!sort.canWriteValue(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void write(final ExternalSort<Entry> sort, final Entry entry, final DataOutput os) throws IOException {
+            sort.writeItem(entry.item, os);
+            os.writeInt(entry.pos);
+            for (final AtomicValue value : entry.values) {
+                sort.writeValue(value, os);
+            }
+        }
+
+        @Override
+        public Entry read(final ExternalSort<Entry> sort, final DataInput is) throws IOException {
+            final Item item = sort.readItem(is);
+            final int pos = is.readInt();
+            final AtomicValue[] values = new AtomicValue[orderSpecs.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = sort.readValue(is);
+            }
+            return new Entry(item, values, pos);
+        }
+    }
+
     private class OrderedValueSequenceIterator implements SequenceIterator {
         private int pos = 0;
 
@@ -0,0 +1,255 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery.value;
+
+import org.exist.dom.persistent.NodeSet;
+import org.exist.util.io.TemporaryFileManager;
+import org.exist.xquery.ErrorCodes;
+import org.exist.xquery.XPathException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An immutable sequence of the items sorted by an {@link ExternalSort},
+ * which reads its items from the temporary file written by the sort
+ * whenever the sequence is iterated.
+ *
+ * The sequence is closed by the cleanup tasks of the query, or by the
+ * {@link SpilledSequences} which kept it for the consumer of the result,
+ * which closes the open readers of the file and deletes it. The items which
+ * have been read remain valid, but the sequence cannot be read any more.
+ */
+public class SpilledSequence extends AbstractSequence {
+
+    private final ExternalSort<?> sort;
+    private final Path file;
+    private final long count;
+    private final int itemType;
+
+    // the iterator used by itemAt, which allows reading the items one after the other
+    private FileIterator cursor = null;
+    private long cursorPos = 0;
+
+    // the iterators which have opened the file
+    private final Set<FileIterator> open = new HashSet<>();
+    private boolean closed = false;
+
+    SpilledSequence(final ExternalSort<?> sort, final Path file, final long count, final int itemType) {
+        this.sort = sort;
+        this.file = file;
+        this.count = count;
+        this.itemType = itemType;
+    }
+
+    @Override
+    public void add(final Item item) throws XPathException {
+        throw new XPathException(ErrorCodes.ERROR, "Internal error: adding to an immutable sequence");
+    }
+
+    @Override
+    public void addAll(final Sequence other) throws XPathException {
+        throw new XPathException(ErrorCodes.ERROR, "Internal error: adding to an immutable sequence");
+    }
+
+    @Override
+    public int getItemType() {
+        return itemType;
+    }
+
+    @Override
+    public SequenceIterator iterate() {
+        return new FileIterator();
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() {
+        return new FileIterator();
+    }
+
+    @Override
+    public long getItemCountLong() {
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    @Override
+    public boolean hasOne() {
+        return count == 1;
+    }
+
+    @Override
+    public boolean hasMany() {
+        return count > 1;
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        if (pos < 0 || pos >= count) {
+            return null;
+        }
+        if (cursor == null || pos < cursorPos) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            cursor = new FileIterator();
+            cursorPos = 0;
+        }
+        cursorPos += cursor.skip(pos - cursorPos);
+        cursorPos++;
+        return cursor.nextItem();
+    }
+
+    @Override
+    public NodeSet toNodeSet() throws XPathException {
+        return new ValueSequence(this).toNodeSet();
+    }
+
+    @Override
+    public MemoryNodeSet toMemNodeSet() throws XPathException {
+        return new ValueSequence(this).toMemNodeSet();
+    }
+
+    @Override
+    public boolean isPersistentSet() {
+        if (count == 0) {
+            return true;
+        }
+        if (itemType != Type.ANY_TYPE && Type.subTypeOf(itemType, Type.NODE)) {
+            for (final SequenceIterator i = iterate(); i.hasNext(); ) {
+                if (((NodeValue) i.nextItem()).getImplementationType() != NodeValue.PERSISTENT_NODE) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void removeDuplicates() {
+    }
+
+    /**
+     * Closes the open readers of the file of the sorted items and deletes it.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (final FileIterator iterator : open.toArray(new FileIterator[0])) {
+            iterator.close();
+        }
+        cursor = null;
+        TemporaryFileManager.getInstance().returnTemporaryFile(file);
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    synchronized int getOpenReaders() {
+        return open.size();
+    }
+
+    private synchronized DataInputStream open(final FileIterator iterator) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The sorted items have been deleted when their query finished");
+        }
+        final DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        open.add(iterator);
+        return is;
+    }
+
+    private synchronized void closed(final FileIterator iterator) {
+        open.remove(iterator);
+    }
+
+    @Override
+    public String toString() {
+        return "Sorted(" + count + " items in " + file.getFileName() + ")";
+    }
+
+    private class FileIterator implements SequenceIterator {
+        private DataInputStream is = null;
+        private long pos = 0;
+
+        @Override
+        public boolean hasNext() {
+            return pos < count;
+        }
+
+        @Override
+        public Item nextItem() {
+            if (pos >= count) {
+                return null;
+            }
+            try {
+                if (is == null) {
+                    is = open(this);
+                }
+                final Item item = sort.readItem(is);
+                if (++pos == count) {
+                    close();
+                }
+                return item;
+            } catch (final IOException e) {
+                close();
+                throw new IllegalStateException("Failed to read sorted items from " + file.toAbsolutePath() + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public long skippable() {
+            return count - pos;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final long skip = Math.min(n, count - pos);
+            for (long i = 0; i < skip; i++) {
+                nextItem();
+            }
+            return skip;
+        }
+
+        void close() {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (final IOException e) {
+                    // nothing to do
+                }
+                is = null;
+                closed(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery.value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Keeps the files of the sorted sequences of a query when its cleanup tasks
+ * are run, for a result which is read after the query has finished, e.g. when
+ * it is serialized or cached.
+ *
+ * Passed as the predicate to {@link org.exist.xquery.XQueryContext#runCleanupTasks(Predicate)},
+ * it keeps every {@link SpilledSequence} and accepts all other objects, which
+ * are cleaned up as usual. The files are deleted when this is closed, which
+ * the consumer of the result has to do once it has read the result.
+ */
+public class SpilledSequences implements Predicate<Object>, AutoCloseable {
+
+    private final List<SpilledSequence> sequences = new ArrayList<>();
+    private boolean closed = false;
+
+    @Override
+    public synchronized boolean test(final Object obj) {
+        if (obj instanceof SpilledSequence) {
+            if (closed) {
+                // the result has already been consumed
+                return true;
+            }
+            sequences.add((SpilledSequence) obj);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if no sequence is kept
+     */
+    public synchronized boolean isEmpty() {
+        return sequences.isEmpty();
+    }
+
+    /**
+     * Closes the sequences kept, which deletes their files.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (final SpilledSequence sequence : sequences) {
+            sequence.close();
+        }
+        sequences.clear();
+    }
+}
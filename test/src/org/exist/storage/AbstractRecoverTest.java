@@ -49,6 +49,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.Properties;
 
 import static org.junit.Assert.*;
 
@@ -69,7 +70,17 @@ public abstract class AbstractRecoverTest {
      */
     @Rule
     public final ExistEmbeddedServer existEmbeddedServer =
-            new ExistEmbeddedServer(true, true);
+            new ExistEmbeddedServer(getConfigProperties(), true, true);
+
+    /**
+     * Configuration properties to override for the database,
+     * e.g. to recover with a different number of redo threads.
+     *
+     * @return the properties to override, or null to use the defaults
+     */
+    protected Properties getConfigProperties() {
+        return null;
+    }
 
     @After
     public void tearDown() {
@@ -0,0 +1,100 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.sync.Sync;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PageWriterTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    // the test drives the page writer itself
+                    .put(PageWriter.PROPERTY_PAGE_WRITER_PERIOD, 3600000l)
+                    .build(),
+            true,
+            true);
+
+    @Test
+    public void writesDirtyPages() throws EXistException, PermissionDeniedException, IOException, TriggerException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        createCollections(pool, "/db/page-writer");
+
+        final PageWriter pageWriter = pool.getPageWriter();
+        while (pageWriter.writeDirtyPages() > 0) {
+            // keep writing until there is nothing left
+        }
+
+        assertEquals(0, pageWriter.getDirtyPages());
+        assertTrue(pageWriter.getPagesWritten() > 0);
+    }
+
+    @Test
+    public void disabledByDefault() {
+        final PageWriter pageWriter = new PageWriter(existEmbeddedServer.getBrokerPool());
+        assertFalse(pageWriter.isEnabled());
+    }
+
+    @Test
+    public void recordsCheckpoints() throws EXistException, PermissionDeniedException, IOException, TriggerException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        createCollections(pool, "/db/checkpoint");
+
+        final PageWriter pageWriter = pool.getPageWriter();
+        final long checkpoints = pageWriter.getCheckpoints();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            pool.sync(broker, Sync.MAJOR);
+        }
+
+        assertEquals(checkpoints + 1, pageWriter.getCheckpoints());
+        assertTrue(pageWriter.getMaxCheckpointTime() >= pageWriter.getLastCheckpointTime());
+    }
+
+    private static void createCollections(final BrokerPool pool, final String root) throws EXistException, PermissionDeniedException, IOException, TriggerException, LockException {
+        final TransactionManager transact = pool.getTransactionManager();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = transact.beginTransaction()) {
+            for (int i = 0; i < 50; i++) {
+                final Collection collection = broker.getOrCreateCollection(transaction, XmldbURI.create(root + "/c" + i));
+                broker.saveCollection(transaction, collection);
+            }
+            transact.commit(transaction);
+        }
+    }
+}
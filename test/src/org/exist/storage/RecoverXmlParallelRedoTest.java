@@ -0,0 +1,42 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.storage.recovery.RecoveryManager;
+
+import java.util.Properties;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+
+/**
+ * Runs the crash recovery tests of {@link RecoverXmlTest} with
+ * the journal redone concurrently by several threads.
+ */
+public class RecoverXmlParallelRedoTest extends RecoverXmlTest {
+
+    private static final int REDO_THREADS = 4;
+
+    @Override
+    protected Properties getConfigProperties() {
+        return propertiesBuilder()
+                .put(RecoveryManager.PROPERTY_RECOVERY_REDO_THREADS, REDO_THREADS)
+                .build();
+    }
+}
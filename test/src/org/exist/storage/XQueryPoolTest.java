@@ -0,0 +1,134 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.ClassLoaderSource;
+import org.exist.source.Source;
+import org.exist.source.StringSource;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the statistics, the preloading and the eviction by
+ * the number of expressions of the {@link XQueryPool}.
+ */
+public class XQueryPoolTest {
+
+    private static final String PRELOADED_QUERY = "resource:org/exist/source/main.xq";
+    private static final long MAX_EXPRESSIONS = 2000;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(XQueryPool.PROPERTY_MAX_EXPRESSIONS, MAX_EXPRESSIONS)
+                    .put(XQueryPool.PROPERTY_PRELOAD, Collections.singletonList(PRELOADED_QUERY))
+                    .build(),
+            true,
+            true);
+
+    @Test
+    public void preload() throws IOException {
+        // compiled when the database was started, before any query was executed
+        final XQueryPool.QueryStatistics statistics = getStatistics(new ClassLoaderSource(PRELOADED_QUERY));
+        assertNotNull(statistics);
+        assertEquals(1, statistics.getCompilations());
+        assertEquals(0, statistics.getMisses());
+    }
+
+    @Test
+    public void statistics() throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final Source source = new StringSource("(: statistics :) 1 + 2");
+        borrowOrCompile(source);
+        borrowOrCompile(source);
+        borrowOrCompile(source);
+
+        final XQueryPool.QueryStatistics statistics = getStatistics(source);
+        assertNotNull(statistics);
+        assertEquals(2, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getCompilations());
+        assertEquals(1, statistics.getRetained());
+        assertTrue(statistics.getExpressions() > 0);
+    }
+
+    @Test
+    public void evictionByExpressions() throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final XQueryPool xqueryPool = existEmbeddedServer.getBrokerPool().getXQueryPool();
+        Source first = null;
+        for (int i = 0; i < 100; i++) {
+            final StringBuilder query = new StringBuilder("(: eviction " + i + " :) ");
+            for (int j = 0; j < 10; j++) {
+                query.append("for $x").append(j).append(" in 1 to ").append(i).append(" return ");
+            }
+            query.append("$x0 + 1");
+            final Source source = new StringSource(query.toString());
+            if (first == null) {
+                first = source;
+            }
+            borrowOrCompile(source);
+        }
+
+        assertTrue(xqueryPool.getRetainedExpressions() <= MAX_EXPRESSIONS);
+        final XQueryPool.QueryStatistics statistics = getStatistics(first);
+        assertNotNull(statistics);
+        assertEquals(0, statistics.getRetained());
+        assertEquals(1, statistics.getEvictions());
+    }
+
+    private static void borrowOrCompile(final Source source) throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQueryPool xqueryPool = pool.getXQueryPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            CompiledXQuery compiled = xqueryPool.borrowCompiledXQuery(broker, source);
+            if (compiled == null) {
+                final XQuery xquery = pool.getXQueryService();
+                compiled = xquery.compile(broker, new XQueryContext(pool), source);
+            } else {
+                compiled.getContext().prepareForReuse();
+            }
+            xqueryPool.returnCompiledXQuery(source, compiled);
+        }
+    }
+
+    private static XQueryPool.QueryStatistics getStatistics(final Source source) {
+        for (final XQueryPool.QueryStatistics statistics : existEmbeddedServer.getBrokerPool().getXQueryPool().getStatistics()) {
+            if (statistics.getSource().equals(XQueryPool.describe(source))) {
+                return statistics;
+            }
+        }
+        return null;
+    }
+}
@@ -8,6 +8,8 @@ import org.exist.xquery.TerminatedException;
 import org.exist.xquery.value.AtomicValue;
 import org.exist.xquery.value.DoubleValue;
 import org.junit.*;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 import static org.junit.Assert.*;
 import static org.junit.Assert.assertEquals;
@@ -17,15 +19,32 @@ import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
 
 /**
- * Low-level tests on the B+tree.
+ * Low-level tests on the B+tree, run for each leaf page format.
  */
+@RunWith(Parameterized.class)
 public class BTreeTest {
 
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                { BTree.LEAF_FORMAT_LEGACY_ID, BTree.LEAF_FORMAT_LEGACY },
+                { BTree.LEAF_FORMAT_SLOTTED_ID, BTree.LEAF_FORMAT_SLOTTED }
+        });
+    }
+
+    @Parameterized.Parameter
+    public String leafFormatId;
+
+    @Parameterized.Parameter(value = 1)
+    public byte leafFormat;
+
     private final static byte BTREE_TEST_FILE_ID = 0x7F;
     private final static short BTREE_TEST_FILE_VERSION = Short.MIN_VALUE;
 
@@ -328,17 +347,98 @@ public class BTreeTest {
         }
     }
 
+    @Test
+    public void lookupsAfterReopen() throws DBException, IOException, TerminatedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+            for (int i = 1; i <= COUNT; i++) {
+                btree.addValue(new Value(longKey(i)), i);
+            }
+        }
+
+        // the leaf pages are read from disk again, and searched without decoding them if they are slotted
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            assertTrue(btree.open(BTREE_TEST_FILE_VERSION));
+            assertEquals(leafFormat, ((BTree.BTreeFileHeader) btree.getFileHeader()).getLeafFormat());
+
+            for (int i = 1; i <= COUNT; i++) {
+                assertEquals(i, btree.findValue(new Value(longKey(i))));
+                assertEquals(BTree.KEY_NOT_FOUND, btree.findValue(new Value(longKey(i) + "x")));
+            }
+            assertEquals(BTree.KEY_NOT_FOUND, btree.findValue(new Value("A")));
+            assertEquals(BTree.KEY_NOT_FOUND, btree.findValue(new Value("Z")));
+
+            final IndexQuery query = new IndexQuery(IndexQuery.EQ, new Value(longKey(COUNT / 2)));
+            btree.query(query, new StringIndexCallback());
+            assertEquals(1, count);
+
+            for (int i = 1; i <= COUNT; i += 2) {
+                assertEquals(i, btree.removeValue(new Value(longKey(i))));
+            }
+            btree.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value("P")), new StringIndexCallback());
+            assertEquals(COUNT / 2, count);
+        }
+    }
+
+    @Test
+    public void rebuildLegacyLeafPages() throws DBException, IOException, TerminatedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+            ((BTree.BTreeFileHeader) btree.getFileHeader()).setLeafFormat(BTree.LEAF_FORMAT_LEGACY);
+            for (int i = 1; i <= COUNT; i++) {
+                btree.addValue(new Value(longKey(i)), i);
+            }
+        }
+
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            assertTrue(btree.open(BTREE_TEST_FILE_VERSION));
+            assertEquals(BTree.LEAF_FORMAT_LEGACY, ((BTree.BTreeFileHeader) btree.getFileHeader()).getLeafFormat());
+            for (int i = 1; i <= COUNT; i++) {
+                assertEquals(i, btree.findValue(new Value(longKey(i))));
+            }
+
+            // the leaf pages are only converted if the slotted format is configured
+            btree.rebuild();
+            assertEquals(leafFormat, ((BTree.BTreeFileHeader) btree.getFileHeader()).getLeafFormat());
+        }
+
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            assertTrue(btree.open(BTREE_TEST_FILE_VERSION));
+            assertEquals(leafFormat, ((BTree.BTreeFileHeader) btree.getFileHeader()).getLeafFormat());
+            for (int i = 1; i <= COUNT; i++) {
+                assertEquals(i, btree.findValue(new Value(longKey(i))));
+            }
+            btree.query(new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value("P")), new StringIndexCallback());
+            assertEquals(COUNT, count);
+        }
+    }
+
+    /**
+     * Keys with a long common prefix, which require two bytes for their length
+     */
+    private static String longKey(final int i) {
+        final StringBuilder buf = new StringBuilder("P");
+        for (int j = 0; j < 120; j++) {
+            buf.append('p');
+        }
+        return buf.append(i).toString();
+    }
+
     @ClassRule
     public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, false);
 
     @Before
     public void initialize() {
+        existEmbeddedServer.getBrokerPool().getConfiguration().setProperty(BTree.PROPERTY_LEAF_FORMAT, leafFormatId);
         file = Paths.get(System.getProperty("exist.home", ".")).resolve("test/junit/test.dbx");
         assertFalse(Files.exists(file));
     }
 
     @After
     public void cleanUp() {
+        existEmbeddedServer.getBrokerPool().getConfiguration().removeProperty(BTree.PROPERTY_LEAF_FORMAT);
         FileUtils.deleteQuietly(file);
     }
 
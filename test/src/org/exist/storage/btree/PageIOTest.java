@@ -0,0 +1,124 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.btree;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(Parameterized.class)
+public class PageIOTest {
+
+    private static final int PAGE_SIZE = 4096;
+
+    @Parameters(name = "{0}")
+    public static java.util.Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                { PageIO.Mode.RAF },
+                { PageIO.Mode.CHANNEL },
+                { PageIO.Mode.MMAP }
+        });
+    }
+
+    @Parameter
+    public PageIO.Mode mode;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readPastEndIsZeroFilled() throws IOException {
+        try (final PageIO io = open()) {
+            final byte[] page = page((byte) 1);
+            io.write(0, page, 0, page.length);
+
+            final byte[] buf = page((byte) 7);
+            io.read(PAGE_SIZE / 2, buf, 0, buf.length);
+
+            final byte[] expected = new byte[PAGE_SIZE];
+            Arrays.fill(expected, 0, PAGE_SIZE / 2, (byte) 1);
+            assertArrayEquals(expected, buf);
+        }
+    }
+
+    @Test
+    public void readSeesWrites() throws IOException {
+        try (final PageIO io = open()) {
+            for (int i = 0; i < 16; i++) {
+                final byte[] page = page((byte) i);
+                io.write((long) i * PAGE_SIZE, page, 0, page.length);
+            }
+            assertEquals(16 * PAGE_SIZE, io.size());
+
+            final byte[] buf = new byte[PAGE_SIZE];
+            for (int i = 0; i < 16; i++) {
+                io.read((long) i * PAGE_SIZE, buf, 0, buf.length);
+                assertArrayEquals(page((byte) i), buf);
+            }
+
+            // overwrite a page after it has been read (and mapped)
+            final byte[] page = page((byte) 99);
+            io.write(3 * PAGE_SIZE, page, 0, page.length);
+            io.read(3 * PAGE_SIZE, buf, 0, buf.length);
+            assertArrayEquals(page, buf);
+
+            // grow the file after it has been read (and mapped)
+            io.write(16 * PAGE_SIZE, page, 0, page.length);
+            io.read(16 * PAGE_SIZE, buf, 0, buf.length);
+            assertArrayEquals(page, buf);
+        }
+    }
+
+    @Test
+    public void readWithOffset() throws IOException {
+        try (final PageIO io = open()) {
+            final byte[] page = page((byte) 5);
+            io.write(0, page, 0, page.length);
+
+            final byte[] buf = new byte[PAGE_SIZE + 10];
+            io.read(0, buf, 10, PAGE_SIZE);
+            assertArrayEquals(new byte[10], Arrays.copyOfRange(buf, 0, 10));
+            assertArrayEquals(page, Arrays.copyOfRange(buf, 10, buf.length));
+        }
+    }
+
+    private PageIO open() throws IOException {
+        final Path file = temporaryFolder.newFile("test.dbx").toPath();
+        return PageIO.create(mode, new RandomAccessFile(file.toFile(), "rw"));
+    }
+
+    private static byte[] page(final byte value) {
+        final byte[] page = new byte[PAGE_SIZE];
+        Arrays.fill(page, value);
+        return page;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapPageCacheTest {
+
+    private static final int PAGE_SIZE = 256;
+
+    @Test
+    public void disabled() {
+        final OffHeapPageCache cache = new OffHeapPageCache(PAGE_SIZE, 0);
+        assertFalse(cache.isEnabled());
+        assertEquals(0, cache.getStatistics().getMaxBytes());
+    }
+
+    @Test
+    public void fillAndRead() {
+        final OffHeapPageCache cache = new OffHeapPageCache(PAGE_SIZE, 64 * PAGE_SIZE);
+        assertTrue(cache.isEnabled());
+
+        final byte[] buf = new byte[PAGE_SIZE + 10];
+        assertFalse(cache.read(1, buf, 10));
+
+        final byte[] page = page((byte) 7);
+        cache.fill(1, cache.stamp(1), page, 0);
+        assertTrue(cache.read(1, buf, 10));
+        assertArrayEquals(page, Arrays.copyOfRange(buf, 10, 10 + PAGE_SIZE));
+
+        final OffHeapPageCache.Statistics statistics = cache.getStatistics();
+        assertEquals(1, statistics.getPages());
+        assertEquals(PAGE_SIZE, statistics.getUsedBytes());
+        assertEquals(1, statistics.getHits());
+        assertEquals(1, statistics.getMisses());
+    }
+
+    @Test
+    public void staleFillIsDropped() {
+        final OffHeapPageCache cache = new OffHeapPageCache(PAGE_SIZE, 64 * PAGE_SIZE);
+
+        // the page is read from disk, but written before it is added to the cache
+        final long stamp = cache.stamp(1);
+        cache.update(1, page((byte) 2), 0);
+        cache.fill(1, stamp, page((byte) 1), 0);
+
+        final byte[] buf = new byte[PAGE_SIZE];
+        assertTrue(cache.read(1, buf, 0));
+        assertArrayEquals(page((byte) 2), buf);
+    }
+
+    @Test
+    public void updateOverwritesPage() {
+        final OffHeapPageCache cache = new OffHeapPageCache(PAGE_SIZE, 64 * PAGE_SIZE);
+        cache.fill(1, cache.stamp(1), page((byte) 1), 0);
+        cache.update(1, page((byte) 3), 0);
+
+        final byte[] buf = new byte[PAGE_SIZE];
+        assertTrue(cache.read(1, buf, 0));
+        assertArrayEquals(page((byte) 3), buf);
+        assertEquals(1, cache.getStatistics().getPages());
+    }
+
+    @Test
+    public void evictsWhenFull() {
+        final long capacity = 64;
+        final OffHeapPageCache cache = new OffHeapPageCache(PAGE_SIZE, capacity * PAGE_SIZE);
+        for (long key = 0; key < 10 * capacity; key++) {
+            cache.update(key, page((byte) key), 0);
+        }
+
+        final OffHeapPageCache.Statistics statistics = cache.getStatistics();
+        assertTrue(statistics.getPages() <= capacity);
+        assertTrue(statistics.getAllocatedBytes() <= capacity * PAGE_SIZE);
+        assertEquals(10 * capacity - statistics.getPages(), statistics.getEvictions());
+
+        // whatever is still cached must hold the right content
+        final byte[] buf = new byte[PAGE_SIZE];
+        for (long key = 0; key < 10 * capacity; key++) {
+            if (cache.read(key, buf, 0)) {
+                assertArrayEquals(page((byte) key), buf);
+            }
+        }
+    }
+
+    @Test
+    public void shutdownReleasesMemory() {
+        final OffHeapPageCache cache = new OffHeapPageCache(PAGE_SIZE, 64 * PAGE_SIZE);
+        cache.update(1, page((byte) 1), 0);
+        cache.shutdown();
+
+        assertFalse(cache.read(1, new byte[PAGE_SIZE], 0));
+        assertEquals(0, cache.getStatistics().getAllocatedBytes());
+    }
+
+    private static byte[] page(final byte value) {
+        final byte[] page = new byte[PAGE_SIZE];
+        Arrays.fill(page, value);
+        return page;
+    }
+}
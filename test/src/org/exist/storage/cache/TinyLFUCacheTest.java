@@ -0,0 +1,331 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TinyLFUCacheTest {
+
+    private static final int CACHE_SIZE = 100;
+
+    @Test
+    public void hotPagesSurviveScan() {
+        final Cache<TestPage> cache = new TinyLFUCache<>("test", CACHE_SIZE, 0.0, 1.0, Cache.CacheType.DATA);
+
+        // a working set which is accessed repeatedly
+        for (int round = 0; round < 5; round++) {
+            for (long key = 0; key < 50; key++) {
+                if (cache.get(key) == null) {
+                    cache.add(new TestPage(key));
+                }
+            }
+        }
+
+        // a scan over many more pages than fit into the cache, whilst
+        // the working set is still accessed now and then
+        for (long key = 1000; key < 11000; key++) {
+            if (cache.get(key) == null) {
+                cache.add(new TestPage(key));
+            }
+            if (key % 500 == 0) {
+                for (long hot = 0; hot < 50; hot++) {
+                    assertNotNull("hot page " + hot + " was evicted by the scan", cache.get(hot));
+                }
+            }
+        }
+
+        assertTrue(cache.getUsedBuffers() <= CACHE_SIZE);
+        for (long key = 0; key < 50; key++) {
+            assertNotNull("hot page " + key + " was evicted by the scan", cache.get(key));
+        }
+    }
+
+    @Test
+    public void evictedPagesAreSynced() {
+        final Cache<TestPage> cache = new TinyLFUCache<>("test", CACHE_SIZE, 0.0, 1.0, Cache.CacheType.DATA);
+
+        final List<TestPage> pages = new ArrayList<>();
+        for (long key = 0; key < 3 * CACHE_SIZE; key++) {
+            final TestPage page = new TestPage(key);
+            page.dirty = true;
+            pages.add(page);
+            cache.add(page);
+        }
+
+        assertEquals(CACHE_SIZE, cache.getUsedBuffers());
+        for (final TestPage page : pages) {
+            if (cache.get(page.getKey()) == null) {
+                assertFalse(page.dirty);
+            }
+        }
+
+        assertTrue(cache.hasDirtyItems());
+        assertTrue(cache.flush());
+        assertFalse(cache.hasDirtyItems());
+    }
+
+    @Test
+    public void partialFlush() {
+        final Cache<TestPage> cache = new TinyLFUCache<>("test", CACHE_SIZE, 0.0, 1.0, Cache.CacheType.DATA);
+        for (long key = 0; key < CACHE_SIZE; key++) {
+            final TestPage page = new TestPage(key);
+            page.dirty = key % 2 == 0;
+            cache.add(page);
+        }
+        assertEquals(CACHE_SIZE / 2, cache.getDirtyCount());
+
+        assertEquals(10, cache.flush(10));
+        assertEquals(CACHE_SIZE / 2 - 10, cache.getDirtyCount());
+
+        assertEquals(CACHE_SIZE / 2 - 10, cache.flush(CACHE_SIZE));
+        assertEquals(0, cache.getDirtyCount());
+        assertEquals(0, cache.flush(CACHE_SIZE));
+        assertEquals(CACHE_SIZE, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void pinnedPagesAreNotEvicted() {
+        final Cache<TestPage> cache = new TinyLFUCache<>("test", CACHE_SIZE, 0.0, 1.0, Cache.CacheType.DATA);
+
+        final TestPage pinned = new TestPage(0);
+        pinned.allowUnload = false;
+        cache.add(pinned);
+
+        for (long key = 1; key < 10 * CACHE_SIZE; key++) {
+            cache.add(new TestPage(key));
+        }
+
+        assertSame(pinned, cache.get(0));
+    }
+
+    @Test
+    public void innerPagesArePreferred() {
+        final Cache<TestBTreePage> cache = new TinyLFUCache<>("test", CACHE_SIZE, 0.0, 1.0, Cache.CacheType.BTREE);
+
+        for (long key = 0; key < 10; key++) {
+            cache.add(new TestBTreePage(key, true));
+        }
+        for (long key = 10; key < 10 * CACHE_SIZE; key++) {
+            cache.add(new TestBTreePage(key, false));
+        }
+
+        for (long key = 0; key < 10; key++) {
+            assertNotNull(cache.get(key));
+        }
+    }
+
+    @Test
+    public void shrinkKeepsHotPages() {
+        final Cache<TestPage> cache = new TinyLFUCache<>("test", CACHE_SIZE, 0.0, 1.0, Cache.CacheType.DATA);
+        for (long key = 0; key < CACHE_SIZE; key++) {
+            cache.add(new TestPage(key));
+        }
+        for (int round = 0; round < 5; round++) {
+            for (long key = 0; key < 10; key++) {
+                cache.get(key);
+            }
+        }
+
+        cache.resize(CACHE_SIZE / 4);
+
+        assertEquals(CACHE_SIZE / 4, cache.getBuffers());
+        assertEquals(CACHE_SIZE / 4, cache.getUsedBuffers());
+        for (long key = 0; key < 10; key++) {
+            assertNotNull(cache.get(key));
+        }
+    }
+
+    @Test
+    public void removeAndReplace() {
+        final Cache<TestPage> cache = new TinyLFUCache<>("test", CACHE_SIZE, 0.0, 1.0, Cache.CacheType.DATA);
+        final TestPage page = new TestPage(1);
+        cache.add(page);
+        assertSame(page, cache.get(page));
+
+        final TestPage replacement = new TestPage(1);
+        cache.add(replacement);
+        assertSame(replacement, cache.get(1));
+        assertEquals(1, cache.getUsedBuffers());
+
+        cache.remove(replacement);
+        assertNull(cache.get(1));
+        assertEquals(0, cache.getUsedBuffers());
+    }
+
+    @Test
+    public void ghostHits() {
+        final Cache<TestPage> cache = new TinyLFUCache<>("test", CACHE_SIZE, 0.0, 1.0, Cache.CacheType.DATA);
+        for (long key = 0; key < 2 * CACHE_SIZE; key++) {
+            cache.add(new TestPage(key));
+        }
+        assertEquals(CACHE_SIZE, cache.getEvictions());
+        assertEquals(0, cache.getGhostHits());
+
+        // reload pages which have been evicted
+        int reloaded = 0;
+        for (long key = 0; key < 2 * CACHE_SIZE; key++) {
+            if (cache.get(key) == null) {
+                cache.add(new TestPage(key));
+                reloaded++;
+            }
+        }
+        assertTrue(reloaded > 0);
+        assertEquals(reloaded, cache.getGhostHits());
+    }
+
+    @Test
+    public void ghostsKeptOnResize() {
+        final Accounting accounting = new Accounting(1.0);
+        accounting.setTotalSize(CACHE_SIZE);
+        for (long key = 0; key < CACHE_SIZE; key++) {
+            accounting.evicted(key);
+        }
+
+        // growing keeps all evicted keys, shrinking keeps the most recently evicted ones
+        accounting.setTotalSize(CACHE_SIZE * 4);
+        accounting.setTotalSize(CACHE_SIZE / 2);
+        for (long key = 0; key < CACHE_SIZE; key++) {
+            accounting.loaded(key);
+        }
+        assertEquals(CACHE_SIZE / 2, accounting.getGhostHits());
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        final Cache<TestPage> cache = new TinyLFUCache<>("test", CACHE_SIZE, 0.0, 1.0, Cache.CacheType.DATA);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final long offset = t * 37;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 20000; i++) {
+                        final long key = (offset + i) % (3 * CACHE_SIZE);
+                        final TestPage page = cache.get(key);
+                        if (page == null) {
+                            cache.add(new TestPage(key));
+                        } else {
+                            assertEquals(key, page.getKey());
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(cache.getUsedBuffers() <= CACHE_SIZE);
+        assertEquals(4 * 20000, cache.getHits() + cache.getFails());
+    }
+
+    private static class TestPage implements Cacheable {
+        private final long key;
+        private int refCount = 0;
+        private int timestamp = 0;
+        boolean dirty = false;
+        boolean allowUnload = true;
+
+        TestPage(final long key) {
+            this.key = key;
+        }
+
+        @Override
+        public long getKey() {
+            return key;
+        }
+
+        @Override
+        public int getReferenceCount() {
+            return refCount;
+        }
+
+        @Override
+        public int incReferenceCount() {
+            return ++refCount;
+        }
+
+        @Override
+        public int decReferenceCount() {
+            return refCount > 0 ? --refCount : 0;
+        }
+
+        @Override
+        public void setReferenceCount(final int count) {
+            this.refCount = count;
+        }
+
+        @Override
+        public void setTimestamp(final int timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean sync(final boolean syncJournal) {
+            final boolean wasDirty = dirty;
+            dirty = false;
+            return wasDirty;
+        }
+
+        @Override
+        public boolean allowUnload() {
+            return allowUnload;
+        }
+
+        @Override
+        public boolean isDirty() {
+            return dirty;
+        }
+    }
+
+    private static class TestBTreePage extends TestPage implements BTreeCacheable {
+        private final boolean inner;
+
+        TestBTreePage(final long key, final boolean inner) {
+            super(key);
+            this.inner = inner;
+        }
+
+        @Override
+        public boolean isInnerPage() {
+            return inner;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.journal;
+
+import org.exist.collections.Collection;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.test.TestConstants;
+import org.exist.xmldb.XmldbURI;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitTest {
+
+    private static final int THREADS = 8;
+    private static final int COMMITS_PER_THREAD = 50;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                    .put(BrokerPool.PROPERTY_RECOVERY_GROUP_COMMIT, true)
+                    .put(Journal.PROPERTY_RECOVERY_SYNC_ON_COMMIT, true)
+                    .put(Journal.PROPERTY_RECOVERY_GROUP_COMMIT_DELAY, 5l)
+                    .build(),
+            true,
+            true);
+
+    @Test
+    public void concurrentCommits() throws Exception {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final TransactionManager transact = pool.getTransactionManager();
+        final Journal.Statistics before = pool.getJournalManager().get().getStatistics();
+
+        int commits = 0;
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit((Callable<Integer>) () -> {
+                    int committed = 0;
+                    for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                                final Txn transaction = transact.beginTransaction()) {
+                            transact.commit(transaction);
+                            // only committed once the commit record has been flushed
+                            assertEquals(Txn.State.COMMITTED, transaction.getState());
+                            committed++;
+                        }
+                    }
+                    return committed;
+                }));
+            }
+
+            for (final Future<Integer> result : results) {
+                assertEquals(COMMITS_PER_THREAD, result.get().intValue());
+                commits += result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final Journal.Statistics statistics = pool.getJournalManager().get().getStatistics();
+        assertNotNull(statistics);
+        assertTrue(statistics.isGroupCommit());
+
+        // other transactions of the database may have been flushed in the same period,
+        // which only adds flushes, so fewer flushes than our commits means they were batched
+        final long flushes = statistics.getGroupCommitBatches() - before.getGroupCommitBatches();
+        assertTrue(flushes > 0);
+        assertTrue("expected fewer flushes than commits, got " + flushes + " flushes for " + commits + " commits",
+                flushes < commits);
+        assertTrue(statistics.getSyncCount() - before.getSyncCount() >= flushes);
+    }
+
+    @Test
+    public void committedDataSurvivesRestart() throws Exception {
+        final XmldbURI docName = XmldbURI.create("group-commit.bin");
+        final byte[] content = "group commit".getBytes();
+
+        BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+                final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TestConstants.TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            collection.addBinaryResource(transaction, broker, docName, content, "application/octet-stream");
+            transaction.commit();
+        }
+
+        existEmbeddedServer.restart();
+
+        pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Collection collection = broker.getCollection(TestConstants.TEST_COLLECTION_URI);
+            assertNotNull(collection);
+            final BinaryDocument doc = (BinaryDocument) collection.getDocument(broker, docName);
+            assertNotNull(doc);
+            assertEquals(content.length, broker.getBinaryResourceSize(doc));
+        }
+    }
+}
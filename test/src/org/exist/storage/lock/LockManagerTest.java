@@ -12,6 +12,12 @@ import uk.ac.ic.doc.slurp.multilock.MultiLock;
 
 import java.util.Arrays;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -559,6 +565,24 @@ public class LockManagerTest {
         assertIntentionWriteOrWriteMode(event9.mode);
     }
 
+    @Test
+    public void getCollectionLockPaths_matchPathSegments() {
+        final String[] uris = { "/db", "/db/colA", "/db/colA/colB", "db/colA", "/db/colA/", "/db/col%20A/colB", "/" };
+        for (final String uri : uris) {
+            final XmldbURI collectionUri = XmldbURI.create(uri);
+
+            final XmldbURI[] segments = collectionUri.getPathSegments();
+            final String[] expected = new String[segments.length];
+            String path = "";
+            for (int i = 0; i < segments.length; i++) {
+                path += '/' + segments[i].toString();
+                expected[i] = path;
+            }
+
+            assertArrayEquals(uri, expected, LockManager.getCollectionLockPaths(collectionUri));
+        }
+    }
+
     @Test
     public void getDocumentLock_isStripedByPath() {
         final LockManager lockManager = new LockManager(instanceId, threadGroup, CONCURRENCY_LEVEL);
@@ -654,6 +678,56 @@ public class LockManagerTest {
         assertEquals(Lock.LockMode.WRITE_LOCK, event3.mode);
     }
 
+    /**
+     * When awaiting updates on a Document which is not
+     * being updated, ensure that we do not take any lock
+     */
+    @Test
+    public void awaitDocumentUpdate_notLocked() throws LockException {
+        final XmldbURI docUri = XmldbURI.create("/db/a/b/c/1.xml");
+
+        final LockManager lockManager = new LockManager(instanceId, threadGroup, CONCURRENCY_LEVEL);
+        final Stack<LockTable.LockAction> events = recordLockEvents(lockManager, () -> lockManager.awaitDocumentUpdate(docUri));
+
+        assertTrue(events.isEmpty());
+        assertFalse(lockManager.isDocumentLockedForRead(docUri));
+    }
+
+    /**
+     * When awaiting updates on a Document which is
+     * write locked, ensure that we wait for the WRITE lock
+     * to be released, and do not hold a lock afterwards
+     */
+    @Test
+    public void awaitDocumentUpdate_waitsForWriter() throws LockException, InterruptedException, ExecutionException, TimeoutException {
+        final XmldbURI docUri = XmldbURI.create("/db/a/b/c/1.xml");
+
+        final LockManager lockManager = new LockManager(instanceId, threadGroup, CONCURRENCY_LEVEL);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> reader;
+            try (final ManagedDocumentLock writeLock = lockManager.acquireDocumentWriteLock(docUri)) {
+                reader = executor.submit(() -> {
+                    lockManager.awaitDocumentUpdate(docUri);
+                    return null;
+                });
+
+                try {
+                    reader.get(200, TimeUnit.MILLISECONDS);
+                    fail("Reader did not wait for the WRITE lock to be released");
+                } catch (final TimeoutException e) {
+                    // expected, the reader is waiting
+                }
+            }
+
+            reader.get(5, TimeUnit.SECONDS);
+            assertFalse(lockManager.isDocumentLockedForRead(docUri));
+            assertFalse(lockManager.isDocumentLockedForWrite(docUri));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void getBtreeLock_isStripedByPath() {
         final LockManager lockManager = new LockManager(instanceId, threadGroup, CONCURRENCY_LEVEL);
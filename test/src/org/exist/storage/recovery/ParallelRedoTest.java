@@ -0,0 +1,171 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage.recovery;
+
+import org.easymock.EasyMock;
+import org.exist.Database;
+import org.exist.storage.index.AbstractBFileLoggable;
+import org.exist.storage.journal.AbstractLoggable;
+import org.exist.storage.journal.LogException;
+import org.exist.storage.txn.Txn;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ParallelRedoTest {
+
+    private static final int FILES = 3;
+    private static final int ENTRIES = 30000;
+
+    @Test
+    public void entriesOfAFileAreRedoneInOrder() throws LogException {
+        final List<List<Integer>> redone = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            redone.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        try (final ParallelRedo parallelRedo = new ParallelRedo(newDatabase(), 4)) {
+            for (int i = 0; i < ENTRIES; i++) {
+                final int fileId = i % FILES;
+                final int seq = i / FILES;
+                parallelRedo.redo(new TestLoggable((byte) fileId, () -> redone.get(fileId).add(seq)));
+            }
+            parallelRedo.await();
+        }
+
+        for (final List<Integer> fileRedone : redone) {
+            assertEquals(ENTRIES / FILES, fileRedone.size());
+            for (int seq = 0; seq < fileRedone.size(); seq++) {
+                assertEquals(seq, fileRedone.get(seq).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void unpartitionedEntriesWaitForPendingEntries() throws LogException {
+        final AtomicInteger redone = new AtomicInteger();
+        final AtomicInteger redoneBeforeSerial = new AtomicInteger(-1);
+
+        try (final ParallelRedo parallelRedo = new ParallelRedo(newDatabase(), 4)) {
+            for (int i = 0; i < ENTRIES; i++) {
+                parallelRedo.redo(new TestLoggable((byte) (i % FILES), redone::incrementAndGet));
+            }
+            parallelRedo.redo(new UnpartitionedLoggable(() -> redoneBeforeSerial.set(redone.get())));
+            parallelRedo.await();
+        }
+
+        assertEquals(ENTRIES, redoneBeforeSerial.get());
+    }
+
+    @Test
+    public void failureIsReported() {
+        final TestLoggable failing = new TestLoggable((byte) 1, () -> {
+            throw new IllegalStateException("corrupt page");
+        });
+
+        try (final ParallelRedo parallelRedo = new ParallelRedo(newDatabase(), 2)) {
+            try {
+                parallelRedo.redo(new TestLoggable((byte) 0, () -> {}));
+                parallelRedo.redo(failing);
+                parallelRedo.redo(new TestLoggable((byte) 2, () -> {}));
+                parallelRedo.await();
+                fail("Expected the failure to be reported");
+            } catch (final LogException e) {
+                assertSame(failing, parallelRedo.getFailedEntry());
+            }
+        }
+    }
+
+    @Test
+    public void errorIsReported() throws LogException {
+        final AssertionError error = new AssertionError("corrupt page");
+        final TestLoggable failing = new TestLoggable((byte) 1, () -> {
+            throw error;
+        });
+
+        try (final ParallelRedo parallelRedo = new ParallelRedo(newDatabase(), 2)) {
+            try {
+                parallelRedo.redo(new TestLoggable((byte) 0, () -> {}));
+                parallelRedo.redo(failing);
+                parallelRedo.redo(new TestLoggable((byte) 2, () -> {}));
+                parallelRedo.await();
+                fail("Expected the error to be reported");
+            } catch (final AssertionError e) {
+                assertSame(error, e);
+                assertSame(failing, parallelRedo.getFailedEntry());
+            }
+        }
+    }
+
+    private static Database newDatabase() {
+        final Database database = EasyMock.createNiceMock(Database.class);
+        EasyMock.replay(database);
+        return database;
+    }
+
+    private static class TestLoggable extends AbstractBFileLoggable {
+        private final Runnable redo;
+
+        TestLoggable(final byte fileId, final Runnable redo) {
+            super((byte) 0x31, fileId, new Txn(null, 1));
+            this.redo = redo;
+        }
+
+        @Override
+        public void redo() {
+            redo.run();
+        }
+    }
+
+    private static class UnpartitionedLoggable extends AbstractLoggable {
+        private final Runnable redo;
+
+        UnpartitionedLoggable(final Runnable redo) {
+            super((byte) 0x7F, 1);
+            this.redo = redo;
+        }
+
+        @Override
+        public void write(final ByteBuffer out) {
+        }
+
+        @Override
+        public void read(final ByteBuffer in) {
+        }
+
+        @Override
+        public int getLogSize() {
+            return 0;
+        }
+
+        @Override
+        public void redo() {
+            redo.run();
+        }
+    }
+}
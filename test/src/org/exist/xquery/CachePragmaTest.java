@@ -0,0 +1,156 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.QueryResultCache;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the results of expressions enclosed in an (# exist:cache #)
+ * extension expression are shared between queries and are discarded
+ * when the database changes.
+ */
+public class CachePragmaTest {
+
+    private static final String COUNT_ITEMS = "(# exist:cache #) { count(collection('/db/cache-test')//item) }";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @BeforeClass
+    public static void storeDocuments() throws EXistException, PermissionDeniedException, XPathException {
+        execute("xmldb:create-collection('/db', 'cache-test')," +
+                "xmldb:store('/db/cache-test', 'items.xml', <items>{for $i in 1 to 10 return <item n='{$i}'/>}</items>)", null);
+    }
+
+    @Test
+    public void sharedBetweenQueries() throws EXistException, PermissionDeniedException, XPathException {
+        final QueryResultCache cache = existEmbeddedServer.getBrokerPool().getQueryResultCache();
+        execute(COUNT_ITEMS, null);
+        final long hits = cache.getHits();
+        assertEquals(Arrays.asList("10"), execute(COUNT_ITEMS, null));
+        assertEquals(hits + 1, cache.getHits());
+    }
+
+    @Test
+    public void storedNodes() throws EXistException, PermissionDeniedException, XPathException {
+        final String query = "((# exist:cache #) { collection('/db/cache-test')//item[@n > 8] })/@n/string()";
+        final List<String> expected = Arrays.asList("9", "10");
+        assertEquals(expected, execute(query, null));
+        assertEquals(expected, execute(query, null));
+    }
+
+    @Test
+    public void invalidatedByUpdates() throws EXistException, PermissionDeniedException, XPathException {
+        assertEquals(Arrays.asList("10"), execute(COUNT_ITEMS, null));
+        execute("xmldb:store('/db/cache-test', 'more.xml', <items><item n='11'/></items>)", null);
+        assertEquals(Arrays.asList("11"), execute(COUNT_ITEMS, null));
+        execute("xmldb:remove('/db/cache-test', 'more.xml')", null);
+        assertEquals(Arrays.asList("10"), execute(COUNT_ITEMS, null));
+
+        // updates within the query evaluating the cached expression
+        assertEquals(Arrays.asList("10", "11"), execute(
+                "let $doc := doc('/db/cache-test/items.xml')" +
+                " return (" + COUNT_ITEMS + ", update insert <item n='11'/> into $doc/items, " + COUNT_ITEMS + ")", null));
+        execute("update delete doc('/db/cache-test/items.xml')//item[@n = 11]", null);
+        assertEquals(Arrays.asList("10"), execute(COUNT_ITEMS, null));
+    }
+
+    @Test
+    public void variableBindings() throws EXistException, PermissionDeniedException, XPathException {
+        final String query = "declare variable $n external;" +
+                " (# exist:cache #) { collection('/db/cache-test')//item[@n = $n]/@n/string() }";
+        assertEquals(Arrays.asList("3"), execute(query, new IntegerValue(3)));
+        assertEquals(Arrays.asList("4"), execute(query, new IntegerValue(4)));
+        assertEquals(Arrays.asList("3"), execute(query, new IntegerValue(3)));
+
+        final String loop = "for $i in 1 to 3 return (# exist:cache #) { collection('/db/cache-test')//item[@n = $i]/@n/string() }";
+        assertEquals(Arrays.asList("1", "2", "3"), execute(loop, null));
+        assertEquals(Arrays.asList("1", "2", "3"), execute(loop, null));
+    }
+
+    @Test
+    public void keyedOnReferencedVariablesOnly() throws EXistException, PermissionDeniedException, XPathException {
+        final QueryResultCache cache = existEmbeddedServer.getBrokerPool().getQueryResultCache();
+        // $i is in scope, but not referenced, so the later iterations reuse the first result
+        final String loop = "for $i in 1 to 3 return (# exist:cache #) { count(collection('/db/cache-test')//item[@n > 0]) }";
+        final long hits = cache.getHits();
+        assertEquals(Arrays.asList("10", "10", "10"), execute(loop, null));
+        assertEquals(hits + 2, cache.getHits());
+    }
+
+    @Test
+    public void variablesOfCalledFunctions() throws EXistException, PermissionDeniedException, XPathException {
+        final String query = "declare variable $n external;" +
+                " declare function local:item() { collection('/db/cache-test')//item[@n = $n]/@n/string() };" +
+                " (# exist:cache #) { local:item() }";
+        assertEquals(Arrays.asList("5"), execute(query, new IntegerValue(5)));
+        assertEquals(Arrays.asList("6"), execute(query, new IntegerValue(6)));
+        assertEquals(Arrays.asList("5"), execute(query, new IntegerValue(5)));
+    }
+
+    @Test
+    public void constructedNodesAreNotCached() throws EXistException, PermissionDeniedException, XPathException {
+        final String query = "((# exist:cache #) { <a>{count(collection('/db/cache-test')//item)}</a> })/string()";
+        final QueryResultCache cache = existEmbeddedServer.getBrokerPool().getQueryResultCache();
+        execute(query, null);
+        final long hits = cache.getHits();
+        assertEquals(Arrays.asList("10"), execute(query, null));
+        assertEquals(hits, cache.getHits());
+    }
+
+    private static List<String> execute(final String query, final Sequence n)
+            throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            if (n != null) {
+                context.declareVariable("n", n);
+            }
+            final CompiledXQuery compiled = xquery.compile(broker, context, query);
+            final Sequence result = xquery.execute(broker, compiled, null);
+            final List<String> values = new ArrayList<>();
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                final Item item = i.nextItem();
+                values.add(item.getStringValue());
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that FLWOR expressions of which only the first items are used
+ * stop iterating early, without changing the result.
+ *
+ * The return clauses of the queries raise an error after the items
+ * which are needed, so the queries only succeed if the iteration stops.
+ */
+public class FLWORResultLimitTest {
+
+    private static final String FAIL_AFTER_3 = "if ($i gt 3) then error(xs:QName('local:too-far')) else ";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, false);
+
+    @Test
+    public void positionalPredicate() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("1", "(for $i in 1 to 10 return " + FAIL_AFTER_3 + "$i)[1]");
+    }
+
+    @Test
+    public void lastNeededPosition() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("3", "(for $i in 1 to 10 return " + FAIL_AFTER_3 + "$i)[3]");
+    }
+
+    @Test
+    public void multipleItemsPerIteration() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("3", "(for $i in 1 to 10 return " + FAIL_AFTER_3 + "($i, $i))[6]");
+    }
+
+    @Test
+    public void nestedClauses() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("1a 1b 2a",
+                "subsequence(for $i in 1 to 10 for $j in ('a', 'b') let $k := $i || $j where $j ne 'c' return " + FAIL_AFTER_3 + "$k, 1, 3)");
+    }
+
+    @Test
+    public void head() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("2", "head(for $i in 1 to 10 where $i mod 2 eq 0 return " + FAIL_AFTER_3 + "$i)");
+    }
+
+    @Test
+    public void existsAndEmpty() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("true false", "(exists(for $i in 1 to 10 return " + FAIL_AFTER_3 + "$i), " +
+                "empty(for $i in 1 to 10 return " + FAIL_AFTER_3 + "$i))");
+    }
+
+    @Test
+    public void subsequence() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("2 3", "subsequence(for $i in 1 to 10 return " + FAIL_AFTER_3 + "$i, 2, 2)");
+    }
+
+    @Test
+    public void subsequenceWithNonFinitePositions() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("", "subsequence((), xs:double('NaN'))");
+        assertQuery("", "subsequence((), 1, xs:double('INF'))");
+        assertQuery("", "subsequence((1, 2, 3), xs:double('NaN'))");
+        assertQuery("", "subsequence((1, 2, 3), xs:double('-INF'), xs:double('INF'))");
+        assertQuery("1 2 3", "subsequence((1, 2, 3), xs:double('-INF'))");
+        assertQuery("2 3", "subsequence((1, 2, 3), 2, xs:double('INF'))");
+        assertQuery("", "subsequence(for $i in () return $i, xs:double('NaN'))");
+        assertQuery("", "subsequence(for $i in 1 to 5 return $i, 1, xs:double('NaN'))");
+        assertQuery("2 3 4 5", "subsequence(for $i in 1 to 5 return $i, 2, xs:double('INF'))");
+    }
+
+    @Test
+    public void orderByNeedsAllTuples() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("1 2", "subsequence(for $i in (5, 3, 1, 4, 2) order by $i return $i, 1, 2)");
+        assertQuery("1", "head(for $i in (5, 3, 1, 4, 2) let $j := $i order by $j return $j)");
+    }
+
+    @Test
+    public void topKOrderBy() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("1 2 3", "subsequence(for $i in (5, 3, 1, 4, 2, 6) order by $i return $i, 1, 3)");
+        assertQuery("6 5", "(for $i in (5, 3, 1, 4, 2, 6) order by $i descending return $i)[position() = (1, 2)]");
+        assertQuery("5", "(for $i in (5, 3, 1, 4, 2, 6) order by $i descending return $i)[2]");
+        assertQuery("1", "head(for $i in (5, 3, 1, 4, 2) let $j := $i order by $j return $j)");
+    }
+
+    @Test
+    public void topKOrderByIsStable() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("b1 b2 b3 a1", "subsequence(for $i in ('a1', 'b1', 'b2', 'a2', 'b3') order by substring($i, 1, 1) descending return $i, 1, 4)");
+        assertQuery("1 2 2", "subsequence(for $i in (2, 1, 3) order by $i return ($i, $i), 2, 3)");
+    }
+
+    @Test
+    public void topKOrderByWithEmptyKeys() throws EXistException, PermissionDeniedException, XPathException {
+        // empty and NaN keys are equal, so the next key or the original position decides
+        final String flwor = "for $i in (1 to 8) order by (if ($i mod 2 = 0) then () else xs:double('NaN')) empty greatest," +
+                " $i mod 3 descending return $i";
+        assertQuery("2 5 8 1", "subsequence(" + flwor + ", 1, 4)");
+        assertQuery("2 5 8 1 4 7 3 6", flwor);
+        assertQuery("1 2 3", "subsequence(for $i in (1 to 8) order by xs:double('NaN') return $i, 1, 3)");
+    }
+
+    @Test
+    public void topKOrderByWithClausesAfterOrderBy() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("4 6", "subsequence(for $i in (5, 3, 1, 4, 2, 6) order by $i where $i gt 3 and $i mod 2 eq 0 return $i, 1, 2)");
+        assertQuery("1 2", "subsequence(for $i in (5, 3, 1, 4, 2) order by $i descending order by $i return $i, 1, 2)");
+        assertQuery("1", "count(subsequence(for $i in (2, 1, 2) order by $i group by $k := $i return $k, 1, 1))");
+    }
+
+    @Test
+    public void groupByNeedsAllTuples() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("2", "(for $i in (1, 2, 1, 2, 1) group by $k := $i mod 2 return count($i))[2]");
+    }
+
+    @Test
+    public void limitIsNotRetained() throws EXistException, PermissionDeniedException, XPathException {
+        assertQuery("1 5", "declare function local:f() { for $i in 1 to 5 return $i };" +
+                " (local:f()[1], count(local:f()))");
+        assertQuery("0 1 5", "declare function local:f($n) { for $i in 1 to $n order by $i return $i };" +
+                " (count(local:f(0)[1]), local:f(5)[1], count(local:f(5)))");
+    }
+
+    private static void assertQuery(final String expected, final String query)
+            throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = xquery.execute(broker, query, null);
+            final StringBuilder actual = new StringBuilder();
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                if (actual.length() > 0) {
+                    actual.append(' ');
+                }
+                actual.append(i.nextItem().getStringValue());
+            }
+            assertEquals(expected, actual.toString());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.Sequence;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Compares the time taken by interpreted and compiled user-defined functions,
+ * see {@link FunctionCompiler}. Run by the ant target benchmark-function-compiler.
+ *
+ * Each query is compiled and executed repeatedly, with jit-threshold 0
+ * and 1, and the median time of the executions is printed.
+ */
+public class FunctionCompilerBenchmark {
+
+    private static final int WARMUP = 10;
+    private static final int RUNS = 20;
+
+    private static final String[][] QUERIES = {
+            { "recursive integer function",
+                    "declare function local:fib($n as xs:integer) as xs:integer {" +
+                    " if ($n lt 2) then $n else local:fib($n - 1) + local:fib($n - 2) }; local:fib(25)" },
+            { "tail recursive integer function",
+                    "declare function local:gcd($a as xs:integer, $b as xs:integer) as xs:integer {" +
+                    " if ($b eq 0) then $a else local:gcd($b, $a mod $b) };" +
+                    " sum(for $i in 1 to 50000 return local:gcd($i * 7919, 104729))" },
+            { "double function called from a FLWOR",
+                    "declare function local:in-circle($x as xs:double, $y as xs:double) as xs:boolean {" +
+                    " $x * $x + $y * $y <= 1.0e0 };" +
+                    " count(for $i in 1 to 100000 where local:in-circle(($i mod 1000) div 1000, ($i mod 777) div 777) return $i)" }
+    };
+
+    public static void main(final String[] args) throws Exception {
+        final ExistEmbeddedServer server = new ExistEmbeddedServer(true, true);
+        server.startDb();
+        try {
+            final BrokerPool pool = server.getBrokerPool();
+            for (final String[] query : QUERIES) {
+                final long interpreted = median(pool, query[1], 0);
+                final long compiled = median(pool, query[1], 1);
+                System.out.println(String.format("%-40s interpreted: %6d ms, compiled: %6d ms, speedup: %.1fx",
+                        query[0], interpreted, compiled, (double) interpreted / Math.max(1, compiled)));
+            }
+        } finally {
+            server.stopDb();
+        }
+    }
+
+    private static long median(final BrokerPool pool, final String query, final int jitThreshold) throws Exception {
+        final long[] times = new long[RUNS];
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            final long time = execute(pool, query, jitThreshold);
+            if (i >= WARMUP) {
+                times[i - WARMUP] = time;
+            }
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    private static long execute(final BrokerPool pool, final String query, final int jitThreshold) throws Exception {
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            context.setJitThreshold(jitThreshold);
+            final CompiledXQuery compiled = xquery.compile(broker, context, query);
+            final long start = System.currentTimeMillis();
+            final Sequence result = xquery.execute(broker, compiled, null);
+            result.getStringValue();
+            return System.currentTimeMillis() - start;
+        }
+    }
+}
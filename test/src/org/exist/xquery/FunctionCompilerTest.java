@@ -0,0 +1,196 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that compiled user-defined functions return the
+ * same results as the interpreted functions.
+ */
+public class FunctionCompilerTest {
+
+    private static final String FIB = "declare function local:fib($n as xs:integer) as xs:integer {" +
+            " if ($n lt 2) then $n else local:fib($n - 1) + local:fib($n - 2) };";
+    private static final String FACTORIAL = "declare function local:fact($n as xs:integer) as xs:integer {" +
+            " if ($n le 1) then 1 else $n * local:fact($n - 1) };";
+    private static final String IN_CIRCLE = "declare function local:in-circle($x as xs:double, $y as xs:double) as xs:boolean {" +
+            " $x * $x + $y * $y <= 1.0e0 and not($x = 0.5) or $y > -1 and $x eq 2 };";
+    private static final String ARITHMETIC = "declare function local:calc($a as xs:integer, $b as xs:integer, $d as xs:double) as xs:double {" +
+            " ($a idiv $b) * $d + ($a mod $b) - -$d div $b + 0.25 * $d };";
+
+    // parameters of mixed kinds, and more arguments than the JVM has constant instructions for
+    private static final String MIXED = "declare function local:f($n as xs:integer, $b as xs:boolean, $x as xs:double," +
+            " $c as xs:integer, $d as xs:integer, $e as xs:integer, $y as xs:double) as xs:double {" +
+            " if ($n le 0) then (if ($b) then $x else $y) + $c + $d + $e" +
+            " else local:f($n - 1, not($b), $x * 2, $c + 1, $d, $e - 1, $y div 2) };";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void compilesEligibleFunctions() throws EXistException, PermissionDeniedException, XPathException {
+        assertCompiled(true, FIB + "local:fib(1)");
+        assertCompiled(true, IN_CIRCLE + "local:in-circle(1, 1)");
+        assertCompiled(true, ARITHMETIC + "local:calc(1, 1, 1)");
+        assertCompiled(true, MIXED + "local:f(1, true(), 1.5, 1, 2, 3, 8)");
+        assertCompiled(true, "declare function local:f($b as xs:boolean) as xs:boolean { if ($b) then false() else true() }; local:f(true())");
+    }
+
+    @Test
+    public void interpretsOtherFunctions() throws EXistException, PermissionDeniedException, XPathException {
+        // no declared types
+        assertCompiled(false, "declare function local:f($n) { $n + 1 }; local:f(1)");
+        // integer division returns a decimal
+        assertCompiled(false, "declare function local:f($n as xs:integer) as xs:integer { $n div 2 }; local:f(1)");
+        // variables other than parameters
+        assertCompiled(false, "declare function local:f($n as xs:integer) as xs:integer { let $m := $n return $m }; local:f(1)");
+        assertCompiled(false, "declare variable $m := 1; declare function local:f($n as xs:integer) as xs:integer { $n + $m }; local:f(1)");
+        // result does not match the declared type
+        assertCompiled(false, "declare function local:f($n as xs:integer) as xs:double { $n }; local:f(1)");
+        // calls of other functions
+        assertCompiled(false, "declare function local:f($n as xs:integer) as xs:integer { abs($n) }; local:f(1)");
+    }
+
+    @Test
+    public void recursion() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult(FIB + "for $i in 0 to 20 return local:fib($i)");
+        assertSameResult(FACTORIAL + "for $i in 0 to 20 return local:fact($i)");
+        assertSameResult(MIXED + "for $i in 0 to 10 return local:f($i, true(), 1.5, 1, 2, 3, 8)");
+    }
+
+    @Test
+    public void overflowFallsBackToInterpreter() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult(FACTORIAL + "for $i in 18 to 30 return local:fact($i)");
+        assertSameResult("declare function local:f($n as xs:integer) as xs:integer { -$n idiv -1 };" +
+                " for $i in 1 to 10 return local:f(-9223372036854775807 - $i mod 2)");
+        assertSameResult(FIB + "for $i in 1 to 10 return local:fib(xs:integer('100000000000000000000') * 0 + $i)");
+        assertSameResult("declare function local:f($n as xs:integer) as xs:integer { $n + 1 };" +
+                " for $i in 1 to 10 return local:f(9223372036854775805 + $i)");
+    }
+
+    @Test
+    public void doubles() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult(IN_CIRCLE + "for $i in -10 to 10, $j in (-2, 0.5, xs:double('NaN'), xs:double('INF')) return local:in-circle($i div 7, $j)");
+        assertSameResult(ARITHMETIC + "for $i in -10 to 10 return local:calc($i, 3, $i * 1.5)");
+        for (final String op : new String[] { "lt", "le", "gt", "ge", "eq", "ne", "<", "<=", ">", ">=", "=", "!=" }) {
+            assertSameResult("declare function local:f($x as xs:double, $y as xs:double) as xs:boolean { $x " + op + " $y };" +
+                    " for $i in -1 to 1, $j in (0, 1, xs:double('NaN')) return local:f($i, $j)");
+        }
+        assertSameResult("declare function local:f($x as xs:double, $y as xs:double) as xs:double { $x div $y + $x mod $y };" +
+                " for $i in -3 to 3 return local:f($i, $i mod 2)");
+    }
+
+    @Test
+    public void errorsAreRaisedByInterpreter() throws EXistException, PermissionDeniedException, XPathException {
+        final String query = "declare function local:f($n as xs:integer) as xs:integer { 10 idiv $n };" +
+                " for $i in (5, 4, 3, 2, 1, 0) return local:f($i)";
+        for (final int threshold : new int[] { 0, 1 }) {
+            try {
+                execute(query, threshold);
+                fail("Expected division by zero");
+            } catch (final XPathException e) {
+                assertEquals(ErrorCodes.FOAR0001, e.getErrorCode());
+            }
+        }
+    }
+
+    @Test
+    public void timeoutTerminatesCompiledRecursion() throws EXistException, PermissionDeniedException, XPathException {
+        try {
+            execute("declare option exist:timeout '200'; " + FIB + "local:fib(60)", 1);
+            fail("Expected the query to time out");
+        } catch (final TerminatedException.TimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void stackOverflowRaisesError() throws EXistException, PermissionDeniedException {
+        try {
+            execute("declare function local:sum($n as xs:integer) as xs:integer {" +
+                    " if ($n eq 0) then 0 else $n + local:sum($n - 1) }; local:sum(100000000)", 1);
+            fail("Expected a stack overflow");
+        } catch (final XPathException e) {
+            assertEquals(ErrorCodes.ERROR, e.getErrorCode());
+        }
+    }
+
+    private static void assertSameResult(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final List<String> expected = execute(query, 0);
+        assertEquals(expected, execute(query, 1));
+        assertEquals(expected, execute(query, 3));
+    }
+
+    private static void assertCompiled(final boolean compiled, final String query)
+            throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            context.setJitThreshold(0);
+            pool.getXQueryService().compile(broker, context, query);
+            final Iterator<UserDefinedFunction> functions = context.localFunctions();
+            final CompiledFunction compiledFunction = FunctionCompiler.compile(functions.next());
+            if (compiled) {
+                assertNotNull(compiledFunction);
+            } else {
+                assertNull(compiledFunction);
+            }
+        }
+    }
+
+    private static List<String> execute(final String query, final int jitThreshold)
+            throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            context.setJitThreshold(jitThreshold);
+            final CompiledXQuery compiled = xquery.compile(broker, context, query);
+            final Sequence result = xquery.execute(broker, compiled, null);
+            final List<String> values = new ArrayList<>();
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                final Item item = i.nextItem();
+                values.add(Type.getTypeName(item.getType()) + " " + item.getStringValue());
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashJoinTest {
+
+    private static final String DISABLE_OPTIMIZER = "declare option exist:optimize \"enable=no\";\n";
+
+    private static final String DATA =
+            "let $orders := (<order id='1' cid='c1'/>, <order id='2' cid='c2'/>, <order id='3' cid='c1'/>," +
+            "    <order id='4' cid='c9'/>, <order id='5' cid=''/>, <order id='6'/>)\n" +
+            "let $customers := (<customer id='c2' name='b'/>, <customer id='c1' name='a'/>," +
+            "    <customer id='c1' name='a2'/>, <customer id='' name='empty'/>, <customer name='none'/>)\n";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, false);
+
+    @Test
+    public void untypedKeys() throws EXistException, PermissionDeniedException, XPathException {
+        assertJoin(DATA +
+                "for $o in $orders, $c in $customers where $o/@cid = $c/@id return $o/@id || '-' || $c/@name",
+                "1-a", "1-a2", "2-b", "3-a", "3-a2", "5-empty");
+    }
+
+    @Test
+    public void additionalConditions() throws EXistException, PermissionDeniedException, XPathException {
+        assertJoin(DATA +
+                "for $o in $orders, $c in $customers where $c/@id = $o/@cid and $c/@name ne 'a' return $o/@id || '-' || $c/@name",
+                "1-a2", "2-b", "3-a2", "5-empty");
+    }
+
+    @Test
+    public void numericAndUntypedKeys() throws EXistException, PermissionDeniedException, XPathException {
+        assertJoin("let $values := (<v n='1'/>, <v n='01.0'/>, <v n='2'/>, <v n='-0'/>)\n" +
+                "for $i in (1, 2.0, 0, 3) for $v in $values where $v/@n = $i return $i || ':' || $v/@n",
+                "1:1", "1:01.0", "2:2", "0:-0");
+    }
+
+    @Test
+    public void multipleKeys() throws EXistException, PermissionDeniedException, XPathException {
+        assertJoin("for $a in (('x', 'y'), 'z') let $k := ($a, 'y') for $b in ('y', 'z', 'x', 'y') where $b = $k return $a || $b",
+                "xy", "xx", "xy", "yy", "yy", "zy", "zz", "zy");
+    }
+
+    @Test
+    public void typeErrorIsRaised() throws EXistException, PermissionDeniedException {
+        final String query = "for $a in (1, 2) for $b in ('1', '2') where $a = $b return $a";
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            pool.getXQueryService().execute(broker, query, null);
+            throw new AssertionError("Expected a type error");
+        } catch (final XPathException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void joinIsOnlyUsedForIndependentInput() throws EXistException, PermissionDeniedException, XPathException {
+        assertTrue(usesHashJoin("for $a in 1 to 10 for $b in 1 to 10 where $a = $b return $a"));
+        assertTrue(usesHashJoin("let $x := (1, 2) for $a in 1 to 10 for $b in $x where string($b) = string($a) return $a"));
+        // the input of the inner clause depends on the outer variable
+        assertFalse(usesHashJoin("for $a in 1 to 10 for $b in 1 to $a where $a = $b return $a"));
+        // both sides of the comparison depend on the inner variable
+        assertFalse(usesHashJoin("for $a in 1 to 10 for $b in 1 to 10 where $a + $b = $b return $a"));
+        // the input of the inner clause constructs new nodes
+        assertFalse(usesHashJoin("for $a in 1 to 10 for $b in <x/> where $a = $b return $a"));
+        // not an equality comparison
+        assertFalse(usesHashJoin("for $a in 1 to 10 for $b in 1 to 10 where $a < $b return $a"));
+        assertFalse(usesHashJoin("for $a in 1 to 10 for $b in 1 to 10 where $a eq $b return $a"));
+    }
+
+    @Test
+    public void stateIsDroppedAfterEvaluation() throws EXistException, PermissionDeniedException, XPathException {
+        final String query = DATA +
+                "for $o in $orders, $c in $customers where $o/@cid = $c/@id return $o/@id || '-' || $c/@name";
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            final CompiledXQuery compiled = xquery.compile(broker, context, query);
+            assertEquals(6, xquery.execute(broker, compiled, null).getItemCount());
+            final List<HashJoin> joins = new ArrayList<>();
+            ((Expression) compiled).accept(new DefaultExpressionVisitor() {
+                @Override
+                public void visitForExpression(final ForExpr forExpr) {
+                    if (forExpr.getHashJoin() != null) {
+                        joins.add(forExpr.getHashJoin());
+                    }
+                    super.visitForExpression(forExpr);
+                }
+            });
+            assertEquals(1, joins.size());
+            assertFalse(joins.get(0).hasState());
+        }
+    }
+
+    private static boolean usesHashJoin(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            final CompiledXQuery compiled = xquery.compile(broker, context, query);
+            final boolean[] found = { false };
+            ((Expression) compiled).accept(new DefaultExpressionVisitor() {
+                @Override
+                public void visitForExpression(final ForExpr forExpr) {
+                    found[0] |= forExpr.getHashJoin() != null;
+                    super.visitForExpression(forExpr);
+                }
+            });
+            return found[0];
+        }
+    }
+
+    /**
+     * Checks the result of a query, which must be the same without the optimizer.
+     */
+    private static void assertJoin(final String query, final String... expected)
+            throws EXistException, PermissionDeniedException, XPathException {
+        assertTrue(usesHashJoin(query));
+        final List<String> expectedList = new ArrayList<>();
+        for (final String value : expected) {
+            expectedList.add(value);
+        }
+        assertEquals(expectedList, execute(DISABLE_OPTIMIZER + query));
+        assertEquals(expectedList, execute(query));
+    }
+
+    private static List<String> execute(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final Sequence result = xquery.execute(broker, query, null);
+            final List<String> values = new ArrayList<>();
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                values.add(i.nextItem().getStringValue());
+            }
+            return values;
+        }
+    }
+}
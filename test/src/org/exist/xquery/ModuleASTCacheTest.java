@@ -0,0 +1,109 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery;
+
+import org.exist.EXistException;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.DBSource;
+import org.exist.source.Source;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that the syntax trees of library modules are shared by
+ * the queries importing them, until the module source changes.
+ */
+public class ModuleASTCacheTest {
+
+    private static final String MODULE_URI = "/db/module-cache/m.xqm";
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void sharedUntilSourceChanges() throws EXistException, PermissionDeniedException, XPathException {
+        storeModule("declare function m:f($x) { $x * 2 };");
+        assertNull(getCachedAST());
+
+        assertEquals(Arrays.asList("42"), execute(importModule() + "m:f(21)"));
+        assertNotNull(getCachedAST());
+        assertEquals(Arrays.asList("2", "4"), execute(importModule() + "(1, 2) ! m:f(.)"));
+
+        // a new function is only found if the module is parsed again
+        storeModule("declare function m:f($x) { $x * 3 }; declare function m:g() { 'g' };");
+        assertEquals(Arrays.asList("63", "g"), execute(importModule() + "m:f(21), m:g()"));
+        assertEquals(Arrays.asList("g"), execute(importModule() + "m:g()"));
+    }
+
+    private static String importModule() {
+        return "import module namespace m='http://exist-db.org/test/module-cache' at 'xmldb:exist://" + MODULE_URI + "'; ";
+    }
+
+    private static void storeModule(final String functions) throws EXistException, PermissionDeniedException, XPathException {
+        execute("xmldb:create-collection('/db', 'module-cache'), " +
+                "xmldb:store('/db/module-cache', 'm.xqm', " +
+                "\"module namespace m='http://exist-db.org/test/module-cache'; " + functions + "\", 'application/xquery')");
+    }
+
+    private static Object getCachedAST() throws EXistException, PermissionDeniedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final LockedDocument lockedDoc = broker.getXMLResource(XmldbURI.create(MODULE_URI), LockMode.READ_LOCK)) {
+            final Source source = new DBSource(broker, (BinaryDocument) lockedDoc.getDocument(), true);
+            return pool.getXQueryPool().borrowModuleAST(broker, source);
+        }
+    }
+
+    private static List<String> execute(final String query)
+            throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            final CompiledXQuery compiled = xquery.compile(broker, context, query);
+            final Sequence result = xquery.execute(broker, compiled, null);
+            final List<String> values = new ArrayList<>();
+            for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                final Item item = i.nextItem();
+                values.add(item.getStringValue());
+            }
+            return values;
+        }
+    }
+}
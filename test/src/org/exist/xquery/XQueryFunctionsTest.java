@@ -198,6 +198,9 @@ public class XQueryFunctionsTest {
                 "return $a/b[distinct-values(.)]";
         result = existEmbeddedServer.executeQuery(query);
         assertEquals(2, result.getSize());
+
+        result = existEmbeddedServer.executeQuery("distinct-values((xs:dayTimeDuration('PT0S'), xs:yearMonthDuration('P0M')))");
+        assertEquals(1, result.getSize());
     }
 
     @Test
@@ -0,0 +1,132 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.xquery.value;
+
+import com.ibm.icu.text.Collator;
+import org.exist.dom.QName;
+import org.exist.xquery.XPathException;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class AtomicValueKeyTest {
+
+    @Test
+    public void numbersOfDifferentTypes() throws XPathException {
+        assertEqualKeys(new IntegerValue(1), new DoubleValue(1.0));
+        assertEqualKeys(new IntegerValue(1), new DecimalValue("1.00"));
+        assertEqualKeys(new DecimalValue("0.5"), new FloatValue(0.5f));
+        assertEqualKeys(new DecimalValue("0.1"), new FloatValue(0.1f));
+        assertEqualKeys(new DoubleValue(0.0), new DoubleValue(-0.0));
+        assertEqualKeys(new IntegerValue(new BigInteger("100000000000000000000")), new DecimalValue(new BigDecimal("1E20")));
+
+        assertNotEquals(key(new IntegerValue(1)), key(new IntegerValue(2)));
+        assertNotEquals(key(new IntegerValue(Long.MAX_VALUE)), key(new IntegerValue(Long.MAX_VALUE - 1)));
+        assertNotEquals(key(new DecimalValue(new BigDecimal("0.1"))), key(new DecimalValue(new BigDecimal("0.10001"))));
+    }
+
+    @Test
+    public void nanIsEqualToNaN() throws XPathException {
+        assertEqualKeys(new DoubleValue(Double.NaN), FloatValue.NaN);
+        assertNotEquals(key(new DoubleValue(Double.NaN)), key(new DoubleValue(1.0)));
+    }
+
+    @Test
+    public void untypedValuesAreStrings() throws XPathException {
+        assertEqualKeys(new StringValue("1"), new UntypedAtomicValue("1"));
+        assertNotEquals(key(new UntypedAtomicValue("1")), key(new IntegerValue(1)));
+        assertNotEquals(key(new StringValue("a")), key(new StringValue("A")));
+    }
+
+    @Test
+    public void collation() throws XPathException {
+        final Collator collator = Collator.getInstance(Locale.GERMAN);
+        collator.setStrength(Collator.PRIMARY);
+        assertEquals(AtomicValueKey.of(new StringValue("Düsseldorf"), collator),
+                AtomicValueKey.of(new StringValue("dusseldorf"), collator));
+        assertNotEquals(AtomicValueKey.of(new StringValue("Düsseldorf"), collator),
+                AtomicValueKey.of(new StringValue("Dortmund"), collator));
+    }
+
+    @Test
+    public void incomparableValuesAreDistinct() throws XPathException {
+        assertNotEquals(key(new StringValue("true")), key(BooleanValue.TRUE));
+        assertNotEquals(key(AtomicValue.EMPTY_VALUE), key(new StringValue("")));
+        assertNotEquals(key(new DateValue("2018-01-01")), key(new StringValue("2018-01-01")));
+        assertEqualKeys(AtomicValue.EMPTY_VALUE, AtomicValue.EMPTY_VALUE);
+    }
+
+    @Test
+    public void dates() throws XPathException {
+        assertEqualKeys(new DateTimeValue("2018-01-01T12:00:00Z"), new DateTimeValue("2018-01-01T13:00:00+01:00"));
+        assertNotEquals(key(new DateTimeValue("2018-01-01T12:00:00Z")), key(new DateTimeValue("2018-01-01T12:00:00+01:00")));
+    }
+
+    @Test
+    public void durations() throws XPathException {
+        assertEqualKeys(new DayTimeDurationValue("PT0S"), new YearMonthDurationValue("P0M"));
+        assertEqualKeys(new DurationValue("P1D"), new DayTimeDurationValue("PT24H"));
+        assertEqualKeys(new DurationValue("P1Y"), new YearMonthDurationValue("P12M"));
+        assertEqualKeys(new DayTimeDurationValue("PT1.50S"), new DayTimeDurationValue("PT1.5S"));
+        assertNotEquals(key(new YearMonthDurationValue("P1M")), key(new DayTimeDurationValue("P30D")));
+        assertNotEquals(key(new DayTimeDurationValue("PT1S")), key(new DayTimeDurationValue("-PT1S")));
+    }
+
+    @Test
+    public void qnames() throws XPathException {
+        assertEqualKeys(new QNameValue(null, new QName("a", "urn:x", "x")), new QNameValue(null, new QName("a", "urn:x", "y")));
+        assertDistinctKeys(new QNameValue(null, new QName("a", "urn:x")), new QNameValue(null, new QName("b", "urn:x")));
+        assertDistinctKeys(new QNameValue(null, new QName("a", "urn:x")), new QNameValue(null, new QName("a", "urn:y")));
+    }
+
+    @Test
+    public void binaryValues() throws XPathException {
+        assertEqualKeys(new BinaryValueFromBinaryString(new HexBinaryValueType(), "0A0B"),
+                new BinaryValueFromBinaryString(new Base64BinaryValueType(), "Cgs="));
+        assertDistinctKeys(new BinaryValueFromBinaryString(new HexBinaryValueType(), "0A0B"),
+                new BinaryValueFromBinaryString(new HexBinaryValueType(), "0A0C"));
+    }
+
+    private static AtomicValueKey key(final AtomicValue value) throws XPathException {
+        return AtomicValueKey.of(value, null);
+    }
+
+    private static void assertEqualKeys(final AtomicValue value1, final AtomicValue value2) throws XPathException {
+        final AtomicValueKey key1 = key(value1);
+        final AtomicValueKey key2 = key(value2);
+        assertEquals(key1, key2);
+        assertEquals(key2, key1);
+        assertEquals(key1.hashCode(), key2.hashCode());
+    }
+
+    private static void assertDistinctKeys(final AtomicValue value1, final AtomicValue value2) throws XPathException {
+        final AtomicValueKey key1 = key(value1);
+        final AtomicValueKey key2 = key(value2);
+        assertNotEquals(key1, key2);
+        // values of the same type must not all share a hash code
+        assertNotEquals(key1.hashCode(), key2.hashCode());
+    }
+}
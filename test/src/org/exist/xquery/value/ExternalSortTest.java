@@ -0,0 +1,191 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.value;
+
+import com.evolvedbinary.j8fu.function.ConsumerE;
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.ErrorCodes;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that sorts which write their items to temporary files return
+ * the same result as sorts in memory.
+ */
+public class ExternalSortTest {
+
+    private static final int SPILL_THRESHOLD = 3;
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @BeforeClass
+    public static void storeDocument() throws EXistException, PermissionDeniedException, XPathException {
+        execute("xmldb:store('/db', 'external-sort.xml', <items>{" +
+                "for $i in 1 to 20 return <item n='{$i * 7 mod 5}'>{$i}</item>}</items>)", 0);
+    }
+
+    @Test
+    public void orderByAtomicValues() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("for $i in 1 to 20 order by $i * 7 mod 11 descending, $i return $i");
+        assertSameResult("for $i in 1 to 20 let $s := ('b', 'A', 'a', 'B', ())[$i mod 5 + 1]" +
+                " order by $s empty greatest collation 'http://www.w3.org/2013/collation/UCA?strength=primary' return $s || $i");
+        assertSameResult("for $i in 1 to 20 order by xs:date('2018-01-01') + xs:dayTimeDuration('P' || $i * 3 mod 7 || 'D')," +
+                " xs:decimal($i mod 3) div 7, xs:untypedAtomic($i mod 2) return $i");
+        assertSameResult("for $i in 1 to 20 let $v := (xs:double($i mod 4), xs:float('NaN'), xs:integer($i div 5))[$i mod 3 + 1]" +
+                " order by $v empty least return $i");
+    }
+
+    @Test
+    public void orderByPersistentNodes() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("for $item in doc('/db/external-sort.xml')//item order by xs:integer($item/@n) return $item/@n || ':' || $item");
+        assertSameResult("(for $item in doc('/db/external-sort.xml')//item order by $item/@n descending return $item)/string()");
+        assertSameResult("for $d in (doc('/db/external-sort.xml'), doc('/db/external-sort.xml')//item) order by count($d//item) return node-name($d/*)");
+    }
+
+    @Test
+    public void orderByInMemoryNodes() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("(for $i in 1 to 20 let $item := <item n='{$i mod 4}'>{$i}</item> order by $item/@n return $item)/string()");
+        assertSameResult("for $i in 1 to 20 order by $i mod 4 return <x>{$i}</x>");
+    }
+
+    @Test
+    public void accessByPosition() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("let $s := for $i in 1 to 20 order by $i mod 6 return $i return ($s[7], $s[2], count($s), $s[20], $s[21], $s[1])");
+    }
+
+    @Test
+    public void sort() throws EXistException, PermissionDeniedException, XPathException {
+        assertSameResult("sort((1 to 20) ! (. * 7 mod 11))");
+        assertSameResult("sort(doc('/db/external-sort.xml')//item, (), function($item) { xs:integer($item/@n) })/string()");
+        assertSameResult("sort(for $i in 1 to 20 return ('b', 'A', 'a', 'B')[$i mod 4 + 1], 'http://www.w3.org/2013/collation/UCA?strength=primary')");
+        assertSameResult("sort(1 to 20, (), function($i) { ($i mod 3, -$i) })");
+    }
+
+    @Test
+    public void itemsWhichCannotBeWritten() throws EXistException, PermissionDeniedException, XPathException {
+        // the in-memory nodes are added after the persistent nodes have been written
+        assertSameResult("sort((doc('/db/external-sort.xml')//item, for $i in 1 to 5 return <item n='{$i}'>x{$i}</item>)," +
+                " (), function($item) { xs:integer($item/@n) })/string()");
+        assertSameResult("(for $item in (doc('/db/external-sort.xml')//item, for $i in 1 to 5 return <item n='{$i}'>x{$i}</item>)" +
+                " order by xs:integer($item/@n) return $item)/string()");
+
+        withResult("sort(for $i in 1 to 20 return <x>{$i mod 7}</x>, (), function($x) { xs:integer($x) })",
+                result -> assertFalse(result instanceof SpilledSequence));
+    }
+
+    @Test
+    public void cleanupDeletesFiles() throws EXistException, PermissionDeniedException, XPathException {
+        final SpilledSequence[] spilled = new SpilledSequence[1];
+        withResult("sort((1 to 20) ! (. * 7 mod 11))", result -> {
+            assertTrue(result instanceof SpilledSequence);
+            spilled[0] = (SpilledSequence) result;
+
+            // an iterator which has not been read to the end, and the cursor of itemAt
+            final SequenceIterator i = result.iterate();
+            i.nextItem();
+            assertNotNull(result.itemAt(5));
+            assertEquals(2, spilled[0].getOpenReaders());
+            assertTrue(Files.exists(spilled[0].getFile()));
+        });
+
+        assertEquals(0, spilled[0].getOpenReaders());
+        assertFalse(Files.exists(spilled[0].getFile()));
+        try {
+            spilled[0].iterate().nextItem();
+            fail("Expected the sequence to be closed");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = XPathException.class)
+    public void sortTypeError() throws EXistException, PermissionDeniedException, XPathException {
+        try {
+            execute("sort((1, 2, 3, 4, 5, 'a', 6, 7))", SPILL_THRESHOLD);
+        } catch (final XPathException e) {
+            assertEquals(ErrorCodes.XPTY0004, e.getErrorCode());
+            throw e;
+        }
+    }
+
+    private static void assertSameResult(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final List<String> expected = execute(query, 0);
+        assertEquals(expected, execute(query, SPILL_THRESHOLD));
+    }
+
+    private static void withResult(final String query, final ConsumerE<Sequence, XPathException> resultHandler)
+            throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            context.setSortSpillThreshold(SPILL_THRESHOLD);
+            final CompiledXQuery compiled = xquery.compile(broker, context, "xquery version '3.1';\n" + query);
+            try {
+                resultHandler.accept(xquery.execute(broker, compiled, null));
+            } finally {
+                context.runCleanupTasks();
+            }
+        }
+    }
+
+    private static List<String> execute(final String query, final int spillThreshold)
+            throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQuery xquery = pool.getXQueryService();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQueryContext context = new XQueryContext(pool);
+            context.setSortSpillThreshold(spillThreshold);
+            final CompiledXQuery compiled = xquery.compile(broker, context, "xquery version '3.1';\n" + query);
+            try {
+                final Sequence result = xquery.execute(broker, compiled, null);
+                final List<String> values = new ArrayList<>();
+                for (final SequenceIterator i = result.iterate(); i.hasNext(); ) {
+                    final Item item = i.nextItem();
+                    values.add(Type.getTypeName(item.getType()) + " " + item.getStringValue());
+                }
+                return values;
+            } finally {
+                context.runCleanupTasks();
+            }
+        }
+    }
+}
@@ -23,9 +23,11 @@ package org.exist.xquery.value;
 import org.exist.xquery.Expression;
 import org.exist.xquery.OrderSpec;
 import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
 import org.junit.Test;
 
 import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
@@ -94,6 +96,52 @@ public class OrderedValueSequenceTest {
         assertEquals(69, count);
     }
 
+    @Test
+    public void limit() throws XPathException {
+        final int[] keys = { 7, 3, 9, 1, 3, 8, 0, 3 };
+        final OrderedValueSequence orderedValueSequence = orderedValueSequence(keys, 3);
+        assertEquals(3, orderedValueSequence.getItemCount());
+        orderedValueSequence.sort();
+
+        // items with equal keys remain in the order they were added
+        assertEquals(3, orderedValueSequence.getItemCount());
+        assertEquals(6, ((IntegerValue) orderedValueSequence.itemAt(0)).getInt());
+        assertEquals(3, ((IntegerValue) orderedValueSequence.itemAt(1)).getInt());
+        assertEquals(1, ((IntegerValue) orderedValueSequence.itemAt(2)).getInt());
+    }
+
+    @Test
+    public void limitLargerThanSize() throws XPathException {
+        final int[] keys = { 2, 1, 2, 0 };
+        final OrderedValueSequence orderedValueSequence = orderedValueSequence(keys, 10);
+        orderedValueSequence.sort();
+
+        assertEquals(4, orderedValueSequence.getItemCount());
+        final int[] expected = { 3, 1, 0, 2 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], ((IntegerValue) orderedValueSequence.itemAt(i)).getInt());
+        }
+    }
+
+    /**
+     * Creates a sequence of the positions of the given keys, which is sorted by the keys.
+     */
+    private static OrderedValueSequence orderedValueSequence(final int[] keys, final int limit) throws XPathException {
+        final Expression mockSortExpr = createMock(Expression.class);
+        for (final int key : keys) {
+            expect(mockSortExpr.eval(null)).andReturn(new IntegerValue(key));
+        }
+        replay(mockSortExpr);
+        final XQueryContext mockContext = createNiceMock(XQueryContext.class);
+        replay(mockContext);
+
+        final OrderedValueSequence orderedValueSequence = new OrderedValueSequence(new OrderSpec[] { new OrderSpec(mockContext, mockSortExpr) }, keys.length, limit);
+        for (int i = 0; i < keys.length; i++) {
+            orderedValueSequence.add(new IntegerValue(i));
+        }
+        return orderedValueSequence;
+    }
+
     private static OrderedValueSequence mockOrderedValueSequence(final int size) throws XPathException {
         final Expression mockSortExpr = createMock(Expression.class);
         expect(mockSortExpr.eval(null)).andReturn(Sequence.EMPTY_SEQUENCE).anyTimes();